@@ -44,7 +44,9 @@ public class TApplicationException
         PROTOCOL_ERROR(7),
         INVALID_TRANSFORM(8),
         INVALID_PROTOCOL(9),
-        UNSUPPORTED_CLIENT_TYPE(10);
+        UNSUPPORTED_CLIENT_TYPE(10),
+        LOADSHEDDING(11),
+        TIMEOUT(12);
 
         private final int type;
 
@@ -23,6 +23,7 @@ import com.facebook.drift.transport.MethodMetadata;
 import com.facebook.drift.transport.client.Address;
 import com.facebook.drift.transport.client.MethodInvoker;
 import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 import java.util.ArrayList;
@@ -36,6 +37,7 @@ import java.util.Set;
 
 import static com.facebook.drift.client.DriftMethodInvocation.createDriftMethodInvocation;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.Objects.requireNonNull;
 import static java.util.function.Function.identity;
 
@@ -95,6 +97,19 @@ class DriftMethodHandler
             }
             parameters = Collections.unmodifiableList(newParameters);
         }
-        return createDriftMethodInvocation(invoker, metadata, headers, parameters, retryPolicy, addressSelector, addressSelectionContext, stat, Ticker.systemTicker(), retryService);
+        ListenableFuture<Object> result = createDriftMethodInvocation(invoker, metadata, headers, parameters, retryPolicy, addressSelector, addressSelectionContext, stat, Ticker.systemTicker(), retryService);
+        if (metadata.isStreaming()) {
+            // transports that do not stream the response return the whole list
+            return Futures.transform(result, DriftMethodHandler::toIterator, directExecutor());
+        }
+        return result;
+    }
+
+    private static Object toIterator(Object result)
+    {
+        if (result instanceof List) {
+            return ((List<?>) result).iterator();
+        }
+        return result;
     }
 }
@@ -43,16 +43,20 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.DOWN;
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.NORMAL;
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.OVERLOADED;
+import static com.facebook.drift.transport.RequestDeadline.earliestDeadline;
+import static com.facebook.drift.transport.RequestDeadline.getCurrentDeadline;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static io.airlift.units.Duration.succinctNanos;
 import static java.lang.Boolean.FALSE;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 @ThreadSafe
 class DriftMethodInvocation<A extends Address>
@@ -71,6 +75,8 @@ class DriftMethodInvocation<A extends Address>
     private final Ticker ticker;
     private final BoundedExecutor retryService;
     private final long startTime;
+    private final long maxRetryNanos;
+    private final OptionalLong inheritedDeadline;
 
     @GuardedBy("this")
     private final Set<A> attemptedAddresses = new LinkedHashSet<>();
@@ -139,6 +145,9 @@ class DriftMethodInvocation<A extends Address>
         this.ticker = requireNonNull(ticker, "ticker is null");
         this.startTime = ticker.read();
         this.retryService = retryService;
+        this.maxRetryNanos = retryPolicy.getMaxRetryTime().roundTo(NANOSECONDS);
+        // invocations made while a server is processing a request inherit the deadline of that request
+        this.inheritedDeadline = getCurrentDeadline();
 
         // if this invocation is canceled, cancel the tasks
         super.addListener(() -> {
@@ -187,11 +196,23 @@ class DriftMethodInvocation<A extends Address>
         }
     }
 
+    private OptionalLong getAttemptDeadline()
+    {
+        // an attempt is not useful after the retry time or the deadline of the calling request is exhausted
+        if (maxRetryNanos >= Long.MAX_VALUE / 2) {
+            // effectively unbounded, and adding it to the current time would overflow
+            return inheritedDeadline;
+        }
+        // the retry time is measured by the ticker, but deadlines are System.nanoTime() values
+        long remainingNanos = maxRetryNanos - (ticker.read() - startTime);
+        return earliestDeadline(inheritedDeadline, OptionalLong.of(System.nanoTime() + remainingNanos));
+    }
+
     private synchronized void invoke(A address)
     {
         try {
             long invocationStartTime = ticker.read();
-            ListenableFuture<Object> result = invoker.invoke(new InvokeRequest(metadata, address, headers, parameters));
+            ListenableFuture<Object> result = invoker.invoke(new InvokeRequest(metadata, address, headers, parameters, getAttemptDeadline()));
             stat.recordResult(invocationStartTime, result);
             currentTask = result;
 
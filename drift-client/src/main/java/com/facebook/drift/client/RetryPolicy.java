@@ -15,19 +15,23 @@
  */
 package com.facebook.drift.client;
 
+import com.facebook.drift.TApplicationException;
 import com.facebook.drift.protocol.TTransportException;
 import com.facebook.drift.transport.client.ConnectionFailedException;
 import com.facebook.drift.transport.client.DriftClientConfig;
 import com.facebook.drift.transport.client.MessageTooLargeException;
+import com.facebook.drift.transport.client.OverloadedException;
 import com.facebook.drift.transport.client.RequestTimeoutException;
 import io.airlift.units.Duration;
 
 import java.io.InterruptedIOException;
 import java.util.Optional;
 
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
 import static com.facebook.drift.client.DriftInvocationHandler.unwrapUserException;
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.DOWN;
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.NORMAL;
+import static com.facebook.drift.client.ExceptionClassification.HostStatus.OVERLOADED;
 import static com.facebook.drift.client.ExceptionClassifier.NORMAL_RESULT;
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -104,6 +108,16 @@ public class RetryPolicy
             return new ExceptionClassification(Optional.of(TRUE), DOWN);
         }
 
+        if (throwable instanceof OverloadedException) {
+            // request was never sent, so it is always safe to retry on another address
+            return new ExceptionClassification(Optional.of(TRUE), OVERLOADED);
+        }
+
+        if (throwable instanceof TApplicationException && ((TApplicationException) throwable).getType().equals(Optional.of(LOADSHEDDING))) {
+            // server rejected the request before invoking the method, so it is always safe to retry on another address
+            return new ExceptionClassification(Optional.of(TRUE), OVERLOADED);
+        }
+
         if (throwable instanceof RequestTimeoutException) {
             // We don't know if the server is overloaded, or if this specific
             // request just takes to long, so just mark the server as normal.
@@ -47,6 +47,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -64,6 +65,7 @@ import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Sets.newConcurrentHashSet;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.Executors.newCachedThreadPool;
 import static java.util.concurrent.TimeUnit.DAYS;
@@ -308,6 +310,46 @@ public class TestDriftMethodInvocation
         assertDelays(invoker, retryPolicy, 7);
     }
 
+    @Test(timeOut = 60000)
+    public void testDeadline()
+            throws Exception
+    {
+        TestingTicker ticker = new TestingTicker();
+        ticker.increment(5, SECONDS);
+        RetryPolicy retryPolicy = new RetryPolicy(
+                new DriftClientConfig()
+                        .setMaxRetries(1)
+                        .setMinBackoffDelay(new Duration(1, SECONDS))
+                        .setMaxRetryTime(new Duration(1, MINUTES)),
+                new TestingExceptionClassifier());
+
+        // every attempt is limited to the retry time remaining on the ticker
+        List<Long> remainingNanos = new CopyOnWriteArrayList<>();
+        MockMethodInvoker invoker = new MockMethodInvoker(request -> {
+            remainingNanos.add(request.getDeadline().getAsLong() - System.nanoTime());
+            ticker.increment(1, SECONDS);
+            return immediateFailedFuture(createClassifiedException(true, NORMAL));
+        });
+        DriftMethodInvocation<?> methodInvocation = createDriftMethodInvocation(retryPolicy, new TestingMethodInvocationStat(), invoker, new TestingAddressSelector(100), ticker);
+
+        try {
+            methodInvocation.get();
+            fail("Expected exception");
+        }
+        catch (ExecutionException expected) {
+        }
+        assertEquals(remainingNanos.size(), 2);
+        assertRemaining(remainingNanos.get(0), MINUTES.toNanos(1));
+        assertRemaining(remainingNanos.get(1), MINUTES.toNanos(1) - SECONDS.toNanos(1));
+    }
+
+    private static void assertRemaining(long actualNanos, long expectedNanos)
+    {
+        // deadlines are System.nanoTime() values, so some real time has passed since they were computed
+        assertTrue(actualNanos <= expectedNanos, format("remaining %s is more than %s", actualNanos, expectedNanos));
+        assertTrue(actualNanos > expectedNanos - SECONDS.toNanos(10), format("remaining %s is much less than %s", actualNanos, expectedNanos));
+    }
+
     @Test(timeOut = 60000)
     public void testExhaustHosts()
             throws Exception
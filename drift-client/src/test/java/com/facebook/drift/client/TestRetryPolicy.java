@@ -15,14 +15,20 @@
  */
 package com.facebook.drift.client;
 
+import com.facebook.drift.TApplicationException;
 import com.facebook.drift.transport.client.DriftApplicationException;
 import com.facebook.drift.transport.client.DriftClientConfig;
+import com.facebook.drift.transport.client.OverloadedException;
 import org.testng.annotations.Test;
 
 import java.util.Optional;
 
+import static com.facebook.drift.TApplicationException.Type.INTERNAL_ERROR;
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
+import static com.facebook.drift.client.ExceptionClassification.HostStatus.NORMAL;
 import static com.facebook.drift.client.ExceptionClassification.HostStatus.OVERLOADED;
 import static com.facebook.drift.client.ExceptionClassification.NORMAL_EXCEPTION;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertSame;
 
 public class TestRetryPolicy
@@ -41,6 +47,27 @@ public class TestRetryPolicy
         assertSame(policy.classifyException(new TestingUserException(), true), overloaded);
     }
 
+    @Test
+    public void testOverloaded()
+    {
+        RetryPolicy policy = new RetryPolicy(new DriftClientConfig(), classifier -> NORMAL_EXCEPTION);
+        ExceptionClassification classification = policy.classifyException(new OverloadedException("overloaded"), false);
+        assertEquals(classification.isRetry(), Optional.of(true));
+        assertEquals(classification.getHostStatus(), OVERLOADED);
+    }
+
+    @Test
+    public void testLoadShedding()
+    {
+        RetryPolicy policy = new RetryPolicy(new DriftClientConfig(), classifier -> NORMAL_EXCEPTION);
+        ExceptionClassification classification = policy.classifyException(new TApplicationException(LOADSHEDDING, "overloaded"), false);
+        assertEquals(classification.isRetry(), Optional.of(true));
+        assertEquals(classification.getHostStatus(), OVERLOADED);
+
+        classification = policy.classifyException(new TApplicationException(INTERNAL_ERROR, "error"), false);
+        assertEquals(classification.getHostStatus(), NORMAL);
+    }
+
     private static class TestingUserException
             extends Exception
     {}
@@ -111,6 +111,11 @@ public final class ReflectionHelper
         return TypeToken.of(type).resolveType(ITERATOR_TYPE).resolveType(ITERATOR_ELEMENT_TYPE).getType();
     }
 
+    public static Type getIteratorType(Type type)
+    {
+        return TypeToken.of(type).resolveType(ITERATOR_ELEMENT_TYPE).getType();
+    }
+
     public static Type getOptionalType(Type type)
     {
         return TypeToken.of(type).resolveType(OPTIONAL_TYPE).getType();
@@ -38,6 +38,7 @@ import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -47,6 +48,8 @@ import java.util.stream.Stream;
 
 import static com.facebook.drift.annotations.ThriftField.Requiredness;
 import static com.facebook.drift.codec.metadata.ReflectionHelper.extractParameterNames;
+import static com.facebook.drift.codec.metadata.ReflectionHelper.getFutureReturnType;
+import static com.facebook.drift.codec.metadata.ReflectionHelper.getIteratorType;
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Arrays.stream;
 import static java.util.Objects.requireNonNull;
@@ -63,6 +66,7 @@ public class ThriftMethodMetadata
     private final ImmutableMap<Short, ThriftType> exceptions;
     private final boolean oneway;
     private final boolean idempotent;
+    private final boolean streaming;
     private final List<String> documentation;
 
     public ThriftMethodMetadata(Method method, ThriftCatalog catalog)
@@ -84,7 +88,20 @@ public class ThriftMethodMetadata
             name = thriftMethod.value();
         }
 
-        returnType = catalog.getThriftType(method.getGenericReturnType());
+        // methods returning an Iterator are declared as returning a list, which may be sent to the client in chunks
+        Type resultType = method.getGenericReturnType();
+        if (isAsync()) {
+            resultType = getFutureReturnType(resultType);
+        }
+        if (TypeToken.of(resultType).getRawType() == Iterator.class) {
+            checkArgument(!thriftMethod.oneway(), "ThriftMethod [%s] returning an Iterator must not be oneway", methodName(method));
+            streaming = true;
+            returnType = ThriftType.list(catalog.getCollectionElementThriftTypeReference(getIteratorType(resultType)));
+        }
+        else {
+            streaming = false;
+            returnType = catalog.getThriftType(method.getGenericReturnType());
+        }
 
         ImmutableList.Builder<ThriftFieldMetadata> thriftParameterBuilder = ImmutableList.builder();
         ImmutableSet.Builder<ThriftHeaderParameter> headerParameterBuilder = ImmutableSet.builder();
@@ -236,6 +253,15 @@ public class ThriftMethodMetadata
         return idempotent;
     }
 
+    /**
+     * Returns true if the method returns an {@link Iterator}, which is declared as returning
+     * a list, but allows transports to send the elements in several chunks.
+     */
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
     public List<String> getDocumentation()
     {
         return documentation;
@@ -307,6 +333,7 @@ public class ThriftMethodMetadata
         }
         ThriftMethodMetadata that = (ThriftMethodMetadata) o;
         return oneway == that.oneway &&
+                streaming == that.streaming &&
                 Objects.equals(name, that.name) &&
                 Objects.equals(returnType, that.returnType) &&
                 Objects.equals(parameters, that.parameters) &&
@@ -318,7 +345,7 @@ public class ThriftMethodMetadata
     @Override
     public int hashCode()
     {
-        return Objects.hash(name, returnType, parameters, headerParameters, method, exceptions, oneway);
+        return Objects.hash(name, returnType, parameters, headerParameters, method, exceptions, oneway, streaming);
     }
 
     private static String methodName(Method method)
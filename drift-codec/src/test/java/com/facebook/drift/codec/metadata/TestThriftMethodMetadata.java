@@ -23,15 +23,21 @@ import com.facebook.drift.annotations.ThriftId;
 import com.facebook.drift.annotations.ThriftMethod;
 import com.facebook.drift.annotations.ThriftStruct;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.testng.annotations.Test;
 
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
+import static com.facebook.drift.codec.metadata.ThriftType.STRING;
+import static com.facebook.drift.codec.metadata.ThriftType.list;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 
 public class TestThriftMethodMetadata
 {
@@ -171,6 +177,29 @@ public class TestThriftMethodMetadata
         assertExceptions("testExceptionMixedAnnotationStyle");
     }
 
+    @Test
+    public void testStreaming()
+    {
+        ThriftMethodMetadata metadata = new ThriftMethodMetadata(getMethod("streaming"), THRIFT_CATALOG);
+        assertTrue(metadata.isStreaming());
+        assertEquals(metadata.getReturnType(), list(STRING));
+
+        metadata = new ThriftMethodMetadata(getMethod("asyncStreaming"), THRIFT_CATALOG);
+        assertTrue(metadata.isStreaming());
+        assertTrue(metadata.isAsync());
+        assertEquals(metadata.getReturnType(), list(STRING));
+
+        metadata = new ThriftMethodMetadata(getMethod("notStreaming"), THRIFT_CATALOG);
+        assertFalse(metadata.isStreaming());
+        assertEquals(metadata.getReturnType(), list(STRING));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "ThriftMethod \\[.*\\.onewayStreaming] returning an Iterator must not be oneway")
+    public void testOnewayStreaming()
+    {
+        new ThriftMethodMetadata(getMethod("onewayStreaming"), THRIFT_CATALOG);
+    }
+
     @SafeVarargs
     private static void assertExceptions(String methodName, Class<? extends Exception>... expectedExceptions)
     {
@@ -254,6 +283,18 @@ public class TestThriftMethodMetadata
         @ThriftMethod
         void noExceptions();
 
+        @ThriftMethod
+        Iterator<String> streaming();
+
+        @ThriftMethod
+        ListenableFuture<Iterator<String>> asyncStreaming();
+
+        @ThriftMethod
+        List<String> notStreaming();
+
+        @ThriftMethod(oneway = true)
+        Iterator<String> onewayStreaming();
+
         @ThriftMethod(exception = {@ThriftException(id = 1, type = ExceptionA.class), @ThriftException(id = 2, type = ExceptionB.class)})
         void annotatedExceptionsMethod()
                 throws ExceptionA, ExceptionB;
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.server;
+
+import com.facebook.drift.TApplicationException;
+import com.facebook.drift.transport.server.InvocationDispatcher;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Futures.immediateCancelledFuture;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Limits the number of concurrent invocations. Invocations over the limit wait in
+ * a bounded queue, and are rejected with a {@code LOADSHEDDING} application
+ * exception when the queue is full, so clients can retry on another server.
+ * <p>
+ * A queued invocation is started through the {@link InvocationDispatcher} of its
+ * request once a permit is released, rather than on the thread that released it,
+ * so it runs on the invocation executor with the same checks as a new request.
+ */
+@ThreadSafe
+class ConcurrencyLimiter
+{
+    private final String name;
+    private final int maxConcurrentRequests;
+    private final int maxQueuedRequests;
+
+    @GuardedBy("this")
+    private int activeRequests;
+    @GuardedBy("this")
+    private final Deque<QueuedRequest> queuedRequests = new ArrayDeque<>();
+
+    public ConcurrencyLimiter(String name, int maxConcurrentRequests, int maxQueuedRequests)
+    {
+        this.name = requireNonNull(name, "name is null");
+        checkArgument(maxConcurrentRequests > 0, "maxConcurrentRequests must be at least 1");
+        checkArgument(maxQueuedRequests >= 0, "maxQueuedRequests is negative");
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public ListenableFuture<Object> invoke(Supplier<ListenableFuture<Object>> invocation, InvocationDispatcher dispatcher)
+    {
+        QueuedRequest queuedRequest;
+        synchronized (this) {
+            if (activeRequests < maxConcurrentRequests) {
+                activeRequests++;
+                queuedRequest = null;
+            }
+            else if (queuedRequests.size() < maxQueuedRequests) {
+                queuedRequest = new QueuedRequest(invocation, dispatcher);
+                queuedRequests.add(queuedRequest);
+            }
+            else {
+                return immediateFailedFuture(new TApplicationException(LOADSHEDDING, "Too many concurrent requests for " + name));
+            }
+        }
+
+        if (queuedRequest != null) {
+            // remove the request from the queue if it is cancelled before it starts
+            queuedRequest.getResult().addListener(() -> {
+                if (queuedRequest.getResult().isCancelled() && queuedRequest.claim()) {
+                    synchronized (this) {
+                        queuedRequests.remove(queuedRequest);
+                    }
+                }
+            }, directExecutor());
+            return queuedRequest.getResult();
+        }
+
+        ListenableFuture<Object> result = start(invocation);
+        result.addListener(this::release, directExecutor());
+        return result;
+    }
+
+    @VisibleForTesting
+    synchronized int getActiveRequests()
+    {
+        return activeRequests;
+    }
+
+    @VisibleForTesting
+    synchronized int getQueuedRequests()
+    {
+        return queuedRequests.size();
+    }
+
+    private void release()
+    {
+        // hand the released permit to the next queued request; requests that
+        // complete synchronously are drained in a loop rather than recursively
+        while (true) {
+            QueuedRequest next;
+            synchronized (this) {
+                next = queuedRequests.poll();
+                if (next == null) {
+                    activeRequests--;
+                    return;
+                }
+            }
+
+            ListenableFuture<Object> result = next.dispatch();
+            if (!result.isDone()) {
+                result.addListener(this::release, directExecutor());
+                return;
+            }
+        }
+    }
+
+    private static ListenableFuture<Object> start(Supplier<ListenableFuture<Object>> invocation)
+    {
+        try {
+            return invocation.get();
+        }
+        catch (Throwable t) {
+            return immediateFailedFuture(t);
+        }
+    }
+
+    private static class QueuedRequest
+    {
+        private final Supplier<ListenableFuture<Object>> invocation;
+        private final InvocationDispatcher dispatcher;
+        private final SettableFuture<Object> result = SettableFuture.create();
+        // claimed either by the dispatched invocation or by cancellation, whichever comes first
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        public QueuedRequest(Supplier<ListenableFuture<Object>> invocation, InvocationDispatcher dispatcher)
+        {
+            this.invocation = requireNonNull(invocation, "invocation is null");
+            this.dispatcher = requireNonNull(dispatcher, "dispatcher is null");
+        }
+
+        public SettableFuture<Object> getResult()
+        {
+            return result;
+        }
+
+        public boolean claim()
+        {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Dispatches the invocation, which only starts if the request was not cancelled
+         * in the meantime. The returned future completes when the permit can be released.
+         */
+        public ListenableFuture<Object> dispatch()
+        {
+            ListenableFuture<Object> dispatched;
+            try {
+                dispatched = dispatcher.dispatch(() -> claim() ? start(invocation) : immediateCancelledFuture());
+            }
+            catch (Throwable t) {
+                dispatched = immediateFailedFuture(t);
+            }
+            result.setFuture(dispatched);
+            return dispatched;
+        }
+    }
+}
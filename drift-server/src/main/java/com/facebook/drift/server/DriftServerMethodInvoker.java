@@ -25,7 +25,9 @@ import com.facebook.drift.server.stats.MethodInvocationStatsFactory;
 import com.facebook.drift.transport.MethodMetadata;
 import com.facebook.drift.transport.server.ServerInvokeRequest;
 import com.facebook.drift.transport.server.ServerMethodInvoker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -34,7 +36,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
 import static java.lang.String.format;
 
 class DriftServerMethodInvoker
@@ -42,6 +46,7 @@ class DriftServerMethodInvoker
 {
     private final Map<String, ServiceMethod> methods;
     private final Map<String, MethodInvocationStat> stats;
+    private final Map<String, List<ConcurrencyLimiter>> concurrencyLimiters;
 
     public DriftServerMethodInvoker(
             ThriftCodecManager codecManager,
@@ -51,8 +56,23 @@ class DriftServerMethodInvoker
     {
         Map<String, ServiceMethod> processorMap = new HashMap<>();
         ImmutableMap.Builder<String, MethodInvocationStat> stats = ImmutableMap.builder();
+        ImmutableMap.Builder<String, List<ConcurrencyLimiter>> concurrencyLimiters = ImmutableMap.builder();
         for (DriftService service : services) {
             ThriftServiceMetadata serviceMetadata = new ThriftServiceMetadata(service.getService().getClass(), codecManager.getCatalog());
+            String serviceName = serviceMetadata.getName() + service.getQualifier().map(qualifier -> "." + qualifier).orElse("");
+
+            Set<String> unknownMethods = Sets.difference(
+                    service.getMethodMaxConcurrentRequests().keySet(),
+                    serviceMetadata.getMethods().stream().map(ThriftMethodMetadata::getName).collect(toImmutableSet()));
+            if (!unknownMethods.isEmpty()) {
+                throw new IllegalArgumentException(format("Concurrency limits configured for unknown methods of service %s: %s", serviceName, unknownMethods));
+            }
+
+            Optional<ConcurrencyLimiter> serviceLimiter = Optional.empty();
+            if (service.getMaxConcurrentRequests().isPresent()) {
+                serviceLimiter = Optional.of(new ConcurrencyLimiter("service " + serviceName, service.getMaxConcurrentRequests().getAsInt(), service.getMaxQueuedRequests()));
+            }
+
             for (ThriftMethodMetadata thriftMethodMetadata : serviceMetadata.getMethods()) {
                 if (processorMap.containsKey(thriftMethodMetadata.getName())) {
                     throw new IllegalArgumentException(format("Multiple methods named '%s' are annotated with @ThriftMethod in the given services", thriftMethodMetadata.getName()));
@@ -62,10 +82,20 @@ class DriftServerMethodInvoker
                 if (service.isStatsEnabled()) {
                     stats.put(thriftMethodMetadata.getName(), methodInvocationStatsFactory.getStat(serviceMetadata, service.getQualifier(), serviceMethod.getMethodMetadata()));
                 }
+
+                // method limit is acquired first, so requests waiting for a busy method do not hold service capacity
+                ImmutableList.Builder<ConcurrencyLimiter> limiters = ImmutableList.builder();
+                Integer methodMaxConcurrentRequests = service.getMethodMaxConcurrentRequests().get(thriftMethodMetadata.getName());
+                if (methodMaxConcurrentRequests != null) {
+                    limiters.add(new ConcurrencyLimiter("method " + thriftMethodMetadata.getName(), methodMaxConcurrentRequests, service.getMaxQueuedRequests()));
+                }
+                serviceLimiter.ifPresent(limiters::add);
+                concurrencyLimiters.put(thriftMethodMetadata.getName(), limiters.build());
             }
         }
         methods = ImmutableMap.copyOf(processorMap);
         this.stats = stats.build();
+        this.concurrencyLimiters = concurrencyLimiters.build();
     }
 
     @Override
@@ -86,7 +116,15 @@ class DriftServerMethodInvoker
             return Futures.immediateFailedFuture(new TApplicationException(Type.UNKNOWN_METHOD, "Invalid method name: '" + request.getMethod().getName() + "'"));
         }
 
-        return method.invokeMethod(request);
+        return invoke(method, request, concurrencyLimiters.get(request.getMethod().getName()), 0);
+    }
+
+    private static ListenableFuture<Object> invoke(ServiceMethod method, ServerInvokeRequest request, List<ConcurrencyLimiter> limiters, int limiterIndex)
+    {
+        if (limiterIndex == limiters.size()) {
+            return method.invokeMethod(request);
+        }
+        return limiters.get(limiterIndex).invoke(() -> invoke(method, request, limiters, limiterIndex + 1), request.getDispatcher());
     }
 
     @Override
@@ -15,7 +15,11 @@
  */
 package com.facebook.drift.server;
 
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
 
 import static java.util.Objects.requireNonNull;
 
@@ -24,6 +28,9 @@ public class DriftService
     private final Object service;
     private final Optional<String> qualifier;
     private final boolean statsEnabled;
+    private final OptionalInt maxConcurrentRequests;
+    private final Map<String, Integer> methodMaxConcurrentRequests;
+    private final int maxQueuedRequests;
 
     public DriftService(Object service)
     {
@@ -31,10 +38,24 @@ public class DriftService
     }
 
     public DriftService(Object service, Optional<String> qualifier, boolean statsEnabled)
+    {
+        this(service, qualifier, statsEnabled, OptionalInt.empty(), ImmutableMap.of(), 0);
+    }
+
+    public DriftService(
+            Object service,
+            Optional<String> qualifier,
+            boolean statsEnabled,
+            OptionalInt maxConcurrentRequests,
+            Map<String, Integer> methodMaxConcurrentRequests,
+            int maxQueuedRequests)
     {
         this.service = requireNonNull(service, "service is null");
         this.qualifier = requireNonNull(qualifier, "qualifier is null");
         this.statsEnabled = statsEnabled;
+        this.maxConcurrentRequests = requireNonNull(maxConcurrentRequests, "maxConcurrentRequests is null");
+        this.methodMaxConcurrentRequests = ImmutableMap.copyOf(requireNonNull(methodMaxConcurrentRequests, "methodMaxConcurrentRequests is null"));
+        this.maxQueuedRequests = maxQueuedRequests;
     }
 
     public Object getService()
@@ -51,4 +72,19 @@ public class DriftService
     {
         return statsEnabled;
     }
+
+    public OptionalInt getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+    public Map<String, Integer> getMethodMaxConcurrentRequests()
+    {
+        return methodMaxConcurrentRequests;
+    }
+
+    public int getMaxQueuedRequests()
+    {
+        return maxQueuedRequests;
+    }
 }
@@ -35,6 +35,7 @@ import javax.inject.Provider;
 
 import java.lang.annotation.Annotation;
 import java.util.Optional;
+import java.util.OptionalInt;
 
 import static com.facebook.airlift.configuration.ConfigBinder.configBinder;
 import static com.facebook.drift.codec.metadata.ThriftServiceMetadata.getThriftServiceAnnotation;
@@ -143,7 +144,13 @@ public class DriftServerBinder
             else {
                 qualifier = Optional.of(annotation.getSimpleName());
             }
-            return new DriftService(service, qualifier, config.isStatsEnabled());
+            return new DriftService(
+                    service,
+                    qualifier,
+                    config.isStatsEnabled(),
+                    config.getMaxConcurrentRequests() == null ? OptionalInt.empty() : OptionalInt.of(config.getMaxConcurrentRequests()),
+                    config.getMethodMaxConcurrentRequests(),
+                    config.getMaxQueuedRequests());
         }
     }
 
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.server;
+
+import com.facebook.drift.TApplicationException;
+import com.facebook.drift.transport.server.InvocationDispatcher;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
+import static com.google.common.util.concurrent.Futures.getDone;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestConcurrencyLimiter
+{
+    private static final InvocationDispatcher DIRECT = Supplier::get;
+
+    @Test
+    public void testLimit()
+            throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 2, 1);
+        SettableFuture<Object> first = SettableFuture.create();
+        SettableFuture<Object> second = SettableFuture.create();
+        SettableFuture<Object> third = SettableFuture.create();
+        AtomicInteger invocations = new AtomicInteger();
+
+        assertEquals(limiter.invoke(counting(invocations, first), DIRECT), first);
+        assertEquals(limiter.invoke(counting(invocations, second), DIRECT), second);
+        assertEquals(limiter.getActiveRequests(), 2);
+
+        // third request waits in the queue
+        ListenableFuture<Object> queued = limiter.invoke(counting(invocations, third), DIRECT);
+        assertFalse(queued.isDone());
+        assertEquals(invocations.get(), 2);
+        assertEquals(limiter.getQueuedRequests(), 1);
+
+        // fourth request is rejected
+        assertLoadShedding(limiter.invoke(counting(invocations, SettableFuture.create()), DIRECT));
+        assertEquals(invocations.get(), 2);
+
+        // completing a request starts the queued request
+        first.set("first");
+        assertEquals(invocations.get(), 3);
+        assertEquals(limiter.getQueuedRequests(), 0);
+        assertEquals(limiter.getActiveRequests(), 2);
+
+        third.set("third");
+        assertEquals(getDone(queued), "third");
+        assertEquals(limiter.getActiveRequests(), 1);
+
+        second.setException(new Exception("failed"));
+        assertEquals(limiter.getActiveRequests(), 0);
+    }
+
+    @Test
+    public void testQueuedRequestCancelled()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 1);
+        SettableFuture<Object> first = SettableFuture.create();
+        assertEquals(limiter.invoke(() -> first, DIRECT), first);
+
+        ListenableFuture<Object> queued = limiter.invoke(() -> {
+            throw new AssertionError("cancelled request was invoked");
+        }, DIRECT);
+        queued.cancel(true);
+        assertEquals(limiter.getQueuedRequests(), 0);
+
+        first.set("first");
+        assertEquals(limiter.getActiveRequests(), 0);
+    }
+
+    @Test
+    public void testQueuedRequestDispatched()
+            throws Exception
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 2);
+        SettableFuture<Object> first = SettableFuture.create();
+        assertEquals(limiter.invoke(() -> first, DIRECT), first);
+
+        // queued requests are started through their dispatcher, not by the thread releasing the permit
+        List<Runnable> dispatched = new ArrayList<>();
+        InvocationDispatcher dispatcher = invocation -> {
+            SettableFuture<Object> result = SettableFuture.create();
+            dispatched.add(() -> result.setFuture(invocation.get()));
+            return result;
+        };
+        AtomicInteger invocations = new AtomicInteger();
+        ListenableFuture<Object> second = limiter.invoke(counting(invocations, immediateFuture("second")), dispatcher);
+        ListenableFuture<Object> third = limiter.invoke(counting(invocations, immediateFuture("third")), dispatcher);
+
+        first.set("first");
+        assertEquals(dispatched.size(), 1);
+        assertEquals(invocations.get(), 0);
+        assertEquals(limiter.getActiveRequests(), 1);
+
+        dispatched.remove(0).run();
+        assertEquals(invocations.get(), 1);
+        assertEquals(getDone(second), "second");
+
+        // a request cancelled after it was dispatched, but before it started, is not invoked
+        assertEquals(dispatched.size(), 1);
+        third.cancel(true);
+        assertEquals(limiter.getActiveRequests(), 0);
+        dispatched.remove(0).run();
+        assertEquals(invocations.get(), 1);
+        assertEquals(limiter.getActiveRequests(), 0);
+    }
+
+    @Test
+    public void testSynchronousQueuedRequests()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 10_000);
+        SettableFuture<Object> first = SettableFuture.create();
+        assertEquals(limiter.invoke(() -> first, DIRECT), first);
+
+        AtomicInteger invocations = new AtomicInteger();
+        for (int i = 0; i < 10_000; i++) {
+            limiter.invoke(counting(invocations, immediateFuture("done")), DIRECT);
+        }
+        assertEquals(limiter.getQueuedRequests(), 10_000);
+
+        // queued requests that complete synchronously are all drained
+        first.set("first");
+        assertEquals(invocations.get(), 10_000);
+        assertEquals(limiter.getQueuedRequests(), 0);
+        assertEquals(limiter.getActiveRequests(), 0);
+    }
+
+    @Test
+    public void testInvocationFailure()
+    {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter("test", 1, 0);
+        ListenableFuture<Object> result = limiter.invoke(() -> {
+            throw new IllegalStateException("failed");
+        }, DIRECT);
+        assertTrue(result.isDone());
+        assertEquals(limiter.getActiveRequests(), 0);
+    }
+
+    private static Supplier<ListenableFuture<Object>> counting(AtomicInteger invocations, ListenableFuture<Object> result)
+    {
+        return () -> {
+            invocations.incrementAndGet();
+            return result;
+        };
+    }
+
+    private static void assertLoadShedding(ListenableFuture<Object> result)
+    {
+        try {
+            getDone(result);
+            fail("expected LOADSHEDDING");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TApplicationException);
+            assertEquals(((TApplicationException) e.getCause()).getType().get(), LOADSHEDDING);
+        }
+    }
+}
@@ -31,19 +31,25 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.inject.Injector;
 import org.testng.annotations.Test;
 
+import java.util.ArrayDeque;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Queue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Supplier;
 
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
 import static com.facebook.drift.server.guice.DriftServerBinder.driftServerBinder;
 import static com.google.common.util.concurrent.Futures.getDone;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static com.google.inject.multibindings.OptionalBinder.newOptionalBinder;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
@@ -206,6 +212,66 @@ public class TestDriftServer
         assertEquals(serverTransportFactory.getServerTransport().getState(), TestingServerTransport.State.SHUTDOWN);
     }
 
+    @Test
+    public void testConcurrencyLimits()
+            throws Exception
+    {
+        Queue<ListenableFuture<Object>> results = new ArrayDeque<>();
+        TestService testService = new TestService(results::remove);
+        TestingServerTransportFactory serverTransportFactory = new TestingServerTransportFactory();
+        DriftServer driftServer = new DriftServer(
+                serverTransportFactory,
+                new ThriftCodecManager(),
+                new TestingMethodInvocationStatsFactory(),
+                ImmutableSet.of(new DriftService(testService, Optional.empty(), false, OptionalInt.of(1), ImmutableMap.of("testAsync", 1), 0)),
+                ImmutableSet.of());
+        TestingServerTransport serverTransport = serverTransportFactory.getServerTransport();
+        driftServer.start();
+
+        SettableFuture<Object> asyncResult = SettableFuture.create();
+        results.add(asyncResult);
+        ListenableFuture<Object> first = serverTransport.invoke("testAsync", ImmutableMap.of(), ImmutableMap.of((short) 1, 1, (short) 2, "first"));
+        assertFalse(first.isDone());
+
+        // rejected by the method limit
+        assertLoadShedding(serverTransport.invoke("testAsync", ImmutableMap.of(), ImmutableMap.of((short) 1, 2, (short) 2, "second")));
+
+        // rejected by the service limit
+        assertLoadShedding(serverTransport.invoke("test", ImmutableMap.of(), ImmutableMap.of((short) 1, 3, (short) 2, "third")));
+
+        asyncResult.set("first");
+        assertEquals(getDone(first), "first");
+
+        results.add(Futures.immediateFuture("fourth"));
+        assertEquals(getDone(serverTransport.invoke("test", ImmutableMap.of(), ImmutableMap.of((short) 1, 4, (short) 2, "fourth"))), "fourth");
+
+        driftServer.shutdown();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Concurrency limits configured for unknown methods of service serverService: \\[unknown\\]")
+    public void testConcurrencyLimitUnknownMethod()
+    {
+        new DriftServer(
+                new TestingServerTransportFactory(),
+                new ThriftCodecManager(),
+                new TestingMethodInvocationStatsFactory(),
+                ImmutableSet.of(new DriftService(new TestService(new ResultsSupplier()), Optional.empty(), false, OptionalInt.empty(), ImmutableMap.of("unknown", 1), 0)),
+                ImmutableSet.of());
+    }
+
+    private static void assertLoadShedding(ListenableFuture<Object> result)
+    {
+        assertTrue(result.isDone());
+        try {
+            getDone(result);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TApplicationException);
+            assertEquals(((TApplicationException) e.getCause()).getType(), Optional.of(LOADSHEDDING));
+        }
+    }
+
     private static void testServer(
             ResultsSupplier resultsSupplier,
             TestingInvocationTarget invocationTarget,
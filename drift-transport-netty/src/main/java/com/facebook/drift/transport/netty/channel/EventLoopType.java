@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.channel;
+
+import com.facebook.airlift.log.Logger;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.incubator.channel.uring.IOUring;
+import io.netty.incubator.channel.uring.IOUringEventLoopGroup;
+import io.netty.incubator.channel.uring.IOUringServerSocketChannel;
+import io.netty.incubator.channel.uring.IOUringSocketChannel;
+
+import javax.annotation.Nullable;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Netty I/O implementation used for the event loops and socket channels.
+ */
+public enum EventLoopType
+{
+    NIO {
+        @Override
+        public boolean isAvailable()
+        {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(int threadCount, ThreadFactory threadFactory)
+        {
+            return new NioEventLoopGroup(threadCount, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass()
+        {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerSocketChannelClass()
+        {
+            return NioServerSocketChannel.class;
+        }
+    },
+    EPOLL {
+        @Override
+        public boolean isAvailable()
+        {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public Optional<Throwable> getUnavailabilityCause()
+        {
+            return Optional.ofNullable(Epoll.unavailabilityCause());
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(int threadCount, ThreadFactory threadFactory)
+        {
+            return new EpollEventLoopGroup(threadCount, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass()
+        {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerSocketChannelClass()
+        {
+            return EpollServerSocketChannel.class;
+        }
+
+        @Override
+        public boolean isReusePortSupported()
+        {
+            return true;
+        }
+    },
+    IO_URING {
+        @Override
+        public boolean isAvailable()
+        {
+            return IOUring.isAvailable();
+        }
+
+        @Override
+        public Optional<Throwable> getUnavailabilityCause()
+        {
+            return Optional.ofNullable(IOUring.unavailabilityCause());
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(int threadCount, ThreadFactory threadFactory)
+        {
+            return new IOUringEventLoopGroup(threadCount, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> getSocketChannelClass()
+        {
+            return IOUringSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerSocketChannelClass()
+        {
+            return IOUringServerSocketChannel.class;
+        }
+
+        @Override
+        public boolean isFlushConsolidationSupported()
+        {
+            return false;
+        }
+
+        @Override
+        public boolean isReusePortSupported()
+        {
+            return true;
+        }
+    };
+
+    private static final Logger log = Logger.get(EventLoopType.class);
+
+    public abstract boolean isAvailable();
+
+    /**
+     * @return the reason this type is not available on this machine, such as the native library
+     * not being bundled for the platform; the native libraries are only bundled for linux-x86_64
+     */
+    public Optional<Throwable> getUnavailabilityCause()
+    {
+        return Optional.empty();
+    }
+
+    public abstract EventLoopGroup createEventLoopGroup(int threadCount, ThreadFactory threadFactory);
+
+    public abstract Class<? extends SocketChannel> getSocketChannelClass();
+
+    public abstract Class<? extends ServerSocketChannel> getServerSocketChannelClass();
+
+    /**
+     * @return true if several server sockets can be bound to the same port with {@code SO_REUSEPORT}
+     */
+    public boolean isReusePortSupported()
+    {
+        return false;
+    }
+
+    /**
+     * @return true if flushes can be delayed with {@link io.netty.handler.flush.FlushConsolidationHandler};
+     * with io_uring, delayed flushes can be held until the request times out, and the writes of
+     * an event loop iteration are already submitted together
+     */
+    public boolean isFlushConsolidationSupported()
+    {
+        return true;
+    }
+
+    /**
+     * @return this type if it is supported on this machine, otherwise the best available
+     * fallback in the order io_uring, epoll, nio
+     */
+    public EventLoopType resolve()
+    {
+        if (isAvailable()) {
+            return this;
+        }
+        EventLoopType fallback = (this == IO_URING && EPOLL.isAvailable()) ? EPOLL : NIO;
+        // the native libraries are only bundled for linux-x86_64, so other platforms always fall back
+        log.warn("%s event loop is not available, falling back to %s: %s", this, fallback, getUnavailabilityCause().map(Throwable::toString).orElse("unknown cause"));
+        return fallback;
+    }
+
+    /**
+     * Selects the event loop type from the configuration. An explicitly configured type falls back
+     * when it is not available, while the legacy native transport flag requires epoll.
+     */
+    public static EventLoopType selectEventLoopType(@Nullable EventLoopType eventLoopType, boolean nativeTransportEnabled)
+    {
+        if (eventLoopType != null) {
+            return eventLoopType.resolve();
+        }
+        if (nativeTransportEnabled) {
+            checkState(Epoll.isAvailable(), "native transport is not available");
+            return EPOLL;
+        }
+        return NIO;
+    }
+}
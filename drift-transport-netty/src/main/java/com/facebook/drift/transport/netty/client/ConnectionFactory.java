@@ -16,6 +16,7 @@
 package com.facebook.drift.transport.netty.client;
 
 import com.facebook.drift.protocol.TTransportException;
+import com.facebook.drift.transport.netty.channel.EventLoopType;
 import com.facebook.drift.transport.netty.ssl.SslContextFactory;
 import com.google.common.net.HostAndPort;
 import io.netty.bootstrap.Bootstrap;
@@ -24,15 +25,13 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollSocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
 
 import java.net.InetSocketAddress;
+import java.util.OptionalInt;
+import java.util.concurrent.Executor;
 
-import static com.google.common.base.Preconditions.checkState;
 import static com.google.common.primitives.Ints.saturatedCast;
 import static io.netty.channel.ChannelOption.ALLOCATOR;
 import static io.netty.channel.ChannelOption.CONNECT_TIMEOUT_MILLIS;
@@ -44,35 +43,32 @@ class ConnectionFactory
         implements ConnectionManager
 {
     private final EventLoopGroup group;
+    private final EventLoopType eventLoopType;
     private final SslContextFactory sslContextFactory;
     private final ByteBufAllocator allocator;
-    private DriftNettyConnectionFactoryConfig connectionFactoryConfig;
+    private final Executor responseDecodingExecutor;
 
     ConnectionFactory(
             EventLoopGroup group,
+            EventLoopType eventLoopType,
             SslContextFactory sslContextFactory,
             ByteBufAllocator allocator,
-            DriftNettyConnectionFactoryConfig connectionFactoryConfig)
+            Executor responseDecodingExecutor)
     {
         this.group = requireNonNull(group, "group is null");
+        this.eventLoopType = requireNonNull(eventLoopType, "eventLoopType is null");
         this.sslContextFactory = requireNonNull(sslContextFactory, "sslContextFactory is null");
         this.allocator = requireNonNull(allocator, "allocator is null");
-        this.connectionFactoryConfig = requireNonNull(connectionFactoryConfig, "connectionFactoryConfig is null");
+        this.responseDecodingExecutor = requireNonNull(responseDecodingExecutor, "responseDecodingExecutor is null");
     }
 
     @Override
     public Future<Channel> getConnection(ConnectionParameters connectionParameters, HostAndPort address)
     {
-        Class socketChannelClass = NioSocketChannel.class;
-        if (connectionFactoryConfig.isNativeTransportEnabled()) {
-            checkState(Epoll.isAvailable(), "native transport is not available");
-            socketChannelClass = EpollSocketChannel.class;
-        }
-
         try {
             Bootstrap bootstrap = new Bootstrap()
                     .group(group)
-                    .channel(socketChannelClass)
+                    .channel(eventLoopType.getSocketChannelClass())
                     .option(ALLOCATOR, allocator)
                     .option(CONNECT_TIMEOUT_MILLIS, saturatedCast(connectionParameters.getConnectTimeout().toMillis()))
                     .option(TCP_NODELAY, connectionParameters.isTcpNoDelayEnabled())
@@ -83,7 +79,16 @@ class ConnectionFactory
                             connectionParameters.getMaxFrameSize(),
                             connectionParameters.getRequestTimeout(),
                             connectionParameters.getSocksProxy(),
-                            connectionParameters.getSslContextParameters().map(sslContextFactory::get)));
+                            connectionParameters.getSslContextParameters().map(sslContextFactory::get),
+                            connectionParameters.isFlushConsolidationEnabled() && eventLoopType.isFlushConsolidationSupported() ? OptionalInt.of(connectionParameters.getFlushConsolidationMaxFlushes()) : OptionalInt.empty(),
+                            connectionParameters.getResponseDecodingOffloadThreshold(),
+                            connectionParameters.getCompressionCodecs(),
+                            connectionParameters.getCompressionMinSize(),
+                            connectionParameters.getCompressionMinRatio(),
+                            connectionParameters.getPersistentHeaders(),
+                            connectionParameters.getStreamingMaxBufferedChunks(),
+                            connectionParameters.getStreamingIdleTimeout(),
+                            responseDecodingExecutor));
 
             Promise<Channel> promise = group.next().newPromise();
             promise.setUncancellable();
@@ -16,8 +16,11 @@
 package com.facebook.drift.transport.netty.client;
 
 import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
 import com.facebook.drift.transport.netty.codec.Transport;
 import com.facebook.drift.transport.netty.ssl.SslContextFactory.SslContextParameters;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
@@ -25,6 +28,8 @@ import io.netty.channel.Channel;
 import io.netty.util.concurrent.Future;
 
 import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 
@@ -55,6 +60,18 @@ interface ConnectionManager
         private final boolean tcpNoDelayEnabled;
         private final boolean reuseAddressEnabled;
 
+        private final boolean flushConsolidationEnabled;
+        private final int flushConsolidationMaxFlushes;
+
+        private final boolean callerThreadEncodingEnabled;
+        private final Optional<DataSize> responseDecodingOffloadThreshold;
+        private final List<ThriftHeaderTransform> compressionCodecs;
+        private final DataSize compressionMinSize;
+        private final Optional<Double> compressionMinRatio;
+        private final Map<String, String> persistentHeaders;
+        private final int streamingMaxBufferedChunks;
+        private final Duration streamingIdleTimeout;
+
         public ConnectionParameters(
                 Transport transport,
                 Protocol protocol,
@@ -64,7 +81,17 @@ interface ConnectionManager
                 Optional<HostAndPort> socksProxy,
                 Optional<SslContextParameters> sslContextParameters,
                 boolean tcpNoDelayEnabled,
-                boolean reuseAddressEnabled)
+                boolean reuseAddressEnabled,
+                boolean flushConsolidationEnabled,
+                int flushConsolidationMaxFlushes,
+                boolean callerThreadEncodingEnabled,
+                Optional<DataSize> responseDecodingOffloadThreshold,
+                List<ThriftHeaderTransform> compressionCodecs,
+                DataSize compressionMinSize,
+                Optional<Double> compressionMinRatio,
+                Map<String, String> persistentHeaders,
+                int streamingMaxBufferedChunks,
+                Duration streamingIdleTimeout)
         {
             this.transport = requireNonNull(transport, "transport is null");
             this.protocol = requireNonNull(protocol, "protocol is null");
@@ -75,6 +102,16 @@ interface ConnectionManager
             this.sslContextParameters = requireNonNull(sslContextParameters, "sslContextParameters is null");
             this.tcpNoDelayEnabled = tcpNoDelayEnabled;
             this.reuseAddressEnabled = reuseAddressEnabled;
+            this.flushConsolidationEnabled = flushConsolidationEnabled;
+            this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+            this.callerThreadEncodingEnabled = callerThreadEncodingEnabled;
+            this.responseDecodingOffloadThreshold = requireNonNull(responseDecodingOffloadThreshold, "responseDecodingOffloadThreshold is null");
+            this.compressionCodecs = ImmutableList.copyOf(requireNonNull(compressionCodecs, "compressionCodecs is null"));
+            this.compressionMinSize = requireNonNull(compressionMinSize, "compressionMinSize is null");
+            this.compressionMinRatio = requireNonNull(compressionMinRatio, "compressionMinRatio is null");
+            this.persistentHeaders = ImmutableMap.copyOf(requireNonNull(persistentHeaders, "persistentHeaders is null"));
+            this.streamingMaxBufferedChunks = streamingMaxBufferedChunks;
+            this.streamingIdleTimeout = requireNonNull(streamingIdleTimeout, "streamingIdleTimeout is null");
         }
 
         public Transport getTransport()
@@ -122,6 +159,56 @@ interface ConnectionManager
             return reuseAddressEnabled;
         }
 
+        public boolean isFlushConsolidationEnabled()
+        {
+            return flushConsolidationEnabled;
+        }
+
+        public int getFlushConsolidationMaxFlushes()
+        {
+            return flushConsolidationMaxFlushes;
+        }
+
+        public boolean isCallerThreadEncodingEnabled()
+        {
+            return callerThreadEncodingEnabled;
+        }
+
+        public Optional<DataSize> getResponseDecodingOffloadThreshold()
+        {
+            return responseDecodingOffloadThreshold;
+        }
+
+        public List<ThriftHeaderTransform> getCompressionCodecs()
+        {
+            return compressionCodecs;
+        }
+
+        public DataSize getCompressionMinSize()
+        {
+            return compressionMinSize;
+        }
+
+        public Optional<Double> getCompressionMinRatio()
+        {
+            return compressionMinRatio;
+        }
+
+        public Map<String, String> getPersistentHeaders()
+        {
+            return persistentHeaders;
+        }
+
+        public int getStreamingMaxBufferedChunks()
+        {
+            return streamingMaxBufferedChunks;
+        }
+
+        public Duration getStreamingIdleTimeout()
+        {
+            return streamingIdleTimeout;
+        }
+
         @Override
         public boolean equals(Object o)
         {
@@ -140,7 +227,17 @@ interface ConnectionManager
                     Objects.equals(socksProxy, that.socksProxy) &&
                     Objects.equals(sslContextParameters, that.sslContextParameters) &&
                     tcpNoDelayEnabled == that.tcpNoDelayEnabled &&
-                    reuseAddressEnabled == that.reuseAddressEnabled;
+                    reuseAddressEnabled == that.reuseAddressEnabled &&
+                    flushConsolidationEnabled == that.flushConsolidationEnabled &&
+                    flushConsolidationMaxFlushes == that.flushConsolidationMaxFlushes &&
+                    callerThreadEncodingEnabled == that.callerThreadEncodingEnabled &&
+                    Objects.equals(responseDecodingOffloadThreshold, that.responseDecodingOffloadThreshold) &&
+                    Objects.equals(compressionCodecs, that.compressionCodecs) &&
+                    Objects.equals(compressionMinSize, that.compressionMinSize) &&
+                    Objects.equals(compressionMinRatio, that.compressionMinRatio) &&
+                    Objects.equals(persistentHeaders, that.persistentHeaders) &&
+                    streamingMaxBufferedChunks == that.streamingMaxBufferedChunks &&
+                    Objects.equals(streamingIdleTimeout, that.streamingIdleTimeout);
         }
 
         @Override
@@ -155,7 +252,17 @@ interface ConnectionManager
                     socksProxy,
                     sslContextParameters,
                     tcpNoDelayEnabled,
-                    reuseAddressEnabled);
+                    reuseAddressEnabled,
+                    flushConsolidationEnabled,
+                    flushConsolidationMaxFlushes,
+                    callerThreadEncodingEnabled,
+                    responseDecodingOffloadThreshold,
+                    compressionCodecs,
+                    compressionMinSize,
+                    compressionMinRatio,
+                    persistentHeaders,
+                    streamingMaxBufferedChunks,
+                    streamingIdleTimeout);
         }
     }
 }
@@ -16,24 +16,32 @@
 package com.facebook.drift.transport.netty.client;
 
 import com.facebook.airlift.configuration.Config;
+import com.facebook.airlift.configuration.ConfigDescription;
 import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
 import com.facebook.drift.transport.netty.codec.Transport;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.airlift.units.MaxDataSize;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 
 import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
 import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static io.airlift.units.DataSize.Unit.BYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.DAYS;
@@ -45,6 +53,12 @@ public class DriftNettyClientConfig
     private Transport transport = HEADER;
     private Protocol protocol = BINARY;
     private DataSize maxFrameSize = new DataSize(16, MEGABYTE);
+    private List<ThriftHeaderTransform> compressionCodecs = ImmutableList.of();
+    private DataSize compressionMinSize = new DataSize(0, BYTE);
+    private Double compressionMinRatio;
+    private Map<String, String> persistentHeaders = ImmutableMap.of();
+    private int streamingMaxBufferedChunks = 4;
+    private Duration streamingIdleTimeout = new Duration(30, SECONDS);
 
     private Duration connectTimeout = new Duration(500, MILLISECONDS);
     private Duration requestTimeout = new Duration(10, SECONDS);
@@ -68,6 +82,17 @@ public class DriftNettyClientConfig
     private boolean tcpNoDelayEnabled;
     private boolean reuseAddressEnabled;
 
+    private boolean flushConsolidationEnabled;
+    private int flushConsolidationMaxFlushes = 256;
+
+    private boolean callerThreadEncodingEnabled;
+    private DataSize responseDecodingOffloadThreshold;
+
+    private Integer maxInFlightRequestsPerDestination;
+    private DataSize maxInFlightBytesPerDestination;
+    private int maxQueuedRequestsPerDestination;
+    private boolean rejectUnwritableConnectionEnabled;
+
     @NotNull
     public Transport getTransport()
     {
@@ -147,6 +172,105 @@ public class DriftNettyClientConfig
         return this;
     }
 
+    @NotNull
+    public List<ThriftHeaderTransform> getCompressionCodecs()
+    {
+        return compressionCodecs;
+    }
+
+    @Config("thrift.client.compression-codecs")
+    @ConfigDescription("Compression codecs to negotiate with the server for the HEADER transport, in order of preference (zstd, lz4, snappy or zlib)")
+    public DriftNettyClientConfig setCompressionCodecs(String compressionCodecs)
+    {
+        this.compressionCodecs = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(requireNonNull(compressionCodecs, "compressionCodecs is null"))
+                .stream()
+                .map(ThriftHeaderTransform::fromCodecName)
+                .collect(toImmutableList());
+        return this;
+    }
+
+    @NotNull
+    public DataSize getCompressionMinSize()
+    {
+        return compressionMinSize;
+    }
+
+    @Config("thrift.client.compression-min-size")
+    @ConfigDescription("Requests smaller than this size are sent uncompressed")
+    public DriftNettyClientConfig setCompressionMinSize(DataSize compressionMinSize)
+    {
+        this.compressionMinSize = compressionMinSize;
+        return this;
+    }
+
+    @DecimalMin("1.0")
+    public Double getCompressionMinRatio()
+    {
+        return compressionMinRatio;
+    }
+
+    @Config("thrift.client.compression-min-ratio")
+    @ConfigDescription("Requests of methods with a lower recent compression ratio (uncompressed to compressed size) are sent uncompressed")
+    public DriftNettyClientConfig setCompressionMinRatio(Double compressionMinRatio)
+    {
+        this.compressionMinRatio = compressionMinRatio;
+        return this;
+    }
+
+    @NotNull
+    public Map<String, String> getPersistentHeaders()
+    {
+        return persistentHeaders;
+    }
+
+    @Config("thrift.client.persistent-headers")
+    @ConfigDescription("Headers sent once per connection for the HEADER transport, as a list of name=value pairs, " +
+            "which the server applies to every request on the connection")
+    public DriftNettyClientConfig setPersistentHeaders(String persistentHeaders)
+    {
+        this.persistentHeaders = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .withKeyValueSeparator('=')
+                .split(requireNonNull(persistentHeaders, "persistentHeaders is null"))
+                .entrySet().stream()
+                .collect(toImmutableMap(entry -> entry.getKey().trim(), entry -> entry.getValue().trim()));
+        return this;
+    }
+
+    @Min(1)
+    public int getStreamingMaxBufferedChunks()
+    {
+        return streamingMaxBufferedChunks;
+    }
+
+    @Config("thrift.client.streaming.max-buffered-chunks")
+    @ConfigDescription("Reading from the dedicated connection of a streaming response is paused while the response has more unconsumed chunks than this")
+    public DriftNettyClientConfig setStreamingMaxBufferedChunks(int streamingMaxBufferedChunks)
+    {
+        this.streamingMaxBufferedChunks = streamingMaxBufferedChunks;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getStreamingIdleTimeout()
+    {
+        return streamingIdleTimeout;
+    }
+
+    @Config("thrift.client.streaming.idle-timeout")
+    @ConfigDescription("A streaming response fails when the next chunk is not received within this time, unless reading is paused because the consumer is behind")
+    public DriftNettyClientConfig setStreamingIdleTimeout(Duration streamingIdleTimeout)
+    {
+        this.streamingIdleTimeout = streamingIdleTimeout;
+        return this;
+    }
+
     public boolean isSslEnabled()
     {
         return sslEnabled;
@@ -309,4 +433,111 @@ public class DriftNettyClientConfig
         this.reuseAddressEnabled = reuseAddressEnabled;
         return this;
     }
+
+    public boolean isFlushConsolidationEnabled()
+    {
+        return flushConsolidationEnabled;
+    }
+
+    @Config("thrift.client.flush-consolidation.enabled")
+    @ConfigDescription("Combine flushes of concurrent requests on a connection into a single write; not supported by the IO_URING event loop")
+    public DriftNettyClientConfig setFlushConsolidationEnabled(boolean flushConsolidationEnabled)
+    {
+        this.flushConsolidationEnabled = flushConsolidationEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getFlushConsolidationMaxFlushes()
+    {
+        return flushConsolidationMaxFlushes;
+    }
+
+    @Config("thrift.client.flush-consolidation.max-flushes")
+    @ConfigDescription("Maximum number of consolidated flushes before the connection is flushed")
+    public DriftNettyClientConfig setFlushConsolidationMaxFlushes(int flushConsolidationMaxFlushes)
+    {
+        this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+        return this;
+    }
+
+    public boolean isCallerThreadEncodingEnabled()
+    {
+        return callerThreadEncodingEnabled;
+    }
+
+    @Config("thrift.client.caller-thread-encoding.enabled")
+    @ConfigDescription("Serialize request arguments on the invoking thread instead of the event loop")
+    public DriftNettyClientConfig setCallerThreadEncodingEnabled(boolean callerThreadEncodingEnabled)
+    {
+        this.callerThreadEncodingEnabled = callerThreadEncodingEnabled;
+        return this;
+    }
+
+    public DataSize getResponseDecodingOffloadThreshold()
+    {
+        return responseDecodingOffloadThreshold;
+    }
+
+    @Config("thrift.client.response-decoding.offload-threshold")
+    @ConfigDescription("Responses of at least this size are deserialized outside of the event loop")
+    public DriftNettyClientConfig setResponseDecodingOffloadThreshold(DataSize responseDecodingOffloadThreshold)
+    {
+        this.responseDecodingOffloadThreshold = responseDecodingOffloadThreshold;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getMaxInFlightRequestsPerDestination()
+    {
+        return maxInFlightRequestsPerDestination;
+    }
+
+    @Config("thrift.client.in-flight.max-requests-per-destination")
+    @ConfigDescription("Maximum number of outstanding requests to a single address")
+    public DriftNettyClientConfig setMaxInFlightRequestsPerDestination(Integer maxInFlightRequestsPerDestination)
+    {
+        this.maxInFlightRequestsPerDestination = maxInFlightRequestsPerDestination;
+        return this;
+    }
+
+    public DataSize getMaxInFlightBytesPerDestination()
+    {
+        return maxInFlightBytesPerDestination;
+    }
+
+    @Config("thrift.client.in-flight.max-bytes-per-destination")
+    @ConfigDescription("Maximum size of the outstanding request arguments to a single address")
+    public DriftNettyClientConfig setMaxInFlightBytesPerDestination(DataSize maxInFlightBytesPerDestination)
+    {
+        this.maxInFlightBytesPerDestination = maxInFlightBytesPerDestination;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxQueuedRequestsPerDestination()
+    {
+        return maxQueuedRequestsPerDestination;
+    }
+
+    @Config("thrift.client.in-flight.max-queued-requests-per-destination")
+    @ConfigDescription("Maximum number of requests waiting for an in-flight limit; additional requests fail immediately")
+    public DriftNettyClientConfig setMaxQueuedRequestsPerDestination(int maxQueuedRequestsPerDestination)
+    {
+        this.maxQueuedRequestsPerDestination = maxQueuedRequestsPerDestination;
+        return this;
+    }
+
+    public boolean isRejectUnwritableConnectionEnabled()
+    {
+        return rejectUnwritableConnectionEnabled;
+    }
+
+    @Config("thrift.client.in-flight.reject-unwritable-connection.enabled")
+    @ConfigDescription("Fail requests as overloaded when the connection outbound buffer is full")
+    public DriftNettyClientConfig setRejectUnwritableConnectionEnabled(boolean rejectUnwritableConnectionEnabled)
+    {
+        this.rejectUnwritableConnectionEnabled = rejectUnwritableConnectionEnabled;
+        return this;
+    }
 }
@@ -17,6 +17,7 @@ package com.facebook.drift.transport.netty.client;
 
 import com.facebook.airlift.configuration.Config;
 import com.facebook.airlift.configuration.ConfigDescription;
+import com.facebook.drift.transport.netty.channel.EventLoopType;
 import com.google.common.net.HostAndPort;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
@@ -30,6 +31,7 @@ public class DriftNettyConnectionFactoryConfig
     private static final int DEFAULT_THREAD_COUNT = Runtime.getRuntime().availableProcessors() * 2;
 
     private int threadCount = DEFAULT_THREAD_COUNT;
+    private int responseDecodingThreadCount = Runtime.getRuntime().availableProcessors();
 
     private boolean connectionPoolEnabled = true;
     private int connectionPoolMaxSize = 1000;
@@ -39,6 +41,7 @@ public class DriftNettyConnectionFactoryConfig
     private Duration sslContextRefreshTime = new Duration(1, MINUTES);
     private HostAndPort socksProxy;
     private boolean nativeTransportEnabled;
+    private EventLoopType eventLoopType;
 
     public int getThreadCount()
     {
@@ -52,6 +55,20 @@ public class DriftNettyConnectionFactoryConfig
         return this;
     }
 
+    @Min(1)
+    public int getResponseDecodingThreadCount()
+    {
+        return responseDecodingThreadCount;
+    }
+
+    @Config("thrift.client.response-decoding.thread-count")
+    @ConfigDescription("Number of threads deserializing responses over the offload threshold outside of the event loop")
+    public DriftNettyConnectionFactoryConfig setResponseDecodingThreadCount(int responseDecodingThreadCount)
+    {
+        this.responseDecodingThreadCount = responseDecodingThreadCount;
+        return this;
+    }
+
     public boolean isConnectionPoolEnabled()
     {
         return connectionPoolEnabled;
@@ -140,4 +157,17 @@ public class DriftNettyConnectionFactoryConfig
         this.nativeTransportEnabled = nativeTransportEnabled;
         return this;
     }
+
+    public EventLoopType getEventLoopType()
+    {
+        return eventLoopType;
+    }
+
+    @Config("thrift.client.event-loop-type")
+    @ConfigDescription("Netty I/O implementation (NIO, EPOLL or IO_URING); the native EPOLL and IO_URING libraries are only bundled for linux-x86_64, elsewhere this falls back to NIO. IO_URING clients should enable thrift.client.tcp-no-delay.enabled")
+    public DriftNettyConnectionFactoryConfig setEventLoopType(EventLoopType eventLoopType)
+    {
+        this.eventLoopType = eventLoopType;
+        return this;
+    }
 }
@@ -25,9 +25,17 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import io.airlift.units.Duration;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 
+import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.ScheduledExecutorService;
 
+import static com.facebook.drift.transport.RequestDeadline.earliestDeadline;
+import static com.facebook.drift.transport.RequestDeadline.getCurrentDeadline;
+import static com.facebook.drift.transport.RequestDeadline.isExpired;
+import static com.facebook.drift.transport.netty.client.InvocationResponseFuture.createInvocationResponseFuture;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static java.util.Objects.requireNonNull;
@@ -42,23 +50,42 @@ class DriftNettyMethodInvoker
 
     private final ConnectionParameters connectionParameters;
     private final ConnectionManager connectionManager;
+    private final ConnectionManager streamingConnectionManager;
+    private final ByteBufAllocator allocator;
+    private final InFlightRequestLimiter inFlightRequestLimiter;
+    private final boolean rejectUnwritableConnection;
     private final ListeningScheduledExecutorService delayService;
     private final Duration invokeTimeout;
 
-    public DriftNettyMethodInvoker(ConnectionParameters connectionParameters, ConnectionManager connectionManager, ScheduledExecutorService delayService)
+    public DriftNettyMethodInvoker(
+            ConnectionParameters connectionParameters,
+            ConnectionManager connectionManager,
+            ConnectionManager streamingConnectionManager,
+            ByteBufAllocator allocator,
+            InFlightRequestLimiter inFlightRequestLimiter,
+            boolean rejectUnwritableConnection,
+            ScheduledExecutorService delayService)
     {
-        this(connectionParameters, connectionManager, delayService, DEFAULT_INVOCATION_TIMEOUT_GRACE_PERIOD);
+        this(connectionParameters, connectionManager, streamingConnectionManager, allocator, inFlightRequestLimiter, rejectUnwritableConnection, delayService, DEFAULT_INVOCATION_TIMEOUT_GRACE_PERIOD);
     }
 
     @VisibleForTesting
     DriftNettyMethodInvoker(
             ConnectionParameters connectionParameters,
             ConnectionManager connectionManager,
+            ConnectionManager streamingConnectionManager,
+            ByteBufAllocator allocator,
+            InFlightRequestLimiter inFlightRequestLimiter,
+            boolean rejectUnwritableConnection,
             ScheduledExecutorService delayService,
             Duration invocationTimeoutGracePeriod)
     {
         this.connectionParameters = requireNonNull(connectionParameters, "connectionConfig is null");
         this.connectionManager = requireNonNull(connectionManager, "connectionManager is null");
+        this.streamingConnectionManager = requireNonNull(streamingConnectionManager, "streamingConnectionManager is null");
+        this.allocator = requireNonNull(allocator, "allocator is null");
+        this.inFlightRequestLimiter = requireNonNull(inFlightRequestLimiter, "inFlightRequestLimiter is null");
+        this.rejectUnwritableConnection = rejectUnwritableConnection;
         this.delayService = listeningDecorator(requireNonNull(delayService, "delayService is null"));
 
         // an invocation should complete long before this
@@ -71,11 +98,34 @@ class DriftNettyMethodInvoker
 
     @Override
     public ListenableFuture<Object> invoke(InvokeRequest request)
+    {
+        // requests sent while a server is processing a request inherit the deadline of that request
+        OptionalLong deadline = earliestDeadline(request.getDeadline(), getCurrentDeadline());
+        if (isExpired(deadline)) {
+            return immediateFailedFuture(new RequestTimeoutException("Request deadline expired before the request was sent"));
+        }
+        if (!deadline.equals(request.getDeadline())) {
+            request = new InvokeRequest(request.getMethod(), request.getAddress(), request.getHeaders(), request.getParameters(), deadline);
+        }
+        return invokeInternal(request);
+    }
+
+    private ListenableFuture<Object> invokeInternal(InvokeRequest request)
     {
         try {
+            Optional<ByteBuf> encodedArguments = encodeArguments(request);
+            // reading is paused while the consumer of a streaming response is behind, so the response
+            // must not share a connection with other requests
+            ConnectionManager connectionManager = request.getMethod().isStreaming() ? streamingConnectionManager : this.connectionManager;
+            ListenableFuture<Object> future = inFlightRequestLimiter.invoke(
+                    request.getAddress().getHostAndPort(),
+                    encodedArguments.map(ByteBuf::readableBytes).orElse(0),
+                    () -> createInvocationResponseFuture(request, connectionParameters, connectionManager, encodedArguments, rejectUnwritableConnection),
+                    () -> encodedArguments.ifPresent(ByteBuf::release));
+
             // be safe and make sure the future always completes
             return MoreFutures.addTimeout(
-                    InvocationResponseFuture.createInvocationResponseFuture(request, connectionParameters, connectionManager),
+                    future,
                     () -> {
                         // log before throwing as this is likely a bug in Drift or Netty
                         String message = "Invocation response future did not complete after " + invokeTimeout;
@@ -90,6 +140,17 @@ class DriftNettyMethodInvoker
         }
     }
 
+    private Optional<ByteBuf> encodeArguments(InvokeRequest request)
+            throws Exception
+    {
+        // serialize the arguments on the calling thread, so large requests do not stall the event loop,
+        // and so the request size is known before the request is admitted by the in-flight byte limit
+        if (!connectionParameters.isCallerThreadEncodingEnabled() && !inFlightRequestLimiter.isByteLimitEnabled()) {
+            return Optional.empty();
+        }
+        return Optional.of(ThriftClientHandler.encodeArguments(allocator, connectionParameters.getProtocol(), request.getMethod(), request.getParameters()));
+    }
+
     @Override
     public ListenableFuture<?> delay(Duration duration)
     {
@@ -17,17 +17,16 @@ package com.facebook.drift.transport.netty.client;
 
 import com.facebook.drift.transport.client.MethodInvoker;
 import com.facebook.drift.transport.client.MethodInvokerFactory;
+import com.facebook.drift.transport.netty.channel.EventLoopType;
 import com.facebook.drift.transport.netty.client.ConnectionManager.ConnectionParameters;
 import com.facebook.drift.transport.netty.ssl.SslContextFactory;
 import com.facebook.drift.transport.netty.ssl.SslContextFactory.SslContextParameters;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.net.HostAndPort;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 
 import javax.annotation.PreDestroy;
 
@@ -35,16 +34,19 @@ import java.io.Closeable;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Function;
 
 import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.selectEventLoopType;
 import static com.facebook.drift.transport.netty.codec.Protocol.COMPACT;
 import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
 import static com.facebook.drift.transport.netty.ssl.SslContextFactory.createSslContextFactory;
 import static com.google.common.base.MoreObjects.firstNonNull;
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 public class DriftNettyMethodInvokerFactory<I>
@@ -57,8 +59,11 @@ public class DriftNettyMethodInvokerFactory<I>
     private final Optional<HostAndPort> defaultSocksProxy;
     private final ConnectionFactory connectionFactory;
     private final ScheduledExecutorService connectionPoolMaintenanceExecutor;
+    private final ExecutorService responseDecodingExecutor;
+    private final ByteBufAllocator allocator;
     private final DriftNettyConnectionFactoryConfig factoryConfig;
     private final Map<Optional<I>, ConnectionPool> connectionPools = new ConcurrentHashMap<>();
+    private final Map<Optional<I>, InFlightRequestLimiter> inFlightRequestLimiters = new ConcurrentHashMap<>();
 
     public static DriftNettyMethodInvokerFactory<?> createStaticDriftNettyMethodInvokerFactory(DriftNettyClientConfig clientConfig)
     {
@@ -86,19 +91,17 @@ public class DriftNettyMethodInvokerFactory<I>
     {
         this.factoryConfig = requireNonNull(factoryConfig, "factoryConfig is null");
 
-        if (factoryConfig.isNativeTransportEnabled()) {
-            checkState(Epoll.isAvailable(), "native transport is not available");
-            group = new EpollEventLoopGroup(factoryConfig.getThreadCount(), daemonThreadsNamed("drift-client-%s"));
-        }
-        else {
-            group = new NioEventLoopGroup(factoryConfig.getThreadCount(), daemonThreadsNamed("drift-client-%s"));
-        }
+        EventLoopType eventLoopType = selectEventLoopType(factoryConfig.getEventLoopType(), factoryConfig.isNativeTransportEnabled());
+        group = eventLoopType.createEventLoopGroup(factoryConfig.getThreadCount(), daemonThreadsNamed("drift-client-%s"));
         this.clientConfigurationProvider = requireNonNull(clientConfigurationProvider, "clientConfigurationProvider is null");
         this.sslContextFactory = createSslContextFactory(true, factoryConfig.getSslContextRefreshTime(), group);
         this.defaultSocksProxy = Optional.ofNullable(factoryConfig.getSocksProxy());
 
+        this.allocator = requireNonNull(allocator, "allocator is null");
+
         connectionPoolMaintenanceExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("drift-connection-maintenance"));
-        connectionFactory = new ConnectionFactory(group, sslContextFactory, allocator, factoryConfig);
+        responseDecodingExecutor = newFixedThreadPool(factoryConfig.getResponseDecodingThreadCount(), daemonThreadsNamed("drift-client-decoder-%s"));
+        connectionFactory = new ConnectionFactory(group, eventLoopType, sslContextFactory, allocator, responseDecodingExecutor);
     }
 
     @Override
@@ -112,7 +115,36 @@ public class DriftNettyMethodInvokerFactory<I>
                 .ifPresent(sslContextParameters -> sslContextFactory.get(sslContextParameters).get());
 
         ConnectionManager connectionManager = getConnectionManager(clientIdentity, driftNettyClientConfig);
-        return new DriftNettyMethodInvoker(clientConfig, connectionManager, group);
+        InFlightRequestLimiter inFlightRequestLimiter = getInFlightRequestLimiter(clientIdentity, driftNettyClientConfig);
+        return new DriftNettyMethodInvoker(
+                clientConfig,
+                connectionManager,
+                connectionFactory,
+                allocator,
+                inFlightRequestLimiter,
+                driftNettyClientConfig.isRejectUnwritableConnectionEnabled(),
+                group);
+    }
+
+    private InFlightRequestLimiter getInFlightRequestLimiter(I clientIdentity, DriftNettyClientConfig driftNettyClientConfig)
+    {
+        Integer maxRequestsConfig = driftNettyClientConfig.getMaxInFlightRequestsPerDestination();
+        DataSize maxBytesConfig = driftNettyClientConfig.getMaxInFlightBytesPerDestination();
+        int maxRequests = maxRequestsConfig == null ? Integer.MAX_VALUE : maxRequestsConfig;
+        long maxBytes = maxBytesConfig == null ? Long.MAX_VALUE : maxBytesConfig.toBytes();
+        int maxQueuedRequests = driftNettyClientConfig.getMaxQueuedRequestsPerDestination();
+        // queued requests are bounded by the request timeout, as the request would time out anyway
+        Duration maxQueuedTime = driftNettyClientConfig.getRequestTimeout();
+
+        // limits are shared by all invokers of a client, so they apply to the total load on each destination
+        InFlightRequestLimiter limiter = inFlightRequestLimiters.computeIfAbsent(
+                Optional.ofNullable(clientIdentity),
+                ignored -> new InFlightRequestLimiter(maxRequests, maxBytes, maxQueuedRequests, maxQueuedTime, group));
+        checkArgument(
+                limiter.hasLimits(maxRequests, maxBytes, maxQueuedRequests, maxQueuedTime),
+                "In-flight request limits for client %s differ from the limits of an existing invoker for the client",
+                clientIdentity);
+        return limiter;
     }
 
     public ConnectionManager getConnectionManager(I clientIdentity, DriftNettyClientConfig driftNettyClientConfig)
@@ -145,6 +177,7 @@ public class DriftNettyMethodInvokerFactory<I>
         }
         finally {
             connectionPoolMaintenanceExecutor.shutdownNow();
+            responseDecodingExecutor.shutdownNow();
             try {
                 group.shutdownGracefully().await();
             }
@@ -186,6 +219,16 @@ public class DriftNettyMethodInvokerFactory<I>
                 socksProxy,
                 sslContextConfig,
                 clientConfig.isTcpNoDelayEnabled(),
-                clientConfig.isReuseAddressEnabled());
+                clientConfig.isReuseAddressEnabled(),
+                clientConfig.isFlushConsolidationEnabled(),
+                clientConfig.getFlushConsolidationMaxFlushes(),
+                clientConfig.isCallerThreadEncodingEnabled(),
+                Optional.ofNullable(clientConfig.getResponseDecodingOffloadThreshold()),
+                clientConfig.getCompressionCodecs(),
+                clientConfig.getCompressionMinSize(),
+                Optional.ofNullable(clientConfig.getCompressionMinRatio()),
+                clientConfig.getPersistentHeaders(),
+                clientConfig.getStreamingMaxBufferedChunks(),
+                clientConfig.getStreamingIdleTimeout());
     }
 }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.client;
+
+import com.facebook.drift.transport.client.OverloadedException;
+import com.facebook.drift.transport.client.RequestTimeoutException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Bounds the number of requests and request bytes outstanding to each destination.
+ * Requests over the limit are queued up to a bound, and otherwise failed with an
+ * {@link OverloadedException}, so the retry policy can try another address. Queued
+ * requests that can not be started within the max queued time are failed with a
+ * {@link RequestTimeoutException}.
+ */
+@ThreadSafe
+class InFlightRequestLimiter
+{
+    private final int maxRequests;
+    private final long maxBytes;
+    private final int maxQueuedRequests;
+    private final Duration maxQueuedTime;
+    private final ScheduledExecutorService timeoutExecutor;
+
+    private final ConcurrentMap<HostAndPort, Destination> destinations = new ConcurrentHashMap<>();
+
+    public InFlightRequestLimiter(int maxRequests, long maxBytes, int maxQueuedRequests, Duration maxQueuedTime, ScheduledExecutorService timeoutExecutor)
+    {
+        checkArgument(maxRequests > 0, "maxRequests must be positive");
+        checkArgument(maxBytes > 0, "maxBytes must be positive");
+        checkArgument(maxQueuedRequests >= 0, "maxQueuedRequests is negative");
+        this.maxRequests = maxRequests;
+        this.maxBytes = maxBytes;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxQueuedTime = requireNonNull(maxQueuedTime, "maxQueuedTime is null");
+        this.timeoutExecutor = requireNonNull(timeoutExecutor, "timeoutExecutor is null");
+    }
+
+    public boolean hasLimits(int maxRequests, long maxBytes, int maxQueuedRequests, Duration maxQueuedTime)
+    {
+        return this.maxRequests == maxRequests &&
+                this.maxBytes == maxBytes &&
+                this.maxQueuedRequests == maxQueuedRequests &&
+                this.maxQueuedTime.equals(maxQueuedTime);
+    }
+
+    public boolean isEnabled()
+    {
+        return maxRequests != Integer.MAX_VALUE || maxBytes != Long.MAX_VALUE;
+    }
+
+    public boolean isByteLimitEnabled()
+    {
+        return maxBytes != Long.MAX_VALUE;
+    }
+
+    /**
+     * Starts the invocation when the destination is under the limits, or queues it
+     * until capacity is available. The {@code abandon} callback is run if the invocation
+     * is rejected, times out in the queue, or is canceled before it was started.
+     */
+    public ListenableFuture<Object> invoke(HostAndPort address, long requestSize, Callable<ListenableFuture<Object>> invocation, Runnable abandon)
+    {
+        if (!isEnabled()) {
+            return start(invocation);
+        }
+
+        while (true) {
+            Destination destination = destinations.computeIfAbsent(address, ignored -> new Destination());
+            synchronized (destination) {
+                // idle destinations are removed from the map, so a new one must be created
+                if (destination.isRetired()) {
+                    continue;
+                }
+
+                if (destination.tryAcquire(requestSize)) {
+                    break;
+                }
+
+                if (destination.getQueuedRequests() < maxQueuedRequests) {
+                    QueuedInvocation queuedInvocation = new QueuedInvocation(requestSize, invocation);
+                    destination.enqueue(queuedInvocation);
+                    ScheduledFuture<?> timeout = timeoutExecutor.schedule(() -> {
+                        // the invocation is only failed if it was not already started
+                        if (destination.removeQueued(queuedInvocation)) {
+                            abandon.run();
+                            queuedInvocation.getResult().setException(new RequestTimeoutException(format("Request to %s was not started within %s", address, maxQueuedTime)));
+                        }
+                    }, maxQueuedTime.roundTo(NANOSECONDS), NANOSECONDS);
+                    queuedInvocation.getResult().addListener(() -> {
+                        timeout.cancel(false);
+                        if (queuedInvocation.getResult().isCancelled() && destination.removeQueued(queuedInvocation)) {
+                            abandon.run();
+                        }
+                    }, directExecutor());
+                    return queuedInvocation.getResult();
+                }
+            }
+
+            abandon.run();
+            return immediateFailedFuture(new OverloadedException(format("Too many in-flight requests to %s", address)));
+        }
+
+        return startAndRelease(address, requestSize, invocation);
+    }
+
+    @VisibleForTesting
+    int getInFlightRequests(HostAndPort address)
+    {
+        Destination destination = destinations.get(address);
+        if (destination == null) {
+            return 0;
+        }
+        synchronized (destination) {
+            return destination.inFlightRequests;
+        }
+    }
+
+    private ListenableFuture<Object> startAndRelease(HostAndPort address, long requestSize, Callable<ListenableFuture<Object>> invocation)
+    {
+        ListenableFuture<Object> future = start(invocation);
+        future.addListener(() -> release(address, requestSize), directExecutor());
+        return future;
+    }
+
+    private void release(HostAndPort address, long requestSize)
+    {
+        Destination destination = destinations.get(address);
+        List<QueuedInvocation> startable = new ArrayList<>();
+        synchronized (destination) {
+            destination.release(requestSize);
+            QueuedInvocation next;
+            while ((next = destination.pollStartable()) != null) {
+                startable.add(next);
+            }
+            if (destination.isIdle()) {
+                destination.retire();
+                destinations.remove(address, destination);
+            }
+        }
+
+        // start queued requests outside of the lock, since they may complete synchronously
+        for (QueuedInvocation queuedInvocation : startable) {
+            ListenableFuture<Object> future = startAndRelease(address, queuedInvocation.getRequestSize(), queuedInvocation.getInvocation());
+            if (!queuedInvocation.getResult().setFuture(future)) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static ListenableFuture<Object> start(Callable<ListenableFuture<Object>> invocation)
+    {
+        try {
+            return invocation.call();
+        }
+        catch (Exception e) {
+            return immediateFailedFuture(e);
+        }
+    }
+
+    private final class Destination
+    {
+        @GuardedBy("this")
+        private int inFlightRequests;
+        @GuardedBy("this")
+        private long inFlightBytes;
+        @GuardedBy("this")
+        private final Deque<QueuedInvocation> queue = new ArrayDeque<>();
+        @GuardedBy("this")
+        private boolean retired;
+
+        @GuardedBy("this")
+        boolean tryAcquire(long requestSize)
+        {
+            // a request larger than the byte limit is allowed when nothing else is in flight
+            if (inFlightRequests >= maxRequests || (inFlightRequests > 0 && inFlightBytes + requestSize > maxBytes)) {
+                return false;
+            }
+            inFlightRequests++;
+            inFlightBytes += requestSize;
+            return true;
+        }
+
+        @GuardedBy("this")
+        void release(long requestSize)
+        {
+            inFlightRequests--;
+            inFlightBytes -= requestSize;
+        }
+
+        @GuardedBy("this")
+        QueuedInvocation pollStartable()
+        {
+            QueuedInvocation next = queue.peekFirst();
+            if (next == null || !tryAcquire(next.getRequestSize())) {
+                return null;
+            }
+            return queue.pollFirst();
+        }
+
+        @GuardedBy("this")
+        void enqueue(QueuedInvocation queuedInvocation)
+        {
+            queue.addLast(queuedInvocation);
+        }
+
+        synchronized boolean removeQueued(QueuedInvocation queuedInvocation)
+        {
+            return queue.remove(queuedInvocation);
+        }
+
+        @GuardedBy("this")
+        int getQueuedRequests()
+        {
+            return queue.size();
+        }
+
+        @GuardedBy("this")
+        boolean isIdle()
+        {
+            return inFlightRequests == 0 && queue.isEmpty();
+        }
+
+        @GuardedBy("this")
+        boolean isRetired()
+        {
+            return retired;
+        }
+
+        @GuardedBy("this")
+        void retire()
+        {
+            retired = true;
+        }
+    }
+
+    private static class QueuedInvocation
+    {
+        private final long requestSize;
+        private final Callable<ListenableFuture<Object>> invocation;
+        private final SettableFuture<Object> result = SettableFuture.create();
+
+        public QueuedInvocation(long requestSize, Callable<ListenableFuture<Object>> invocation)
+        {
+            this.requestSize = requestSize;
+            this.invocation = requireNonNull(invocation, "invocation is null");
+        }
+
+        public long getRequestSize()
+        {
+            return requestSize;
+        }
+
+        public Callable<ListenableFuture<Object>> getInvocation()
+        {
+            return invocation;
+        }
+
+        public SettableFuture<Object> getResult()
+        {
+            return result;
+        }
+    }
+}
@@ -20,15 +20,18 @@ import com.facebook.drift.TException;
 import com.facebook.drift.protocol.TTransportException;
 import com.facebook.drift.transport.client.ConnectionFailedException;
 import com.facebook.drift.transport.client.InvokeRequest;
+import com.facebook.drift.transport.client.OverloadedException;
 import com.facebook.drift.transport.netty.client.ConnectionManager.ConnectionParameters;
 import com.facebook.drift.transport.netty.client.ThriftClientHandler.ThriftRequest;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.util.concurrent.Future;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
@@ -46,6 +49,7 @@ class InvocationResponseFuture
     private final InvokeRequest request;
     private final ConnectionParameters connectionParameters;
     private final ConnectionManager connectionManager;
+    private final boolean rejectUnwritableConnection;
 
     @GuardedBy("this")
     private Future<Channel> connectionFuture;
@@ -53,7 +57,32 @@ class InvocationResponseFuture
     @GuardedBy("this")
     private ThriftRequest thriftRequest;
 
-    static InvocationResponseFuture createInvocationResponseFuture(InvokeRequest request, ConnectionParameters connectionParameters, ConnectionManager connectionManager)
+    @GuardedBy("this")
+    private ByteBuf encodedArguments;
+
+    static InvocationResponseFuture createInvocationResponseFuture(
+            InvokeRequest request,
+            ConnectionParameters connectionParameters,
+            ConnectionManager connectionManager,
+            Optional<ByteBuf> encodedArguments,
+            boolean rejectUnwritableConnection)
+            throws TException
+    {
+        try {
+            return createInvocationResponseFuture(request, connectionParameters, connectionManager, encodedArguments.orElse(null), rejectUnwritableConnection);
+        }
+        catch (Throwable t) {
+            encodedArguments.ifPresent(ByteBuf::release);
+            throw t;
+        }
+    }
+
+    private static InvocationResponseFuture createInvocationResponseFuture(
+            InvokeRequest request,
+            ConnectionParameters connectionParameters,
+            ConnectionManager connectionManager,
+            @Nullable ByteBuf encodedArguments,
+            boolean rejectUnwritableConnection)
             throws TException
     {
         Optional<Boolean> encryptionRequired = request.getAddress().isEncryptionRequired();
@@ -74,20 +103,37 @@ class InvocationResponseFuture
                     connectionParameters.getSocksProxy(),
                     Optional.empty(),
                     connectionParameters.isTcpNoDelayEnabled(),
-                    connectionParameters.isReuseAddressEnabled());
+                    connectionParameters.isReuseAddressEnabled(),
+                    connectionParameters.isFlushConsolidationEnabled(),
+                    connectionParameters.getFlushConsolidationMaxFlushes(),
+                    connectionParameters.isCallerThreadEncodingEnabled(),
+                    connectionParameters.getResponseDecodingOffloadThreshold(),
+                    connectionParameters.getCompressionCodecs(),
+                    connectionParameters.getCompressionMinSize(),
+                    connectionParameters.getCompressionMinRatio(),
+                    connectionParameters.getPersistentHeaders(),
+                    connectionParameters.getStreamingMaxBufferedChunks(),
+                    connectionParameters.getStreamingIdleTimeout());
         }
 
-        InvocationResponseFuture future = new InvocationResponseFuture(request, connectionParameters, connectionManager);
+        InvocationResponseFuture future = new InvocationResponseFuture(request, connectionParameters, connectionManager, encodedArguments, rejectUnwritableConnection);
         // invocation can not be started from constructor, because it may start threads that can call back into the unpublished object
         future.tryConnect();
         return future;
     }
 
-    private InvocationResponseFuture(InvokeRequest request, ConnectionParameters connectionParameters, ConnectionManager connectionManager)
+    private InvocationResponseFuture(
+            InvokeRequest request,
+            ConnectionParameters connectionParameters,
+            ConnectionManager connectionManager,
+            @Nullable ByteBuf encodedArguments,
+            boolean rejectUnwritableConnection)
     {
         this.request = requireNonNull(request, "request is null");
         this.connectionParameters = requireNonNull(connectionParameters, "connectionConfig is null");
         this.connectionManager = requireNonNull(connectionManager, "connectionManager is null");
+        this.encodedArguments = encodedArguments;
+        this.rejectUnwritableConnection = rejectUnwritableConnection;
 
         // if this invocation is canceled, cancel the tasks
         super.addListener(() -> {
@@ -129,15 +175,30 @@ class InvocationResponseFuture
             return;
         }
 
+        // a connection with a full outbound buffer indicates the destination is not keeping up
+        if (rejectUnwritableConnection && !channel.isWritable()) {
+            connectionManager.returnConnection(channel);
+            fatalError(new OverloadedException(format("Connection to %s is not writable", request.getAddress().getHostAndPort())));
+            return;
+        }
+
         try {
-            thriftRequest = new ThriftRequest(request.getMethod(), request.getParameters(), request.getHeaders());
+            // ownership of the encoded arguments is transferred to the thrift request
+            thriftRequest = new ThriftRequest(request.getMethod(), request.getParameters(), request.getHeaders(), Optional.ofNullable(encodedArguments), request.getDeadline());
+            encodedArguments = null;
             Futures.addCallback(thriftRequest, new FutureCallback<Object>()
                     {
                         @Override
                         public void onSuccess(Object result)
                         {
                             try {
-                                connectionManager.returnConnection(channel);
+                                if (result instanceof StreamingResponse) {
+                                    // the connection is used until the last chunk of the response is received
+                                    ((StreamingResponse) result).getCompletion().addListener(() -> connectionManager.returnConnection(channel), directExecutor());
+                                }
+                                else {
+                                    connectionManager.returnConnection(channel);
+                                }
                                 set(result);
                             }
                             catch (Throwable t) {
@@ -190,6 +251,16 @@ class InvocationResponseFuture
         }
     }
 
+    @Override
+    protected synchronized void afterDone()
+    {
+        // invocation completed before the request was sent
+        if (encodedArguments != null) {
+            encodedArguments.release();
+            encodedArguments = null;
+        }
+    }
+
     private void fatalError(Throwable throwable)
     {
         if (throwable instanceof IOException) {
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.client;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+import static java.util.Collections.emptyIterator;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Result of a streaming method whose response is received in several chunks. The chunks
+ * are buffered as they arrive, and {@link #hasNext()} blocks until the next chunk is
+ * available. When more than {@code maxBufferedChunks} chunks are waiting to be consumed,
+ * the connection handler stops reading from the connection until the consumer catches up.
+ * <p>
+ * A failure of the request after the first chunk, such as a timeout or an exception thrown
+ * by the server while producing the result, is thrown from {@link #hasNext()}. Callers that
+ * stop iterating early should {@link #close()} the iterator, so reading is not left paused.
+ */
+@ThreadSafe
+public class StreamingResponse
+        implements Iterator<Object>, AutoCloseable
+{
+    private static final Object END_OF_STREAM = new Object();
+
+    private final int maxBufferedChunks;
+    private final Consumer<StreamingResponse> resumeReading;
+
+    private final BlockingQueue<Object> chunks = new LinkedBlockingQueue<>();
+    private final AtomicInteger bufferedChunks = new AtomicInteger();
+    private final SettableFuture<Void> completion = SettableFuture.create();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // only accessed by the consumer
+    private Iterator<?> currentChunk = emptyIterator();
+    private boolean finished;
+
+    // only accessed by the connection event loop
+    private boolean readingPaused;
+
+    StreamingResponse(int maxBufferedChunks, Consumer<StreamingResponse> resumeReading)
+    {
+        checkArgument(maxBufferedChunks > 0, "maxBufferedChunks must be at least 1");
+        this.maxBufferedChunks = maxBufferedChunks;
+        this.resumeReading = requireNonNull(resumeReading, "resumeReading is null");
+    }
+
+    /**
+     * @return true if the consumer is too far behind, and reading should be paused
+     */
+    boolean addChunk(List<?> chunk)
+    {
+        if (closed.get()) {
+            return false;
+        }
+        chunks.add(chunk);
+        return bufferedChunks.incrementAndGet() > maxBufferedChunks;
+    }
+
+    void finish(List<?> lastChunk)
+    {
+        addChunk(lastChunk);
+        chunks.add(END_OF_STREAM);
+        completion.set(null);
+    }
+
+    void fail(Throwable throwable)
+    {
+        chunks.add(new Failure(throwable));
+        completion.set(null);
+    }
+
+    boolean isBacklogged()
+    {
+        return bufferedChunks.get() > maxBufferedChunks;
+    }
+
+    boolean isReadingPaused()
+    {
+        return readingPaused;
+    }
+
+    void setReadingPaused(boolean readingPaused)
+    {
+        this.readingPaused = readingPaused;
+    }
+
+    /**
+     * Completes when the last chunk is received or the request fails, after which the
+     * connection is no longer used by this response.
+     */
+    ListenableFuture<Void> getCompletion()
+    {
+        return completion;
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+        while (!currentChunk.hasNext()) {
+            if (finished) {
+                return false;
+            }
+
+            Object next = takeChunk();
+            if (next == END_OF_STREAM) {
+                finished = true;
+                return false;
+            }
+            if (next instanceof Failure) {
+                finished = true;
+                Throwable cause = ((Failure) next).getCause();
+                throwIfUnchecked(cause);
+                throw new UncheckedExecutionException(cause);
+            }
+
+            currentChunk = ((List<?>) next).iterator();
+            if (bufferedChunks.decrementAndGet() == maxBufferedChunks) {
+                resumeReading.accept(this);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Object next()
+    {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return currentChunk.next();
+    }
+
+    /**
+     * Discards the buffered and remaining chunks of the response.
+     */
+    @Override
+    public void close()
+    {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        finished = true;
+        currentChunk = emptyIterator();
+        chunks.clear();
+        bufferedChunks.set(0);
+        resumeReading.accept(this);
+    }
+
+    private Object takeChunk()
+    {
+        try {
+            return chunks.take();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedExecutionException("Interrupted while waiting for the next response chunk", e);
+        }
+    }
+
+    private static class Failure
+    {
+        private final Throwable cause;
+
+        public Failure(Throwable cause)
+        {
+            this.cause = requireNonNull(cause, "cause is null");
+        }
+
+        public Throwable getCause()
+        {
+            return cause;
+        }
+    }
+}
@@ -30,15 +30,20 @@ import com.facebook.drift.transport.ParameterMetadata;
 import com.facebook.drift.transport.client.DriftApplicationException;
 import com.facebook.drift.transport.client.MessageTooLargeException;
 import com.facebook.drift.transport.client.RequestTimeoutException;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy.MethodCompression;
 import com.facebook.drift.transport.netty.codec.FrameInfo;
 import com.facebook.drift.transport.netty.codec.FrameTooLargeException;
 import com.facebook.drift.transport.netty.codec.Protocol;
 import com.facebook.drift.transport.netty.codec.ThriftFrame;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
 import com.facebook.drift.transport.netty.codec.Transport;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferInputTransport;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferOutputTransport;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.AbstractFuture;
+import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
@@ -46,16 +51,21 @@ import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.EventExecutor;
 import io.netty.util.concurrent.ScheduledFuture;
 
-import javax.annotation.concurrent.ThreadSafe;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -67,30 +77,78 @@ import static com.facebook.drift.protocol.TMessageType.CALL;
 import static com.facebook.drift.protocol.TMessageType.EXCEPTION;
 import static com.facebook.drift.protocol.TMessageType.ONEWAY;
 import static com.facebook.drift.protocol.TMessageType.REPLY;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.ACCEPTED_TRANSFORMS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.ACCEPT_CHUNKS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.CLIENT_TIMEOUT_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.MORE_CHUNKS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.SERVER_DRAINING_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.encodeAcceptedTransforms;
+import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
 import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.units.Duration.succinctNanos;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-@ThreadSafe
 public class ThriftClientHandler
         extends ChannelDuplexHandler
 {
     private static final int ONEWAY_SEQUENCE_ID = 0xFFFF_FFFF;
+    private static final int MAX_POOLED_REQUEST_HANDLERS = 64;
 
     private final Duration requestTimeout;
     private final Transport transport;
     private final Protocol protocol;
-
-    private final ConcurrentHashMap<Integer, RequestHandler> pendingRequests = new ConcurrentHashMap<>();
+    private final Optional<DataSize> responseDecodingOffloadThreshold;
+    private final Executor responseDecodingExecutor;
+    private final List<ThriftHeaderTransform> compressionCodecs;
+    private final String acceptedTransforms;
+    private final CompressionPolicy compressionPolicy;
+    private final Map<String, String> persistentHeaders;
+    private final int streamingMaxBufferedChunks;
+    private final Duration streamingIdleTimeout;
+
+    // Netty invokes all handler methods and the request timeouts on the channel event loop,
+    // so the pending requests and the handler pool do not need to be thread safe
+    private final IntObjectMap<RequestHandler> pendingRequests = new IntObjectHashMap<>();
+    private final Deque<RequestHandler> requestHandlerPool = new ArrayDeque<>();
     private final AtomicReference<TException> channelError = new AtomicReference<>();
     private final AtomicInteger sequenceId = new AtomicInteger(42);
-
-    ThriftClientHandler(Duration requestTimeout, Transport transport, Protocol protocol)
+    private boolean serverDraining;
+    // requests are sent uncompressed until the server responds with one of the accepted compression codecs
+    private List<ThriftHeaderTransform> requestTransforms = ImmutableList.of();
+    // persistent headers are remembered by the server for the whole connection, so they are only sent once
+    private boolean persistentHeadersSent;
+    // reading is paused while any streaming response on this connection has too many unconsumed chunks;
+    // streaming requests are sent on a dedicated connection, so this does not delay other requests
+    private int pausedStreams;
+
+    ThriftClientHandler(
+            Duration requestTimeout,
+            Transport transport,
+            Protocol protocol,
+            Optional<DataSize> responseDecodingOffloadThreshold,
+            Executor responseDecodingExecutor,
+            List<ThriftHeaderTransform> compressionCodecs,
+            CompressionPolicy compressionPolicy,
+            Map<String, String> persistentHeaders,
+            int streamingMaxBufferedChunks,
+            Duration streamingIdleTimeout)
     {
         this.requestTimeout = requireNonNull(requestTimeout, "requestTimeout is null");
         this.transport = requireNonNull(transport, "transport is null");
         this.protocol = requireNonNull(protocol, "protocol is null");
+        this.responseDecodingOffloadThreshold = requireNonNull(responseDecodingOffloadThreshold, "responseDecodingOffloadThreshold is null");
+        this.responseDecodingExecutor = requireNonNull(responseDecodingExecutor, "responseDecodingExecutor is null");
+        this.compressionCodecs = ImmutableList.copyOf(requireNonNull(compressionCodecs, "compressionCodecs is null"));
+        this.acceptedTransforms = encodeAcceptedTransforms(this.compressionCodecs);
+        this.compressionPolicy = requireNonNull(compressionPolicy, "compressionPolicy is null");
+        this.persistentHeaders = ImmutableMap.copyOf(requireNonNull(persistentHeaders, "persistentHeaders is null"));
+        checkArgument(streamingMaxBufferedChunks > 0, "streamingMaxBufferedChunks must be at least 1");
+        this.streamingMaxBufferedChunks = streamingMaxBufferedChunks;
+        this.streamingIdleTimeout = requireNonNull(streamingIdleTimeout, "streamingIdleTimeout is null");
     }
 
     @Override
@@ -111,43 +169,94 @@ public class ThriftClientHandler
     {
         // todo ONEWAY_SEQUENCE_ID is a header protocol thing... make sure this works with framed and unframed
         int sequenceId = thriftRequest.isOneway() ? ONEWAY_SEQUENCE_ID : this.sequenceId.incrementAndGet();
-        RequestHandler requestHandler = new RequestHandler(thriftRequest, sequenceId);
+        RequestHandler requestHandler = newRequestHandler(thriftRequest, sequenceId);
 
-        // register timeout
-        requestHandler.registerRequestTimeout(context.executor());
+        // register timeout, which is shortened when the caller has an earlier deadline
+        long timeoutNanos = requestTimeout.roundTo(NANOSECONDS);
+        if (thriftRequest.getDeadline().isPresent()) {
+            timeoutNanos = max(0, min(timeoutNanos, thriftRequest.getDeadline().getAsLong() - System.nanoTime()));
+        }
+        requestHandler.registerRequestTimeout(context.executor(), timeoutNanos);
 
         // write request
         ByteBuf requestBuffer = requestHandler.encodeRequest(context.alloc());
 
         // register request if we are expecting a response
         if (!thriftRequest.isOneway()) {
-            if (pendingRequests.putIfAbsent(sequenceId, requestHandler) != null) {
+            if (pendingRequests.containsKey(sequenceId)) {
                 requestHandler.onChannelError(new TTransportException("Another request with the same sequenceId is already in progress"));
+                recycleRequestHandler(requestHandler);
                 requestBuffer.release();
                 return;
             }
+            pendingRequests.put(sequenceId, requestHandler);
         }
 
         // if this connection is failed, immediately fail the request
         TException channelError = this.channelError.get();
         if (channelError != null) {
-            thriftRequest.failed(channelError);
+            pendingRequests.remove(sequenceId);
+            requestHandler.onChannelError(channelError);
+            recycleRequestHandler(requestHandler);
             requestBuffer.release();
             return;
         }
 
         try {
+            Map<String, String> headers = thriftRequest.getHeaders();
+            Map<String, String> persistentHeaders = ImmutableMap.of();
+            if (transport == HEADER && !persistentHeadersSent) {
+                // the headers are constants of the connection, so they never depend on the caller of a request
+                persistentHeaders = this.persistentHeaders;
+                persistentHeadersSent = true;
+            }
+            boolean sendClientTimeout = thriftRequest.getDeadline().isPresent();
+            boolean streaming = thriftRequest.getMethod().isStreaming();
+            // the request headers are only copied when headers are added
+            if (transport == HEADER && (sendClientTimeout || !compressionCodecs.isEmpty() || streaming)) {
+                headers = new HashMap<>(headers);
+                // tell the server how long the response will be waited for, so it can skip or abandon the request;
+                // without a deadline, the server applies its own request timeout
+                if (sendClientTimeout) {
+                    headers.put(CLIENT_TIMEOUT_HEADER, String.valueOf(max(1, NANOSECONDS.toMillis(timeoutNanos))));
+                }
+                // offered on every request, since small requests are sent uncompressed even after the negotiation,
+                // and the server would not know that the response can be compressed
+                if (!compressionCodecs.isEmpty()) {
+                    headers.put(ACCEPTED_TRANSFORMS_HEADER, acceptedTransforms);
+                }
+                if (streaming) {
+                    headers.put(ACCEPT_CHUNKS_HEADER, "true");
+                }
+            }
+
+            Optional<MethodCompression> compression = Optional.empty();
+            if (!requestTransforms.isEmpty()) {
+                compression = Optional.of(compressionPolicy.getMethodCompression(thriftRequest.getMethod()));
+            }
             ThriftFrame thriftFrame = new ThriftFrame(
                     sequenceId,
                     requestBuffer,
-                    thriftRequest.getHeaders(),
-                    ImmutableList.of(),
+                    headers,
+                    requestTransforms,
                     transport,
                     protocol,
-                    true);
+                    true)
+                    .withPersistentHeaders(persistentHeaders)
+                    .withCompression(compression);
 
+            // the handler may be reused before the write completes, so the listener checks the generation
+            int generation = requestHandler.getGeneration();
             ChannelFuture sendFuture = context.write(thriftFrame, promise);
-            sendFuture.addListener(future -> messageSent(context, sendFuture, requestHandler));
+            if (!persistentHeaders.isEmpty()) {
+                // the server did not receive the persistent headers, so they are sent again with the next request
+                sendFuture.addListener(future -> {
+                    if (!future.isSuccess()) {
+                        persistentHeadersSent = false;
+                    }
+                });
+            }
+            sendFuture.addListener(future -> messageSent(context, sendFuture, requestHandler, generation));
         }
         catch (Throwable t) {
             onError(context, t, Optional.of(requestHandler));
@@ -155,15 +264,23 @@ public class ThriftClientHandler
         }
     }
 
-    private void messageSent(ChannelHandlerContext context, ChannelFuture future, RequestHandler requestHandler)
+    private void messageSent(ChannelHandlerContext context, ChannelFuture future, RequestHandler requestHandler, int generation)
     {
+        // request already completed (e.g., timed out or channel failed) and the handler was reused
+        if (requestHandler.getGeneration() != generation) {
+            return;
+        }
+
         try {
             if (!future.isSuccess()) {
                 onError(context, new TTransportException("Sending request failed", future.cause()), Optional.of(requestHandler));
                 return;
             }
 
-            requestHandler.onRequestSent();
+            // oneway requests are not registered in pending requests, so they are complete once sent
+            if (requestHandler.onRequestSent()) {
+                recycleRequestHandler(requestHandler);
+            }
         }
         catch (Throwable t) {
             onError(context, t, Optional.of(requestHandler));
@@ -184,12 +301,33 @@ public class ThriftClientHandler
     {
         RequestHandler requestHandler = null;
         try {
-            requestHandler = pendingRequests.remove(thriftFrame.getSequenceId());
+            // a streaming request remains registered until the last chunk of the response is received
+            boolean moreChunks = thriftFrame.getHeaders().containsKey(MORE_CHUNKS_HEADER);
+            requestHandler = moreChunks ? pendingRequests.get(thriftFrame.getSequenceId()) : pendingRequests.remove(thriftFrame.getSequenceId());
             if (requestHandler == null) {
                 throw new TTransportException("Unknown sequence id in response: " + thriftFrame.getSequenceId());
             }
 
-            requestHandler.onResponseReceived(thriftFrame.retain());
+            if (moreChunks) {
+                requestHandler.onChunkReceived(context, thriftFrame.retain());
+            }
+            else {
+                requestHandler.onResponseReceived(thriftFrame.retain());
+                recycleRequestHandler(requestHandler);
+            }
+
+            // the server chose one of the accepted codecs, so it can also decode requests compressed with it
+            if (requestTransforms.isEmpty() && !thriftFrame.getTransforms().isEmpty() && compressionCodecs.containsAll(thriftFrame.getTransforms())) {
+                requestTransforms = thriftFrame.getTransforms();
+            }
+
+            // the server is shutting down, so stop using this connection once the pending requests complete
+            if (thriftFrame.getHeaders().containsKey(SERVER_DRAINING_HEADER)) {
+                serverDraining = true;
+            }
+            if (serverDraining && pendingRequests.isEmpty()) {
+                context.close();
+            }
         }
         catch (Throwable t) {
             onError(context, t, Optional.ofNullable(requestHandler));
@@ -237,16 +375,16 @@ public class ThriftClientHandler
         currentRequest.ifPresent(request -> {
             pendingRequests.remove(request.getSequenceId());
             request.onChannelError(thriftException);
+            recycleRequestHandler(request);
         });
 
         // notify all pending requests of the error
-        // Note while loop should not be necessary since this class should be single
-        // threaded, but it is better to be safe in cleanup code
-        while (!pendingRequests.isEmpty()) {
-            pendingRequests.values().removeIf(request -> {
-                request.onChannelError(thriftException);
-                return true;
-            });
+        // requests are copied first since completing a request can run listeners that interact with this handler
+        List<RequestHandler> requests = new ArrayList<>(pendingRequests.values());
+        pendingRequests.clear();
+        for (RequestHandler request : requests) {
+            request.onChannelError(thriftException);
+            recycleRequestHandler(request);
         }
 
         context.close();
@@ -260,6 +398,7 @@ public class ThriftClientHandler
             RequestHandler request = pendingRequests.remove(frameInfo.get().getSequenceId());
             if (request != null) {
                 request.onChannelError(thriftException);
+                recycleRequestHandler(request);
                 return;
             }
         }
@@ -267,18 +406,190 @@ public class ThriftClientHandler
         onError(context, new MessageTooLargeException("unexpected too large response happened on communication channel", frameTooLargeException), Optional.empty());
     }
 
+    private void pauseReading(ChannelHandlerContext context, StreamingResponse stream)
+    {
+        if (!stream.isReadingPaused()) {
+            stream.setReadingPaused(true);
+            if (pausedStreams++ == 0) {
+                context.channel().config().setAutoRead(false);
+            }
+        }
+    }
+
+    private void resumeReading(ChannelHandlerContext context, StreamingResponse stream)
+    {
+        if (stream.isReadingPaused()) {
+            stream.setReadingPaused(false);
+            if (--pausedStreams == 0) {
+                context.channel().config().setAutoRead(true);
+            }
+        }
+    }
+
+    private RequestHandler newRequestHandler(ThriftRequest thriftRequest, int sequenceId)
+    {
+        RequestHandler requestHandler = requestHandlerPool.pollFirst();
+        if (requestHandler == null) {
+            requestHandler = new RequestHandler();
+        }
+        requestHandler.init(thriftRequest, sequenceId);
+        return requestHandler;
+    }
+
+    /**
+     * Returns a completed request handler to the pool. The handler must not be
+     * registered in the pending requests.
+     */
+    private void recycleRequestHandler(RequestHandler requestHandler)
+    {
+        if (requestHandler.release() && requestHandlerPool.size() < MAX_POOLED_REQUEST_HANDLERS) {
+            requestHandlerPool.addFirst(requestHandler);
+        }
+    }
+
+    /**
+     * Encodes the arguments struct of a request, without the message header, so
+     * large requests can be serialized before they are handed to the event loop.
+     */
+    static ByteBuf encodeArguments(ByteBufAllocator allocator, Protocol protocol, MethodMetadata method, List<Object> parameters)
+            throws Exception
+    {
+        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(allocator);
+        try {
+            writeArguments(protocol.createProtocol(transport), method, parameters);
+            return transport.getBuffer();
+        }
+        finally {
+            transport.release();
+        }
+    }
+
+    private static void writeArguments(TProtocolWriter protocolWriter, MethodMetadata method, List<Object> parameters)
+            throws Exception
+    {
+        ProtocolWriter writer = new ProtocolWriter(protocolWriter);
+        writer.writeStructBegin(method.getName() + "_args");
+        for (int i = 0; i < parameters.size(); i++) {
+            Object value = parameters.get(i);
+            ParameterMetadata parameter = method.getParameters().get(i);
+            writer.writeField(parameter.getName(), parameter.getFieldId(), parameter.getCodec(), value);
+        }
+        writer.writeStructEnd();
+    }
+
+    /**
+     * Decodes a large response on the response decoding executor, so other channels on
+     * this event loop are not stalled. The request handler may be reused as soon as this
+     * method returns, so only the supplied values may be used by the task.
+     */
+    private void decodeResponseAsync(ByteBuf responseMessage, ThriftRequest thriftRequest, int sequenceId)
+    {
+        try {
+            responseDecodingExecutor.execute(() -> {
+                try {
+                    thriftRequest.setResponse(decodeResponse(responseMessage, thriftRequest.getMethod(), sequenceId));
+                }
+                catch (Throwable throwable) {
+                    thriftRequest.failed(throwable);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            responseMessage.release();
+            thriftRequest.failed(new TTransportException("Response decoding executor rejected the response", e));
+        }
+    }
+
+    private Object decodeResponse(ByteBuf responseMessage, MethodMetadata method, int sequenceId)
+            throws Exception
+    {
+        TChannelBufferInputTransport transport = new TChannelBufferInputTransport(responseMessage);
+        try {
+            TProtocolReader protocolReader = protocol.createProtocol(transport);
+
+            // validate response header
+            TMessage message = protocolReader.readMessageBegin();
+            if (message.getType() == EXCEPTION) {
+                TApplicationException exception = ExceptionReader.readTApplicationException(protocolReader);
+                protocolReader.readMessageEnd();
+                throw exception;
+            }
+            if (message.getType() != REPLY) {
+                throw new TApplicationException(INVALID_MESSAGE_TYPE, format("Received invalid message type %s from server", message.getType()));
+            }
+            if (!message.getName().equals(method.getName())) {
+                throw new TApplicationException(WRONG_METHOD_NAME, format("Wrong method name in reply: expected %s but received %s", method.getName(), message.getName()));
+            }
+            if (message.getSequenceId() != sequenceId) {
+                throw new TApplicationException(BAD_SEQUENCE_ID, format("%s failed: out of sequence response", method.getName()));
+            }
+
+            // read response struct
+            ProtocolReader reader = new ProtocolReader(protocolReader);
+            reader.readStructBegin();
+
+            Object results = null;
+            Exception exception = null;
+            while (reader.nextField()) {
+                if (reader.getFieldId() == 0) {
+                    results = reader.readField(method.getResultCodec());
+                }
+                else {
+                    ThriftCodec<Object> exceptionCodec = method.getExceptionCodecs().get(reader.getFieldId());
+                    if (exceptionCodec != null) {
+                        exception = (Exception) reader.readField(exceptionCodec);
+                    }
+                    else {
+                        reader.skipFieldData();
+                    }
+                }
+            }
+            reader.readStructEnd();
+            protocolReader.readMessageEnd();
+
+            if (exception != null) {
+                throw new DriftApplicationException(exception);
+            }
+
+            if (method.getResultCodec().getType() == ThriftType.VOID) {
+                return null;
+            }
+
+            if (results == null) {
+                throw new TApplicationException(MISSING_RESULT, format("%s failed: unknown result", method.getName()));
+            }
+            return results;
+        }
+        finally {
+            transport.release();
+        }
+    }
+
     public static class ThriftRequest
             extends AbstractFuture<Object>
     {
         private final MethodMetadata method;
         private final List<Object> parameters;
         private final Map<String, String> headers;
+        private final AtomicReference<ByteBuf> encodedArguments;
+        private final OptionalLong deadline;
 
         public ThriftRequest(MethodMetadata method, List<Object> parameters, Map<String, String> headers)
+        {
+            this(method, parameters, headers, Optional.empty(), OptionalLong.empty());
+        }
+
+        /**
+         * @param encodedArguments arguments struct created with {@link #encodeArguments}; ownership is transferred to this request
+         * @param deadline {@link System#nanoTime()} after which the response is no longer needed
+         */
+        public ThriftRequest(MethodMetadata method, List<Object> parameters, Map<String, String> headers, Optional<ByteBuf> encodedArguments, OptionalLong deadline)
         {
             this.method = method;
             this.parameters = parameters;
             this.headers = headers;
+            this.encodedArguments = new AtomicReference<>(encodedArguments.orElse(null));
+            this.deadline = requireNonNull(deadline, "deadline is null");
         }
 
         MethodMetadata getMethod()
@@ -296,11 +607,31 @@ public class ThriftClientHandler
             return headers;
         }
 
+        OptionalLong getDeadline()
+        {
+            return deadline;
+        }
+
         boolean isOneway()
         {
             return method.isOneway();
         }
 
+        /**
+         * @return the pre-encoded arguments, if any; caller must release this buffer
+         */
+        Optional<ByteBuf> takeEncodedArguments()
+        {
+            return Optional.ofNullable(encodedArguments.getAndSet(null));
+        }
+
+        @Override
+        protected void afterDone()
+        {
+            // request completed before it was written
+            takeEncodedArguments().ifPresent(ByteBuf::release);
+        }
+
         void setResponse(Object response)
         {
             set(response);
@@ -314,16 +645,43 @@ public class ThriftClientHandler
 
     private final class RequestHandler
     {
-        private final ThriftRequest thriftRequest;
-        private final int sequenceId;
+        private ThriftRequest thriftRequest;
+        private int sequenceId;
+        // incremented each time the handler is recycled to detect stale callbacks
+        private int generation;
+
+        private boolean finished;
+        private ScheduledFuture<?> timeout;
+        private long timeoutNanos;
 
-        private final AtomicBoolean finished = new AtomicBoolean();
-        private final AtomicReference<ScheduledFuture<?>> timeout = new AtomicReference<>();
+        // set when the first chunk of a streaming response is received
+        private StreamingResponse stream;
+        private ChannelHandlerContext streamContext;
 
-        public RequestHandler(ThriftRequest thriftRequest, int sequenceId)
+        void init(ThriftRequest thriftRequest, int sequenceId)
         {
-            this.thriftRequest = thriftRequest;
+            this.thriftRequest = requireNonNull(thriftRequest, "thriftRequest is null");
             this.sequenceId = sequenceId;
+            this.finished = false;
+            this.timeout = null;
+            this.stream = null;
+            this.streamContext = null;
+        }
+
+        /**
+         * @return true if the handler was released by this call
+         */
+        boolean release()
+        {
+            if (thriftRequest == null) {
+                return false;
+            }
+            thriftRequest = null;
+            timeout = null;
+            stream = null;
+            streamContext = null;
+            generation++;
+            return true;
         }
 
         public int getSequenceId()
@@ -331,13 +689,20 @@ public class ThriftClientHandler
             return sequenceId;
         }
 
-        void registerRequestTimeout(EventExecutor executor)
+        int getGeneration()
         {
+            return generation;
+        }
+
+        void registerRequestTimeout(EventExecutor executor, long timeoutNanos)
+        {
+            int generation = this.generation;
+            this.timeoutNanos = timeoutNanos;
             try {
-                timeout.set(executor.schedule(
-                        () -> onChannelError(new RequestTimeoutException("Timed out waiting " + requestTimeout + " to receive response")),
-                        requestTimeout.toMillis(),
-                        MILLISECONDS));
+                timeout = executor.schedule(
+                        () -> onRequestTimeout(generation),
+                        timeoutNanos,
+                        NANOSECONDS);
             }
             catch (Throwable throwable) {
                 onChannelError(new TTransportException("Unable to schedule request timeout", throwable));
@@ -348,7 +713,13 @@ public class ThriftClientHandler
         ByteBuf encodeRequest(ByteBufAllocator allocator)
                 throws Exception
         {
-            TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(allocator);
+            MethodMetadata method = thriftRequest.getMethod();
+            Optional<ByteBuf> encodedArguments = thriftRequest.takeEncodedArguments();
+
+            // when the arguments were encoded by the caller, only the small message header is written here
+            TChannelBufferOutputTransport transport = encodedArguments.isPresent() ?
+                    new TChannelBufferOutputTransport(allocator.buffer(method.getName().length() + 16)) :
+                    new TChannelBufferOutputTransport(allocator);
             try {
                 TProtocolWriter protocolWriter = protocol.createProtocol(transport);
 
@@ -356,20 +727,15 @@ public class ThriftClientHandler
                 // captures, some clients always send CALL and so servers are forced to rely on the "oneway"
                 // attribute on thrift method in the interface definition, rather than checking the message
                 // type.
-                MethodMetadata method = thriftRequest.getMethod();
                 protocolWriter.writeMessageBegin(new TMessage(method.getName(), method.isOneway() ? ONEWAY : CALL, sequenceId));
 
-                // write the parameters
-                ProtocolWriter writer = new ProtocolWriter(protocolWriter);
-                writer.writeStructBegin(method.getName() + "_args");
-                List<Object> parameters = thriftRequest.getParameters();
-                for (int i = 0; i < parameters.size(); i++) {
-                    Object value = parameters.get(i);
-                    ParameterMetadata parameter = method.getParameters().get(i);
-                    writer.writeField(parameter.getName(), parameter.getFieldId(), parameter.getCodec(), value);
+                // the supported protocols do not write anything for the message end, so
+                // the message header and the arguments can be encoded separately
+                if (encodedArguments.isPresent()) {
+                    return allocator.compositeBuffer(2).addComponents(true, transport.getBuffer(), encodedArguments.get().retain());
                 }
-                writer.writeStructEnd();
 
+                writeArguments(protocolWriter, method, thriftRequest.getParameters());
                 protocolWriter.writeMessageEnd();
                 return transport.getBuffer();
             }
@@ -379,132 +745,183 @@ public class ThriftClientHandler
             }
             finally {
                 transport.release();
+                encodedArguments.ifPresent(ByteBuf::release);
             }
         }
 
-        void onRequestSent()
+        /**
+         * @return true if the request is complete after being sent
+         */
+        boolean onRequestSent()
         {
             if (!thriftRequest.isOneway()) {
-                return;
+                return false;
             }
 
-            if (!finished.compareAndSet(false, true)) {
-                return;
+            if (finished) {
+                return true;
             }
+            finished = true;
 
             try {
                 cancelRequestTimeout();
                 thriftRequest.setResponse(null);
             }
             catch (Throwable throwable) {
-                onChannelError(throwable);
+                thriftRequest.failed(throwable);
             }
+            return true;
         }
 
-        void onResponseReceived(ThriftFrame thriftFrame)
+        /**
+         * Handles a chunk of a streaming response that is followed by more chunks. The request
+         * completes with the stream when the first chunk is received, after which the request
+         * timeout is replaced by the streaming idle timeout, restarted by every chunk.
+         */
+        void onChunkReceived(ChannelHandlerContext context, ThriftFrame thriftFrame)
         {
             try {
-                if (!finished.compareAndSet(false, true)) {
+                if (finished) {
                     return;
                 }
 
+                List<?> chunk = (List<?>) decodeResponse(thriftFrame.getMessage(), thriftRequest.getMethod(), sequenceId);
+                if (stream == null) {
+                    stream = newStreamingResponse(context);
+                    streamContext = context;
+                    thriftRequest.setResponse(stream);
+                    if (thriftRequest.isCancelled()) {
+                        // nobody will consume the stream, so the remaining chunks are discarded
+                        stream.close();
+                    }
+                }
+                // the stream is not idle while reading is paused because the consumer is behind
                 cancelRequestTimeout();
-                Object response = decodeResponse(thriftFrame.getMessage());
-                thriftRequest.setResponse(response);
+                if (stream.addChunk(chunk)) {
+                    pauseReading(context, stream);
+                }
+                else {
+                    registerRequestTimeout(context.executor(), streamingIdleTimeout.roundTo(NANOSECONDS));
+                }
             }
             catch (Throwable throwable) {
-                thriftRequest.failed(throwable);
+                onChannelError(throwable);
             }
             finally {
                 thriftFrame.release();
             }
         }
 
-        Object decodeResponse(ByteBuf responseMessage)
-                throws Exception
+        void onResponseReceived(ThriftFrame thriftFrame)
         {
-            TChannelBufferInputTransport transport = new TChannelBufferInputTransport(responseMessage);
             try {
-                TProtocolReader protocolReader = protocol.createProtocol(transport);
-                MethodMetadata method = thriftRequest.getMethod();
-
-                // validate response header
-                TMessage message = protocolReader.readMessageBegin();
-                if (message.getType() == EXCEPTION) {
-                    TApplicationException exception = ExceptionReader.readTApplicationException(protocolReader);
-                    protocolReader.readMessageEnd();
-                    throw exception;
-                }
-                if (message.getType() != REPLY) {
-                    throw new TApplicationException(INVALID_MESSAGE_TYPE, format("Received invalid message type %s from server", message.getType()));
-                }
-                if (!message.getName().equals(method.getName())) {
-                    throw new TApplicationException(WRONG_METHOD_NAME, format("Wrong method name in reply: expected %s but received %s", method.getName(), message.getName()));
+                if (finished) {
+                    return;
                 }
-                if (message.getSequenceId() != sequenceId) {
-                    throw new TApplicationException(BAD_SEQUENCE_ID, format("%s failed: out of sequence response", method.getName()));
+                finished = true;
+
+                cancelRequestTimeout();
+                if (stream != null) {
+                    finishStream(thriftFrame);
+                    return;
                 }
 
-                // read response struct
-                ProtocolReader reader = new ProtocolReader(protocolReader);
-                reader.readStructBegin();
+                ByteBuf responseMessage = thriftFrame.getMessage();
+                if (responseDecodingOffloadThreshold.isPresent() && responseMessage.readableBytes() >= responseDecodingOffloadThreshold.get().toBytes()) {
+                    decodeResponseAsync(responseMessage, thriftRequest, sequenceId);
+                    return;
+                }
+                Object response = decodeResponse(responseMessage, thriftRequest.getMethod(), sequenceId);
+                thriftRequest.setResponse(response);
+            }
+            catch (Throwable throwable) {
+                thriftRequest.failed(throwable);
+            }
+            finally {
+                thriftFrame.release();
+            }
+        }
 
-                Object results = null;
-                Exception exception = null;
-                while (reader.nextField()) {
-                    if (reader.getFieldId() == 0) {
-                        results = reader.readField(method.getResultCodec());
-                    }
-                    else {
-                        ThriftCodec<Object> exceptionCodec = method.getExceptionCodecs().get(reader.getFieldId());
-                        if (exceptionCodec != null) {
-                            exception = (Exception) reader.readField(exceptionCodec);
-                        }
-                        else {
-                            reader.skipFieldData();
+        private StreamingResponse newStreamingResponse(ChannelHandlerContext context)
+        {
+            int generation = this.generation;
+            // the consumer signals from its own thread that it caught up with the buffered chunks
+            return new StreamingResponse(streamingMaxBufferedChunks, stream -> {
+                try {
+                    context.executor().execute(() -> {
+                        if (!stream.isBacklogged()) {
+                            resumeReading(context, stream);
+                            onStreamResumed(context, generation);
                         }
-                    }
+                    });
                 }
-                reader.readStructEnd();
-                protocolReader.readMessageEnd();
-
-                if (exception != null) {
-                    throw new DriftApplicationException(exception);
+                catch (RejectedExecutionException ignored) {
+                    // the connection is shutting down
                 }
+            });
+        }
 
-                if (method.getResultCodec().getType() == ThriftType.VOID) {
-                    return null;
-                }
+        private void onStreamResumed(ChannelHandlerContext context, int expectedGeneration)
+        {
+            if (generation != expectedGeneration || finished) {
+                return;
+            }
+            try {
+                cancelRequestTimeout();
+                registerRequestTimeout(context.executor(), streamingIdleTimeout.roundTo(NANOSECONDS));
+            }
+            catch (Throwable throwable) {
+                onChannelError(throwable);
+            }
+        }
 
-                if (results == null) {
-                    throw new TApplicationException(MISSING_RESULT, format("%s failed: unknown result", method.getName()));
-                }
-                return results;
+        private void finishStream(ThriftFrame thriftFrame)
+        {
+            try {
+                stream.finish((List<?>) decodeResponse(thriftFrame.getMessage(), thriftRequest.getMethod(), sequenceId));
             }
-            finally {
-                transport.release();
+            catch (Throwable throwable) {
+                stream.fail(throwable);
+            }
+            resumeReading(streamContext, stream);
+        }
+
+        private void onRequestTimeout(int expectedGeneration)
+        {
+            // timed out requests remain registered until the response arrives or the channel fails,
+            // so a late response is not reported as an unknown sequence id
+            if (generation == expectedGeneration) {
+                String waitingFor = stream == null ? "response" : "next chunk of streaming response";
+                onChannelError(new RequestTimeoutException("Timed out waiting " + succinctNanos(timeoutNanos) + " to receive " + waitingFor));
             }
         }
 
         void onChannelError(Throwable requestException)
         {
-            if (!finished.compareAndSet(false, true)) {
+            if (finished) {
                 return;
             }
+            finished = true;
 
             try {
                 cancelRequestTimeout();
             }
             finally {
-                thriftRequest.failed(requestException);
+                if (stream != null) {
+                    stream.fail(requestException);
+                    resumeReading(streamContext, stream);
+                }
+                else {
+                    thriftRequest.failed(requestException);
+                }
             }
         }
 
         private void cancelRequestTimeout()
         {
-            ScheduledFuture<?> timeout = this.timeout.get();
             if (timeout != null) {
                 timeout.cancel(false);
+                timeout = null;
             }
         }
     }
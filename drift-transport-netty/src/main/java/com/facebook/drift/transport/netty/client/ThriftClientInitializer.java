@@ -15,7 +15,9 @@
  */
 package com.facebook.drift.transport.netty.client;
 
+import com.facebook.drift.transport.netty.codec.CompressionPolicy;
 import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
 import com.facebook.drift.transport.netty.codec.Transport;
 import com.google.common.net.HostAndPort;
 import io.airlift.units.DataSize;
@@ -23,11 +25,16 @@ import io.airlift.units.Duration;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.proxy.Socks4ProxyHandler;
 import io.netty.handler.ssl.SslContext;
 
 import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.Executor;
 import java.util.function.Supplier;
 
 class ThriftClientInitializer
@@ -39,6 +46,15 @@ class ThriftClientInitializer
     private final Duration requestTimeout;
     private final Optional<HostAndPort> socksProxyAddress;
     private final Optional<Supplier<SslContext>> sslContextSupplier;
+    private final OptionalInt flushConsolidationMaxFlushes;
+    private final Optional<DataSize> responseDecodingOffloadThreshold;
+    private final List<ThriftHeaderTransform> compressionCodecs;
+    private final DataSize compressionMinSize;
+    private final Optional<Double> compressionMinRatio;
+    private final Map<String, String> persistentHeaders;
+    private final int streamingMaxBufferedChunks;
+    private final Duration streamingIdleTimeout;
+    private final Executor responseDecodingExecutor;
 
     public ThriftClientInitializer(
             Transport transport,
@@ -46,7 +62,16 @@ class ThriftClientInitializer
             DataSize maxFrameSize,
             Duration requestTimeout,
             Optional<HostAndPort> socksProxyAddress,
-            Optional<Supplier<SslContext>> sslContextSupplier)
+            Optional<Supplier<SslContext>> sslContextSupplier,
+            OptionalInt flushConsolidationMaxFlushes,
+            Optional<DataSize> responseDecodingOffloadThreshold,
+            List<ThriftHeaderTransform> compressionCodecs,
+            DataSize compressionMinSize,
+            Optional<Double> compressionMinRatio,
+            Map<String, String> persistentHeaders,
+            int streamingMaxBufferedChunks,
+            Duration streamingIdleTimeout,
+            Executor responseDecodingExecutor)
     {
         this.transport = transport;
         this.protocol = protocol;
@@ -54,6 +79,15 @@ class ThriftClientInitializer
         this.requestTimeout = requestTimeout;
         this.socksProxyAddress = socksProxyAddress;
         this.sslContextSupplier = sslContextSupplier;
+        this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+        this.responseDecodingOffloadThreshold = responseDecodingOffloadThreshold;
+        this.compressionCodecs = compressionCodecs;
+        this.compressionMinSize = compressionMinSize;
+        this.compressionMinRatio = compressionMinRatio;
+        this.persistentHeaders = persistentHeaders;
+        this.streamingMaxBufferedChunks = streamingMaxBufferedChunks;
+        this.streamingIdleTimeout = streamingIdleTimeout;
+        this.responseDecodingExecutor = responseDecodingExecutor;
     }
 
     @Override
@@ -65,8 +99,14 @@ class ThriftClientInitializer
 
         sslContextSupplier.ifPresent(sslContext -> pipeline.addLast(sslContext.get().newHandler(channel.alloc())));
 
+        // delay flushes until the event loop has processed all pending writes, so concurrent
+        // requests on this connection are written to the socket with a single gathering write
+        flushConsolidationMaxFlushes.ifPresent(maxFlushes -> pipeline.addLast(new FlushConsolidationHandler(maxFlushes, true)));
+
         transport.addFrameHandlers(pipeline, Optional.of(protocol), maxFrameSize, true);
 
-        pipeline.addLast(new ThriftClientHandler(requestTimeout, transport, protocol));
+        // compression statistics are kept for each connection, since a connection is used by a single service
+        CompressionPolicy compressionPolicy = new CompressionPolicy(compressionMinSize, compressionMinRatio);
+        pipeline.addLast(new ThriftClientHandler(requestTimeout, transport, protocol, responseDecodingOffloadThreshold, responseDecodingExecutor, compressionCodecs, compressionPolicy, persistentHeaders, streamingMaxBufferedChunks, streamingIdleTimeout));
     }
 }
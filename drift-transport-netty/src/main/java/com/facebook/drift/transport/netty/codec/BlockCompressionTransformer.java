@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import io.airlift.compress.Compressor;
+import io.airlift.compress.Decompressor;
+import io.airlift.compress.MalformedInputException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Base class for transforms backed by the pure Java block codecs of aircompressor.
+ * The whole message is compressed as a single block, directly between the NIO
+ * buffers of the input and output, and the output is sized exactly from the
+ * uncompressed length recorded in the compressed data.
+ */
+abstract class BlockCompressionTransformer
+        implements ThriftMessageTransformer
+{
+    // the codecs keep reusable hash tables and decoding state, so they are not thread safe
+    private final ThreadLocal<Compressor> compressor;
+    private final ThreadLocal<Decompressor> decompressor;
+
+    protected BlockCompressionTransformer(Supplier<Compressor> compressorFactory, Supplier<Decompressor> decompressorFactory)
+    {
+        requireNonNull(compressorFactory, "compressorFactory is null");
+        requireNonNull(decompressorFactory, "decompressorFactory is null");
+        this.compressor = ThreadLocal.withInitial(compressorFactory);
+        this.decompressor = ThreadLocal.withInitial(decompressorFactory);
+    }
+
+    /**
+     * Writes the uncompressed length in front of the compressed block, for codecs
+     * that do not record it in the block itself. At most {@link Integer#BYTES} may be written.
+     */
+    protected void writeUncompressedLength(ByteBuf output, int uncompressedLength) {}
+
+    /**
+     * Reads the uncompressed length of the compressed block starting at the reader index of the input.
+     *
+     * @throws MalformedInputException if the length is missing or invalid
+     */
+    protected abstract int readUncompressedLength(ByteBuf input);
+
+    @Override
+    public ByteBuf transform(ByteBufAllocator bufAllocator, ByteBuf input)
+    {
+        try {
+            Compressor compressor = this.compressor.get();
+            int uncompressedLength = input.readableBytes();
+            ByteBuf output = bufAllocator.buffer(Integer.BYTES + compressor.maxCompressedLength(uncompressedLength));
+            try {
+                writeUncompressedLength(output, uncompressedLength);
+                ByteBuffer outputBuffer = output.nioBuffer(output.writerIndex(), output.writableBytes());
+                int start = outputBuffer.position();
+                compressor.compress(toNioBuffer(input), outputBuffer);
+                output.writerIndex(output.writerIndex() + outputBuffer.position() - start);
+                return output;
+            }
+            catch (RuntimeException e) {
+                output.release();
+                throw e;
+            }
+        }
+        finally {
+            input.release();
+        }
+    }
+
+    @Override
+    public ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input, int maxOutputSize)
+    {
+        try {
+            // the length is declared by the peer, so it is verified before the output is allocated
+            int uncompressedLength = readUncompressedLength(input);
+            if (uncompressedLength < 0) {
+                throw new MalformedInputException(input.readerIndex(), "Invalid uncompressed length: " + uncompressedLength);
+            }
+            if (uncompressedLength > maxOutputSize) {
+                throw new FrameTooLargeException(Optional.empty(), uncompressedLength, maxOutputSize);
+            }
+            ByteBuf output = bufAllocator.buffer(uncompressedLength);
+            try {
+                ByteBuffer outputBuffer = output.nioBuffer(0, uncompressedLength);
+                int start = outputBuffer.position();
+                decompressor.get().decompress(toNioBuffer(input), outputBuffer);
+                output.writerIndex(outputBuffer.position() - start);
+                return output;
+            }
+            catch (RuntimeException e) {
+                output.release();
+                throw e;
+            }
+        }
+        finally {
+            input.release();
+        }
+    }
+
+    @Override
+    public ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, boolean inputComplete, int minimumSize)
+    {
+        // a block can only be decoded as a whole, so a truncated block, or a block that decodes to more
+        // than the requested size, yields no output instead of allocating the whole output on every attempt
+        if (!inputComplete) {
+            input.release();
+            return bufAllocator.buffer(0);
+        }
+        try {
+            return untransform(bufAllocator, input, minimumSize);
+        }
+        catch (MalformedInputException | FrameTooLargeException e) {
+            return bufAllocator.buffer(0);
+        }
+    }
+
+    private static ByteBuffer toNioBuffer(ByteBuf buffer)
+    {
+        ByteBuffer nioBuffer = buffer.nioBuffer();
+        if (nioBuffer.isReadOnly()) {
+            // the codecs need access to the backing array or memory address
+            return ByteBuffer.wrap(ByteBufUtil.getBytes(buffer));
+        }
+        return nioBuffer;
+    }
+}
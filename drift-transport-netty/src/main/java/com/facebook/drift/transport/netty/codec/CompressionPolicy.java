@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import com.facebook.airlift.stats.CounterStat;
+import com.facebook.airlift.stats.DecayCounter;
+import com.facebook.drift.transport.MethodMetadata;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.MapMaker;
+import io.airlift.units.DataSize;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.airlift.stats.ExponentialDecay.oneMinute;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decides which frames of the HEADER transport are compressed with the negotiated transforms.
+ * Messages smaller than the minimum size are always sent uncompressed. When a minimum compression
+ * ratio is set, the recent ratio is tracked for each method, and messages of methods that compress
+ * poorly are sent uncompressed, except for a periodic sample that keeps the ratio current.
+ * <p>
+ * Methods are identified by their metadata rather than their name, so methods with the same name
+ * in different services are tracked separately.
+ */
+@ThreadSafe
+public class CompressionPolicy
+{
+    @VisibleForTesting
+    static final int SAMPLE_INTERVAL = 64;
+
+    private final long minSize;
+    private final OptionalDouble minRatio;
+    private final Ticker ticker;
+    // keyed by identity, and weak so metadata of discarded clients does not accumulate
+    private final ConcurrentMap<MethodMetadata, MethodCompression> methods = new MapMaker().weakKeys().makeMap();
+
+    private final CounterStat compressedMessages = new CounterStat();
+    private final CounterStat skippedMessages = new CounterStat();
+
+    public CompressionPolicy(DataSize minSize, Optional<Double> minRatio)
+    {
+        this(minSize, minRatio, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CompressionPolicy(DataSize minSize, Optional<Double> minRatio, Ticker ticker)
+    {
+        requireNonNull(minSize, "minSize is null");
+        requireNonNull(minRatio, "minRatio is null");
+        minRatio.ifPresent(ratio -> checkArgument(ratio > 0, "minRatio must be positive"));
+        this.minSize = minSize.toBytes();
+        this.minRatio = minRatio.map(OptionalDouble::of).orElseGet(OptionalDouble::empty);
+        this.ticker = requireNonNull(ticker, "ticker is null");
+    }
+
+    public static CompressionPolicy compressAll()
+    {
+        return new CompressionPolicy(new DataSize(0, BYTE), Optional.empty());
+    }
+
+    public MethodCompression getMethodCompression(MethodMetadata method)
+    {
+        return methods.computeIfAbsent(method, ignored -> new MethodCompression());
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getCompressedMessages()
+    {
+        return compressedMessages;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getSkippedMessages()
+    {
+        return skippedMessages;
+    }
+
+    @ThreadSafe
+    public final class MethodCompression
+    {
+        private final DecayCounter uncompressedBytes = new DecayCounter(oneMinute(), ticker);
+        private final DecayCounter compressedBytes = new DecayCounter(oneMinute(), ticker);
+        private final AtomicLong poorlyCompressedMessages = new AtomicLong();
+
+        private MethodCompression() {}
+
+        /**
+         * @return true if a message of the specified size should be compressed
+         */
+        public boolean shouldCompress(int messageSize)
+        {
+            if (messageSize < minSize) {
+                skippedMessages.update(1);
+                return false;
+            }
+            if (minRatio.isPresent() && getCompressionRatio() < minRatio.getAsDouble() && poorlyCompressedMessages.incrementAndGet() % SAMPLE_INTERVAL != 0) {
+                skippedMessages.update(1);
+                return false;
+            }
+            return true;
+        }
+
+        public void recordCompression(int uncompressedSize, int compressedSize)
+        {
+            uncompressedBytes.add(uncompressedSize);
+            compressedBytes.add(compressedSize);
+            compressedMessages.update(1);
+        }
+
+        /**
+         * @return the recent ratio of uncompressed to compressed bytes, or infinity if no message was compressed
+         */
+        public double getCompressionRatio()
+        {
+            double compressed = compressedBytes.getCount();
+            if (compressed == 0) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return uncompressedBytes.getCount() / compressed;
+        }
+    }
+}
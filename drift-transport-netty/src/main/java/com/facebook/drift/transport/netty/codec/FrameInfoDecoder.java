@@ -23,7 +23,8 @@ import java.util.Optional;
 interface FrameInfoDecoder
 {
     /**
-     * Attempts to decode basic frame info without moving the reader index
+     * Attempts to decode basic frame info without moving the reader index. The buffer starts
+     * with the frame, and only holds the whole frame when at least frameSize bytes are readable.
      */
-    Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf buffer);
+    Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf buffer, long frameSize);
 }
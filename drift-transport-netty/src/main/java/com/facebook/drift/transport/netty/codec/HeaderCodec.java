@@ -20,16 +20,27 @@ import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class HeaderCodec
         extends ChannelDuplexHandler
 {
+    private final HeaderTable headerTable = new HeaderTable();
+    private final int maxFrameSize;
+
+    public HeaderCodec(int maxFrameSize)
+    {
+        checkArgument(maxFrameSize >= 0, "maxFrameSize cannot be negative");
+        this.maxFrameSize = maxFrameSize;
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext context, Object message)
     {
         if (message instanceof ByteBuf) {
             ByteBuf request = (ByteBuf) message;
             if (request.isReadable()) {
-                context.fireChannelRead(HeaderTransport.decodeFrame(context.alloc(), request));
+                context.fireChannelRead(HeaderTransport.decodeFrame(context.alloc(), request, headerTable, maxFrameSize));
                 return;
             }
         }
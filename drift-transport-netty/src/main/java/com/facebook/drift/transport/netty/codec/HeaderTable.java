@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.CLIENT_TIMEOUT_HEADER;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Header state of a connection using the HEADER transport. It remembers the
+ * persistent headers received on the connection, which apply to every later
+ * frame, and interns the header keys and values that are repeated on most
+ * frames, such as tracing and authentication headers, so they are not decoded
+ * again for every frame. The interned strings are bounded and the least recently
+ * used are evicted, so values that change on every request, such as trace ids,
+ * do not displace the strings that repeat.
+ */
+@NotThreadSafe
+public final class HeaderTable
+{
+    @VisibleForTesting
+    static final int MAX_INTERNED_STRINGS = 256;
+    @VisibleForTesting
+    static final int MAX_INTERNED_STRING_LENGTH = 256;
+
+    private static final Set<String> PER_REQUEST_HEADERS = ImmutableSet.of(CLIENT_TIMEOUT_HEADER);
+
+    private final Map<ByteBuf, String> internedStrings = new LinkedHashMap<ByteBuf, String>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ByteBuf, String> eldest)
+        {
+            return size() > MAX_INTERNED_STRINGS;
+        }
+    };
+    private Map<String, String> persistentHeaders = ImmutableMap.of();
+
+    public Map<String, String> getPersistentHeaders()
+    {
+        return persistentHeaders;
+    }
+
+    void addPersistentHeaders(Map<String, String> headers)
+    {
+        if (headers.isEmpty()) {
+            return;
+        }
+        Map<String, String> merged = new LinkedHashMap<>(persistentHeaders);
+        merged.putAll(headers);
+        persistentHeaders = ImmutableMap.copyOf(merged);
+    }
+
+    /**
+     * @return the headers of the frame merged with the persistent headers; headers of the frame take precedence
+     */
+    Map<String, String> mergeHeaders(Map<String, String> frameHeaders)
+    {
+        if (frameHeaders.isEmpty()) {
+            return persistentHeaders;
+        }
+        if (persistentHeaders.isEmpty()) {
+            return frameHeaders;
+        }
+        Map<String, String> merged = new LinkedHashMap<>(persistentHeaders);
+        merged.putAll(frameHeaders);
+        return ImmutableMap.copyOf(merged);
+    }
+
+    @VisibleForTesting
+    int getInternedStringCount()
+    {
+        return internedStrings.size();
+    }
+
+    /**
+     * Reads the UTF-8 value of the specified header from the buffer.
+     */
+    String readHeaderValue(String key, ByteBuf buffer, int length)
+    {
+        if (PER_REQUEST_HEADERS.contains(key)) {
+            return buffer.readCharSequence(length, UTF_8).toString();
+        }
+        return readString(buffer, length);
+    }
+
+    /**
+     * Reads a UTF-8 string of the specified length from the buffer.
+     */
+    String readString(ByteBuf buffer, int length)
+    {
+        if (length > MAX_INTERNED_STRING_LENGTH) {
+            return buffer.readCharSequence(length, UTF_8).toString();
+        }
+
+        // the lookup compares the bytes in place, so a known string is neither copied nor decoded
+        ByteBuf bytes = buffer.slice(buffer.readerIndex(), length);
+        String value = internedStrings.get(bytes);
+        if (value == null) {
+            value = bytes.toString(UTF_8);
+            internedStrings.put(Unpooled.copiedBuffer(bytes), value);
+        }
+        buffer.skipBytes(length);
+        return value;
+    }
+}
@@ -16,13 +16,18 @@
 package com.facebook.drift.transport.netty.codec;
 
 import com.facebook.airlift.log.Logger;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy.MethodCompression;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -32,10 +37,37 @@ import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 import static com.google.common.collect.ImmutableList.builder;
+import static java.lang.Math.toIntExact;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.joining;
 
 public final class HeaderTransport
 {
+    /**
+     * Remaining time in milliseconds the client is willing to wait for the response
+     */
+    public static final String CLIENT_TIMEOUT_HEADER = "client_timeout";
+
+    /**
+     * Set on responses of a server that is shutting down, so the client stops using the connection
+     */
+    public static final String SERVER_DRAINING_HEADER = "server_draining";
+
+    /**
+     * Comma separated ids of the transforms the client accepts for responses, in order of preference
+     */
+    public static final String ACCEPTED_TRANSFORMS_HEADER = "accepted_transforms";
+
+    /**
+     * Set on requests for a streaming method when the client accepts the result in several chunks
+     */
+    public static final String ACCEPT_CHUNKS_HEADER = "accept_chunks";
+
+    /**
+     * Set on each response chunk that is followed by more chunks of the same response
+     */
+    public static final String MORE_CHUNKS_HEADER = "more_chunks";
+
     private static final Logger log = Logger.get(HeaderTransport.class);
     private static final int HEADER_MAGIC = 0x0FFF;
     private static final int FRAME_HEADER_SIZE =
@@ -49,11 +81,33 @@ public final class HeaderTransport
     private static final int FLAG_SUPPORT_OUT_OF_ORDER_MASK = 1;
 
     private static final int NORMAL_HEADERS = 1;
-    private static final int PERSISTENT_HEADERS = 1;
+    private static final int PERSISTENT_HEADERS = 2;
     private static final int MAX_MESSAGE_BEGIN_SECTION_SIZE = 1048576; // 1MB at most for message name + sequence Id + length
 
     private HeaderTransport() {}
 
+    public static String encodeAcceptedTransforms(List<ThriftHeaderTransform> transforms)
+    {
+        return transforms.stream()
+                .map(transform -> String.valueOf(transform.getId()))
+                .collect(joining(","));
+    }
+
+    /**
+     * Selects the first transform accepted by the client that is also supported by the server.
+     * Unknown or malformed transform ids are ignored, so newer clients can talk to older servers.
+     */
+    public static Optional<ThriftHeaderTransform> selectAcceptedTransform(String acceptedTransforms, List<ThriftHeaderTransform> supportedTransforms)
+    {
+        for (String id : Splitter.on(',').trimResults().omitEmptyStrings().split(acceptedTransforms)) {
+            Optional<ThriftHeaderTransform> transform = Optional.ofNullable(Ints.tryParse(id)).flatMap(ThriftHeaderTransform::tryFromId);
+            if (transform.isPresent() && supportedTransforms.contains(transform.get())) {
+                return transform;
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Encodes the HeaderFrame into a ByteBuf transferring the reference ownership.
      *
@@ -64,54 +118,68 @@ public final class HeaderTransport
     public static ByteBuf encodeFrame(ByteBufAllocator bufAllocator, ThriftFrame frame)
     {
         try {
-            // describe the encoding (Thrift protocol, compression info)
-            ByteBuf encodingInfo = Unpooled.buffer(3);
-            encodingInfo.writeByte(frame.getProtocol().getHeaderTransportId());
             List<ThriftHeaderTransform> writeTransforms = frame.getTransforms();
-            writeVint(encodingInfo, writeTransforms.size());
-            for (ThriftHeaderTransform transform : writeTransforms) {
-                writeVint(encodingInfo, transform.getId());
+            int messageSize = frame.getMessageSize();
+            Optional<MethodCompression> compression = writeTransforms.isEmpty() ? Optional.empty() : frame.getCompression();
+            if (compression.isPresent() && !compression.get().shouldCompress(messageSize)) {
+                writeTransforms = ImmutableList.of();
+                compression = Optional.empty();
+            }
+
+            // the frame header, encoding info, headers and padding are written into a single buffer
+            ByteBuf prefix = bufAllocator.buffer(estimatePrefixSize(writeTransforms, frame.getHeaders(), frame.getPersistentHeaders()));
+            try {
+                // frame header (magic, flags, sequenceId, headerSize), the header size is set once known
+                prefix.writeShort(HEADER_MAGIC);
+                prefix.writeShort(frame.isSupportOutOfOrderResponse() ? FLAG_SUPPORT_OUT_OF_ORDER : FLAGS_NONE);
+                prefix.writeInt(frame.getSequenceId());
+                int headerSizeIndex = prefix.writerIndex();
+                prefix.writeShort(0);
+
+                // describe the encoding (Thrift protocol, compression info)
+                prefix.writeByte(frame.getProtocol().getHeaderTransportId());
+                writeVint(prefix, writeTransforms.size());
+                for (ThriftHeaderTransform transform : writeTransforms) {
+                    writeVint(prefix, transform.getId());
+                }
+
+                // headers
+                encodeHeaders(prefix, NORMAL_HEADERS, frame.getHeaders());
+                encodeHeaders(prefix, PERSISTENT_HEADERS, frame.getPersistentHeaders());
+
+                // Padding - header size must be a multiple of 4
+                int headerSize = prefix.writerIndex() - FRAME_HEADER_SIZE;
+                int paddingSize = 4 - headerSize % 4;
+                prefix.writeZero(paddingSize);
+                headerSize += paddingSize;
+                prefix.setShort(headerSizeIndex, headerSize >> 2);
+
+                ByteBuf transformedMessage = transform(bufAllocator, frame.getMessage(), writeTransforms);
+                compression.ifPresent(methodCompression -> methodCompression.recordCompression(messageSize, transformedMessage.readableBytes()));
+
+                // header frame is a simple wrapper around the frame method, so the frame does not need to be released
+                return Unpooled.wrappedBuffer(prefix, transformedMessage);
+            }
+            catch (RuntimeException e) {
+                prefix.release();
+                throw e;
             }
-            // headers
-            ByteBuf encodedHeaders = encodeHeaders(frame.getHeaders());
-
-            // Padding - header size must be a multiple of 4
-            int headerSize = encodingInfo.readableBytes() + encodedHeaders.readableBytes();
-            ByteBuf padding = getPadding(headerSize);
-            headerSize += padding.readableBytes();
-
-            // frame header (magic, flags, sequenceId, headerSize
-            ByteBuf frameHeader = Unpooled.buffer(FRAME_HEADER_SIZE);
-            frameHeader.writeShort(HEADER_MAGIC);
-            frameHeader.writeShort(frame.isSupportOutOfOrderResponse() ? FLAG_SUPPORT_OUT_OF_ORDER : FLAGS_NONE);
-            frameHeader.writeInt(frame.getSequenceId());
-            frameHeader.writeShort(headerSize >> 2);
-
-            // header frame is a simple wrapper around the frame method, so the frame does not need to be released
-            return Unpooled.wrappedBuffer(
-                    frameHeader,
-                    encodingInfo,
-                    encodedHeaders,
-                    padding,
-                    transform(bufAllocator, frame.getMessage(), writeTransforms));
         }
         finally {
             frame.release();
         }
     }
 
-    private static ByteBuf getPadding(int headerSize)
+    private static int estimatePrefixSize(List<ThriftHeaderTransform> transforms, Map<String, String> headers, Map<String, String> persistentHeaders)
     {
-        int paddingSize = 4 - headerSize % 4;
-        ByteBuf padding = Unpooled.buffer(paddingSize);
-        padding.writeZero(paddingSize);
-        return padding;
+        // 1 byte for the protocol, 5 for the transform count vint and each transform id vint, and 4 at most for padding
+        return FRAME_HEADER_SIZE + 1 + 5 + (transforms.size() * 5) + estimateHeadersSize(headers) + estimateHeadersSize(persistentHeaders) + 4;
     }
 
-    private static ByteBuf encodeHeaders(Map<String, String> headers)
+    private static int estimateHeadersSize(Map<String, String> headers)
     {
         if (headers.isEmpty()) {
-            return Unpooled.EMPTY_BUFFER;
+            return 0;
         }
 
         // 1 bytes for header type, 5 for header count vint, and 5 for each header key and value length vint
@@ -120,23 +188,27 @@ public final class HeaderTransport
             // assume the key and value are ASCII
             estimatedSize += entry.getKey().length() + entry.getValue().length();
         }
+        return estimatedSize;
+    }
+
+    private static void encodeHeaders(ByteBuf out, int headersType, Map<String, String> headers)
+    {
+        if (headers.isEmpty()) {
+            return;
+        }
 
-        ByteBuf headersBuffer = Unpooled.buffer(estimatedSize);
-        // non persistent header
-        headersBuffer.writeByte(0x01);
-        writeVint(headersBuffer, headers.size());
+        out.writeByte(headersType);
+        writeVint(out, headers.size());
         for (Entry<String, String> entry : headers.entrySet()) {
-            writeString(headersBuffer, entry.getKey());
-            writeString(headersBuffer, entry.getValue());
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
         }
-        return headersBuffer;
     }
 
     private static void writeString(ByteBuf out, String value)
     {
-        byte[] bytes = value.getBytes(UTF_8);
-        writeVint(out, bytes.length);
-        out.writeBytes(bytes);
+        writeVint(out, ByteBufUtil.utf8Bytes(value));
+        out.writeCharSequence(value, UTF_8);
     }
 
     private static void writeVint(ByteBuf out, int n)
@@ -160,6 +232,20 @@ public final class HeaderTransport
      * @return the decoded frame; caller is responsible for releasing this object
      */
     public static ThriftFrame decodeFrame(ByteBufAllocator bufAllocator, ByteBuf buffer)
+    {
+        return decodeFrame(bufAllocator, buffer, new HeaderTable(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes the ByteBuf into a HeaderFrame transferring the reference ownership.
+     *
+     * @param bufAllocator allocator to allocated byteBuf to contain decoded result.
+     * @param buffer buffer to be decoded; reference count ownership is transferred to this method
+     * @param headerTable header state of the connection the frame was read from
+     * @param maxFrameSize maximum size of the message after the transforms are reverted
+     * @return the decoded frame; caller is responsible for releasing this object
+     */
+    public static ThriftFrame decodeFrame(ByteBufAllocator bufAllocator, ByteBuf buffer, HeaderTable headerTable, int maxFrameSize)
     {
         ByteBuf messageHeader = null;
         try {
@@ -180,7 +266,7 @@ public final class HeaderTransport
             }
             int frameSequenceId = buffer.readInt();
             int headerSize = buffer.readShort() << 2;
-            messageHeader = buffer.readBytes(headerSize);
+            messageHeader = buffer.readRetainedSlice(headerSize);
 
             // encoding info
             byte protocolId = messageHeader.readByte();
@@ -196,16 +282,26 @@ public final class HeaderTransport
             List<ThriftHeaderTransform> readTransforms = readTransformsBuilder.build();
 
             // headers
-            // todo what about duplicate headers?
-            ImmutableMap.Builder<String, String> allHeaders = ImmutableMap.builder();
-            allHeaders.putAll(decodeHeaders(NORMAL_HEADERS, messageHeader));
-            allHeaders.putAll(decodeHeaders(PERSISTENT_HEADERS, messageHeader));
+            Map<String, String> headers = ImmutableMap.of();
+            while (messageHeader.isReadable()) {
+                int headersType = readVariableLengthInt(messageHeader);
+                if (headersType == NORMAL_HEADERS) {
+                    headers = decodeHeaders(messageHeader, headerTable);
+                }
+                else if (headersType == PERSISTENT_HEADERS) {
+                    headerTable.addPersistentHeaders(decodeHeaders(messageHeader, headerTable));
+                }
+                else {
+                    // padding, or an info section this implementation does not know
+                    break;
+                }
+            }
 
             // message
-            ByteBuf message = untransform(bufAllocator, buffer.retainedDuplicate(), readTransforms);
+            ByteBuf message = untransform(bufAllocator, buffer.retainedDuplicate(), readTransforms, maxFrameSize);
 
             // header frame wraps message byte buffer, so message should not be release yet
-            return new ThriftFrame(frameSequenceId, message, allHeaders.build(), readTransforms, HEADER, protocol, outOfOrderResponse);
+            return new ThriftFrame(frameSequenceId, message, headerTable.mergeHeaders(headers), readTransforms, HEADER, protocol, outOfOrderResponse);
         }
         finally {
             // message header in an independent buffer and must be released
@@ -226,39 +322,30 @@ public final class HeaderTransport
         return data;
     }
 
-    private static ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf data, List<ThriftHeaderTransform> readTransforms)
+    private static ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf data, List<ThriftHeaderTransform> readTransforms, int maxFrameSize)
     {
         for (ThriftHeaderTransform transform : readTransforms) {
-            data = transform.getMessageTransformer().untransform(bufAllocator, data);
+            data = transform.getMessageTransformer().untransform(bufAllocator, data, maxFrameSize);
         }
         return data;
     }
 
-    private static Map<String, String> decodeHeaders(int expectedHeadersType, ByteBuf messageHeader)
+    private static Map<String, String> decodeHeaders(ByteBuf messageHeader, HeaderTable headerTable)
     {
-        if (messageHeader.readableBytes() == 0) {
-            return ImmutableMap.of();
-        }
-
-        byte headersType = messageHeader.readByte();
-        if (headersType != expectedHeadersType) {
+        int headerCount = readVariableLengthInt(messageHeader);
+        checkArgument(headerCount >= 0, "invalid number of headers: %s", headerCount);
+        if (headerCount == 0) {
             return ImmutableMap.of();
         }
 
-        ImmutableMap.Builder<String, String> headers = ImmutableMap.builder();
-        int headerCount = readVariableLengthInt(messageHeader);
+        // a later value of a duplicate header replaces the earlier one
+        Map<String, String> headers = new LinkedHashMap<>();
         for (int i = 0; i < headerCount; i++) {
-            String key = readString(messageHeader);
-            String value = readString(messageHeader);
+            String key = headerTable.readString(messageHeader, readVariableLengthInt(messageHeader));
+            String value = headerTable.readHeaderValue(key, messageHeader, readVariableLengthInt(messageHeader));
             headers.put(key, value);
         }
-        return headers.build();
-    }
-
-    private static String readString(ByteBuf messageHeader)
-    {
-        int length = readVariableLengthInt(messageHeader);
-        return messageHeader.readCharSequence(length, UTF_8).toString();
+        return ImmutableMap.copyOf(headers);
     }
 
     private static int readVariableLengthInt(ByteBuf messageHeader)
@@ -278,11 +365,16 @@ public final class HeaderTransport
         return result;
     }
 
-    public static Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf input)
+    public static Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf input, long frameSize)
     {
         ByteBuf buffer = input.retainedDuplicate();
         ByteBuf messageHeader = null;
         try {
+            // the message of a whole frame is decoded without the frames that follow it
+            boolean frameComplete = buffer.readableBytes() >= frameSize;
+            if (frameComplete) {
+                buffer.writerIndex(toIntExact(buffer.readerIndex() + frameSize));
+            }
             if (buffer.readableBytes() < FRAME_HEADER_SIZE) {
                 return Optional.empty();
             }
@@ -309,14 +401,17 @@ public final class HeaderTransport
                 int transformId = readVariableLengthInt(messageHeader);
                 readTransformBuilder.add(ThriftHeaderTransform.fromId(transformId));
             }
+            boolean messageComplete = frameComplete;
             if (numberOfTransforms > 0) {
                 List<ThriftHeaderTransform> transforms = readTransformBuilder.build();
                 for (ThriftHeaderTransform transform : transforms) {
-                    buffer = transform.getMessageTransformer().tryUntransform(bufAllocator, buffer, MAX_MESSAGE_BEGIN_SECTION_SIZE);
+                    buffer = transform.getMessageTransformer().tryUntransform(bufAllocator, buffer, messageComplete, MAX_MESSAGE_BEGIN_SECTION_SIZE);
+                    // the output is truncated when it reached the size limit
+                    messageComplete &= buffer.readableBytes() < MAX_MESSAGE_BEGIN_SECTION_SIZE;
                 }
             }
             SimpleFrameInfoDecoder simpleFrameInfoDecoder = new SimpleFrameInfoDecoder(HEADER, protocol, outOfOrderResponse);
-            Optional<FrameInfo> frameInfo = simpleFrameInfoDecoder.tryDecodeFrameInfo(bufAllocator, buffer);
+            Optional<FrameInfo> frameInfo = simpleFrameInfoDecoder.tryDecodeFrameInfo(bufAllocator, buffer, messageComplete ? buffer.readableBytes() : Long.MAX_VALUE);
             if (frameInfo.isPresent()) {
                 int messageSequenceId = frameInfo.get().getSequenceId();
                 checkArgument(
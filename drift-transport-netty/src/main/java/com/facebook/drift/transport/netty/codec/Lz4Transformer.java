@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Compressor;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Raw LZ4 blocks, preceded by the uncompressed length as a 32-bit integer.
+ */
+class Lz4Transformer
+        extends BlockCompressionTransformer
+{
+    public static final Lz4Transformer LZ4_TRANSFORMER = new Lz4Transformer();
+
+    public Lz4Transformer()
+    {
+        super(Lz4Compressor::new, Lz4Decompressor::new);
+    }
+
+    @Override
+    protected void writeUncompressedLength(ByteBuf output, int uncompressedLength)
+    {
+        output.writeInt(uncompressedLength);
+    }
+
+    @Override
+    protected int readUncompressedLength(ByteBuf input)
+    {
+        if (input.readableBytes() < Integer.BYTES) {
+            throw new MalformedInputException(input.readerIndex(), "Missing uncompressed length");
+        }
+        return input.readInt();
+    }
+}
@@ -41,7 +41,7 @@ public class SimpleFrameInfoDecoder
     }
 
     @Override
-    public Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf buffer)
+    public Optional<FrameInfo> tryDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf buffer, long frameSize)
     {
         TChannelBufferInputTransport transport = new TChannelBufferInputTransport(buffer.retainedDuplicate());
         try {
@@ -15,7 +15,9 @@
  */
 package com.facebook.drift.transport.netty.codec;
 
+import com.facebook.drift.transport.netty.codec.CompressionPolicy.MethodCompression;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.netty.buffer.ByteBuf;
 import io.netty.util.ReferenceCounted;
 
@@ -23,6 +25,7 @@ import javax.annotation.CheckReturnValue;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static java.util.Objects.requireNonNull;
 import static javax.annotation.meta.When.UNKNOWN;
@@ -33,10 +36,13 @@ public class ThriftFrame
     private final int sequenceId;
     private final ByteBuf message;
     private final Map<String, String> headers;
+    private final Map<String, String> persistentHeaders;
     private final List<ThriftHeaderTransform> transforms;
     private final Transport transport;
     private final Protocol protocol;
     private final boolean supportOutOfOrderResponse;
+    private final long arrivalTime;
+    private final Optional<MethodCompression> compression;
 
     public ThriftFrame(
             int sequenceId,
@@ -46,14 +52,48 @@ public class ThriftFrame
             Transport transport,
             Protocol protocol,
             boolean supportOutOfOrderResponse)
+    {
+        this(sequenceId, message, headers, ImmutableMap.of(), transforms, transport, protocol, supportOutOfOrderResponse, System.nanoTime(), Optional.empty());
+    }
+
+    private ThriftFrame(
+            int sequenceId,
+            ByteBuf message,
+            Map<String, String> headers,
+            Map<String, String> persistentHeaders,
+            List<ThriftHeaderTransform> transforms,
+            Transport transport,
+            Protocol protocol,
+            boolean supportOutOfOrderResponse,
+            long arrivalTime,
+            Optional<MethodCompression> compression)
     {
         this.sequenceId = sequenceId;
         this.message = requireNonNull(message, "message is null");
         this.headers = requireNonNull(headers, "headers is null");
+        this.persistentHeaders = requireNonNull(persistentHeaders, "persistentHeaders is null");
         this.transforms = ImmutableList.copyOf(requireNonNull(transforms, "transform is null"));
         this.transport = requireNonNull(transport, "transport is null");
         this.protocol = requireNonNull(protocol, "protocol is null");
         this.supportOutOfOrderResponse = supportOutOfOrderResponse;
+        this.arrivalTime = arrivalTime;
+        this.compression = requireNonNull(compression, "compression is null");
+    }
+
+    /**
+     * @return a copy of this frame with the specified persistent headers; the copy takes over the message of this frame
+     */
+    public ThriftFrame withPersistentHeaders(Map<String, String> persistentHeaders)
+    {
+        return new ThriftFrame(sequenceId, message, headers, persistentHeaders, transforms, transport, protocol, supportOutOfOrderResponse, arrivalTime, compression);
+    }
+
+    /**
+     * @return a copy of this frame with the specified compression policy; the copy takes over the message of this frame
+     */
+    public ThriftFrame withCompression(Optional<MethodCompression> compression)
+    {
+        return new ThriftFrame(sequenceId, message, headers, persistentHeaders, transforms, transport, protocol, supportOutOfOrderResponse, arrivalTime, compression);
     }
 
     public int getSequenceId()
@@ -69,16 +109,37 @@ public class ThriftFrame
         return message.retainedDuplicate();
     }
 
+    public int getMessageSize()
+    {
+        return message.readableBytes();
+    }
+
     public Map<String, String> getHeaders()
     {
         return headers;
     }
 
+    /**
+     * @return the headers to send as persistent headers of the HEADER transport, which the receiver applies to this and every later frame of the connection
+     */
+    public Map<String, String> getPersistentHeaders()
+    {
+        return persistentHeaders;
+    }
+
     public List<ThriftHeaderTransform> getTransforms()
     {
         return transforms;
     }
 
+    /**
+     * @return the compression policy of the method, which decides if the transforms are applied when the frame is written
+     */
+    public Optional<MethodCompression> getCompression()
+    {
+        return compression;
+    }
+
     public Transport getTransport()
     {
         return transport;
@@ -94,6 +155,14 @@ public class ThriftFrame
         return supportOutOfOrderResponse;
     }
 
+    /**
+     * @return the {@link System#nanoTime()} at which the frame was read from the connection
+     */
+    public long getArrivalTime()
+    {
+        return arrivalTime;
+    }
+
     @Override
     public int refCnt()
     {
@@ -15,8 +15,10 @@
  */
 package com.facebook.drift.transport.netty.codec;
 
+import com.google.common.annotations.VisibleForTesting;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
@@ -28,12 +30,27 @@ import static java.lang.Math.min;
 import static java.lang.Math.toIntExact;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Splits the length prefixed frames read from a connection. Small frames are sliced from
+ * the cumulation buffer. Large frames that are not fully read are instead assembled from
+ * retained slices of the input as their bytes arrive, so the bytes read so far are never
+ * copied, and the cumulation buffer is not grown to the frame size. A partially read frame
+ * only holds the buffers actually received, so a peer can not make the decoder allocate a
+ * whole frame by only sending its length.
+ */
 class ThriftFramedDecoder
         extends ByteToMessageDecoder
 {
+    @VisibleForTesting
+    static final int LARGE_FRAME_SIZE = 64 * 1024;
+
     private final FrameInfoDecoder frameInfoDecoder;
     private final int maxFrameSizeInBytes;
 
+    // a large frame that is partially read, and the number of its bytes not received yet
+    private CompositeByteBuf largeFrame;
+    private int largeFrameRemainingBytes;
+
     private Optional<FrameInfo> tooLongFrameInfo = Optional.empty();
     private long tooLongFrameSizeInBytes;
     private long bytesToDiscard;
@@ -58,6 +75,10 @@ class ThriftFramedDecoder
             return Optional.empty();
         }
 
+        if (largeFrame != null) {
+            return readLargeFrame(buffer);
+        }
+
         int initialReaderIndex = buffer.readerIndex();
 
         if (buffer.readableBytes() < Integer.BYTES) {
@@ -67,7 +88,7 @@ class ThriftFramedDecoder
 
         if (frameSizeInBytes > maxFrameSizeInBytes) {
             // this invocation doesn't move the readerIndex
-            Optional<FrameInfo> frameInfo = frameInfoDecoder.tryDecodeFrameInfo(bufAllocator, buffer);
+            Optional<FrameInfo> frameInfo = frameInfoDecoder.tryDecodeFrameInfo(bufAllocator, buffer, frameSizeInBytes);
             if (frameInfo.isPresent()) {
                 tooLongFrameInfo = frameInfo;
                 tooLongFrameSizeInBytes = frameSizeInBytes;
@@ -95,10 +116,42 @@ class ThriftFramedDecoder
             return Optional.of(frame);
         }
 
+        if (frameSizeInBytes >= LARGE_FRAME_SIZE) {
+            // consolidating the components would copy the bytes read so far, so the number of components is not limited
+            largeFrame = bufAllocator.compositeBuffer(Integer.MAX_VALUE);
+            // toIntExact must be safe, as frameSizeInBytes <= maxFrameSize
+            largeFrameRemainingBytes = toIntExact(frameSizeInBytes);
+            return readLargeFrame(buffer);
+        }
+
         buffer.readerIndex(initialReaderIndex);
         return Optional.empty();
     }
 
+    private Optional<ByteBuf> readLargeFrame(ByteBuf buffer)
+    {
+        int length = min(largeFrameRemainingBytes, buffer.readableBytes());
+        if (length > 0) {
+            largeFrame.addComponent(true, buffer.readRetainedSlice(length));
+            largeFrameRemainingBytes -= length;
+        }
+        if (largeFrameRemainingBytes > 0) {
+            return Optional.empty();
+        }
+        ByteBuf frame = largeFrame;
+        largeFrame = null;
+        return Optional.of(frame);
+    }
+
+    @Override
+    protected void handlerRemoved0(ChannelHandlerContext context)
+    {
+        if (largeFrame != null) {
+            largeFrame.release();
+            largeFrame = null;
+        }
+    }
+
     private void discardTooLongFrame(ByteBuf buffer)
     {
         // readableBytes returns int, toIntExact must be safe
@@ -15,20 +15,31 @@
  */
 package com.facebook.drift.transport.netty.codec;
 
+import java.util.Optional;
+
+import static com.facebook.drift.transport.netty.codec.Lz4Transformer.LZ4_TRANSFORMER;
+import static com.facebook.drift.transport.netty.codec.SnappyTransformer.SNAPPY_TRANSFORMER;
 import static com.facebook.drift.transport.netty.codec.ZlibTransformer.ZLIB_TRANSFORMER;
+import static com.facebook.drift.transport.netty.codec.ZstdTransformer.ZSTD_TRANSFORMER;
 import static java.lang.String.format;
 import static java.util.Objects.requireNonNull;
 
 public enum ThriftHeaderTransform
 {
-    ZLIB_TRANSFORM(0x01, ZLIB_TRANSFORMER);
+    ZLIB_TRANSFORM(0x01, "zlib", ZLIB_TRANSFORMER),
+    SNAPPY_TRANSFORM(0x03, "snappy", SNAPPY_TRANSFORMER),
+    ZSTD_TRANSFORM(0x05, "zstd", ZSTD_TRANSFORMER),
+    // fbthrift does not define an LZ4 transform for the header transport, so this uses the next free id
+    LZ4_TRANSFORM(0x06, "lz4", LZ4_TRANSFORMER);
 
     private final int id;
+    private final String codecName;
     private final ThriftMessageTransformer messageTransformer;
 
-    ThriftHeaderTransform(int id, ThriftMessageTransformer messageTransformer)
+    ThriftHeaderTransform(int id, String codecName, ThriftMessageTransformer messageTransformer)
     {
         this.id = id;
+        this.codecName = requireNonNull(codecName, "codecName is null");
         this.messageTransformer = requireNonNull(messageTransformer, "messageTransformer is null.");
     }
 
@@ -37,13 +48,40 @@ public enum ThriftHeaderTransform
         return id;
     }
 
-    public static ThriftHeaderTransform fromId(int transformId)
+    /**
+     * Name of the compression codec, as used in configuration
+     */
+    public String getCodecName()
+    {
+        return codecName;
+    }
+
+    public static ThriftHeaderTransform fromCodecName(String codecName)
     {
         for (ThriftHeaderTransform transform : values()) {
-            if (transform.id == transformId) {
+            if (transform.codecName.equalsIgnoreCase(codecName)) {
                 return transform;
             }
         }
+        throw new IllegalArgumentException(format("Unknown compression codec %s", codecName));
+    }
+
+    public static Optional<ThriftHeaderTransform> tryFromId(int transformId)
+    {
+        for (ThriftHeaderTransform transform : values()) {
+            if (transform.id == transformId) {
+                return Optional.of(transform);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public static ThriftHeaderTransform fromId(int transformId)
+    {
+        Optional<ThriftHeaderTransform> transform = tryFromId(transformId);
+        if (transform.isPresent()) {
+            return transform.get();
+        }
         throw new UnsupportedOperationException(format("Unknown transform %s during receive", transformId));
     }
 
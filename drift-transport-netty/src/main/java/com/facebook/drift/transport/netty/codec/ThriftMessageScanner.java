@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import com.facebook.drift.protocol.TMessage;
+import com.facebook.drift.protocol.TType;
+import com.facebook.drift.transport.netty.ssl.TChannelBufferInputTransport;
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import static java.lang.Math.min;
+import static java.lang.Math.toIntExact;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Finds the end of an unframed Thrift message without decoding it. The scan is
+ * resumable: when the message is incomplete, the position in the struct walk is
+ * remembered, and the next call continues from the first byte not yet scanned,
+ * so a large message arriving in many reads is scanned only once.
+ * <p>
+ * Positions are relative to the reader index of the buffer, which must not be
+ * moved by the caller, except by {@link #discardScannedBytes}.
+ */
+@NotThreadSafe
+final class ThriftMessageScanner
+{
+    private static final int MAX_VARINT_BYTES = 10;
+    private static final int INITIAL_NESTING_DEPTH = 8;
+    // bounds the stack a peer can make the scanner allocate; real messages are far shallower
+    @VisibleForTesting
+    static final int MAX_NESTING_DEPTH = 64;
+
+    private final Protocol protocol;
+    private final boolean compact;
+
+    private Optional<TMessage> message = Optional.empty();
+    private long position;
+    private long bytesToSkip;
+
+    // containers being walked, outermost first; entries are reinitialized by push, so they are reused across messages
+    private Container[] containers = new Container[INITIAL_NESTING_DEPTH];
+    private int depth;
+
+    public ThriftMessageScanner(Protocol protocol)
+    {
+        this.protocol = requireNonNull(protocol, "protocol is null");
+        this.compact = protocol != Protocol.BINARY;
+    }
+
+    /**
+     * Returns the header of the message being scanned, once it has been read.
+     */
+    public Optional<TMessage> getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Returns the number of bytes of the message scanned so far, or the size
+     * of the message once the scan is complete.
+     */
+    public long getPosition()
+    {
+        return position;
+    }
+
+    /**
+     * Scans the readable bytes of the buffer not scanned by a previous call.
+     *
+     * @return true if the end of the message has been found
+     * @throws CorruptedFrameException if the message is malformed
+     */
+    public boolean scan(ByteBuf buffer)
+    {
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        int index = toIntExact(start + position);
+
+        if (!message.isPresent()) {
+            index = readMessageBegin(buffer, index);
+            if (index < 0) {
+                return false;
+            }
+            position = index - start;
+            push(TType.STRUCT, (byte) 0, (byte) 0, 0);
+        }
+
+        while (depth > 0) {
+            if (bytesToSkip > 0) {
+                int skipped = toIntExact(min(bytesToSkip, end - index));
+                index += skipped;
+                position += skipped;
+                bytesToSkip -= skipped;
+                if (bytesToSkip > 0) {
+                    return false;
+                }
+            }
+
+            Container container = containers[depth - 1];
+            byte type;
+            int next;
+            if (container.type == TType.STRUCT) {
+                if (container.fieldType == TType.STOP) {
+                    next = readFieldBegin(buffer, index, end, container);
+                    if (next < 0) {
+                        return false;
+                    }
+                    if (container.fieldType == TType.STOP) {
+                        depth--;
+                        position += next - index;
+                        index = next;
+                        continue;
+                    }
+                    position += next - index;
+                    index = next;
+                }
+                type = container.fieldType;
+                container.fieldType = TType.STOP;
+            }
+            else {
+                if (container.remaining == 0) {
+                    depth--;
+                    continue;
+                }
+                type = (container.type == TType.MAP && container.remaining % 2 == 1) ? container.valueType : container.elementType;
+                container.remaining--;
+            }
+
+            next = readValueBegin(buffer, index, end, type);
+            if (next < 0) {
+                // the value is read again from its first byte on the next call
+                if (container.type == TType.STRUCT) {
+                    container.fieldType = type;
+                }
+                else {
+                    container.remaining++;
+                }
+                return false;
+            }
+            position += next - index;
+            index = next;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the bytes scanned so far, after they have been skipped by the caller.
+     *
+     * @return the number of bytes that must be skipped
+     */
+    public int discardScannedBytes()
+    {
+        int scanned = toIntExact(position);
+        position = 0;
+        return scanned;
+    }
+
+    /**
+     * Prepares the scanner for the next message.
+     */
+    public void reset()
+    {
+        message = Optional.empty();
+        position = 0;
+        bytesToSkip = 0;
+        depth = 0;
+        // a deeply nested message does not keep a large stack for the rest of the connection
+        if (containers.length > INITIAL_NESTING_DEPTH) {
+            containers = new Container[INITIAL_NESTING_DEPTH];
+        }
+    }
+
+    private int readMessageBegin(ByteBuf buffer, int index)
+    {
+        // the header is small, so it is simply decoded again until it is complete
+        ByteBuf duplicate = buffer.duplicate();
+        duplicate.readerIndex(index);
+        try {
+            message = Optional.of(protocol.createProtocol(new TChannelBufferInputTransport(duplicate)).readMessageBegin());
+            return duplicate.readerIndex();
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private int readFieldBegin(ByteBuf buffer, int index, int end, Container struct)
+    {
+        if (index >= end) {
+            return -1;
+        }
+        byte header = buffer.getByte(index);
+        if (!compact) {
+            if (header == TType.STOP) {
+                struct.fieldType = TType.STOP;
+                return index + 1;
+            }
+            if (index + 3 > end) {
+                return -1;
+            }
+            struct.fieldType = checkType(header);
+            return index + 3;
+        }
+
+        if (header == 0) {
+            struct.fieldType = TType.STOP;
+            return index + 1;
+        }
+        int next = index + 1;
+        if ((header & 0xF0) == 0) {
+            // the field id does not fit in the delta and follows as a varint
+            next = varintEnd(buffer, next, end);
+            if (next < 0) {
+                return -1;
+            }
+        }
+        int compactType = header & 0x0F;
+        if (compactType == 1 || compactType == 2) {
+            // boolean fields store their value in the field type, so the field has no value to read
+            struct.fieldType = TType.VOID;
+        }
+        else {
+            struct.fieldType = toType(compactType);
+        }
+        return next;
+    }
+
+    private int readValueBegin(ByteBuf buffer, int index, int end, byte type)
+    {
+        switch (type) {
+            case TType.VOID:
+                return index;
+            case TType.BOOL:
+            case TType.BYTE:
+                return fixed(index, end, 1);
+            case TType.I16:
+                return compact ? varintEnd(buffer, index, end) : fixed(index, end, 2);
+            case TType.I32:
+            case TType.ENUM:
+                return compact ? varintEnd(buffer, index, end) : fixed(index, end, 4);
+            case TType.I64:
+                return compact ? varintEnd(buffer, index, end) : fixed(index, end, 8);
+            case TType.FLOAT:
+                return fixed(index, end, 4);
+            case TType.DOUBLE:
+                return fixed(index, end, 8);
+            case TType.STRING:
+                return readBinaryBegin(buffer, index, end);
+            case TType.STRUCT:
+                push(TType.STRUCT, (byte) 0, (byte) 0, 0);
+                return index;
+            case TType.MAP:
+                return readMapBegin(buffer, index, end);
+            case TType.SET:
+            case TType.LIST:
+                return readListBegin(buffer, index, end);
+            default:
+                throw new CorruptedFrameException("Unknown type " + type);
+        }
+    }
+
+    private int readBinaryBegin(ByteBuf buffer, int index, int end)
+    {
+        long length;
+        int next;
+        if (compact) {
+            next = varintEnd(buffer, index, end);
+            if (next < 0) {
+                return -1;
+            }
+            length = readVarint(buffer, index);
+        }
+        else {
+            next = fixed(index, end, 4);
+            if (next < 0) {
+                return -1;
+            }
+            length = buffer.getInt(index);
+        }
+        bytesToSkip = checkSize(length);
+        return next;
+    }
+
+    private int readMapBegin(ByteBuf buffer, int index, int end)
+    {
+        if (!compact) {
+            if (index + 6 > end) {
+                return -1;
+            }
+            byte keyType = checkType(buffer.getByte(index));
+            byte valueType = checkType(buffer.getByte(index + 1));
+            push(TType.MAP, keyType, valueType, checkSize(buffer.getInt(index + 2)) * 2);
+            return index + 6;
+        }
+
+        int next = varintEnd(buffer, index, end);
+        if (next < 0) {
+            return -1;
+        }
+        long size = checkSize(readVarint(buffer, index));
+        if (size == 0) {
+            return next;
+        }
+        if (next >= end) {
+            return -1;
+        }
+        byte types = buffer.getByte(next);
+        push(TType.MAP, toElementType((types >> 4) & 0x0F), toElementType(types & 0x0F), size * 2);
+        return next + 1;
+    }
+
+    private int readListBegin(ByteBuf buffer, int index, int end)
+    {
+        if (!compact) {
+            if (index + 5 > end) {
+                return -1;
+            }
+            byte elementType = checkType(buffer.getByte(index));
+            push(TType.LIST, elementType, (byte) 0, checkSize(buffer.getInt(index + 1)));
+            return index + 5;
+        }
+
+        if (index >= end) {
+            return -1;
+        }
+        byte sizeAndType = buffer.getByte(index);
+        int next = index + 1;
+        long size = (sizeAndType >> 4) & 0x0F;
+        if (size == 15) {
+            next = varintEnd(buffer, next, end);
+            if (next < 0) {
+                return -1;
+            }
+            size = checkSize(readVarint(buffer, index + 1));
+        }
+        push(TType.LIST, toElementType(sizeAndType & 0x0F), (byte) 0, size);
+        return next;
+    }
+
+    private void push(byte type, byte elementType, byte valueType, long remaining)
+    {
+        if (depth == MAX_NESTING_DEPTH) {
+            throw new CorruptedFrameException("Message nesting depth exceeds " + MAX_NESTING_DEPTH);
+        }
+        if (depth == containers.length) {
+            containers = Arrays.copyOf(containers, min(depth * 2, MAX_NESTING_DEPTH));
+        }
+        Container container = containers[depth];
+        if (container == null) {
+            container = new Container();
+            containers[depth] = container;
+        }
+        container.type = type;
+        container.elementType = elementType;
+        container.valueType = valueType;
+        container.remaining = remaining;
+        container.fieldType = TType.STOP;
+        depth++;
+    }
+
+    private static int fixed(int index, int end, int size)
+    {
+        return index + size <= end ? index + size : -1;
+    }
+
+    private static int varintEnd(ByteBuf buffer, int index, int end)
+    {
+        int limit = min(end, index + MAX_VARINT_BYTES);
+        for (int i = index; i < limit; i++) {
+            if ((buffer.getByte(i) & 0x80) == 0) {
+                return i + 1;
+            }
+        }
+        if (limit - index == MAX_VARINT_BYTES) {
+            throw new CorruptedFrameException("Varint is too long");
+        }
+        return -1;
+    }
+
+    private static long readVarint(ByteBuf buffer, int index)
+    {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = buffer.getByte(index++);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long checkSize(long size)
+    {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw new CorruptedFrameException("Invalid size " + size);
+        }
+        return size;
+    }
+
+    private static byte checkType(byte type)
+    {
+        switch (type) {
+            case TType.BOOL:
+            case TType.BYTE:
+            case TType.DOUBLE:
+            case TType.I16:
+            case TType.I32:
+            case TType.I64:
+            case TType.STRING:
+            case TType.STRUCT:
+            case TType.MAP:
+            case TType.SET:
+            case TType.LIST:
+            case TType.ENUM:
+            case TType.FLOAT:
+                return type;
+            default:
+                throw new CorruptedFrameException("Unknown type " + type);
+        }
+    }
+
+    private static byte toElementType(int compactType)
+    {
+        // booleans in containers are written as a single byte
+        if (compactType == 1 || compactType == 2) {
+            return TType.BOOL;
+        }
+        return toType(compactType);
+    }
+
+    private static byte toType(int compactType)
+    {
+        switch (compactType) {
+            case 3:
+                return TType.BYTE;
+            case 4:
+                return TType.I16;
+            case 5:
+                return TType.I32;
+            case 6:
+                return TType.I64;
+            case 7:
+                return TType.DOUBLE;
+            case 8:
+                return TType.STRING;
+            case 9:
+                return TType.LIST;
+            case 10:
+                return TType.SET;
+            case 11:
+                return TType.MAP;
+            case 12:
+                return TType.STRUCT;
+            case 13:
+                return TType.FLOAT;
+            default:
+                throw new CorruptedFrameException("Unknown compact type " + compactType);
+        }
+    }
+
+    private static final class Container
+    {
+        private byte type;
+        private byte elementType;
+        private byte valueType;
+        // values left to read in a list, set, or map (where keys and values are counted separately)
+        private long remaining;
+        // type of the struct field whose value is next, or STOP when a field header is next
+        private byte fieldType;
+    }
+}
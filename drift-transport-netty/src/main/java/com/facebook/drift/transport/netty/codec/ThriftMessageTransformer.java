@@ -36,22 +36,25 @@ interface ThriftMessageTransformer
 
     /**
      * Decode encoded input into original message. Old input will be de-referenced.
-     * Throws RuntimeException when decode failed.
+     * Throws RuntimeException when decode failed, and {@link FrameTooLargeException}
+     * when the decoded message would be larger than maxOutputSize.
      *
      * @param bufAllocator allocator to allocate output byteBuf
      * @param input encoded input
+     * @param maxOutputSize maximum size of the decoded message
      * @return decoded message
      */
-    ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input);
+    ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input, int maxOutputSize);
 
     /**
      * Will try to un-transform until get at least minimumSize of byte of output or full output.
      * Old input will be de-referenced.
      *
      * @param bufAllocator allocator to allocate output byteBuf
-     * @param input encoded input
+     * @param input encoded input, which may be truncated
+     * @param inputComplete whether the input holds the whole encoded message
      * @param minimumSize try decode at least minimumSize of byte before stop.
-     * @return partially decoded message
+     * @return partially decoded message, which is empty when nothing could be decoded
      */
-    ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, int minimumSize);
+    ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, boolean inputComplete, int minimumSize);
 }
@@ -16,10 +16,6 @@
 package com.facebook.drift.transport.netty.codec;
 
 import com.facebook.drift.protocol.TMessage;
-import com.facebook.drift.protocol.TProtocolReader;
-import com.facebook.drift.protocol.TProtocolUtil;
-import com.facebook.drift.protocol.TType;
-import com.facebook.drift.transport.netty.ssl.TChannelBufferInputTransport;
 import io.airlift.units.DataSize;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
@@ -32,49 +28,79 @@ import static com.facebook.drift.transport.netty.codec.Transport.UNFRAMED;
 import static java.lang.Math.toIntExact;
 import static java.util.Objects.requireNonNull;
 
+/**
+ * Splits the unframed messages read from a connection. The end of a message is only
+ * known once the whole message has been walked, so the walk is resumed across reads
+ * instead of being restarted for every new chunk of a large message. A message that
+ * exceeds the max frame size is discarded as it arrives, and then reported with a
+ * {@link FrameTooLargeException}.
+ */
 class ThriftUnframedDecoder
         extends ByteToMessageDecoder
 {
     private final Protocol protocol;
     private final int maxFrameSize;
     private final boolean assumeClientsSupportOutOfOrderResponses;
+    private final ThriftMessageScanner scanner;
+
+    private boolean discardingTooLongFrame;
+    private long discardedBytes;
 
     public ThriftUnframedDecoder(Protocol protocol, DataSize maxFrameSize, boolean assumeClientsSupportOutOfOrderResponses)
     {
         this.protocol = requireNonNull(protocol, "protocol is null");
         this.maxFrameSize = toIntExact(requireNonNull(maxFrameSize, "maxFrameSize is null").toBytes());
         this.assumeClientsSupportOutOfOrderResponses = assumeClientsSupportOutOfOrderResponses;
+        this.scanner = new ThriftMessageScanner(protocol);
     }
 
     // This method is an exception to the normal reference counted rules and buffer should not be released
     @Override
     protected final void decode(ChannelHandlerContext ctx, ByteBuf buffer, List<Object> out)
     {
-        int frameOffset = buffer.readerIndex();
-        TChannelBufferInputTransport transport = new TChannelBufferInputTransport(buffer.retain());
-        try {
-            TProtocolReader protocolReader = protocol.createProtocol(transport);
+        boolean complete = scanner.scan(buffer);
 
-            TMessage message = protocolReader.readMessageBegin();
-            TProtocolUtil.skip(protocolReader, TType.STRUCT);
-            protocolReader.readMessageEnd();
+        if (!discardingTooLongFrame && scanner.getPosition() > maxFrameSize) {
+            discardingTooLongFrame = true;
+        }
+        if (discardingTooLongFrame) {
+            discardTooLongFrame(buffer, complete);
+            return;
+        }
 
-            int frameLength = buffer.readerIndex() - frameOffset;
-            if (frameLength > maxFrameSize) {
-                FrameInfo frameInfo = new FrameInfo(message.getName(), message.getType(), message.getSequenceId(), UNFRAMED, protocol, assumeClientsSupportOutOfOrderResponses);
-                ctx.fireExceptionCaught(new FrameTooLargeException(
-                        Optional.of(frameInfo),
-                        frameLength,
-                        maxFrameSize));
+        if (!complete) {
+            // the message header cannot be decoded and the max frame size is already exceeded,
+            // so instead of waiting forever, fail without providing the sequence ID
+            if (!scanner.getMessage().isPresent() && buffer.readableBytes() > maxFrameSize) {
+                int frameLength = buffer.readableBytes();
+                buffer.skipBytes(frameLength);
+                scanner.reset();
+                throw new FrameTooLargeException(Optional.empty(), frameLength, maxFrameSize);
             }
-
-            out.add(buffer.slice(frameOffset, frameLength).retain());
-        }
-        catch (Throwable th) {
-            buffer.readerIndex(frameOffset);
+            return;
         }
-        finally {
-            transport.release();
+
+        // the scanned message is not larger than maxFrameSize, so its size fits in an int
+        int frameLength = toIntExact(scanner.getPosition());
+        out.add(buffer.retainedSlice(buffer.readerIndex(), frameLength));
+        buffer.skipBytes(frameLength);
+        scanner.reset();
+    }
+
+    private void discardTooLongFrame(ByteBuf buffer, boolean complete)
+    {
+        int bytesToSkip = scanner.discardScannedBytes();
+        buffer.skipBytes(bytesToSkip);
+        discardedBytes += bytesToSkip;
+
+        if (complete) {
+            TMessage message = scanner.getMessage().get();
+            FrameInfo frameInfo = new FrameInfo(message.getName(), message.getType(), message.getSequenceId(), UNFRAMED, protocol, assumeClientsSupportOutOfOrderResponses);
+            RuntimeException exception = new FrameTooLargeException(Optional.of(frameInfo), discardedBytes, maxFrameSize);
+            discardingTooLongFrame = false;
+            discardedBytes = 0;
+            scanner.reset();
+            throw exception;
         }
     }
 }
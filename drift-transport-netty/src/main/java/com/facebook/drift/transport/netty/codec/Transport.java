@@ -51,7 +51,7 @@ public enum Transport
         {
             pipeline.addLast("frameEncoder", new LengthFieldPrepender(Integer.BYTES));
             pipeline.addLast("thriftFramedDecoder", new ThriftFramedDecoder(HeaderTransport::tryDecodeFrameInfo, toIntExact(maxFrameSize.toBytes())));
-            pipeline.addLast(new HeaderCodec());
+            pipeline.addLast(new HeaderCodec(toIntExact(maxFrameSize.toBytes())));
         }
     };
 
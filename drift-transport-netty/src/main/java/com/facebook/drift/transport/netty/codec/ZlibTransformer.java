@@ -17,18 +17,36 @@ package com.facebook.drift.transport.netty.codec;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
-import io.netty.buffer.ByteBufInputStream;
-import io.netty.buffer.ByteBufOutputStream;
 
-import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
+import java.util.Optional;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
 
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Zlib transform of the HEADER transport. The deflater and inflater hold native
+ * memory, so one of each is kept per thread and reset after every message. They
+ * work directly on the backing array of heap buffers; the content of other
+ * buffers is copied in chunks through a per-thread staging array.
+ */
 public class ZlibTransformer
         implements ThriftMessageTransformer
 {
     public static final ZlibTransformer ZLIB_TRANSFORMER = new ZlibTransformer(512);
+
+    private static final int STAGING_BUFFER_SIZE = 64 * 1024;
+    // compressed Thrift messages rarely expand by more than this when inflated
+    private static final int EXPECTED_COMPRESSION_RATIO = 4;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> STAGING_BUFFER = ThreadLocal.withInitial(() -> new byte[STAGING_BUFFER_SIZE]);
+
     private final int zipBlockSize;
 
     public ZlibTransformer(int zipBlockSize)
@@ -39,57 +57,148 @@ public class ZlibTransformer
     @Override
     public ByteBuf transform(ByteBufAllocator bufAllocator, ByteBuf input)
     {
-        ByteBuf output = bufAllocator.buffer(zipBlockSize);
-        try (DeflaterOutputStream outputStream = new DeflaterOutputStream(new ByteBufOutputStream(output))) {
-            input.readBytes(outputStream, input.readableBytes());
+        Deflater deflater = DEFLATER.get();
+        ByteBuf output = bufAllocator.heapBuffer(max(zipBlockSize, maxCompressedLength(input.readableBytes())));
+        try {
+            if (input.hasArray()) {
+                deflater.setInput(input.array(), input.arrayOffset() + input.readerIndex(), input.readableBytes());
+                deflater.finish();
+                deflate(deflater, output, true);
+            }
+            else {
+                byte[] staging = STAGING_BUFFER.get();
+                int offset = input.readerIndex();
+                do {
+                    int length = min(staging.length, input.writerIndex() - offset);
+                    input.getBytes(offset, staging, 0, length);
+                    offset += length;
+                    deflater.setInput(staging, 0, length);
+                    boolean finishing = offset == input.writerIndex();
+                    if (finishing) {
+                        deflater.finish();
+                    }
+                    deflate(deflater, output, finishing);
+                }
+                while (!deflater.finished());
+            }
+            return output;
         }
-        catch (IOException e) {
+        catch (RuntimeException e) {
             output.release();
-            throw new UncheckedIOException(e);
+            throw e;
         }
         finally {
+            deflater.reset();
             input.release();
         }
-        return output;
     }
 
     @Override
-    public ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input)
+    public ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input, int maxOutputSize)
     {
-        ByteBuf output = bufAllocator.buffer(zipBlockSize);
-        try (InflaterInputStream inputStream = new InflaterInputStream(new ByteBufInputStream(input))) {
-            while (inputStream.available() > 0) {
-                output.writeBytes(inputStream, zipBlockSize);
+        int expectedSize = min(input.readableBytes(), Integer.MAX_VALUE / EXPECTED_COMPRESSION_RATIO) * EXPECTED_COMPRESSION_RATIO;
+        ByteBuf output = bufAllocator.heapBuffer(max(zipBlockSize, min(expectedSize, maxOutputSize)));
+        try {
+            // inflating stops once the limit is exceeded, so a highly compressed stream can not exhaust memory
+            inflate(input, output, maxOutputSize + 1L);
+            if (output.readableBytes() > maxOutputSize) {
+                throw new FrameTooLargeException(Optional.empty(), output.readableBytes(), maxOutputSize);
             }
             return output;
         }
-        catch (IOException e) {
+        catch (ZipException e) {
             output.release();
             throw new UncheckedIOException(e);
         }
+        catch (RuntimeException e) {
+            output.release();
+            throw e;
+        }
         finally {
             input.release();
         }
     }
 
     @Override
-    public ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, int byteLimit)
+    public ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, boolean inputComplete, int byteLimit)
     {
-        ByteBuf output = bufAllocator.buffer(zipBlockSize);
-        try (InflaterInputStream inputStream = new InflaterInputStream(new ByteBufInputStream(input))) {
-            while (inputStream.available() > 0) {
-                output.writeBytes(inputStream, zipBlockSize);
-                if (byteLimit > 0 && output.readableBytes() >= byteLimit) {
-                    break;
-                }
-            }
-            return output;
+        // usually only the beginning of the message is needed, so the output starts small and grows up to the limit
+        int maxOutputSize = byteLimit > 0 ? max(zipBlockSize, byteLimit) : Integer.MAX_VALUE;
+        ByteBuf output = bufAllocator.heapBuffer(zipBlockSize, maxOutputSize);
+        try {
+            inflate(input, output, byteLimit > 0 ? byteLimit : Integer.MAX_VALUE);
         }
-        catch (IOException e) {
-            return output;
+        catch (ZipException ignored) {
+            // return the output decoded so far
+        }
+        catch (RuntimeException e) {
+            output.release();
+            throw e;
         }
         finally {
             input.release();
         }
+        return output;
+    }
+
+    private void deflate(Deflater deflater, ByteBuf output, boolean finishing)
+    {
+        while (finishing ? !deflater.finished() : !deflater.needsInput()) {
+            ensureWritable(output);
+            int written = deflater.deflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+            output.writerIndex(output.writerIndex() + written);
+        }
+    }
+
+    private void inflate(ByteBuf input, ByteBuf output, long byteLimit)
+            throws ZipException
+    {
+        Inflater inflater = INFLATER.get();
+        try {
+            int offset = input.readerIndex();
+            if (input.hasArray()) {
+                inflater.setInput(input.array(), input.arrayOffset() + offset, input.readableBytes());
+                offset = input.writerIndex();
+            }
+            while (!inflater.finished() && output.readableBytes() < byteLimit) {
+                if (inflater.needsInput()) {
+                    if (offset == input.writerIndex()) {
+                        throw new ZipException("Unexpected end of zlib input");
+                    }
+                    byte[] staging = STAGING_BUFFER.get();
+                    int length = min(staging.length, input.writerIndex() - offset);
+                    input.getBytes(offset, staging, 0, length);
+                    offset += length;
+                    inflater.setInput(staging, 0, length);
+                }
+                if (inflater.needsDictionary()) {
+                    throw new ZipException("Zlib preset dictionaries are not supported");
+                }
+                ensureWritable(output);
+                try {
+                    int written = inflater.inflate(output.array(), output.arrayOffset() + output.writerIndex(), output.writableBytes());
+                    output.writerIndex(output.writerIndex() + written);
+                }
+                catch (DataFormatException e) {
+                    throw new ZipException(e.getMessage());
+                }
+            }
+        }
+        finally {
+            inflater.reset();
+        }
+    }
+
+    private void ensureWritable(ByteBuf output)
+    {
+        if (!output.isWritable()) {
+            output.ensureWritable(min(zipBlockSize, output.maxWritableBytes()));
+        }
+    }
+
+    // the zlib compressBound for the default settings of the deflater
+    private static int maxCompressedLength(int uncompressedLength)
+    {
+        return uncompressedLength + (uncompressedLength >>> 12) + (uncompressedLength >>> 14) + (uncompressedLength >>> 25) + 13;
     }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.zstd.ZstdCompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+import io.netty.buffer.ByteBuf;
+
+import static java.lang.Math.min;
+
+/**
+ * Zstandard frames, which record the uncompressed length in the frame header (compatible with fbthrift).
+ */
+class ZstdTransformer
+        extends BlockCompressionTransformer
+{
+    public static final ZstdTransformer ZSTD_TRANSFORMER = new ZstdTransformer();
+
+    private static final int MAX_FRAME_HEADER_SIZE = 18;
+
+    public ZstdTransformer()
+    {
+        super(ZstdCompressor::new, ZstdDecompressor::new);
+    }
+
+    @Override
+    protected int readUncompressedLength(ByteBuf input)
+    {
+        byte[] frameHeader = new byte[min(input.readableBytes(), MAX_FRAME_HEADER_SIZE)];
+        input.getBytes(input.readerIndex(), frameHeader);
+        long uncompressedLength = ZstdDecompressor.getDecompressedSize(frameHeader, 0, frameHeader.length);
+        if (uncompressedLength < 0 || uncompressedLength > Integer.MAX_VALUE) {
+            throw new MalformedInputException(input.readerIndex(), "Zstd frame does not contain a valid content size");
+        }
+        return (int) uncompressedLength;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.stats.CounterStat;
+import com.google.common.annotations.VisibleForTesting;
+import io.netty.channel.Channel;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Limits the number of open connections to the server, in total and for each remote address.
+ */
+@ThreadSafe
+public class ConnectionLimiter
+{
+    private final OptionalInt maxConnections;
+    private final OptionalInt maxConnectionsPerAddress;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ConcurrentMap<InetAddress, Integer> connectionsPerAddress = new ConcurrentHashMap<>();
+    private final CounterStat rejectedConnections = new CounterStat();
+
+    public ConnectionLimiter(OptionalInt maxConnections, OptionalInt maxConnectionsPerAddress)
+    {
+        this.maxConnections = requireNonNull(maxConnections, "maxConnections is null");
+        this.maxConnectionsPerAddress = requireNonNull(maxConnectionsPerAddress, "maxConnectionsPerAddress is null");
+    }
+
+    /**
+     * @return true if the connection is within the limits, and will be counted until it is closed
+     */
+    public boolean tryAcquire(Channel channel)
+    {
+        SocketAddress remoteAddress = channel.remoteAddress();
+        InetAddress address = remoteAddress instanceof InetSocketAddress ? ((InetSocketAddress) remoteAddress).getAddress() : null;
+        if (!tryAcquire(address)) {
+            return false;
+        }
+        channel.closeFuture().addListener(future -> release(address));
+        return true;
+    }
+
+    @VisibleForTesting
+    boolean tryAcquire(InetAddress address)
+    {
+        if (connections.incrementAndGet() > maxConnections.orElse(Integer.MAX_VALUE)) {
+            connections.decrementAndGet();
+            rejectedConnections.update(1);
+            return false;
+        }
+
+        if (address != null && maxConnectionsPerAddress.isPresent()) {
+            AtomicBoolean accepted = new AtomicBoolean();
+            connectionsPerAddress.compute(address, (key, count) -> {
+                int current = count == null ? 0 : count;
+                if (current >= maxConnectionsPerAddress.getAsInt()) {
+                    return count;
+                }
+                accepted.set(true);
+                return current + 1;
+            });
+            if (!accepted.get()) {
+                connections.decrementAndGet();
+                rejectedConnections.update(1);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @VisibleForTesting
+    void release(InetAddress address)
+    {
+        connections.decrementAndGet();
+        if (address != null && maxConnectionsPerAddress.isPresent()) {
+            connectionsPerAddress.computeIfPresent(address, (key, count) -> count == 1 ? null : count - 1);
+        }
+    }
+
+    @Managed
+    public int getConnections()
+    {
+        return connections.get();
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejectedConnections()
+    {
+        return rejectedConnections;
+    }
+}
@@ -17,35 +17,61 @@ package com.facebook.drift.transport.netty.server;
 
 import com.facebook.airlift.configuration.Config;
 import com.facebook.airlift.configuration.ConfigDescription;
+import com.facebook.drift.transport.netty.channel.EventLoopType;
+import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
+import com.facebook.drift.transport.netty.codec.Transport;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.airlift.units.MaxDataSize;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.io.File;
 import java.util.List;
+import java.util.Map;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static io.airlift.units.DataSize.Unit.BYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftNettyServerConfig
 {
     private static final int DEFAULT_WORKER_THREAD_COUNT = Runtime.getRuntime().availableProcessors() * 2;
 
     private int port;
+    private Transport transport;
+    private Protocol protocol;
+    private List<ServerListener> additionalListeners = ImmutableList.of();
     private int acceptBacklog = 1024;
+    private Integer maxConnections;
+    private Integer maxConnectionsPerAddress;
+    private Integer connectionRequestRate;
+    private Integer connectionRequestBurst;
     private int ioThreadCount = 3;
+    private boolean reusePortEnabled;
     private int workerThreadCount = DEFAULT_WORKER_THREAD_COUNT;
     private DataSize maxFrameSize = new DataSize(16, MEGABYTE);
+    private List<ThriftHeaderTransform> compressionCodecs = ImmutableList.of();
+    private DataSize compressionMinSize = new DataSize(0, BYTE);
+    private Double compressionMinRatio;
+    private int streamingChunkSize = 1000;
+    private Duration streamingIdleTimeout = new Duration(30, SECONDS);
     private Duration requestTimeout = new Duration(1, MINUTES);
+    private Duration drainTimeout = new Duration(0, SECONDS);
 
     private Duration sslContextRefreshTime = new Duration(1, MINUTES);
     private boolean allowPlaintext = true;
@@ -58,7 +84,19 @@ public class DriftNettyServerConfig
     private Duration sessionTimeout = new Duration(1, DAYS);
 
     private boolean assumeClientsSupportOutOfOrderResponses = true;
+    private int maxPipelineDepth = 1;
+    private boolean flushConsolidationEnabled;
+    private int flushConsolidationMaxFlushes = 256;
     private boolean nativeTransportEnabled;
+    private EventLoopType eventLoopType;
+
+    private Integer invokerThreadCount;
+    private Map<String, Integer> invokerMethodThreadCounts = ImmutableMap.of();
+    private int invokerMaxQueuedRequests = 10_000;
+    private boolean invokerVirtualThreadsEnabled;
+
+    private Duration loadSheddingQueueDelayTarget;
+    private Duration loadSheddingQueueDelayInterval = new Duration(100, MILLISECONDS);
 
     @Min(0)
     @Max(65535)
@@ -74,6 +112,53 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    public Transport getTransport()
+    {
+        return transport;
+    }
+
+    @Config("thrift.server.transport")
+    @ConfigDescription("Transport of all connections, which skips protocol detection (detected for each connection by default)")
+    public DriftNettyServerConfig setTransport(Transport transport)
+    {
+        this.transport = transport;
+        return this;
+    }
+
+    public Protocol getProtocol()
+    {
+        return protocol;
+    }
+
+    @Config("thrift.server.protocol")
+    @ConfigDescription("Protocol of all connections, required when the FRAMED or UNFRAMED transport is set")
+    public DriftNettyServerConfig setProtocol(Protocol protocol)
+    {
+        this.protocol = protocol;
+        return this;
+    }
+
+    @NotNull
+    public List<ServerListener> getAdditionalListeners()
+    {
+        return additionalListeners;
+    }
+
+    @Config("thrift.server.additional-listeners")
+    @ConfigDescription("Additional ports served by the server, as a list of port[:transport][:protocol][:ssl|:plaintext] entries, where ssl rejects and plaintext accepts plain text connections; by default the setting of the main port applies")
+    public DriftNettyServerConfig setAdditionalListeners(String additionalListeners)
+    {
+        this.additionalListeners = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(requireNonNull(additionalListeners, "additionalListeners is null"))
+                .stream()
+                .map(ServerListener::fromString)
+                .collect(toImmutableList());
+        return this;
+    }
+
     @Min(0)
     public int getAcceptBacklog()
     {
@@ -100,6 +185,62 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    @Min(1)
+    public Integer getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    @Config("thrift.server.max-connections")
+    @ConfigDescription("Maximum number of open connections; additional connections are closed immediately")
+    public DriftNettyServerConfig setMaxConnections(Integer maxConnections)
+    {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getMaxConnectionsPerAddress()
+    {
+        return maxConnectionsPerAddress;
+    }
+
+    @Config("thrift.server.max-connections-per-address")
+    @ConfigDescription("Maximum number of open connections from a single remote IP address")
+    public DriftNettyServerConfig setMaxConnectionsPerAddress(Integer maxConnectionsPerAddress)
+    {
+        this.maxConnectionsPerAddress = maxConnectionsPerAddress;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getConnectionRequestRate()
+    {
+        return connectionRequestRate;
+    }
+
+    @Config("thrift.server.connection-request-rate")
+    @ConfigDescription("Maximum requests per second on a single connection; reading from the connection is paused when exceeded")
+    public DriftNettyServerConfig setConnectionRequestRate(Integer connectionRequestRate)
+    {
+        this.connectionRequestRate = connectionRequestRate;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getConnectionRequestBurst()
+    {
+        return connectionRequestBurst;
+    }
+
+    @Config("thrift.server.connection-request-burst")
+    @ConfigDescription("Number of requests a connection may send at once before the request rate applies (defaults to the request rate)")
+    public DriftNettyServerConfig setConnectionRequestBurst(Integer connectionRequestBurst)
+    {
+        this.connectionRequestBurst = connectionRequestBurst;
+        return this;
+    }
+
     public int getIoThreadCount()
     {
         return ioThreadCount;
@@ -112,6 +253,19 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    public boolean isReusePortEnabled()
+    {
+        return reusePortEnabled;
+    }
+
+    @Config("thrift.server.reuse-port.enabled")
+    @ConfigDescription("Bind a server socket for each IO thread with SO_REUSEPORT, so the kernel balances new connections across the IO threads (requires epoll or io_uring)")
+    public DriftNettyServerConfig setReusePortEnabled(boolean reusePortEnabled)
+    {
+        this.reusePortEnabled = reusePortEnabled;
+        return this;
+    }
+
     public int getWorkerThreadCount()
     {
         return workerThreadCount;
@@ -137,6 +291,84 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    @NotNull
+    public List<ThriftHeaderTransform> getCompressionCodecs()
+    {
+        return compressionCodecs;
+    }
+
+    @Config("thrift.server.compression-codecs")
+    @ConfigDescription("Compression codecs the server may use for responses to clients of the HEADER transport that accept them (zstd, lz4, snappy or zlib)")
+    public DriftNettyServerConfig setCompressionCodecs(String compressionCodecs)
+    {
+        this.compressionCodecs = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .splitToList(requireNonNull(compressionCodecs, "compressionCodecs is null"))
+                .stream()
+                .map(ThriftHeaderTransform::fromCodecName)
+                .collect(toImmutableList());
+        return this;
+    }
+
+    @NotNull
+    public DataSize getCompressionMinSize()
+    {
+        return compressionMinSize;
+    }
+
+    @Config("thrift.server.compression-min-size")
+    @ConfigDescription("Responses smaller than this size are sent uncompressed")
+    public DriftNettyServerConfig setCompressionMinSize(DataSize compressionMinSize)
+    {
+        this.compressionMinSize = compressionMinSize;
+        return this;
+    }
+
+    @DecimalMin("1.0")
+    public Double getCompressionMinRatio()
+    {
+        return compressionMinRatio;
+    }
+
+    @Config("thrift.server.compression-min-ratio")
+    @ConfigDescription("Responses of methods with a lower recent compression ratio (uncompressed to compressed size) are sent uncompressed")
+    public DriftNettyServerConfig setCompressionMinRatio(Double compressionMinRatio)
+    {
+        this.compressionMinRatio = compressionMinRatio;
+        return this;
+    }
+
+    @Min(1)
+    public int getStreamingChunkSize()
+    {
+        return streamingChunkSize;
+    }
+
+    @Config("thrift.server.streaming.chunk-size")
+    @ConfigDescription("Number of elements sent in each response chunk of a streaming method")
+    public DriftNettyServerConfig setStreamingChunkSize(int streamingChunkSize)
+    {
+        this.streamingChunkSize = streamingChunkSize;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getStreamingIdleTimeout()
+    {
+        return streamingIdleTimeout;
+    }
+
+    @Config("thrift.server.streaming.idle-timeout")
+    @ConfigDescription("A streaming response fails when the method does not produce the next chunk within this time, while the request timeout only applies until the first chunk")
+    public DriftNettyServerConfig setStreamingIdleTimeout(Duration streamingIdleTimeout)
+    {
+        this.streamingIdleTimeout = streamingIdleTimeout;
+        return this;
+    }
+
     @NotNull
     @MinDuration("1ms")
     public Duration getRequestTimeout()
@@ -151,6 +383,20 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    @NotNull
+    public Duration getDrainTimeout()
+    {
+        return drainTimeout;
+    }
+
+    @Config("thrift.server.drain-timeout")
+    @ConfigDescription("Maximum time to wait for in-flight requests to finish during shutdown, after the server stops accepting connections")
+    public DriftNettyServerConfig setDrainTimeout(Duration drainTimeout)
+    {
+        this.drainTimeout = drainTimeout;
+        return this;
+    }
+
     public boolean isAllowPlaintext()
     {
         return allowPlaintext;
@@ -276,6 +522,47 @@ public class DriftNettyServerConfig
         return this;
     }
 
+    @Min(1)
+    public int getMaxPipelineDepth()
+    {
+        return maxPipelineDepth;
+    }
+
+    @Config("thrift.server.max-pipeline-depth")
+    @ConfigDescription("Maximum number of requests processed concurrently on a connection that requires in-order responses")
+    public DriftNettyServerConfig setMaxPipelineDepth(int maxPipelineDepth)
+    {
+        this.maxPipelineDepth = maxPipelineDepth;
+        return this;
+    }
+
+    public boolean isFlushConsolidationEnabled()
+    {
+        return flushConsolidationEnabled;
+    }
+
+    @Config("thrift.server.flush-consolidation.enabled")
+    @ConfigDescription("Combine flushes of responses on a connection into a single write; not supported by the IO_URING event loop")
+    public DriftNettyServerConfig setFlushConsolidationEnabled(boolean flushConsolidationEnabled)
+    {
+        this.flushConsolidationEnabled = flushConsolidationEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getFlushConsolidationMaxFlushes()
+    {
+        return flushConsolidationMaxFlushes;
+    }
+
+    @Config("thrift.server.flush-consolidation.max-flushes")
+    @ConfigDescription("Maximum number of consolidated flushes before the connection is flushed")
+    public DriftNettyServerConfig setFlushConsolidationMaxFlushes(int flushConsolidationMaxFlushes)
+    {
+        this.flushConsolidationMaxFlushes = flushConsolidationMaxFlushes;
+        return this;
+    }
+
     public boolean isNativeTransportEnabled()
     {
         return nativeTransportEnabled;
@@ -288,4 +575,106 @@ public class DriftNettyServerConfig
         this.nativeTransportEnabled = nativeTransportEnabled;
         return this;
     }
+
+    public EventLoopType getEventLoopType()
+    {
+        return eventLoopType;
+    }
+
+    @Config("thrift.server.event-loop-type")
+    @ConfigDescription("Netty I/O implementation (NIO, EPOLL or IO_URING); the native EPOLL and IO_URING libraries are only bundled for linux-x86_64, elsewhere this falls back to NIO")
+    public DriftNettyServerConfig setEventLoopType(EventLoopType eventLoopType)
+    {
+        this.eventLoopType = eventLoopType;
+        return this;
+    }
+
+    @Min(1)
+    public Integer getInvokerThreadCount()
+    {
+        return invokerThreadCount;
+    }
+
+    @Config("thrift.server.invoker.thread-count")
+    @ConfigDescription("Number of threads used to invoke service methods; methods are invoked on the worker event loop when not set")
+    public DriftNettyServerConfig setInvokerThreadCount(Integer invokerThreadCount)
+    {
+        this.invokerThreadCount = invokerThreadCount;
+        return this;
+    }
+
+    public Map<String, Integer> getInvokerMethodThreadCounts()
+    {
+        return invokerMethodThreadCounts;
+    }
+
+    @Config("thrift.server.invoker.method-thread-counts")
+    @ConfigDescription("Dedicated invoker thread pools for individual methods, as a list of method=threads pairs")
+    public DriftNettyServerConfig setInvokerMethodThreadCounts(String invokerMethodThreadCounts)
+    {
+        this.invokerMethodThreadCounts = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .withKeyValueSeparator('=')
+                .split(requireNonNull(invokerMethodThreadCounts, "invokerMethodThreadCounts is null"))
+                .entrySet().stream()
+                .collect(toImmutableMap(entry -> entry.getKey().trim(), entry -> Integer.parseInt(entry.getValue().trim())));
+        return this;
+    }
+
+    @Min(0)
+    public int getInvokerMaxQueuedRequests()
+    {
+        return invokerMaxQueuedRequests;
+    }
+
+    @Config("thrift.server.invoker.max-queued-requests")
+    @ConfigDescription("Maximum number of requests waiting for each invoker thread pool before new requests are rejected")
+    public DriftNettyServerConfig setInvokerMaxQueuedRequests(int invokerMaxQueuedRequests)
+    {
+        this.invokerMaxQueuedRequests = invokerMaxQueuedRequests;
+        return this;
+    }
+
+    public boolean isInvokerVirtualThreadsEnabled()
+    {
+        return invokerVirtualThreadsEnabled;
+    }
+
+    @Config("thrift.server.invoker.virtual-threads.enabled")
+    @ConfigDescription("Invoke each method on a new virtual thread instead of the invoker thread pool, when supported by the JVM")
+    public DriftNettyServerConfig setInvokerVirtualThreadsEnabled(boolean invokerVirtualThreadsEnabled)
+    {
+        this.invokerVirtualThreadsEnabled = invokerVirtualThreadsEnabled;
+        return this;
+    }
+
+    public Duration getLoadSheddingQueueDelayTarget()
+    {
+        return loadSheddingQueueDelayTarget;
+    }
+
+    @Config("thrift.server.load-shedding.queue-delay-target")
+    @ConfigDescription("Reject requests that were queued for more than twice this time while the minimum queueing delay stays above it; disabled when not set")
+    public DriftNettyServerConfig setLoadSheddingQueueDelayTarget(Duration loadSheddingQueueDelayTarget)
+    {
+        this.loadSheddingQueueDelayTarget = loadSheddingQueueDelayTarget;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getLoadSheddingQueueDelayInterval()
+    {
+        return loadSheddingQueueDelayInterval;
+    }
+
+    @Config("thrift.server.load-shedding.queue-delay-interval")
+    @ConfigDescription("Interval over which the minimum queueing delay is compared to the target")
+    public DriftNettyServerConfig setLoadSheddingQueueDelayInterval(Duration loadSheddingQueueDelayInterval)
+    {
+        this.loadSheddingQueueDelayInterval = loadSheddingQueueDelayInterval;
+        return this;
+    }
 }
@@ -22,8 +22,10 @@ import com.google.inject.Module;
 import com.google.inject.Scopes;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
+import org.weakref.jmx.MBeanExporter;
 
 import static com.facebook.airlift.configuration.ConfigBinder.configBinder;
+import static com.google.inject.multibindings.OptionalBinder.newOptionalBinder;
 import static java.util.Objects.requireNonNull;
 
 public class DriftNettyServerModule
@@ -48,5 +50,6 @@ public class DriftNettyServerModule
         configBinder(binder).bindConfig(DriftNettyServerConfig.class);
         binder.bind(ByteBufAllocator.class).toInstance(allocator);
         binder.bind(ServerTransportFactory.class).to(DriftNettyServerTransportFactory.class).in(Scopes.SINGLETON);
+        newOptionalBinder(binder, MBeanExporter.class);
     }
 }
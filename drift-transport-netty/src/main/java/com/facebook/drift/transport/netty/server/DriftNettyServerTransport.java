@@ -15,46 +15,69 @@
  */
 package com.facebook.drift.transport.netty.server;
 
+import com.facebook.airlift.log.Logger;
+import com.facebook.drift.transport.netty.channel.EventLoopType;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy;
 import com.facebook.drift.transport.netty.ssl.SslContextFactory;
 import com.facebook.drift.transport.server.ServerMethodInvoker;
 import com.facebook.drift.transport.server.ServerTransport;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.epoll.Epoll;
-import io.netty.channel.epoll.EpollEventLoopGroup;
-import io.netty.channel.epoll.EpollServerSocketChannel;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.ssl.SslContext;
 import io.netty.util.concurrent.Future;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import static com.facebook.airlift.concurrent.Threads.threadsNamed;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.selectEventLoopType;
+import static com.facebook.drift.transport.netty.server.InvocationExecutor.createInvocationExecutor;
 import static com.facebook.drift.transport.netty.ssl.SslContextFactory.createSslContextFactory;
-import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static io.netty.channel.ChannelOption.ALLOCATOR;
 import static io.netty.channel.ChannelOption.SO_BACKLOG;
 import static io.netty.channel.ChannelOption.SO_KEEPALIVE;
+import static io.netty.channel.unix.UnixChannelOption.SO_REUSEPORT;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class DriftNettyServerTransport
         implements ServerTransport
 {
-    private final ServerBootstrap bootstrap;
-    private final int port;
+    private static final Logger log = Logger.get(DriftNettyServerTransport.class);
+
+    // the first listener is the main port of the server
+    private final List<ServerListener> listeners;
+    private final List<ServerBootstrap> bootstraps;
+    private final int serverChannelCount;
 
     private final EventLoopGroup ioGroup;
     private final EventLoopGroup workerGroup;
+    private final InvocationExecutor invocationExecutor;
+    private final Optional<QueueDelayLoadShedder> loadShedder;
+    private final InFlightRequestTracker requestTracker = new InFlightRequestTracker();
+    private final ConnectionLimiter connectionLimiter;
+    private final ServerPipelineSettings pipelineSettings;
+    private final Duration drainTimeout;
 
-    private Channel channel;
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final List<Integer> boundPorts = new CopyOnWriteArrayList<>();
 
     private final AtomicBoolean running = new AtomicBoolean();
 
@@ -68,53 +91,87 @@ public class DriftNettyServerTransport
     {
         requireNonNull(methodInvoker, "methodInvoker is null");
         requireNonNull(config, "config is null");
-        this.port = config.getPort();
-        Class serverSocketChannelClass;
-        if (config.isNativeTransportEnabled()) {
-            checkState(Epoll.isAvailable(), "native transport is not available");
-            ioGroup = new EpollEventLoopGroup(config.getIoThreadCount(), threadsNamed("drift-server-io-%s"));
-            workerGroup = new EpollEventLoopGroup(config.getWorkerThreadCount(), threadsNamed("drift-server-worker-%s"));
-            serverSocketChannelClass = EpollServerSocketChannel.class;
-        }
-        else {
-            ioGroup = new NioEventLoopGroup(config.getIoThreadCount(), threadsNamed("drift-server-io-%s"));
-            workerGroup = new NioEventLoopGroup(config.getWorkerThreadCount(), threadsNamed("drift-server-worker-%s"));
-            serverSocketChannelClass = NioServerSocketChannel.class;
+        this.listeners = ImmutableList.<ServerListener>builder()
+                .add(new ServerListener(config.getPort(), Optional.ofNullable(config.getTransport()), Optional.ofNullable(config.getProtocol()), Optional.of(!config.isAllowPlaintext())))
+                .addAll(config.getAdditionalListeners())
+                .build();
+        // port 0 binds a different ephemeral port for each listener
+        Set<Integer> ports = new HashSet<>();
+        for (ServerListener listener : listeners) {
+            checkArgument(listener.getPort() == 0 || ports.add(listener.getPort()), "Port %s is used by multiple listeners", listener.getPort());
         }
-
-        Optional<Supplier<SslContext>> sslContext = Optional.empty();
-        if (config.isSslEnabled()) {
-            SslContextFactory sslContextFactory = createSslContextFactory(false, config.getSslContextRefreshTime(), workerGroup);
-            sslContext = Optional.of(sslContextFactory.get(
-                    config.getTrustCertificate(),
-                    Optional.ofNullable(config.getKey()),
-                    Optional.ofNullable(config.getKey()),
-                    Optional.ofNullable(config.getKeyPassword()),
-                    config.getSessionCacheSize(),
-                    config.getSessionTimeout(),
-                    config.getCiphers()));
-
-            // validate ssl context configuration is valid
-            sslContext.get().get();
+        EventLoopType eventLoopType = selectEventLoopType(config.getEventLoopType(), config.isNativeTransportEnabled());
+        ioGroup = eventLoopType.createEventLoopGroup(config.getIoThreadCount(), threadsNamed("drift-server-io-%s"));
+        workerGroup = eventLoopType.createEventLoopGroup(config.getWorkerThreadCount(), threadsNamed("drift-server-worker-%s"));
+        invocationExecutor = createInvocationExecutor(config);
+        drainTimeout = config.getDrainTimeout();
+        connectionLimiter = new ConnectionLimiter(toOptionalInt(config.getMaxConnections()), toOptionalInt(config.getMaxConnectionsPerAddress()));
+        if (config.isFlushConsolidationEnabled() && !eventLoopType.isFlushConsolidationSupported()) {
+            log.warn("Flush consolidation is not supported by the %s event loop, flushing every response", eventLoopType);
         }
+        pipelineSettings = new ServerPipelineSettings(config, eventLoopType);
+        loadShedder = Optional.ofNullable(config.getLoadSheddingQueueDelayTarget())
+                .map(target -> new QueueDelayLoadShedder(target, config.getLoadSheddingQueueDelayInterval()));
 
-        ThriftServerInitializer serverInitializer = new ThriftServerInitializer(
+        Optional<Supplier<SslContext>> sslContext = createSslContext(config, workerGroup);
+        Function<ServerListener, ThriftServerInitializer> serverInitializer = listener -> new ThriftServerInitializer(
                 methodInvoker,
-                config.getMaxFrameSize(),
-                config.getRequestTimeout(),
+                listener.getTransport(),
+                listener.getProtocol(),
                 sslContext,
-                config.isAllowPlaintext(),
-                config.isAssumeClientsSupportOutOfOrderResponses(),
-                workerGroup);
+                // additional listeners accept plain text only if the main port does, unless they specify otherwise
+                !listener.isSslRequired(!config.isAllowPlaintext()),
+                pipelineSettings,
+                connectionLimiter,
+                workerGroup,
+                invocationExecutor,
+                loadShedder,
+                requestTracker);
 
-        bootstrap = new ServerBootstrap()
+        ServerBootstrap bootstrap = new ServerBootstrap()
                 .group(ioGroup, workerGroup)
-                .channel(serverSocketChannelClass)
-                .childHandler(serverInitializer)
+                .channel(eventLoopType.getServerSocketChannelClass())
                 .option(SO_BACKLOG, config.getAcceptBacklog())
                 .option(ALLOCATOR, allocator)
-                .childOption(SO_KEEPALIVE, true)
-                .validate();
+                .childOption(SO_KEEPALIVE, true);
+
+        // each server channel is registered with the next IO event loop, so binding one socket per IO thread
+        // lets the kernel spread new connections across the event loops instead of funneling them through one
+        boolean reusePort = config.isReusePortEnabled();
+        if (reusePort && !eventLoopType.isReusePortSupported()) {
+            log.warn("SO_REUSEPORT is not supported by the %s event loop, binding a single server socket", eventLoopType);
+            reusePort = false;
+        }
+        if (reusePort) {
+            bootstrap.option(SO_REUSEPORT, true);
+        }
+        serverChannelCount = reusePort ? config.getIoThreadCount() : 1;
+
+        // all listeners share the event loops and the request processing state, and differ only in the channel initializer
+        bootstraps = listeners.stream()
+                .map(listener -> bootstrap.clone().childHandler(serverInitializer.apply(listener)).validate())
+                .collect(toImmutableList());
+    }
+
+    private static Optional<Supplier<SslContext>> createSslContext(DriftNettyServerConfig config, EventLoopGroup workerGroup)
+    {
+        if (!config.isSslEnabled()) {
+            return Optional.empty();
+        }
+
+        SslContextFactory sslContextFactory = createSslContextFactory(false, config.getSslContextRefreshTime(), workerGroup);
+        Supplier<SslContext> sslContext = sslContextFactory.get(
+                config.getTrustCertificate(),
+                Optional.ofNullable(config.getKey()),
+                Optional.ofNullable(config.getKey()),
+                Optional.ofNullable(config.getKeyPassword()),
+                config.getSessionCacheSize(),
+                config.getSessionTimeout(),
+                config.getCiphers());
+
+        // validate ssl context configuration is valid
+        sslContext.get();
+        return Optional.of(sslContext);
     }
 
     @Override
@@ -125,7 +182,18 @@ public class DriftNettyServerTransport
         }
 
         try {
-            channel = bootstrap.bind(port).sync().channel();
+            for (int listener = 0; listener < listeners.size(); listener++) {
+                ServerBootstrap bootstrap = bootstraps.get(listener);
+                Channel channel = bootstrap.bind(listeners.get(listener).getPort()).sync().channel();
+                channels.add(channel);
+
+                // additional sockets must bind the port actually chosen for the first socket
+                int boundPort = ((InetSocketAddress) channel.localAddress()).getPort();
+                boundPorts.add(boundPort);
+                for (int i = 1; i < serverChannelCount; i++) {
+                    channels.add(bootstrap.bind(boundPort).sync().channel());
+                }
+            }
         }
         catch (InterruptedException e) {
             Thread.currentThread().interrupt();
@@ -135,16 +203,68 @@ public class DriftNettyServerTransport
 
     public int getPort()
     {
-        return ((InetSocketAddress) channel.localAddress()).getPort();
+        return boundPorts.get(0);
+    }
+
+    /**
+     * Returns the bound port of each listener, starting with the main port,
+     * followed by the additional listeners in configuration order.
+     */
+    public List<Integer> getPorts()
+    {
+        return ImmutableList.copyOf(boundPorts);
+    }
+
+    @VisibleForTesting
+    int getServerChannelCount()
+    {
+        return channels.size();
+    }
+
+    @Managed
+    @Nested
+    public InvocationExecutor getInvocationExecutor()
+    {
+        return invocationExecutor;
+    }
+
+    public Optional<QueueDelayLoadShedder> getLoadShedder()
+    {
+        return loadShedder;
+    }
+
+    @Managed
+    @Nested
+    public InFlightRequestTracker getRequestTracker()
+    {
+        return requestTracker;
+    }
+
+    @Managed
+    @Nested
+    public ConnectionLimiter getConnectionLimiter()
+    {
+        return connectionLimiter;
+    }
+
+    @Managed
+    @Nested
+    public CompressionPolicy getCompressionPolicy()
+    {
+        return pipelineSettings.getCompressionPolicy();
     }
 
     @Override
     public void shutdown()
     {
         try {
-            if (channel != null) {
+            // stop accepting new connections
+            for (Channel channel : channels) {
                 await(channel.close());
             }
+            if (drainTimeout.toMillis() > 0) {
+                drain();
+            }
         }
         finally {
             Future<?> ioShutdown;
@@ -155,9 +275,29 @@ public class DriftNettyServerTransport
                 await(workerGroup.shutdownGracefully(0, 0, SECONDS));
             }
             await(ioShutdown);
+            invocationExecutor.shutdown();
         }
     }
 
+    private void drain()
+    {
+        // responses sent while draining tell header transport clients to stop using the connection
+        requestTracker.startDraining();
+        try {
+            if (!requestTracker.awaitDrained(drainTimeout)) {
+                log.warn("Timed out after %s waiting for %s in-flight requests to finish", drainTimeout, requestTracker.getInFlightRequests());
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static OptionalInt toOptionalInt(Integer value)
+    {
+        return value == null ? OptionalInt.empty() : OptionalInt.of(value);
+    }
+
     private static void await(Future<?> future)
     {
         try {
@@ -19,32 +19,64 @@ import com.facebook.drift.transport.server.ServerMethodInvoker;
 import com.facebook.drift.transport.server.ServerTransport;
 import com.facebook.drift.transport.server.ServerTransportFactory;
 import io.netty.buffer.ByteBufAllocator;
+import org.weakref.jmx.MBeanExporter;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import static java.util.Objects.requireNonNull;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
 
 public class DriftNettyServerTransportFactory
         implements ServerTransportFactory
 {
     private final DriftNettyServerConfig config;
     private final ByteBufAllocator allocator;
+    private final Optional<MBeanExporter> exporter;
+    private final List<String> exportedNames = new CopyOnWriteArrayList<>();
 
     public DriftNettyServerTransportFactory(DriftNettyServerConfig config)
     {
         this(config, ByteBufAllocator.DEFAULT);
     }
 
-    @Inject
     public DriftNettyServerTransportFactory(DriftNettyServerConfig config, ByteBufAllocator allocator)
+    {
+        this(config, allocator, Optional.empty());
+    }
+
+    @Inject
+    public DriftNettyServerTransportFactory(DriftNettyServerConfig config, ByteBufAllocator allocator, Optional<MBeanExporter> exporter)
     {
         this.config = requireNonNull(config, "config is null");
         this.allocator = requireNonNull(allocator, "allocator is null");
+        this.exporter = requireNonNull(exporter, "exporter is null");
     }
 
     @Override
     public ServerTransport createServerTransport(ServerMethodInvoker methodInvoker)
     {
-        return new DriftNettyServerTransport(methodInvoker, config, allocator);
+        DriftNettyServerTransport transport = new DriftNettyServerTransport(methodInvoker, config, allocator);
+        exporter.ifPresent(mbeanExporter -> {
+            // a server normally creates a single transport, so only later transports need a distinguishing name
+            String name = generatedNameOf(DriftNettyServerTransport.class);
+            if (!exportedNames.isEmpty()) {
+                name += ",instance=" + exportedNames.size();
+            }
+            mbeanExporter.export(name, transport);
+            exportedNames.add(name);
+        });
+        return transport;
+    }
+
+    @PreDestroy
+    public void unexport()
+    {
+        exporter.ifPresent(mbeanExporter -> exportedNames.forEach(mbeanExporter::unexport));
+        exportedNames.clear();
     }
 }
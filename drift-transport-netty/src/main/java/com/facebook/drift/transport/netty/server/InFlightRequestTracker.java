@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Tracks the open connections and the requests in flight on each of them, so the
+ * server can drain before shutting down. While draining, connections are closed as
+ * soon as they have no requests in flight.
+ */
+@ThreadSafe
+public class InFlightRequestTracker
+{
+    private static final AttributeKey<AtomicInteger> IN_FLIGHT_REQUESTS = AttributeKey.valueOf(InFlightRequestTracker.class, "inFlightRequests");
+
+    private final ChannelGroup connections = new DefaultChannelGroup("drift-server-connections", GlobalEventExecutor.INSTANCE);
+    private final AtomicLong inFlightRequests = new AtomicLong();
+    private final SettableFuture<Void> drained = SettableFuture.create();
+    private volatile boolean draining;
+
+    public void connectionOpened(Channel channel)
+    {
+        connections.add(channel);
+        if (draining) {
+            channel.close();
+        }
+    }
+
+    public void requestStarted(Channel channel)
+    {
+        inFlightRequests.incrementAndGet();
+        getInFlightRequests(channel).incrementAndGet();
+    }
+
+    /**
+     * Must be called once for each started request, after the response is written or the request failed.
+     */
+    public void requestFinished(Channel channel)
+    {
+        int connectionRequests = getInFlightRequests(channel).decrementAndGet();
+        long remainingRequests = inFlightRequests.decrementAndGet();
+        if (draining) {
+            if (connectionRequests == 0) {
+                channel.close();
+            }
+            if (remainingRequests == 0) {
+                drained.set(null);
+            }
+        }
+    }
+
+    @Managed
+    public boolean isDraining()
+    {
+        return draining;
+    }
+
+    /**
+     * Closes idle connections, and closes each remaining connection once its in-flight requests finish.
+     */
+    public void startDraining()
+    {
+        draining = true;
+        for (Channel connection : connections) {
+            if (getInFlightRequests(connection).get() == 0) {
+                connection.close();
+            }
+        }
+        if (inFlightRequests.get() == 0) {
+            drained.set(null);
+        }
+    }
+
+    /**
+     * @return true if all in-flight requests finished before the timeout
+     */
+    public boolean awaitDrained(Duration timeout)
+            throws InterruptedException
+    {
+        try {
+            drained.get(timeout.roundTo(NANOSECONDS), NANOSECONDS);
+            return true;
+        }
+        catch (TimeoutException e) {
+            return false;
+        }
+        catch (ExecutionException e) {
+            throw new AssertionError("drained future can not fail", e);
+        }
+    }
+
+    @Managed
+    public long getInFlightRequests()
+    {
+        return inFlightRequests.get();
+    }
+
+    @Managed
+    public int getConnections()
+    {
+        return connections.size();
+    }
+
+    private static AtomicInteger getInFlightRequests(Channel channel)
+    {
+        AtomicInteger counter = channel.attr(IN_FLIGHT_REQUESTS).get();
+        if (counter == null) {
+            AtomicInteger newCounter = new AtomicInteger();
+            counter = channel.attr(IN_FLIGHT_REQUESTS).setIfAbsent(newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+}
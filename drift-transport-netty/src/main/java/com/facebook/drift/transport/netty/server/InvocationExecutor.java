@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.log.Logger;
+import com.facebook.airlift.stats.CounterStat;
+import com.facebook.airlift.stats.TimeStat;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.units.Duration.nanosSince;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Bounded thread pools used to run service methods off the Netty event loops.
+ * Methods without a dedicated pool use the default pool, or are invoked
+ * directly on the event loop when no default pool is configured.
+ * <p>
+ * When virtual threads are enabled and the JDK supports them, the default pool
+ * is replaced by a virtual thread per invocation. Dedicated method pools are
+ * unaffected, so they can still be used to bound the concurrency of a method.
+ */
+@ThreadSafe
+public class InvocationExecutor
+{
+    private static final Logger log = Logger.get(InvocationExecutor.class);
+
+    private final Optional<Executor> defaultExecutor;
+    private final Map<String, Optional<Executor>> methodExecutors;
+    private final ImmutableList<ThreadPoolExecutor> threadPools;
+    private final ImmutableList<ExecutorService> executors;
+
+    private final AtomicLong activeRequests = new AtomicLong();
+    private final TimeStat queueTime = new TimeStat(MILLISECONDS);
+    private final CounterStat rejectedRequests = new CounterStat();
+
+    public InvocationExecutor(OptionalInt threadCount, Map<String, Integer> methodThreadCounts, int maxQueuedRequests, boolean virtualThreadsEnabled)
+    {
+        requireNonNull(threadCount, "threadCount is null");
+        requireNonNull(methodThreadCounts, "methodThreadCounts is null");
+        checkArgument(maxQueuedRequests >= 0, "maxQueuedRequests is negative");
+
+        ImmutableList.Builder<ThreadPoolExecutor> threadPools = ImmutableList.builder();
+        ImmutableList.Builder<ExecutorService> executors = ImmutableList.builder();
+
+        Optional<ExecutorService> virtualThreadExecutor = Optional.empty();
+        if (virtualThreadsEnabled) {
+            virtualThreadExecutor = createVirtualThreadExecutor("drift-server-invoker-virtual-");
+            if (!virtualThreadExecutor.isPresent()) {
+                log.warn("Virtual threads are not supported by this JVM, falling back to %s",
+                        threadCount.isPresent() ? "a pool of " + threadCount.getAsInt() + " invoker threads" : "invoking methods on the worker event loop");
+            }
+        }
+
+        if (virtualThreadExecutor.isPresent()) {
+            executors.add(virtualThreadExecutor.get());
+            defaultExecutor = Optional.of(new MeasuredExecutor(virtualThreadExecutor.get()));
+        }
+        else if (threadCount.isPresent()) {
+            ThreadPoolExecutor threadPool = createThreadPool("drift-server-invoker-%s", threadCount.getAsInt(), maxQueuedRequests);
+            threadPools.add(threadPool);
+            executors.add(threadPool);
+            defaultExecutor = Optional.of(new MeasuredExecutor(threadPool));
+        }
+        else {
+            defaultExecutor = Optional.empty();
+        }
+
+        ImmutableMap.Builder<String, Optional<Executor>> methodExecutors = ImmutableMap.builder();
+        for (Entry<String, Integer> entry : methodThreadCounts.entrySet()) {
+            ThreadPoolExecutor threadPool = createThreadPool("drift-server-invoker-" + entry.getKey() + "-%s", entry.getValue(), maxQueuedRequests);
+            threadPools.add(threadPool);
+            executors.add(threadPool);
+            methodExecutors.put(entry.getKey(), Optional.of(new MeasuredExecutor(threadPool)));
+        }
+        this.methodExecutors = methodExecutors.build();
+        this.threadPools = threadPools.build();
+        this.executors = executors.build();
+    }
+
+    public static InvocationExecutor createInvocationExecutor(DriftNettyServerConfig config)
+    {
+        return new InvocationExecutor(
+                config.getInvokerThreadCount() == null ? OptionalInt.empty() : OptionalInt.of(config.getInvokerThreadCount()),
+                config.getInvokerMethodThreadCounts(),
+                config.getInvokerMaxQueuedRequests(),
+                config.isInvokerVirtualThreadsEnabled());
+    }
+
+    /**
+     * Returns the executor for the specified method, or empty if the method
+     * should be invoked directly on the calling event loop. The returned
+     * executor throws {@link RejectedExecutionException} when its queue is full.
+     */
+    public Optional<Executor> getExecutor(String methodName)
+    {
+        return methodExecutors.getOrDefault(methodName, defaultExecutor);
+    }
+
+    @Managed
+    public long getQueuedRequests()
+    {
+        long queued = 0;
+        for (ThreadPoolExecutor threadPool : threadPools) {
+            queued += threadPool.getQueue().size();
+        }
+        return queued;
+    }
+
+    @Managed
+    public long getActiveRequests()
+    {
+        return activeRequests.get();
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getQueueTime()
+    {
+        return queueTime;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getRejectedRequests()
+    {
+        return rejectedRequests;
+    }
+
+    public void shutdown()
+    {
+        executors.forEach(ExecutorService::shutdownNow);
+    }
+
+    public static boolean isVirtualThreadsSupported()
+    {
+        return VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.isPresent();
+    }
+
+    @VisibleForTesting
+    static Optional<ExecutorService> createVirtualThreadExecutor(String namePrefix)
+    {
+        if (!isVirtualThreadsSupported()) {
+            return Optional.empty();
+        }
+        try {
+            Object builder = VirtualThreads.OF_VIRTUAL.get().invoke(null);
+            builder = VirtualThreads.BUILDER_NAME.get().invoke(builder, namePrefix, 0L);
+            ThreadFactory threadFactory = (ThreadFactory) VirtualThreads.BUILDER_FACTORY.get().invoke(builder);
+            return Optional.of((ExecutorService) VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.get().invoke(null, threadFactory));
+        }
+        catch (ReflectiveOperationException e) {
+            log.warn(e, "Failed to create virtual thread executor");
+            return Optional.empty();
+        }
+    }
+
+    private static ThreadPoolExecutor createThreadPool(String nameFormat, int threadCount, int maxQueuedRequests)
+    {
+        checkArgument(threadCount > 0, "threadCount must be at least 1");
+        BlockingQueue<Runnable> queue = maxQueuedRequests == 0 ? new SynchronousQueue<>() : new LinkedBlockingQueue<>(maxQueuedRequests);
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(threadCount, threadCount, 1, MINUTES, queue, daemonThreadsNamed(nameFormat));
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    private class MeasuredExecutor
+            implements Executor
+    {
+        private final Executor delegate;
+
+        public MeasuredExecutor(Executor delegate)
+        {
+            this.delegate = requireNonNull(delegate, "delegate is null");
+        }
+
+        @Override
+        public void execute(Runnable task)
+        {
+            long enqueued = System.nanoTime();
+            try {
+                delegate.execute(() -> {
+                    queueTime.add(nanosSince(enqueued));
+                    activeRequests.incrementAndGet();
+                    try {
+                        task.run();
+                    }
+                    finally {
+                        activeRequests.decrementAndGet();
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                rejectedRequests.update(1);
+                throw e;
+            }
+        }
+    }
+
+    // virtual threads are only available on Java 21 and later, so they are accessed reflectively
+    private static final class VirtualThreads
+    {
+        private static final Optional<Method> OF_VIRTUAL;
+        private static final Optional<Method> BUILDER_NAME;
+        private static final Optional<Method> BUILDER_FACTORY;
+        private static final Optional<Method> NEW_THREAD_PER_TASK_EXECUTOR;
+
+        static {
+            Method ofVirtual = null;
+            Method builderName = null;
+            Method builderFactory = null;
+            Method newThreadPerTaskExecutor = null;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                builderName = builderClass.getMethod("name", String.class, long.class);
+                builderFactory = builderClass.getMethod("factory");
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            }
+            catch (ReflectiveOperationException ignored) {
+                newThreadPerTaskExecutor = null;
+            }
+            OF_VIRTUAL = Optional.ofNullable(ofVirtual);
+            BUILDER_NAME = Optional.ofNullable(builderName);
+            BUILDER_FACTORY = Optional.ofNullable(builderFactory);
+            NEW_THREAD_PER_TASK_EXECUTOR = Optional.ofNullable(newThreadPerTaskExecutor);
+        }
+
+        private VirtualThreads() {}
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.stats.CounterStat;
+import com.google.common.base.Ticker;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Sheds requests based on queueing delay, in the style of the CoDel algorithm.
+ * <p>
+ * The minimum queueing delay is tracked over each interval. If the minimum delay
+ * in the last interval exceeded the target, the server has a standing queue, and
+ * requests that waited more than twice the target are rejected until an interval
+ * passes with a minimum delay under the target. Short bursts, where some requests
+ * still get through quickly, are not shed.
+ */
+@ThreadSafe
+public class QueueDelayLoadShedder
+{
+    private static final long NO_REQUESTS = Long.MAX_VALUE;
+
+    private final long targetNanos;
+    private final long intervalNanos;
+    private final Ticker ticker;
+
+    private final AtomicLong intervalEnd;
+    private final AtomicLong minDelay = new AtomicLong(NO_REQUESTS);
+    private volatile boolean overloaded;
+
+    private final CounterStat shedRequests = new CounterStat();
+
+    public QueueDelayLoadShedder(Duration target, Duration interval)
+    {
+        this(target, interval, Ticker.systemTicker());
+    }
+
+    public QueueDelayLoadShedder(Duration target, Duration interval, Ticker ticker)
+    {
+        requireNonNull(target, "target is null");
+        requireNonNull(interval, "interval is null");
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.targetNanos = target.roundTo(NANOSECONDS);
+        this.intervalNanos = interval.roundTo(NANOSECONDS);
+        checkArgument(intervalNanos > 0, "interval must be positive");
+        this.intervalEnd = new AtomicLong(ticker.read() + intervalNanos);
+    }
+
+    /**
+     * Records the queueing delay of a request that is about to be executed.
+     *
+     * @param arrivalTime the {@link System#nanoTime()} at which the request arrived
+     * @return true if the request should be rejected
+     */
+    public boolean shouldShed(long arrivalTime)
+    {
+        long now = ticker.read();
+        long delay = now - arrivalTime;
+
+        long currentIntervalEnd = intervalEnd.get();
+        if (now - currentIntervalEnd > 0) {
+            if (intervalEnd.compareAndSet(currentIntervalEnd, now + intervalNanos)) {
+                long intervalMinDelay = minDelay.getAndSet(delay);
+                overloaded = intervalMinDelay != NO_REQUESTS && intervalMinDelay > targetNanos;
+            }
+        }
+        else {
+            minDelay.accumulateAndGet(delay, Math::min);
+        }
+
+        if (overloaded && delay > 2 * targetNanos) {
+            shedRequests.update(1);
+            return true;
+        }
+        return false;
+    }
+
+    @Managed
+    public boolean isOverloaded()
+    {
+        return overloaded;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getShedRequests()
+    {
+        return shedRequests;
+    }
+}
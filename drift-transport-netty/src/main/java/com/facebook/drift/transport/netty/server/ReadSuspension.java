@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * Several handlers pause reading from a connection for independent reasons, so
+ * reading resumes only after every handler that suspended it has resumed it.
+ * Must only be used from the channel event loop, and each handler must balance
+ * its own calls.
+ */
+final class ReadSuspension
+{
+    private static final AttributeKey<ReadSuspension> READ_SUSPENSION = AttributeKey.valueOf(ReadSuspension.class, "readSuspension");
+
+    private int suspensions;
+
+    private ReadSuspension() {}
+
+    public static void suspendReading(Channel channel)
+    {
+        ReadSuspension readSuspension = get(channel);
+        readSuspension.suspensions++;
+        if (readSuspension.suspensions == 1) {
+            channel.config().setAutoRead(false);
+        }
+    }
+
+    public static void resumeReading(Channel channel)
+    {
+        ReadSuspension readSuspension = get(channel);
+        readSuspension.suspensions--;
+        if (readSuspension.suspensions == 0) {
+            channel.config().setAutoRead(true);
+        }
+    }
+
+    private static ReadSuspension get(Channel channel)
+    {
+        ReadSuspension readSuspension = channel.attr(READ_SUSPENSION).get();
+        if (readSuspension == null) {
+            readSuspension = new ReadSuspension();
+            channel.attr(READ_SUSPENSION).set(readSuspension);
+        }
+        return readSuspension;
+    }
+}
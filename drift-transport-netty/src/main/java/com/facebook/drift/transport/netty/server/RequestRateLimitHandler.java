@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.transport.netty.codec.ThriftFrame;
+import com.google.common.base.Ticker;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.ceil;
+import static java.lang.Math.min;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Token bucket limiting the request rate of a single connection. Instead of failing
+ * requests, reading from the connection is paused until the next request is allowed,
+ * which pushes back on the client through TCP flow control.
+ */
+public class RequestRateLimitHandler
+        extends ChannelInboundHandlerAdapter
+{
+    private final double permitsPerNanosecond;
+    private final double maxPermits;
+    private final Ticker ticker;
+
+    // Netty invokes all handler methods and scheduled tasks on the channel event loop, so this state does not need to be thread safe
+    private double permits;
+    private long lastRefillTime;
+    private ScheduledFuture<?> resumeTask;
+
+    public RequestRateLimitHandler(int requestsPerSecond, int burst)
+    {
+        this(requestsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    public RequestRateLimitHandler(int requestsPerSecond, int burst, Ticker ticker)
+    {
+        checkArgument(requestsPerSecond > 0, "requestsPerSecond must be at least 1");
+        checkArgument(burst > 0, "burst must be at least 1");
+        this.permitsPerNanosecond = ((double) requestsPerSecond) / SECONDS.toNanos(1);
+        this.maxPermits = burst;
+        this.ticker = requireNonNull(ticker, "ticker is null");
+        this.permits = burst;
+        this.lastRefillTime = ticker.read();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext context, Object message)
+    {
+        if (message instanceof ThriftFrame) {
+            refill();
+            permits--;
+            if (permits < 1 && resumeTask == null) {
+                ReadSuspension.suspendReading(context.channel());
+                scheduleResume(context);
+            }
+        }
+        context.fireChannelRead(message);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context)
+    {
+        if (resumeTask != null) {
+            resumeTask.cancel(false);
+            resumeTask = null;
+        }
+    }
+
+    private void scheduleResume(ChannelHandlerContext context)
+    {
+        long delayNanos = (long) ceil((1 - permits) / permitsPerNanosecond);
+        resumeTask = context.executor().schedule(() -> tryResume(context), delayNanos, NANOSECONDS);
+    }
+
+    private void tryResume(ChannelHandlerContext context)
+    {
+        refill();
+        if (permits < 1) {
+            scheduleResume(context);
+            return;
+        }
+        resumeTask = null;
+        ReadSuspension.resumeReading(context.channel());
+    }
+
+    private void refill()
+    {
+        long now = ticker.read();
+        permits = min(maxPermits, permits + (now - lastRefillTime) * permitsPerNanosecond);
+        lastRefillTime = now;
+    }
+}
@@ -20,16 +20,53 @@ import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reorder buffer for clients that require responses in request order. Up to
+ * {@code maxPipelineDepth} requests from such a client are processed concurrently,
+ * and responses that complete early are held until all earlier responses are written.
+ * Reading from the connection is paused while the pipeline is full.
+ * <p>
+ * Responses are matched to requests by frame sequence id, so a request that reuses
+ * the sequence id of a request still in flight is held until that request completes.
+ */
 public class ResponseOrderingHandler
         extends ChannelDuplexHandler
 {
+    private final int maxPipelineDepth;
+
+    // Netty invokes all handler methods on the channel event loop, so this state does not need to be thread safe
+    private final Deque<Integer> pendingSequenceIds = new ArrayDeque<>();
+    private final Map<Integer, PendingResponse> completedResponses = new HashMap<>();
+    private ThriftFrame deferredRequest;
+    private boolean readingPaused;
+
+    public ResponseOrderingHandler(int maxPipelineDepth)
+    {
+        checkArgument(maxPipelineDepth > 0, "maxPipelineDepth must be at least 1");
+        this.maxPipelineDepth = maxPipelineDepth;
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext context, Object message)
     {
         if (message instanceof ThriftFrame) {
             ThriftFrame thriftFrame = (ThriftFrame) message;
             if (!thriftFrame.isSupportOutOfOrderResponse()) {
-                context.channel().config().setAutoRead(false);
+                if (pendingSequenceIds.contains(thriftFrame.getSequenceId())) {
+                    // the response could not be told apart from the earlier one
+                    deferredRequest = thriftFrame;
+                    pauseReading(context);
+                    return;
+                }
+                startRequest(context, thriftFrame);
             }
         }
         context.fireChannelRead(message);
@@ -38,13 +75,99 @@ public class ResponseOrderingHandler
     @Override
     public void write(ChannelHandlerContext context, Object message, ChannelPromise promise)
     {
-        // The call to setAutoRead(true) triggers a read inline. That can trigger an entire
-        // request-response cycle before we get a chance to write, breaking the ordering.
-        // Write the response first so that this doesn't happen.
-        context.write(message, promise);
-        if (message instanceof ThriftFrame) {
-            // always re-enable auto read
-            context.channel().config().setAutoRead(true);
+        if (!(message instanceof ThriftFrame) || !pendingSequenceIds.contains(((ThriftFrame) message).getSequenceId())) {
+            context.write(message, promise);
+            return;
+        }
+
+        ThriftFrame response = (ThriftFrame) message;
+        if (pendingSequenceIds.peekFirst() != response.getSequenceId()) {
+            // hold the response until all earlier responses are written
+            completedResponses.put(response.getSequenceId(), new PendingResponse(response, promise));
+            return;
+        }
+
+        pendingSequenceIds.removeFirst();
+        context.write(response, promise);
+        while (!pendingSequenceIds.isEmpty() && completedResponses.containsKey(pendingSequenceIds.peekFirst())) {
+            PendingResponse next = completedResponses.remove(pendingSequenceIds.removeFirst());
+            context.write(next.getResponse(), next.getPromise());
+        }
+
+        // The responses are written before reading resumes, because resuming can trigger an
+        // entire request-response cycle inline, which would break the ordering.
+        resumeReading(context);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext context)
+    {
+        for (PendingResponse pendingResponse : completedResponses.values()) {
+            pendingResponse.getResponse().release();
+            pendingResponse.getPromise().tryFailure(new ClosedChannelException());
+        }
+        completedResponses.clear();
+        pendingSequenceIds.clear();
+
+        if (deferredRequest != null) {
+            deferredRequest.release();
+            deferredRequest = null;
+        }
+    }
+
+    private void startRequest(ChannelHandlerContext context, ThriftFrame request)
+    {
+        pendingSequenceIds.addLast(request.getSequenceId());
+        if (pendingSequenceIds.size() >= maxPipelineDepth) {
+            pauseReading(context);
+        }
+    }
+
+    private void pauseReading(ChannelHandlerContext context)
+    {
+        if (!readingPaused) {
+            readingPaused = true;
+            ReadSuspension.suspendReading(context.channel());
+        }
+    }
+
+    private void resumeReading(ChannelHandlerContext context)
+    {
+        if (deferredRequest != null) {
+            if (pendingSequenceIds.contains(deferredRequest.getSequenceId())) {
+                return;
+            }
+            ThriftFrame request = deferredRequest;
+            deferredRequest = null;
+            startRequest(context, request);
+            context.fireChannelRead(request);
+        }
+
+        if (readingPaused && deferredRequest == null && pendingSequenceIds.size() < maxPipelineDepth) {
+            readingPaused = false;
+            ReadSuspension.resumeReading(context.channel());
+        }
+    }
+
+    private static class PendingResponse
+    {
+        private final ThriftFrame response;
+        private final ChannelPromise promise;
+
+        public PendingResponse(ThriftFrame response, ChannelPromise promise)
+        {
+            this.response = response;
+            this.promise = promise;
+        }
+
+        public ThriftFrame getResponse()
+        {
+            return response;
+        }
+
+        public ChannelPromise getPromise()
+        {
+            return promise;
         }
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.Transport;
+import com.google.common.base.Splitter;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An additional port accepting connections for the server, with its own transport
+ * and protocol. Unless the listener specifies otherwise, it accepts plain text
+ * connections only if the main port does. All listeners share the method invoker,
+ * event loops, and limits of the server.
+ */
+public class ServerListener
+{
+    private static final String SSL = "ssl";
+    private static final String PLAINTEXT = "plaintext";
+
+    private final int port;
+    private final Optional<Transport> transport;
+    private final Optional<Protocol> protocol;
+    private final Optional<Boolean> sslRequired;
+
+    public ServerListener(int port, Optional<Transport> transport, Optional<Protocol> protocol, Optional<Boolean> sslRequired)
+    {
+        checkArgument(port >= 0 && port <= 65535, "port is out of range: %s", port);
+        this.port = port;
+        this.transport = requireNonNull(transport, "transport is null");
+        this.protocol = requireNonNull(protocol, "protocol is null");
+        this.sslRequired = requireNonNull(sslRequired, "sslRequired is null");
+    }
+
+    /**
+     * Port to listen on, or 0 to choose a free port
+     */
+    public int getPort()
+    {
+        return port;
+    }
+
+    /**
+     * Transport of all connections, or empty to detect it for each connection
+     */
+    public Optional<Transport> getTransport()
+    {
+        return transport;
+    }
+
+    public Optional<Protocol> getProtocol()
+    {
+        return protocol;
+    }
+
+    /**
+     * Whether plain text connections are rejected on this port, or empty to use the setting of the main port
+     */
+    public Optional<Boolean> getSslRequired()
+    {
+        return sslRequired;
+    }
+
+    /**
+     * Whether plain text connections are rejected on this port, given the setting of the main port
+     */
+    public boolean isSslRequired(boolean mainPortSslRequired)
+    {
+        return sslRequired.orElse(mainPortSslRequired);
+    }
+
+    /**
+     * Parses a listener as used in configuration: the port, followed by the optional
+     * transport, protocol, and {@code ssl} or {@code plaintext} flag, separated by colons
+     * (e.g. {@code 9090:FRAMED:BINARY:plaintext} or {@code 9443:HEADER:ssl}).
+     */
+    public static ServerListener fromString(String listener)
+    {
+        List<String> parts = Splitter.on(':').trimResults().splitToList(requireNonNull(listener, "listener is null"));
+        int port;
+        try {
+            port = Integer.parseInt(parts.get(0));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(format("Invalid port in listener %s", listener), e);
+        }
+
+        Optional<Transport> transport = Optional.empty();
+        Optional<Protocol> protocol = Optional.empty();
+        Optional<Boolean> sslRequired = Optional.empty();
+        for (String part : parts.subList(1, parts.size())) {
+            Optional<Transport> partTransport = tryParse(Transport.class, part);
+            Optional<Protocol> partProtocol = tryParse(Protocol.class, part);
+            if (part.equalsIgnoreCase(SSL) || part.equalsIgnoreCase(PLAINTEXT)) {
+                boolean partSslRequired = part.equalsIgnoreCase(SSL);
+                checkArgument(sslRequired.orElse(partSslRequired) == partSslRequired, "Listener %s can not be both %s and %s", listener, SSL, PLAINTEXT);
+                sslRequired = Optional.of(partSslRequired);
+            }
+            else if (partTransport.isPresent()) {
+                transport = partTransport;
+            }
+            else if (partProtocol.isPresent()) {
+                protocol = partProtocol;
+            }
+            else {
+                throw new IllegalArgumentException(format("Unknown option %s in listener %s", part, listener));
+            }
+        }
+        return new ServerListener(port, transport, protocol, sslRequired);
+    }
+
+    private static <E extends Enum<E>> Optional<E> tryParse(Class<E> type, String name)
+    {
+        for (E value : type.getEnumConstants()) {
+            if (value.name().equalsIgnoreCase(name)) {
+                return Optional.of(value);
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        ServerListener that = (ServerListener) o;
+        return port == that.port &&
+                Objects.equals(sslRequired, that.sslRequired) &&
+                Objects.equals(transport, that.transport) &&
+                Objects.equals(protocol, that.protocol);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Objects.hash(port, transport, protocol, sslRequired);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("port", port)
+                .add("transport", transport.orElse(null))
+                .add("protocol", protocol.orElse(null))
+                .add("sslRequired", sslRequired.orElse(null))
+                .omitNullValues()
+                .toString();
+    }
+}
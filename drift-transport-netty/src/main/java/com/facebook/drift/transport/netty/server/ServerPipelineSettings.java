@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.transport.netty.channel.EventLoopType;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy;
+import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Settings of the request processing pipeline, which are shared by the connections
+ * of all listeners of a server. They are derived once from the server configuration,
+ * so new settings are added here instead of to the constructors of the pipeline.
+ */
+public final class ServerPipelineSettings
+{
+    private final DataSize maxFrameSize;
+    private final Duration requestTimeout;
+    private final boolean assumeClientsSupportOutOfOrderResponses;
+    private final int maxPipelineDepth;
+    private final OptionalInt flushConsolidationMaxFlushes;
+    private final OptionalInt connectionRequestRate;
+    private final int connectionRequestBurst;
+    private final List<ThriftHeaderTransform> compressionCodecs;
+    private final CompressionPolicy compressionPolicy;
+    private final int streamingChunkSize;
+    private final Duration streamingIdleTimeout;
+
+    public ServerPipelineSettings(DriftNettyServerConfig config, EventLoopType eventLoopType)
+    {
+        requireNonNull(config, "config is null");
+        requireNonNull(eventLoopType, "eventLoopType is null");
+        this.maxFrameSize = requireNonNull(config.getMaxFrameSize(), "maxFrameSize is null");
+        this.requestTimeout = requireNonNull(config.getRequestTimeout(), "requestTimeout is null");
+        this.assumeClientsSupportOutOfOrderResponses = config.isAssumeClientsSupportOutOfOrderResponses();
+        checkArgument(config.getMaxPipelineDepth() > 0, "maxPipelineDepth must be at least 1");
+        this.maxPipelineDepth = config.getMaxPipelineDepth();
+        this.flushConsolidationMaxFlushes = config.isFlushConsolidationEnabled() && eventLoopType.isFlushConsolidationSupported() ? OptionalInt.of(config.getFlushConsolidationMaxFlushes()) : OptionalInt.empty();
+        this.connectionRequestRate = toOptionalInt(config.getConnectionRequestRate());
+        this.connectionRequestBurst = firstNonNull(config.getConnectionRequestBurst(), connectionRequestRate.orElse(1));
+        checkArgument(connectionRequestBurst > 0, "connectionRequestBurst must be at least 1");
+        this.compressionCodecs = ImmutableList.copyOf(requireNonNull(config.getCompressionCodecs(), "compressionCodecs is null"));
+        this.compressionPolicy = new CompressionPolicy(config.getCompressionMinSize(), Optional.ofNullable(config.getCompressionMinRatio()));
+        checkArgument(config.getStreamingChunkSize() > 0, "streamingChunkSize must be at least 1");
+        this.streamingChunkSize = config.getStreamingChunkSize();
+        this.streamingIdleTimeout = requireNonNull(config.getStreamingIdleTimeout(), "streamingIdleTimeout is null");
+    }
+
+    public DataSize getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    public Duration getRequestTimeout()
+    {
+        return requestTimeout;
+    }
+
+    public boolean isAssumeClientsSupportOutOfOrderResponses()
+    {
+        return assumeClientsSupportOutOfOrderResponses;
+    }
+
+    public int getMaxPipelineDepth()
+    {
+        return maxPipelineDepth;
+    }
+
+    public OptionalInt getFlushConsolidationMaxFlushes()
+    {
+        return flushConsolidationMaxFlushes;
+    }
+
+    public OptionalInt getConnectionRequestRate()
+    {
+        return connectionRequestRate;
+    }
+
+    public int getConnectionRequestBurst()
+    {
+        return connectionRequestBurst;
+    }
+
+    public List<ThriftHeaderTransform> getCompressionCodecs()
+    {
+        return compressionCodecs;
+    }
+
+    public CompressionPolicy getCompressionPolicy()
+    {
+        return compressionPolicy;
+    }
+
+    public int getStreamingChunkSize()
+    {
+        return streamingChunkSize;
+    }
+
+    public Duration getStreamingIdleTimeout()
+    {
+        return streamingIdleTimeout;
+    }
+
+    private static OptionalInt toOptionalInt(Integer value)
+    {
+        return value == null ? OptionalInt.empty() : OptionalInt.of(value);
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("maxFrameSize", maxFrameSize)
+                .add("requestTimeout", requestTimeout)
+                .add("assumeClientsSupportOutOfOrderResponses", assumeClientsSupportOutOfOrderResponses)
+                .add("maxPipelineDepth", maxPipelineDepth)
+                .add("flushConsolidationMaxFlushes", flushConsolidationMaxFlushes)
+                .add("connectionRequestRate", connectionRequestRate)
+                .add("connectionRequestBurst", connectionRequestBurst)
+                .add("compressionCodecs", compressionCodecs)
+                .add("streamingChunkSize", streamingChunkSize)
+                .add("streamingIdleTimeout", streamingIdleTimeout)
+                .toString();
+    }
+}
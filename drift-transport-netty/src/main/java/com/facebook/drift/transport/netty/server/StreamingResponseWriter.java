@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.TApplicationException;
+import com.facebook.drift.transport.netty.codec.ThriftFrame;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import io.netty.channel.ChannelHandlerContext;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.facebook.drift.TApplicationException.Type.INTERNAL_ERROR;
+import static com.facebook.drift.TApplicationException.Type.TIMEOUT;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.Math.max;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Writes the result of a streaming method as a sequence of response frames. Chunks are
+ * pulled from the iterator and written only while the channel is writable, so a slow
+ * client does not cause the whole result to be buffered in memory. Writing stops when
+ * the channel becomes unwritable, and continues when {@link #resume()} is called after
+ * the channel is writable again.
+ * <p>
+ * The stream fails with a timeout when the first chunk is not written before the request
+ * deadline, or when the iterator does not produce a later chunk within the idle timeout.
+ * Time spent waiting for a slow client to read does not count against the idle timeout.
+ * <p>
+ * The returned future completes with the last chunk, which the caller writes like a
+ * regular response. Cancelling the future stops the stream and closes the iterator,
+ * if it is {@link AutoCloseable}.
+ */
+class StreamingResponseWriter
+{
+    private final ChannelHandlerContext context;
+    private final Iterator<?> iterator;
+    private final int chunkSize;
+    private final ChunkEncoder chunkEncoder;
+    private final Executor executor;
+    private final ScheduledExecutorService timeoutExecutor;
+    private final long firstChunkDeadline;
+    private final Duration idleTimeout;
+
+    private final SettableFuture<ThriftFrame> lastChunk = SettableFuture.create();
+    // only one thread pulls from the iterator at a time
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile ScheduledFuture<?> firstChunkTimeout;
+    private volatile boolean firstChunkWritten;
+
+    public StreamingResponseWriter(
+            ChannelHandlerContext context,
+            Iterator<?> iterator,
+            int chunkSize,
+            ChunkEncoder chunkEncoder,
+            Executor executor,
+            ScheduledExecutorService timeoutExecutor,
+            long firstChunkDeadline,
+            Duration idleTimeout)
+    {
+        this.context = requireNonNull(context, "context is null");
+        this.iterator = requireNonNull(iterator, "iterator is null");
+        checkArgument(chunkSize > 0, "chunkSize must be at least 1");
+        this.chunkSize = chunkSize;
+        this.chunkEncoder = requireNonNull(chunkEncoder, "chunkEncoder is null");
+        this.executor = requireNonNull(executor, "executor is null");
+        this.timeoutExecutor = requireNonNull(timeoutExecutor, "timeoutExecutor is null");
+        this.firstChunkDeadline = firstChunkDeadline;
+        this.idleTimeout = requireNonNull(idleTimeout, "idleTimeout is null");
+    }
+
+    public ListenableFuture<ThriftFrame> start()
+    {
+        // the first chunk must be written before the deadline, even while the client is not reading
+        firstChunkTimeout = scheduleTimeout(firstChunkDeadline - System.nanoTime(), "Streaming response was not started before the request deadline");
+        lastChunk.addListener(() -> firstChunkTimeout.cancel(false), directExecutor());
+        // a completed or cancelled stream runs once more to close the iterator
+        lastChunk.addListener(this::schedule, directExecutor());
+        schedule();
+        return lastChunk;
+    }
+
+    public void resume()
+    {
+        if (context.channel().isWritable()) {
+            schedule();
+        }
+    }
+
+    public void cancel()
+    {
+        lastChunk.cancel(false);
+    }
+
+    private void schedule()
+    {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::run);
+        }
+        catch (RejectedExecutionException e) {
+            running.set(false);
+            // the method was already invoked and part of the response may have been written, so this is not load shedding
+            lastChunk.setException(new TApplicationException(INTERNAL_ERROR, "Server is shutting down or overloaded: unable to continue streaming response"));
+            closeIterator();
+        }
+    }
+
+    private void run()
+    {
+        try {
+            writeChunks();
+        }
+        catch (Throwable t) {
+            lastChunk.setException(t);
+        }
+        finally {
+            running.set(false);
+        }
+
+        if (lastChunk.isDone()) {
+            closeIterator();
+        }
+        else if (context.channel().isWritable()) {
+            // the channel became writable before the running flag was cleared
+            schedule();
+        }
+    }
+
+    private void writeChunks()
+            throws Exception
+    {
+        while (!lastChunk.isDone() && context.channel().isWritable()) {
+            List<Object> chunk = readChunk();
+            if (!iterator.hasNext()) {
+                ThriftFrame frame = chunkEncoder.encode(chunk, true);
+                if (!lastChunk.set(frame)) {
+                    // the stream was cancelled
+                    frame.release();
+                }
+                return;
+            }
+            context.writeAndFlush(chunkEncoder.encode(chunk, false));
+            if (!firstChunkWritten) {
+                firstChunkWritten = true;
+                firstChunkTimeout.cancel(false);
+            }
+        }
+    }
+
+    private List<Object> readChunk()
+    {
+        ScheduledFuture<?> timeout = null;
+        if (firstChunkWritten) {
+            timeout = scheduleTimeout(idleTimeout.roundTo(NANOSECONDS), "Streaming response did not produce a chunk within " + idleTimeout);
+        }
+        try {
+            List<Object> chunk = new ArrayList<>(chunkSize);
+            while (chunk.size() < chunkSize && iterator.hasNext()) {
+                chunk.add(iterator.next());
+            }
+            return chunk;
+        }
+        finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    private ScheduledFuture<?> scheduleTimeout(long timeoutNanos, String message)
+    {
+        // a blocked iterator can not be interrupted, so it is closed once it returns
+        return timeoutExecutor.schedule(() -> lastChunk.setException(new TApplicationException(TIMEOUT, message)), max(0, timeoutNanos), NANOSECONDS);
+    }
+
+    private void closeIterator()
+    {
+        if (closed.compareAndSet(false, true)) {
+            closeIterator(iterator);
+        }
+    }
+
+    static void closeIterator(Iterator<?> iterator)
+    {
+        if (iterator instanceof AutoCloseable) {
+            try {
+                ((AutoCloseable) iterator).close();
+            }
+            catch (Exception ignored) {
+                // the response is already complete
+            }
+        }
+    }
+
+    public interface ChunkEncoder
+    {
+        ThriftFrame encode(List<Object> chunk, boolean last)
+                throws Exception;
+    }
+}
@@ -18,12 +18,9 @@ package com.facebook.drift.transport.netty.server;
 import com.facebook.drift.transport.netty.codec.Protocol;
 import com.facebook.drift.transport.netty.codec.Transport;
 import com.google.common.primitives.Ints;
-import io.airlift.units.DataSize;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelPipeline;
 import io.netty.handler.codec.ByteToMessageDecoder;
-import io.netty.handler.flow.FlowControlHandler;
 
 import java.util.List;
 import java.util.Optional;
@@ -56,14 +53,12 @@ public class ThriftProtocolDetection
     private static final int HTTP_POST_MAGIC = Ints.fromBytes((byte) 'P', (byte) 'O', (byte) 'S', (byte) 'T');
 
     private final ThriftServerHandler thriftServerHandler;
-    private final DataSize maxFrameSize;
-    private final boolean assumeClientsSupportOutOfOrderResponses;
+    private final ThriftServerPipeline serverPipeline;
 
-    public ThriftProtocolDetection(ThriftServerHandler thriftServerHandler, DataSize maxFrameSize, boolean assumeClientsSupportOutOfOrderResponses)
+    ThriftProtocolDetection(ThriftServerHandler thriftServerHandler, ThriftServerPipeline serverPipeline)
     {
-        this.maxFrameSize = requireNonNull(maxFrameSize, "maxFrameSize is null");
         this.thriftServerHandler = requireNonNull(thriftServerHandler, "thriftServerHandler is null");
-        this.assumeClientsSupportOutOfOrderResponses = assumeClientsSupportOutOfOrderResponses;
+        this.serverPipeline = requireNonNull(serverPipeline, "serverPipeline is null");
     }
 
     // This method is an exception to the normal reference counted rules and buffer should not be released
@@ -135,14 +130,9 @@ public class ThriftProtocolDetection
 
     private void switchToTransport(ChannelHandlerContext context, Transport transport, Optional<Protocol> protocol)
     {
-        ChannelPipeline pipeline = context.pipeline();
-        transport.addFrameHandlers(pipeline, protocol, maxFrameSize, assumeClientsSupportOutOfOrderResponses);
-        // FlowControlHandler and ResponseOrderingHandler collaborate to prevent out of order responses
-        pipeline.addLast(new FlowControlHandler());
-        pipeline.addLast(new ResponseOrderingHandler());
-        pipeline.addLast(thriftServerHandler);
+        serverPipeline.addThriftHandlers(context.pipeline(), transport, protocol, thriftServerHandler);
 
         // remove(this) must be last because it triggers downstream processing of the current message
-        pipeline.remove(this);
+        context.pipeline().remove(this);
     }
 }
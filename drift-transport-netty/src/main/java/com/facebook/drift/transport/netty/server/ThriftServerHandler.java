@@ -27,12 +27,15 @@ import com.facebook.drift.protocol.TProtocolWriter;
 import com.facebook.drift.protocol.TTransport;
 import com.facebook.drift.transport.MethodMetadata;
 import com.facebook.drift.transport.ParameterMetadata;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy.MethodCompression;
 import com.facebook.drift.transport.netty.codec.FrameInfo;
 import com.facebook.drift.transport.netty.codec.FrameTooLargeException;
 import com.facebook.drift.transport.netty.codec.Protocol;
 import com.facebook.drift.transport.netty.codec.ThriftFrame;
 import com.facebook.drift.transport.netty.codec.ThriftHeaderTransform;
 import com.facebook.drift.transport.netty.codec.Transport;
+import com.facebook.drift.transport.netty.server.StreamingResponseWriter.ChunkEncoder;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferInputTransport;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferOutputTransport;
 import com.facebook.drift.transport.server.ServerInvokeRequest;
@@ -44,7 +47,9 @@ import com.google.common.util.concurrent.FluentFuture;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import io.airlift.units.Duration;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 
@@ -52,28 +57,49 @@ import java.io.IOException;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.OptionalInt;
 import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import static com.facebook.drift.TApplicationException.Type.INTERNAL_ERROR;
 import static com.facebook.drift.TApplicationException.Type.INVALID_MESSAGE_TYPE;
+import static com.facebook.drift.TApplicationException.Type.LOADSHEDDING;
 import static com.facebook.drift.TApplicationException.Type.PROTOCOL_ERROR;
+import static com.facebook.drift.TApplicationException.Type.TIMEOUT;
 import static com.facebook.drift.TApplicationException.Type.UNKNOWN_METHOD;
 import static com.facebook.drift.protocol.TMessageType.EXCEPTION;
 import static com.facebook.drift.protocol.TMessageType.REPLY;
+import static com.facebook.drift.transport.RequestDeadline.callWithDeadline;
+import static com.facebook.drift.transport.RequestDeadline.isExpired;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.ACCEPTED_TRANSFORMS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.ACCEPT_CHUNKS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.CLIENT_TIMEOUT_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.MORE_CHUNKS_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.SERVER_DRAINING_HEADER;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.selectAcceptedTransform;
+import static com.facebook.drift.transport.netty.server.StreamingResponseWriter.closeIterator;
 import static com.google.common.base.Defaults.defaultValue;
 import static com.google.common.base.Strings.nullToEmpty;
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.regex.Pattern.CASE_INSENSITIVE;
 
 public class ThriftServerHandler
@@ -87,12 +113,36 @@ public class ThriftServerHandler
     private final ServerMethodInvoker methodInvoker;
     private final ScheduledExecutorService timeoutExecutor;
     private final Duration requestTimeout;
-
-    public ThriftServerHandler(ServerMethodInvoker methodInvoker, Duration requestTimeout, ScheduledExecutorService timeoutExecutor)
+    private final InvocationExecutor invocationExecutor;
+    private final Optional<QueueDelayLoadShedder> loadShedder;
+    private final InFlightRequestTracker requestTracker;
+    private final List<ThriftHeaderTransform> compressionCodecs;
+    private final CompressionPolicy compressionPolicy;
+    private final int streamingChunkSize;
+    private final Duration streamingIdleTimeout;
+
+    // streaming responses are started on the invoker threads, so this set must be thread safe
+    private final Set<StreamingResponseWriter> streamingResponses = ConcurrentHashMap.newKeySet();
+
+    public ThriftServerHandler(
+            ServerMethodInvoker methodInvoker,
+            ServerPipelineSettings settings,
+            ScheduledExecutorService timeoutExecutor,
+            InvocationExecutor invocationExecutor,
+            Optional<QueueDelayLoadShedder> loadShedder,
+            InFlightRequestTracker requestTracker)
     {
         this.methodInvoker = requireNonNull(methodInvoker, "methodInvoker is null");
-        this.requestTimeout = requireNonNull(requestTimeout, "requestTimeout is null");
+        requireNonNull(settings, "settings is null");
+        this.requestTimeout = settings.getRequestTimeout();
         this.timeoutExecutor = requireNonNull(timeoutExecutor, "timeoutExecutor is null");
+        this.invocationExecutor = requireNonNull(invocationExecutor, "invocationExecutor is null");
+        this.loadShedder = requireNonNull(loadShedder, "loadShedder is null");
+        this.requestTracker = requireNonNull(requestTracker, "requestTracker is null");
+        this.compressionCodecs = settings.getCompressionCodecs();
+        this.compressionPolicy = settings.getCompressionPolicy();
+        this.streamingChunkSize = settings.getStreamingChunkSize();
+        this.streamingIdleTimeout = settings.getStreamingIdleTimeout();
     }
 
     @Override
@@ -105,6 +155,23 @@ public class ThriftServerHandler
         context.fireChannelRead(message);
     }
 
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext context)
+    {
+        // continue the streaming responses that were paused because the client was not keeping up
+        if (context.channel().isWritable()) {
+            streamingResponses.forEach(StreamingResponseWriter::resume);
+        }
+        context.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext context)
+    {
+        streamingResponses.forEach(StreamingResponseWriter::cancel);
+        context.fireChannelInactive();
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext context, Throwable cause)
     {
@@ -146,7 +213,9 @@ public class ThriftServerHandler
 
     private void messageReceived(ChannelHandlerContext context, ThriftFrame frame)
     {
+        Channel channel = context.channel();
         TChannelBufferInputTransport inputTransport = new TChannelBufferInputTransport(frame.getMessage());
+        requestTracker.requestStarted(channel);
         try {
             ListenableFuture<ThriftFrame> response = decodeMessage(
                     context,
@@ -154,20 +223,23 @@ public class ThriftServerHandler
                     frame.getTransport(),
                     frame.getProtocol(),
                     frame.getSequenceId(),
-                    frame.getTransforms(),
+                    getResponseTransforms(frame),
                     frame.getHeaders(),
-                    frame.isSupportOutOfOrderResponse());
+                    frame.isSupportOutOfOrderResponse(),
+                    frame.getArrivalTime());
             Futures.addCallback(response, new FutureCallback<ThriftFrame>()
                     {
                         @Override
                         public void onSuccess(ThriftFrame result)
                         {
-                            context.writeAndFlush(result);
+                            ThriftFrame response = requestTracker.isDraining() ? withServerDrainingHeader(result) : result;
+                            context.writeAndFlush(response).addListener(future -> requestTracker.requestFinished(channel));
                         }
 
                         @Override
                         public void onFailure(Throwable t)
                         {
+                            requestTracker.requestFinished(channel);
                             context.disconnect();
                         }
                     },
@@ -175,10 +247,12 @@ public class ThriftServerHandler
         }
         catch (Exception e) {
             log.error(e, "Exception processing request");
+            requestTracker.requestFinished(channel);
             context.disconnect();
         }
         catch (Throwable e) {
             log.error(e, "Error processing request");
+            requestTracker.requestFinished(channel);
             context.disconnect();
             throw e;
         }
@@ -188,6 +262,21 @@ public class ThriftServerHandler
         }
     }
 
+    private List<ThriftHeaderTransform> getResponseTransforms(ThriftFrame frame)
+    {
+        // respond with the transforms of the request, or with the preferred codec accepted by the client
+        if (!frame.getTransforms().isEmpty() || compressionCodecs.isEmpty()) {
+            return frame.getTransforms();
+        }
+        String acceptedTransforms = frame.getHeaders().get(ACCEPTED_TRANSFORMS_HEADER);
+        if (acceptedTransforms == null) {
+            return frame.getTransforms();
+        }
+        return selectAcceptedTransform(acceptedTransforms, compressionCodecs)
+                .map(ImmutableList::of)
+                .orElseGet(ImmutableList::of);
+    }
+
     private ListenableFuture<ThriftFrame> decodeMessage(
             ChannelHandlerContext context,
             TTransport messageData,
@@ -196,7 +285,8 @@ public class ThriftServerHandler
             int frameSequenceId,
             List<ThriftHeaderTransform> transforms,
             Map<String, String> headers,
-            boolean supportOutOfOrderResponse)
+            boolean supportOutOfOrderResponse,
+            long arrivalTime)
             throws Exception
     {
         long start = System.nanoTime();
@@ -236,30 +326,79 @@ public class ThriftServerHandler
         }
 
         Map<Short, Object> parameters = readArguments(method, protocolReader);
-
-        ListenableFuture<Object> result = methodInvoker.invoke(new ServerInvokeRequest(method, headers, parameters));
+        Optional<MethodCompression> compression = transforms.isEmpty() ? Optional.empty() : Optional.of(compressionPolicy.getMethodCompression(method));
+        // the response chunks are only understood by header transport clients that support out of order responses
+        boolean chunkedResponse = method.isStreaming() && transport == Transport.HEADER && supportOutOfOrderResponse && headers.containsKey(ACCEPT_CHUNKS_HEADER);
+
+        OptionalLong deadline = getDeadline(headers, arrivalTime);
+        Optional<Executor> executor = invocationExecutor.getExecutor(method.getName());
+        // invocations deferred by the method invoker are dispatched again, instead of running on the thread that resumes them
+        ServerInvokeRequest request = new ServerInvokeRequest(method, headers, parameters, deadline,
+                invocation -> invokeAsync(executor.orElse(context.executor()), method.getName(), deadline, arrivalTime, invocation));
+        ListenableFuture<Object> result;
+        if (executor.isPresent()) {
+            result = invokeAsync(executor.get(), method.getName(), deadline, arrivalTime, () -> methodInvoker.invoke(request));
+        }
+        else {
+            result = invoke(deadline, arrivalTime, () -> methodInvoker.invoke(request));
+        }
         methodInvoker.recordResult(message.getName(), start, result);
+        // the request timeout covers the invocation and the first chunk of a streaming response
+        long timeoutNanos = getTimeoutNanos(deadline);
+        long firstChunkDeadline = System.nanoTime() + timeoutNanos;
         return FluentFuture.from(result)
+                .withTimeout(timeoutNanos, NANOSECONDS, timeoutExecutor)
                 .transformAsync(
                         value -> {
                             try {
+                                Object returnValue = value;
+                                if (method.isStreaming() && returnValue instanceof Iterator) {
+                                    if (chunkedResponse) {
+                                        return streamResponse(
+                                                context,
+                                                executor.orElse(context.executor()),
+                                                firstChunkDeadline,
+                                                (Iterator<?>) returnValue,
+                                                (chunk, last) -> writeSuccessResponse(
+                                                        context,
+                                                        method,
+                                                        transforms,
+                                                        compression,
+                                                        transport,
+                                                        protocol,
+                                                        frameSequenceId,
+                                                        message.getSequenceId(),
+                                                        supportOutOfOrderResponse,
+                                                        last ? ImmutableMap.of() : ImmutableMap.of(MORE_CHUNKS_HEADER, "true"),
+                                                        chunk));
+                                    }
+                                    // the client can only receive the whole result in a single response
+                                    Iterator<?> iterator = (Iterator<?>) returnValue;
+                                    try {
+                                        returnValue = newArrayList(iterator);
+                                    }
+                                    finally {
+                                        closeIterator(iterator);
+                                    }
+                                }
                                 return immediateFuture(writeSuccessResponse(
                                         context,
                                         method,
                                         transforms,
+                                        compression,
                                         transport,
                                         protocol,
                                         frameSequenceId,
                                         message.getSequenceId(),
                                         supportOutOfOrderResponse,
-                                        value));
+                                        ImmutableMap.of(),
+                                        returnValue));
                             }
                             catch (Exception e) {
                                 return immediateFailedFuture(e);
                             }
                         },
                         directExecutor())
-                .withTimeout(requestTimeout.toMillis(), MILLISECONDS, timeoutExecutor)
                 .catchingAsync(
                         Exception.class,
                         exception -> {
@@ -268,6 +407,7 @@ public class ThriftServerHandler
                                         context,
                                         method,
                                         transforms,
+                                        compression,
                                         transport,
                                         protocol,
                                         frameSequenceId,
@@ -282,6 +422,107 @@ public class ThriftServerHandler
                         directExecutor());
     }
 
+    private ListenableFuture<ThriftFrame> streamResponse(ChannelHandlerContext context, Executor executor, long firstChunkDeadline, Iterator<?> iterator, ChunkEncoder chunkEncoder)
+    {
+        // a long stream may outlive the request timeout, as long as the method keeps producing chunks
+        StreamingResponseWriter writer = new StreamingResponseWriter(context, iterator, streamingChunkSize, chunkEncoder, executor, timeoutExecutor, firstChunkDeadline, streamingIdleTimeout);
+        streamingResponses.add(writer);
+        ListenableFuture<ThriftFrame> lastChunk = writer.start();
+        lastChunk.addListener(() -> streamingResponses.remove(writer), directExecutor());
+        if (!context.channel().isActive()) {
+            writer.cancel();
+        }
+        return lastChunk;
+    }
+
+    private ListenableFuture<Object> invoke(OptionalLong deadline, long arrivalTime, Supplier<ListenableFuture<Object>> invocation)
+    {
+        // the client has likely given up on requests that waited too long, so don't waste work on them
+        if (loadShedder.isPresent() && loadShedder.get().shouldShed(arrivalTime)) {
+            return immediateFailedFuture(new TApplicationException(LOADSHEDDING, "Server is overloaded: request was queued for too long"));
+        }
+        if (isExpired(deadline)) {
+            return immediateFailedFuture(new TApplicationException(TIMEOUT, "Request deadline expired before execution"));
+        }
+        // clients called by the method inherit the deadline of this request
+        return callWithDeadline(deadline, invocation);
+    }
+
+    private static OptionalLong getDeadline(Map<String, String> headers, long arrivalTime)
+    {
+        String clientTimeout = headers.get(CLIENT_TIMEOUT_HEADER);
+        if (clientTimeout == null) {
+            return OptionalLong.empty();
+        }
+        try {
+            long timeoutMillis = Long.parseLong(clientTimeout.trim());
+            if (timeoutMillis <= 0) {
+                return OptionalLong.empty();
+            }
+            return OptionalLong.of(arrivalTime + MILLISECONDS.toNanos(timeoutMillis));
+        }
+        catch (NumberFormatException e) {
+            return OptionalLong.empty();
+        }
+    }
+
+    private long getTimeoutNanos(OptionalLong deadline)
+    {
+        // once the client stops waiting for the response, the work is cancelled
+        long timeoutNanos = requestTimeout.roundTo(NANOSECONDS);
+        if (deadline.isPresent()) {
+            timeoutNanos = max(0, min(timeoutNanos, deadline.getAsLong() - System.nanoTime()));
+        }
+        return timeoutNanos;
+    }
+
+    private ListenableFuture<Object> invokeAsync(Executor executor, String methodName, OptionalLong deadline, long arrivalTime, Supplier<ListenableFuture<Object>> invocation)
+    {
+        SettableFuture<Object> result = SettableFuture.create();
+        try {
+            executor.execute(() -> {
+                // skip requests that timed out while waiting in the queue
+                if (result.isDone()) {
+                    return;
+                }
+                try {
+                    result.setFuture(invoke(deadline, arrivalTime, invocation));
+                }
+                catch (Throwable t) {
+                    result.setException(t);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            result.setException(new TApplicationException(LOADSHEDDING, "Server is overloaded: too many queued requests for " + methodName));
+        }
+        return result;
+    }
+
+    private static ThriftFrame withServerDrainingHeader(ThriftFrame response)
+    {
+        // only the header transport can carry the signal to the client
+        if (response.getTransport() != Transport.HEADER) {
+            return response;
+        }
+        try {
+            Map<String, String> headers = new HashMap<>(response.getHeaders());
+            headers.put(SERVER_DRAINING_HEADER, "true");
+            return new ThriftFrame(
+                    response.getSequenceId(),
+                    response.getMessage(),
+                    headers,
+                    response.getTransforms(),
+                    response.getTransport(),
+                    response.getProtocol(),
+                    response.isSupportOutOfOrderResponse())
+                    .withCompression(response.getCompression());
+        }
+        finally {
+            response.release();
+        }
+    }
+
     private static Map<Short, Object> readArguments(MethodMetadata method, TProtocolReader protocol)
             throws Exception
     {
@@ -339,11 +580,13 @@ public class ThriftServerHandler
             ChannelHandlerContext context,
             MethodMetadata methodMetadata,
             List<ThriftHeaderTransform> transforms,
+            Optional<MethodCompression> compression,
             Transport transport,
             Protocol protocol,
             int frameSequenceId,
             int messageSequenceId,
             boolean supportOutOfOrderResponse,
+            Map<String, String> headers,
             Object result)
             throws Exception
     {
@@ -361,11 +604,12 @@ public class ThriftServerHandler
             return new ThriftFrame(
                     frameSequenceId,
                     outputTransport.getBuffer(),
-                    ImmutableMap.of(),
+                    headers,
                     transforms,
                     transport,
                     protocol,
-                    supportOutOfOrderResponse);
+                    supportOutOfOrderResponse)
+                    .withCompression(compression);
         }
         finally {
             outputTransport.release();
@@ -375,6 +619,7 @@ public class ThriftServerHandler
     private static ThriftFrame writeExceptionResponse(ChannelHandlerContext context,
             MethodMetadata methodMetadata,
             List<ThriftHeaderTransform> transforms,
+            Optional<MethodCompression> compression,
             Transport transport,
             Protocol protocol,
             int frameSequenceId,
@@ -405,7 +650,8 @@ public class ThriftServerHandler
                         transforms,
                         transport,
                         protocol,
-                        supportOutOfOrderResponse);
+                        supportOutOfOrderResponse)
+                        .withCompression(compression);
             }
             finally {
                 outputTransport.release();
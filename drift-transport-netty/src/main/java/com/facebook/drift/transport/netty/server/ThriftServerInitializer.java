@@ -15,18 +15,20 @@
  */
 package com.facebook.drift.transport.netty.server;
 
+import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.Transport;
 import com.facebook.drift.transport.server.ServerMethodInvoker;
-import io.airlift.units.DataSize;
-import io.airlift.units.Duration;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.ssl.SslContext;
 
 import java.util.Optional;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Supplier;
 
+import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 
@@ -34,41 +36,72 @@ public class ThriftServerInitializer
         extends ChannelInitializer<SocketChannel>
 {
     private final ServerMethodInvoker methodInvoker;
-    private final DataSize maxFrameSize;
-    private final Duration requestTimeout;
+    private final Optional<Transport> transport;
+    private final Optional<Protocol> protocol;
     private final Optional<Supplier<SslContext>> sslContextSupplier;
     private final boolean allowPlainText;
-    private final boolean assumeClientsSupportOutOfOrderResponses;
+    private final ServerPipelineSettings settings;
+    private final ThriftServerPipeline serverPipeline;
+    private final ConnectionLimiter connectionLimiter;
     private final ScheduledExecutorService timeoutExecutor;
+    private final InvocationExecutor invocationExecutor;
+    private final Optional<QueueDelayLoadShedder> loadShedder;
+    private final InFlightRequestTracker requestTracker;
 
     public ThriftServerInitializer(
             ServerMethodInvoker methodInvoker,
-            DataSize maxFrameSize,
-            Duration requestTimeout,
+            Optional<Transport> transport,
+            Optional<Protocol> protocol,
             Optional<Supplier<SslContext>> sslContextSupplier,
             boolean allowPlainText,
-            boolean assumeClientsSupportOutOfOrderResponses,
-            ScheduledExecutorService timeoutExecutor)
+            ServerPipelineSettings settings,
+            ConnectionLimiter connectionLimiter,
+            ScheduledExecutorService timeoutExecutor,
+            InvocationExecutor invocationExecutor,
+            Optional<QueueDelayLoadShedder> loadShedder,
+            InFlightRequestTracker requestTracker)
     {
         requireNonNull(methodInvoker, "methodInvoker is null");
-        requireNonNull(maxFrameSize, "maxFrameSize is null");
-        requireNonNull(requestTimeout, "requestTimeout is null");
+        requireNonNull(transport, "transport is null");
+        requireNonNull(protocol, "protocol is null");
+        if (transport.isPresent()) {
+            checkArgument(protocol.isPresent() == (transport.get() != HEADER), "%s transport %s a protocol", transport.get(), transport.get() == HEADER ? "does not accept" : "requires");
+        }
+        else {
+            checkArgument(!protocol.isPresent(), "protocol can only be pinned together with the transport");
+        }
         requireNonNull(sslContextSupplier, "sslContextSupplier is null");
         checkArgument(allowPlainText || sslContextSupplier.isPresent(), "Plain text is not allowed, but SSL is not configured");
+        requireNonNull(settings, "settings is null");
+        requireNonNull(connectionLimiter, "connectionLimiter is null");
         requireNonNull(timeoutExecutor, "timeoutExecutor is null");
+        requireNonNull(invocationExecutor, "invocationExecutor is null");
+        requireNonNull(loadShedder, "loadShedder is null");
+        requireNonNull(requestTracker, "requestTracker is null");
 
         this.methodInvoker = methodInvoker;
-        this.maxFrameSize = maxFrameSize;
-        this.requestTimeout = requestTimeout;
+        this.transport = transport;
+        this.protocol = protocol;
         this.sslContextSupplier = sslContextSupplier;
         this.allowPlainText = allowPlainText;
-        this.assumeClientsSupportOutOfOrderResponses = assumeClientsSupportOutOfOrderResponses;
+        this.settings = settings;
+        this.serverPipeline = new ThriftServerPipeline(settings);
+        this.connectionLimiter = connectionLimiter;
         this.timeoutExecutor = timeoutExecutor;
+        this.invocationExecutor = invocationExecutor;
+        this.loadShedder = loadShedder;
+        this.requestTracker = requestTracker;
     }
 
     @Override
     protected void initChannel(SocketChannel channel)
     {
+        if (!connectionLimiter.tryAcquire(channel)) {
+            channel.close();
+            return;
+        }
+        requestTracker.connectionOpened(channel);
+
         ChannelPipeline pipeline = channel.pipeline();
 
         if (sslContextSupplier.isPresent()) {
@@ -80,9 +113,18 @@ public class ThriftServerInitializer
             }
         }
 
-        pipeline.addLast(new ThriftProtocolDetection(
-                new ThriftServerHandler(methodInvoker, requestTimeout, timeoutExecutor),
-                maxFrameSize,
-                assumeClientsSupportOutOfOrderResponses));
+        // Delay flushes until the read loop completes, so responses to requests received in the same read
+        // are written with a single gathering write. Responses completed outside of a read loop, such as
+        // on the invoker threads, are consolidated until the event loop has processed all pending writes.
+        settings.getFlushConsolidationMaxFlushes().ifPresent(maxFlushes -> pipeline.addLast(new FlushConsolidationHandler(maxFlushes, true)));
+
+        ThriftServerHandler thriftServerHandler = new ThriftServerHandler(methodInvoker, settings, timeoutExecutor, invocationExecutor, loadShedder, requestTracker);
+        if (transport.isPresent()) {
+            // the transport is pinned, so the complete pipeline is built up front, without protocol detection
+            serverPipeline.addThriftHandlers(pipeline, transport.get(), protocol, thriftServerHandler);
+        }
+        else {
+            pipeline.addLast(new ThriftProtocolDetection(thriftServerHandler, serverPipeline));
+        }
     }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.transport.netty.codec.Protocol;
+import com.facebook.drift.transport.netty.codec.Transport;
+import io.airlift.units.DataSize;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.flow.FlowControlHandler;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+
+import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Adds the handlers that decode and process requests once the transport of a
+ * connection is known, either after protocol detection or immediately when the
+ * transport is pinned for the server.
+ */
+class ThriftServerPipeline
+{
+    private final DataSize maxFrameSize;
+    private final boolean assumeClientsSupportOutOfOrderResponses;
+    private final int maxPipelineDepth;
+    private final OptionalInt connectionRequestRate;
+    private final int connectionRequestBurst;
+
+    public ThriftServerPipeline(ServerPipelineSettings settings)
+    {
+        requireNonNull(settings, "settings is null");
+        this.maxFrameSize = settings.getMaxFrameSize();
+        this.assumeClientsSupportOutOfOrderResponses = settings.isAssumeClientsSupportOutOfOrderResponses();
+        this.maxPipelineDepth = settings.getMaxPipelineDepth();
+        this.connectionRequestRate = settings.getConnectionRequestRate();
+        this.connectionRequestBurst = settings.getConnectionRequestBurst();
+    }
+
+    public void addThriftHandlers(ChannelPipeline pipeline, Transport transport, Optional<Protocol> protocol, ThriftServerHandler thriftServerHandler)
+    {
+        transport.addFrameHandlers(pipeline, protocol, maxFrameSize, assumeClientsSupportOutOfOrderResponses);
+
+        // Header clients declare out of order support in each frame, while the other transports
+        // rely on the server configuration, in which case every frame supports it, and responses
+        // never need to be reordered.
+        boolean responseOrdering = transport == HEADER || !assumeClientsSupportOutOfOrderResponses;
+
+        // FlowControlHandler holds the frames decoded by a read once reading is paused, which
+        // ResponseOrderingHandler and RequestRateLimitHandler rely on
+        if (responseOrdering || connectionRequestRate.isPresent()) {
+            pipeline.addLast(new FlowControlHandler());
+        }
+        connectionRequestRate.ifPresent(rate -> pipeline.addLast(new RequestRateLimitHandler(rate, connectionRequestBurst)));
+        if (responseOrdering) {
+            pipeline.addLast(new ResponseOrderingHandler(maxPipelineDepth));
+        }
+        pipeline.addLast(thriftServerHandler);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.channel;
+
+import com.facebook.drift.codec.ThriftCodec;
+import com.facebook.drift.codec.ThriftCodecManager;
+import com.facebook.drift.transport.MethodMetadata;
+import com.facebook.drift.transport.ParameterMetadata;
+import com.facebook.drift.transport.client.InvokeRequest;
+import com.facebook.drift.transport.client.MethodInvoker;
+import com.facebook.drift.transport.netty.client.DriftNettyClientConfig;
+import com.facebook.drift.transport.netty.client.DriftNettyConnectionFactoryConfig;
+import com.facebook.drift.transport.netty.client.DriftNettyMethodInvokerFactory;
+import com.facebook.drift.transport.netty.server.DriftNettyServerConfig;
+import com.facebook.drift.transport.netty.server.DriftNettyServerTransport;
+import com.facebook.drift.transport.server.ServerInvokeRequest;
+import com.facebook.drift.transport.server.ServerMethodInvoker;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Round trip latency of a Drift request over loopback for each event loop type.
+ * With several concurrent requests on the connection, server flush consolidation
+ * combines the responses into fewer writes.
+ * <p>
+ * To compare system call counts, run the benchmark under {@code strace -c -f} or with the
+ * JMH {@code perfnorm} profiler (Linux only). Without those tools, the {@code syscr} and
+ * {@code syscw} counters of {@code /proc/<pid>/io} count the read and write calls, but not
+ * the {@code io_uring_enter} calls.
+ * <p>
+ * EPOLL and IO_URING are only available on linux-x86_64, which is the only platform the
+ * native libraries are bundled for.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class BenchmarkLoopbackTransport
+{
+    private static final ThriftCodecManager CODEC_MANAGER = new ThriftCodecManager();
+
+    @SuppressWarnings("unchecked")
+    private static final ThriftCodec<Object> STRING_CODEC = (ThriftCodec<Object>) (Object) CODEC_MANAGER.getCodec(String.class);
+
+    private static final MethodMetadata ECHO_METHOD = new MethodMetadata(
+            "echo",
+            ImmutableList.of(new ParameterMetadata((short) 1, "value", STRING_CODEC)),
+            STRING_CODEC,
+            ImmutableMap.of(),
+            false,
+            true);
+
+    @Param({"NIO", "EPOLL", "IO_URING"})
+    private EventLoopType eventLoopType;
+
+    @Param({"16", "65536"})
+    private int payloadSize;
+
+    @Param({"1", "32"})
+    private int concurrentRequests;
+
+    @Param({"false", "true"})
+    private boolean serverFlushConsolidation;
+
+    private DriftNettyServerTransport serverTransport;
+    private DriftNettyMethodInvokerFactory<?> methodInvokerFactory;
+    private MethodInvoker methodInvoker;
+    private InvokeRequest request;
+
+    @Setup
+    public void setup()
+    {
+        checkState(eventLoopType.isAvailable(), "%s event loop is not available on this machine", eventLoopType);
+
+        serverTransport = new DriftNettyServerTransport(new EchoMethodInvoker(), new DriftNettyServerConfig()
+                .setPort(0)
+                .setEventLoopType(eventLoopType)
+                .setFlushConsolidationEnabled(serverFlushConsolidation));
+        serverTransport.start();
+
+        methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                new DriftNettyConnectionFactoryConfig().setEventLoopType(eventLoopType),
+                // without TCP_NODELAY, io_uring clients wait for the delayed acknowledgement of the previous segment
+                clientIdentity -> new DriftNettyClientConfig().setTcpNoDelayEnabled(true));
+        methodInvoker = methodInvokerFactory.createMethodInvoker(null);
+
+        HostAndPort address = HostAndPort.fromParts("localhost", serverTransport.getPort());
+        request = new InvokeRequest(ECHO_METHOD, () -> address, ImmutableMap.of(), ImmutableList.of(Strings.repeat("x", payloadSize)));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        methodInvokerFactory.close();
+        serverTransport.shutdown();
+    }
+
+    @Benchmark
+    public Object roundTrip()
+            throws Exception
+    {
+        if (concurrentRequests == 1) {
+            return methodInvoker.invoke(request).get();
+        }
+
+        List<ListenableFuture<Object>> futures = new ArrayList<>(concurrentRequests);
+        for (int i = 0; i < concurrentRequests; i++) {
+            futures.add(methodInvoker.invoke(request));
+        }
+        return Futures.allAsList(futures).get();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkLoopbackTransport.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+
+    private static class EchoMethodInvoker
+            implements ServerMethodInvoker
+    {
+        @Override
+        public Optional<MethodMetadata> getMethodMetadata(String name)
+        {
+            if (ECHO_METHOD.getName().equals(name)) {
+                return Optional.of(ECHO_METHOD);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public ListenableFuture<Object> invoke(ServerInvokeRequest request)
+        {
+            return Futures.immediateFuture(request.getParameters().get((short) 1));
+        }
+
+        @Override
+        public void recordResult(String methodName, long startTime, ListenableFuture<Object> result) {}
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.channel;
+
+import io.netty.channel.EventLoopGroup;
+import org.testng.annotations.Test;
+
+import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.EPOLL;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.IO_URING;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.NIO;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.selectEventLoopType;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestEventLoopType
+{
+    @Test
+    public void testResolve()
+    {
+        assertEquals(NIO.resolve(), NIO);
+        assertEquals(EPOLL.resolve(), EPOLL.isAvailable() ? EPOLL : NIO);
+        if (IO_URING.isAvailable()) {
+            assertEquals(IO_URING.resolve(), IO_URING);
+        }
+        else {
+            assertEquals(IO_URING.resolve(), EPOLL.isAvailable() ? EPOLL : NIO);
+        }
+    }
+
+    @Test
+    public void testSelect()
+    {
+        assertEquals(selectEventLoopType(null, false), NIO);
+        assertEquals(selectEventLoopType(NIO, true), NIO);
+        assertEquals(selectEventLoopType(IO_URING, false), IO_URING.resolve());
+    }
+
+    @Test
+    public void testReusePortSupported()
+    {
+        assertFalse(NIO.isReusePortSupported());
+        assertTrue(EPOLL.isReusePortSupported());
+        assertTrue(IO_URING.isReusePortSupported());
+    }
+
+    @Test
+    public void testCreateEventLoopGroup()
+            throws Exception
+    {
+        for (EventLoopType type : EventLoopType.values()) {
+            EventLoopType resolved = type.resolve();
+            assertTrue(resolved.isAvailable());
+            EventLoopGroup group = resolved.createEventLoopGroup(1, daemonThreadsNamed("test-" + resolved + "-%s"));
+            group.shutdownGracefully(0, 0, SECONDS).await();
+        }
+    }
+}
@@ -16,6 +16,8 @@
 package com.facebook.drift.transport.netty.client;
 
 import com.facebook.drift.transport.netty.client.ConnectionManager.ConnectionParameters;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
@@ -34,6 +36,7 @@ import java.util.concurrent.ScheduledExecutorService;
 import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
 import static com.facebook.drift.transport.netty.codec.Protocol.FB_COMPACT;
 import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
+import static io.airlift.units.DataSize.Unit.BYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static java.util.concurrent.TimeUnit.MINUTES;
@@ -44,7 +47,7 @@ import static org.testng.Assert.assertTrue;
 
 public class TestConnectionPool
 {
-    private static final ConnectionParameters PARAMETERS = new ConnectionParameters(HEADER, FB_COMPACT, new DataSize(1, MEGABYTE), new Duration(1, MINUTES), new Duration(1, MINUTES), Optional.empty(), Optional.empty(), false, false);
+    private static final ConnectionParameters PARAMETERS = new ConnectionParameters(HEADER, FB_COMPACT, new DataSize(1, MEGABYTE), new Duration(1, MINUTES), new Duration(1, MINUTES), Optional.empty(), Optional.empty(), false, false, false, 256, false, Optional.empty(), ImmutableList.of(), new DataSize(0, BYTE), Optional.empty(), ImmutableMap.of(), 4, new Duration(1, MINUTES));
 
     private ScheduledExecutorService scheduledExecutorService;
 
@@ -31,6 +31,8 @@ import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
 import static com.facebook.drift.transport.netty.codec.Protocol.COMPACT;
 import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
 import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
@@ -50,6 +52,12 @@ public class TestDriftNettyClientConfig
                 .setRequestTimeout(new Duration(10, SECONDS))
                 .setSocksProxy(null)
                 .setMaxFrameSize(new DataSize(16, MEGABYTE))
+                .setCompressionCodecs("")
+                .setCompressionMinSize(new DataSize(0, BYTE))
+                .setCompressionMinRatio(null)
+                .setPersistentHeaders("")
+                .setStreamingMaxBufferedChunks(4)
+                .setStreamingIdleTimeout(new Duration(30, SECONDS))
                 .setSslEnabled(false)
                 .setTrustCertificate(null)
                 .setKey(null)
@@ -62,7 +70,15 @@ public class TestDriftNettyClientConfig
                 .setConnectionPoolMaxSize(null)
                 .setConnectionPoolIdleTimeout(null)
                 .setTcpNoDelayEnabled(false)
-                .setReuseAddressEnabled(false));
+                .setReuseAddressEnabled(false)
+                .setFlushConsolidationEnabled(false)
+                .setFlushConsolidationMaxFlushes(256)
+                .setCallerThreadEncodingEnabled(false)
+                .setResponseDecodingOffloadThreshold(null)
+                .setMaxInFlightRequestsPerDestination(null)
+                .setMaxInFlightBytesPerDestination(null)
+                .setMaxQueuedRequestsPerDestination(0)
+                .setRejectUnwritableConnectionEnabled(false));
     }
 
     @Test
@@ -75,6 +91,12 @@ public class TestDriftNettyClientConfig
                 .put("thrift.client.request-timeout", "33m")
                 .put("thrift.client.socks-proxy", "localhost:11")
                 .put("thrift.client.max-frame-size", "55MB")
+                .put("thrift.client.compression-codecs", "zstd, lz4")
+                .put("thrift.client.compression-min-size", "1kB")
+                .put("thrift.client.compression-min-ratio", "1.5")
+                .put("thrift.client.persistent-headers", "authorization=token, tenant = a")
+                .put("thrift.client.streaming.max-buffered-chunks", "9")
+                .put("thrift.client.streaming.idle-timeout", "44s")
                 .put("thrift.client.ssl.enabled", "true")
                 .put("thrift.client.ssl.trust-certificate", "trust")
                 .put("thrift.client.ssl.key", "key")
@@ -88,6 +110,14 @@ public class TestDriftNettyClientConfig
                 .put("thrift.client.connection-pool.idle-timeout", "12m")
                 .put("thrift.client.tcp-no-delay.enabled", "true")
                 .put("thrift.client.reuse-address.enabled", "true")
+                .put("thrift.client.flush-consolidation.enabled", "true")
+                .put("thrift.client.flush-consolidation.max-flushes", "17")
+                .put("thrift.client.caller-thread-encoding.enabled", "true")
+                .put("thrift.client.response-decoding.offload-threshold", "2MB")
+                .put("thrift.client.in-flight.max-requests-per-destination", "37")
+                .put("thrift.client.in-flight.max-bytes-per-destination", "64MB")
+                .put("thrift.client.in-flight.max-queued-requests-per-destination", "7")
+                .put("thrift.client.in-flight.reject-unwritable-connection.enabled", "true")
                 .build();
 
         DriftNettyClientConfig expected = new DriftNettyClientConfig()
@@ -98,6 +128,12 @@ public class TestDriftNettyClientConfig
                 .setRequestTimeout(new Duration(33, MINUTES))
                 .setSocksProxy(HostAndPort.fromParts("localhost", 11))
                 .setMaxFrameSize(new DataSize(55, MEGABYTE))
+                .setCompressionCodecs("zstd,lz4")
+                .setCompressionMinSize(new DataSize(1, KILOBYTE))
+                .setCompressionMinRatio(1.5)
+                .setPersistentHeaders("authorization=token,tenant=a")
+                .setStreamingMaxBufferedChunks(9)
+                .setStreamingIdleTimeout(new Duration(44, SECONDS))
                 .setSslEnabled(true)
                 .setTrustCertificate(new File("trust"))
                 .setKey(new File("key"))
@@ -110,7 +146,15 @@ public class TestDriftNettyClientConfig
                 .setConnectionPoolMaxSize(321)
                 .setConnectionPoolIdleTimeout(new Duration(12, MINUTES))
                 .setTcpNoDelayEnabled(true)
-                .setReuseAddressEnabled(true);
+                .setReuseAddressEnabled(true)
+                .setFlushConsolidationEnabled(true)
+                .setFlushConsolidationMaxFlushes(17)
+                .setCallerThreadEncodingEnabled(true)
+                .setResponseDecodingOffloadThreshold(new DataSize(2, MEGABYTE))
+                .setMaxInFlightRequestsPerDestination(37)
+                .setMaxInFlightBytesPerDestination(new DataSize(64, MEGABYTE))
+                .setMaxQueuedRequestsPerDestination(7)
+                .setRejectUnwritableConnectionEnabled(true);
 
         assertFullMapping(properties, expected);
     }
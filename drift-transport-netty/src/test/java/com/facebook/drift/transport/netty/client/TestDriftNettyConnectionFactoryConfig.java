@@ -25,6 +25,7 @@ import java.util.Map;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.IO_URING;
 import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class TestDriftNettyConnectionFactoryConfig
@@ -34,13 +35,15 @@ public class TestDriftNettyConnectionFactoryConfig
     {
         assertRecordedDefaults(recordDefaults(DriftNettyConnectionFactoryConfig.class)
                 .setThreadCount(Runtime.getRuntime().availableProcessors() * 2)
+                .setResponseDecodingThreadCount(Runtime.getRuntime().availableProcessors())
                 .setConnectionPoolEnabled(true)
                 .setConnectionPoolMaxSize(1000)
                 .setConnectionPoolMaxConnectionsPerDestination(1)
                 .setConnectionPoolIdleTimeout(new Duration(1, MINUTES))
                 .setSslContextRefreshTime(new Duration(1, MINUTES))
                 .setSocksProxy(null)
-                .setNativeTransportEnabled(false));
+                .setNativeTransportEnabled(false)
+                .setEventLoopType(null));
     }
 
     @Test
@@ -48,6 +51,7 @@ public class TestDriftNettyConnectionFactoryConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("thrift.client.thread-count", "99")
+                .put("thrift.client.response-decoding.thread-count", "7")
                 .put("thrift.client.connection-pool.enabled", "false")
                 .put("thrift.client.connection-pool.max-size", "555")
                 .put("thrift.client.connection-pool.max-connections-per-destination", "10")
@@ -55,17 +59,20 @@ public class TestDriftNettyConnectionFactoryConfig
                 .put("thrift.client.ssl-context.refresh-time", "33m")
                 .put("thrift.client.socks-proxy", "example.com:9876")
                 .put("thrift.client.native-transport.enabled", "true")
+                .put("thrift.client.event-loop-type", "IO_URING")
                 .build();
 
         DriftNettyConnectionFactoryConfig expected = new DriftNettyConnectionFactoryConfig()
                 .setThreadCount(99)
+                .setResponseDecodingThreadCount(7)
                 .setConnectionPoolEnabled(false)
                 .setConnectionPoolMaxSize(555)
                 .setConnectionPoolMaxConnectionsPerDestination(10)
                 .setConnectionPoolIdleTimeout(new Duration(7, MINUTES))
                 .setSslContextRefreshTime(new Duration(33, MINUTES))
                 .setSocksProxy(HostAndPort.fromParts("example.com", 9876))
-                .setNativeTransportEnabled(true);
+                .setNativeTransportEnabled(true)
+                .setEventLoopType(IO_URING);
 
         assertFullMapping(properties, expected);
     }
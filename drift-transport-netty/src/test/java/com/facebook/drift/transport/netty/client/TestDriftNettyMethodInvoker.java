@@ -24,6 +24,7 @@ import com.facebook.drift.transport.MethodMetadata;
 import com.facebook.drift.transport.ParameterMetadata;
 import com.facebook.drift.transport.client.InvokeRequest;
 import com.facebook.drift.transport.client.MethodInvoker;
+import com.facebook.drift.transport.client.RequestTimeoutException;
 import com.facebook.drift.transport.netty.buffer.TestingPooledByteBufAllocator;
 import com.facebook.drift.transport.netty.client.ConnectionManager.ConnectionParameters;
 import com.facebook.drift.transport.netty.codec.Protocol;
@@ -47,9 +48,11 @@ import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.airlift.units.DataSize;
 import io.airlift.units.DataSize.Unit;
 import io.airlift.units.Duration;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.Channel;
 import io.netty.util.concurrent.DefaultEventExecutor;
 import io.netty.util.concurrent.Future;
@@ -70,29 +73,46 @@ import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransportFactory;
 import org.testng.annotations.Test;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
 import static com.facebook.airlift.testing.Assertions.assertInstanceOf;
+import static com.facebook.drift.TApplicationException.Type.TIMEOUT;
 import static com.facebook.drift.TApplicationException.Type.UNSUPPORTED_CLIENT_TYPE;
+import static com.facebook.drift.codec.metadata.ThriftType.STRING;
 import static com.facebook.drift.codec.metadata.ThriftType.list;
 import static com.facebook.drift.codec.metadata.ThriftType.optional;
+import static com.facebook.drift.transport.RequestDeadline.callWithDeadline;
+import static com.facebook.drift.transport.RequestDeadline.getCurrentDeadline;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.ACCEPTED_TRANSFORMS_HEADER;
 import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
 import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.util.concurrent.Uninterruptibles.awaitUninterruptibly;
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 import static java.util.Collections.nCopies;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
 public class TestDriftNettyMethodInvoker
@@ -110,6 +130,39 @@ public class TestDriftNettyMethodInvoker
             false,
             true);
 
+    private static final MethodMetadata STREAM_METHOD_METADATA = new MethodMetadata(
+            "stream",
+            ImmutableList.of(),
+            (ThriftCodec<Object>) CODEC_MANAGER.getCodec(list(STRING)),
+            ImmutableMap.of(),
+            false,
+            true,
+            true);
+    // the streaming method invoked by a client that does not accept chunks
+    private static final MethodMetadata STREAM_WHOLE_METHOD_METADATA = new MethodMetadata(
+            "stream",
+            ImmutableList.of(),
+            (ThriftCodec<Object>) CODEC_MANAGER.getCodec(list(STRING)),
+            ImmutableMap.of(),
+            false,
+            true);
+    private static final MethodMetadata STREAM_STALL_METHOD_METADATA = new MethodMetadata(
+            "streamStall",
+            ImmutableList.of(),
+            (ThriftCodec<Object>) CODEC_MANAGER.getCodec(list(STRING)),
+            ImmutableMap.of(),
+            false,
+            true,
+            true);
+    private static final MethodMetadata STREAM_FAILURE_METHOD_METADATA = new MethodMetadata(
+            "streamFailure",
+            ImmutableList.of(),
+            (ThriftCodec<Object>) CODEC_MANAGER.getCodec(list(STRING)),
+            ImmutableMap.of(),
+            false,
+            true,
+            true);
+
     private static final List<LogEntry> MESSAGES = ImmutableList.of(
             new LogEntry("hello", "world"),
             new LogEntry("bye", "world"));
@@ -181,6 +234,351 @@ public class TestDriftNettyMethodInvoker
         assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
     }
 
+    @Test
+    public void testDeadlinePropagation()
+    {
+        TestServerMethodInvoker methodInvoker = new TestServerMethodInvoker();
+        testMethodInvoker(methodInvoker, ImmutableList.of(address -> {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER)
+                    .setProtocol(BINARY);
+            try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+                    DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                            new DriftNettyConnectionFactoryConfig(),
+                            clientIdentity -> config,
+                            testingAllocator)) {
+                MethodInvoker invoker = methodInvokerFactory.createMethodInvoker(null);
+
+                // the remaining time is sent to the server, which makes it the deadline of the invocation
+                long deadline = System.nanoTime() + SECONDS.toNanos(10);
+                long sent = System.nanoTime();
+                ListenableFuture<Object> future = invoker.invoke(new InvokeRequest(LOG_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES), OptionalLong.of(deadline)));
+                assertEquals(future.get(), DRIFT_OK);
+                long completed = System.nanoTime();
+
+                // the server deadline is relative to the arrival of the request
+                OptionalLong serverDeadline = getOnlyElement(methodInvoker.getDeadlines());
+                assertTrue(serverDeadline.isPresent());
+                assertTrue(serverDeadline.getAsLong() - completed <= SECONDS.toNanos(10));
+                assertTrue(serverDeadline.getAsLong() - sent > SECONDS.toNanos(5));
+                assertEquals(getOnlyElement(methodInvoker.getCurrentDeadlines()), serverDeadline);
+
+                // an expired request is not sent
+                future = invoker.invoke(new InvokeRequest(LOG_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES), OptionalLong.of(System.nanoTime() - 1)));
+                try {
+                    future.get();
+                    fail("Expected exception");
+                }
+                catch (ExecutionException e) {
+                    assertInstanceOf(e.getCause(), RequestTimeoutException.class);
+                }
+
+                // requests sent while processing a server request inherit its deadline
+                callWithDeadline(OptionalLong.of(System.nanoTime() - 1), () -> {
+                    try {
+                        invoker.invoke(new InvokeRequest(LOG_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of(DRIFT_MESSAGES))).get();
+                        fail("Expected exception");
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new RuntimeException(e);
+                    }
+                    catch (ExecutionException e) {
+                        assertInstanceOf(e.getCause(), RequestTimeoutException.class);
+                    }
+                    return null;
+                });
+                assertEquals(methodInvoker.getDeadlines().size(), 1);
+                return 1;
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    @Test
+    public void testCompressionNegotiation()
+    {
+        TestServerMethodInvoker methodInvoker = new TestServerMethodInvoker();
+        int invocationCount = testMethodInvoker(
+                methodInvoker,
+                new DriftNettyServerConfig().setCompressionCodecs("zstd,zlib"),
+                ImmutableList.of(address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(BINARY)
+                        .setCompressionCodecs("lz4,zstd"))));
+        assertEquals(invocationCount, 1);
+        assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), DRIFT_MESSAGES);
+
+        // the codecs are offered on every request, including those sent compressed after the negotiation
+        List<Map<String, String>> headers = methodInvoker.getHeaders();
+        assertEquals(headers.size(), 2);
+        assertEquals(headers.get(0).get(ACCEPTED_TRANSFORMS_HEADER), "6,5");
+        assertEquals(headers.get(1).get(ACCEPTED_TRANSFORMS_HEADER), "6,5");
+    }
+
+    @Test
+    public void testPersistentHeaders()
+    {
+        TestServerMethodInvoker methodInvoker = new TestServerMethodInvoker();
+        int invocationCount = testMethodInvoker(
+                methodInvoker,
+                ImmutableList.of(address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(BINARY)
+                        .setPersistentHeaders("tenant=a"))));
+        assertEquals(invocationCount, 1);
+
+        // the headers are sent with the first request of the connection, and apply to every request
+        List<Map<String, String>> headers = methodInvoker.getHeaders();
+        assertEquals(headers.size(), 2);
+        assertEquals(headers.get(0).get("tenant"), "a");
+        assertEquals(headers.get(1).get("tenant"), "a");
+    }
+
+    @Test
+    public void testCompressionOfResponsesToSmallRequests()
+            throws Exception
+    {
+        TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+        DriftNettyServerConfig serverConfig = new DriftNettyServerConfig().setCompressionCodecs("zstd");
+        DriftNettyServerTransport serverTransport = (DriftNettyServerTransport) new DriftNettyServerTransportFactory(serverConfig, testingAllocator)
+                .createServerTransport(new StreamingServerMethodInvoker());
+        try {
+            serverTransport.start();
+            HostAndPort address = HostAndPort.fromParts("localhost", serverTransport.getPort());
+
+            // requests are too small to be compressed, so the server only learns from the header that the client accepts compression
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER)
+                    .setProtocol(BINARY)
+                    .setCompressionCodecs("zstd")
+                    .setCompressionMinSize(new DataSize(1, Unit.MEGABYTE));
+            try (TestingPooledByteBufAllocator clientAllocator = new TestingPooledByteBufAllocator();
+                    DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                            new DriftNettyConnectionFactoryConfig(),
+                            clientIdentity -> config,
+                            clientAllocator)) {
+                MethodInvoker invoker = methodInvokerFactory.createMethodInvoker(null);
+                for (int i = 0; i < 3; i++) {
+                    assertEquals(invoker.invoke(new InvokeRequest(STREAM_WHOLE_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get(), StreamingServerMethodInvoker.VALUES);
+                }
+            }
+            assertEquals(serverTransport.getCompressionPolicy().getCompressedMessages().getTotalCount(), 3);
+        }
+        finally {
+            serverTransport.shutdown();
+            testingAllocator.close();
+        }
+    }
+
+    @Test
+    public void testStreamingResponse()
+    {
+        StreamingServerMethodInvoker methodInvoker = new StreamingServerMethodInvoker();
+        DriftNettyServerConfig serverConfig = new DriftNettyServerConfig()
+                .setStreamingChunkSize(7);
+        int invocationCount = testMethodInvoker(methodInvoker, serverConfig, ImmutableList.of(
+                address -> readStream(address, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(BINARY)
+                        .setStreamingMaxBufferedChunks(1), true),
+                address -> readStream(address, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(Protocol.FB_COMPACT)
+                        .setCompressionCodecs("zstd"), true),
+                // clients that can not receive chunks get the whole result in a single response
+                address -> readStream(address, new DriftNettyClientConfig()
+                        .setTransport(FRAMED)
+                        .setProtocol(BINARY), false)));
+        assertEquals(invocationCount, 3);
+        // the result iterators are closed whether they are streamed or returned in a single response
+        assertEquals(methodInvoker.getOpenStreams(), 0);
+    }
+
+    @Test
+    public void testStreamingResponseUsesDedicatedConnection()
+    {
+        StreamingServerMethodInvoker methodInvoker = new StreamingServerMethodInvoker();
+        DriftNettyServerConfig serverConfig = new DriftNettyServerConfig()
+                .setStreamingChunkSize(7);
+        testMethodInvoker(methodInvoker, serverConfig, ImmutableList.of(address -> {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER)
+                    .setProtocol(BINARY)
+                    .setConnectionPoolEnabled(true)
+                    .setStreamingMaxBufferedChunks(1);
+            try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+                    DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                            new DriftNettyConnectionFactoryConfig(),
+                            clientIdentity -> config,
+                            testingAllocator)) {
+                MethodInvoker invoker = methodInvokerFactory.createMethodInvoker(null);
+
+                // reading is paused while the stream is not consumed, which must not stall the pooled connection
+                Object result = invoker.invoke(new InvokeRequest(STREAM_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get();
+                try (StreamingResponse stream = (StreamingResponse) result) {
+                    assertEquals(invoker.invoke(new InvokeRequest(STREAM_WHOLE_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get(), StreamingServerMethodInvoker.VALUES);
+                    assertEquals(invoker.invoke(new InvokeRequest(STREAM_WHOLE_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get(), StreamingServerMethodInvoker.VALUES);
+                    assertEquals(ImmutableList.copyOf(stream), StreamingServerMethodInvoker.VALUES);
+                }
+                return 1;
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }));
+    }
+
+    @Test
+    public void testStreamingIdleTimeout()
+    {
+        StreamingServerMethodInvoker methodInvoker = new StreamingServerMethodInvoker();
+        DriftNettyServerConfig serverConfig = new DriftNettyServerConfig()
+                .setStreamingChunkSize(7);
+        testMethodInvoker(methodInvoker, serverConfig, ImmutableList.of(address -> {
+            DriftNettyClientConfig config = new DriftNettyClientConfig()
+                    .setTransport(Transport.HEADER)
+                    .setProtocol(BINARY)
+                    .setRequestTimeout(new Duration(1, MINUTES))
+                    .setStreamingIdleTimeout(new Duration(100, MILLISECONDS));
+            try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+                    DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                            new DriftNettyConnectionFactoryConfig(),
+                            clientIdentity -> config,
+                            testingAllocator)) {
+                MethodInvoker invoker = methodInvokerFactory.createMethodInvoker(null);
+
+                // the first chunks are received, and then the server stops sending chunks
+                Iterator<?> stream = (Iterator<?>) invoker.invoke(new InvokeRequest(STREAM_STALL_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get();
+                try {
+                    while (stream.hasNext()) {
+                        stream.next();
+                    }
+                    fail("Expected exception");
+                }
+                catch (UncheckedExecutionException e) {
+                    assertInstanceOf(e.getCause(), RequestTimeoutException.class);
+                }
+                return 1;
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            finally {
+                methodInvoker.resumeStalledStreams();
+            }
+        }));
+    }
+
+    @Test
+    public void testServerStreamingTimeouts()
+    {
+        StreamingServerMethodInvoker methodInvoker = new StreamingServerMethodInvoker();
+        // the request timeout only applies until the first chunk is written, and stalled methods block invoker threads instead of the event loop
+        DriftNettyServerConfig serverConfig = new DriftNettyServerConfig()
+                .setInvokerThreadCount(2)
+                .setStreamingChunkSize(7)
+                .setRequestTimeout(new Duration(100, MILLISECONDS));
+        testMethodInvoker(methodInvoker, serverConfig, ImmutableList.of(address -> {
+            Thread resumer = new Thread(() -> {
+                sleepUninterruptibly(500, MILLISECONDS);
+                methodInvoker.resumeStalledStreams();
+            });
+            resumer.start();
+            assertEquals(readStalledStream(address), StreamingServerMethodInvoker.VALUES);
+            return 1;
+        }));
+
+        // the idle timeout applies between chunks
+        StreamingServerMethodInvoker stalledMethodInvoker = new StreamingServerMethodInvoker();
+        serverConfig = new DriftNettyServerConfig()
+                .setInvokerThreadCount(2)
+                .setStreamingChunkSize(7)
+                .setStreamingIdleTimeout(new Duration(100, MILLISECONDS));
+        testMethodInvoker(stalledMethodInvoker, serverConfig, ImmutableList.of(address -> {
+            try {
+                readStalledStream(address);
+                fail("Expected exception");
+            }
+            catch (UncheckedExecutionException e) {
+                assertInstanceOf(e.getCause(), TApplicationException.class);
+                assertEquals(((TApplicationException) e.getCause()).getType(), Optional.of(TIMEOUT));
+            }
+            finally {
+                stalledMethodInvoker.resumeStalledStreams();
+            }
+            return 1;
+        }));
+    }
+
+    private static List<Object> readStalledStream(HostAndPort address)
+    {
+        DriftNettyClientConfig config = new DriftNettyClientConfig()
+                .setTransport(Transport.HEADER)
+                .setProtocol(BINARY);
+        try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+                DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                        new DriftNettyConnectionFactoryConfig(),
+                        clientIdentity -> config,
+                        testingAllocator)) {
+            MethodInvoker invoker = methodInvokerFactory.createMethodInvoker(null);
+            Iterator<?> stream = (Iterator<?>) invoker.invoke(new InvokeRequest(STREAM_STALL_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get();
+            return ImmutableList.copyOf(stream);
+        }
+        catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int readStream(HostAndPort address, DriftNettyClientConfig config, boolean chunked)
+    {
+        try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+                DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                        new DriftNettyConnectionFactoryConfig(),
+                        clientIdentity -> config,
+                        testingAllocator)) {
+            MethodInvoker methodInvoker = methodInvokerFactory.createMethodInvoker(null);
+
+            Object result = methodInvoker.invoke(new InvokeRequest(STREAM_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get();
+            if (chunked) {
+                assertInstanceOf(result, StreamingResponse.class);
+                assertEquals(ImmutableList.copyOf((Iterator<?>) result), StreamingServerMethodInvoker.VALUES);
+            }
+            else {
+                assertEquals(result, StreamingServerMethodInvoker.VALUES);
+            }
+
+            result = methodInvoker.invoke(new InvokeRequest(STREAM_FAILURE_METHOD_METADATA, () -> address, ImmutableMap.of(), ImmutableList.of())).get();
+            if (chunked) {
+                // the failure is received after the first chunks
+                Iterator<?> iterator = (Iterator<?>) result;
+                try {
+                    while (iterator.hasNext()) {
+                        iterator.next();
+                    }
+                    fail("Expected exception");
+                }
+                catch (UncheckedExecutionException e) {
+                    assertInstanceOf(e.getCause(), TApplicationException.class);
+                }
+            }
+            else {
+                fail("Expected exception");
+            }
+            return 1;
+        }
+        catch (ExecutionException e) {
+            assertFalse(chunked);
+            assertInstanceOf(e.getCause(), TApplicationException.class);
+            return 1;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private static List<DriftLogEntry> testMethodInvoker(ServerMethodInvoker methodInvoker)
     {
         int invocationCount = testMethodInvoker(methodInvoker, ImmutableList.of(
@@ -196,15 +594,36 @@ public class TestDriftNettyMethodInvoker
                 address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, FRAMED, Protocol.COMPACT),
                 address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, FRAMED, Protocol.FB_COMPACT),
                 address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, Transport.HEADER, BINARY),
-                address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, Transport.HEADER, Protocol.FB_COMPACT)));
+                address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, Transport.HEADER, Protocol.FB_COMPACT),
+                address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(BINARY)
+                        .setFlushConsolidationEnabled(true)
+                        .setFlushConsolidationMaxFlushes(1)),
+                address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, new DriftNettyClientConfig()
+                        .setTransport(Transport.HEADER)
+                        .setProtocol(Protocol.FB_COMPACT)
+                        .setCallerThreadEncodingEnabled(true)
+                        .setResponseDecodingOffloadThreshold(new DataSize(0, Unit.BYTE))),
+                address -> logNiftyInvocationHandler(address, DRIFT_MESSAGES, new DriftNettyClientConfig()
+                        .setTransport(FRAMED)
+                        .setProtocol(BINARY)
+                        .setMaxInFlightRequestsPerDestination(1)
+                        .setMaxInFlightBytesPerDestination(new DataSize(1, Unit.MEGABYTE))
+                        .setMaxQueuedRequestsPerDestination(10))));
 
         return newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
     }
 
     private static int testMethodInvoker(ServerMethodInvoker methodInvoker, List<ToIntFunction<HostAndPort>> clients)
+    {
+        return testMethodInvoker(methodInvoker, new DriftNettyServerConfig(), clients);
+    }
+
+    private static int testMethodInvoker(ServerMethodInvoker methodInvoker, DriftNettyServerConfig serverConfig, List<ToIntFunction<HostAndPort>> clients)
     {
         TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
-        ServerTransport serverTransport = new DriftNettyServerTransportFactory(new DriftNettyServerConfig(), testingAllocator).createServerTransport(methodInvoker);
+        ServerTransport serverTransport = new DriftNettyServerTransportFactory(serverConfig, testingAllocator).createServerTransport(methodInvoker);
         try {
             serverTransport.start();
 
@@ -291,10 +710,13 @@ public class TestDriftNettyMethodInvoker
 
     private static int logNiftyInvocationHandler(HostAndPort address, List<DriftLogEntry> entries, Transport transport, Protocol protocol)
     {
-        DriftNettyClientConfig config = new DriftNettyClientConfig()
+        return logNiftyInvocationHandler(address, entries, new DriftNettyClientConfig()
                 .setTransport(transport)
-                .setProtocol(protocol);
+                .setProtocol(protocol));
+    }
 
+    private static int logNiftyInvocationHandler(HostAndPort address, List<DriftLogEntry> entries, DriftNettyClientConfig config)
+    {
         try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
                 DriftNettyMethodInvokerFactory<Void> methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
                         new DriftNettyConnectionFactoryConfig(),
@@ -339,8 +761,22 @@ public class TestDriftNettyMethodInvoker
                         Optional.empty(),
                         Optional.empty(),
                         false,
-                        false),
+                        false,
+                        false,
+                        256,
+                        false,
+                        Optional.empty(),
+                        ImmutableList.of(),
+                        new DataSize(0, Unit.BYTE),
+                        Optional.empty(),
+                        ImmutableMap.of(),
+                        4,
+                        new Duration(1, SECONDS)),
+                new HangingConnectionManager(),
                 new HangingConnectionManager(),
+                ByteBufAllocator.DEFAULT,
+                new InFlightRequestLimiter(Integer.MAX_VALUE, Long.MAX_VALUE, 0, new Duration(1, SECONDS), executor),
+                false,
                 executor,
                 new Duration(17, MILLISECONDS));
 
@@ -445,12 +881,30 @@ public class TestDriftNettyMethodInvoker
             implements ServerMethodInvoker
     {
         private final List<DriftLogEntry> messages = new CopyOnWriteArrayList<>();
+        private final List<OptionalLong> deadlines = new CopyOnWriteArrayList<>();
+        private final List<OptionalLong> currentDeadlines = new CopyOnWriteArrayList<>();
+        private final List<Map<String, String>> headers = new CopyOnWriteArrayList<>();
 
         private List<DriftLogEntry> getMessages()
         {
             return messages;
         }
 
+        private List<OptionalLong> getDeadlines()
+        {
+            return deadlines;
+        }
+
+        private List<OptionalLong> getCurrentDeadlines()
+        {
+            return currentDeadlines;
+        }
+
+        private List<Map<String, String>> getHeaders()
+        {
+            return headers;
+        }
+
         @Override
         public Optional<MethodMetadata> getMethodMetadata(String name)
         {
@@ -473,6 +927,9 @@ public class TestDriftNettyMethodInvoker
                 return Futures.immediateFailedFuture(new IllegalArgumentException("invalid parameters"));
             }
             List<DriftLogEntry> messages = (List<DriftLogEntry>) getOnlyElement(parameters.values());
+            deadlines.add(request.getDeadline());
+            currentDeadlines.add(getCurrentDeadline());
+            headers.add(request.getHeaders());
 
             for (DriftLogEntry message : messages) {
                 if (message.getCategory().equals("exception")) {
@@ -489,4 +946,119 @@ public class TestDriftNettyMethodInvoker
             // todo implement
         }
     }
+
+    private static class StreamingServerMethodInvoker
+            implements ServerMethodInvoker
+    {
+        private static final List<String> VALUES = IntStream.range(0, 1000)
+                .mapToObj(i -> "value-" + i)
+                .collect(toImmutableList());
+
+        private final CountDownLatch stalledStreams = new CountDownLatch(1);
+        private final AtomicInteger openStreams = new AtomicInteger();
+
+        public void resumeStalledStreams()
+        {
+            stalledStreams.countDown();
+        }
+
+        public int getOpenStreams()
+        {
+            return openStreams.get();
+        }
+
+        @Override
+        public Optional<MethodMetadata> getMethodMetadata(String name)
+        {
+            if (STREAM_METHOD_METADATA.getName().equals(name)) {
+                return Optional.of(STREAM_METHOD_METADATA);
+            }
+            if (STREAM_FAILURE_METHOD_METADATA.getName().equals(name)) {
+                return Optional.of(STREAM_FAILURE_METHOD_METADATA);
+            }
+            if (STREAM_STALL_METHOD_METADATA.getName().equals(name)) {
+                return Optional.of(STREAM_STALL_METHOD_METADATA);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public ListenableFuture<Object> invoke(ServerInvokeRequest request)
+        {
+            if (STREAM_FAILURE_METHOD_METADATA.getName().equals(request.getMethod().getName())) {
+                Iterator<String> iterator = VALUES.iterator();
+                return Futures.immediateFuture(new Iterator<String>()
+                {
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return true;
+                    }
+
+                    @Override
+                    public String next()
+                    {
+                        if (!iterator.hasNext()) {
+                            throw new IllegalStateException("stream failed");
+                        }
+                        return iterator.next();
+                    }
+                });
+            }
+            if (STREAM_STALL_METHOD_METADATA.getName().equals(request.getMethod().getName())) {
+                Iterator<String> iterator = VALUES.iterator();
+                return Futures.immediateFuture(new Iterator<String>()
+                {
+                    private int count;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        if (count++ == 20) {
+                            awaitUninterruptibly(stalledStreams, 10, SECONDS);
+                        }
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public String next()
+                    {
+                        return iterator.next();
+                    }
+                });
+            }
+            Iterator<String> iterator = VALUES.iterator();
+            openStreams.incrementAndGet();
+            return Futures.immediateFuture(new CloseableIterator<String>()
+            {
+                @Override
+                public boolean hasNext()
+                {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public String next()
+                {
+                    return iterator.next();
+                }
+
+                @Override
+                public void close()
+                {
+                    openStreams.decrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public void recordResult(String methodName, long startTime, ListenableFuture<Object> result) {}
+
+        private interface CloseableIterator<T>
+                extends Iterator<T>, AutoCloseable
+        {
+            @Override
+            void close();
+        }
+    }
 }
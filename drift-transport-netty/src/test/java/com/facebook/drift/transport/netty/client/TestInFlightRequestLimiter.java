@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.client;
+
+import com.facebook.drift.transport.client.OverloadedException;
+import com.facebook.drift.transport.client.RequestTimeoutException;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
+import static com.facebook.airlift.testing.Assertions.assertInstanceOf;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestInFlightRequestLimiter
+{
+    private static final HostAndPort ADDRESS = HostAndPort.fromParts("localhost", 1234);
+    private static final HostAndPort OTHER_ADDRESS = HostAndPort.fromParts("localhost", 4321);
+    private static final Duration MAX_QUEUED_TIME = new Duration(1, MINUTES);
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("test-limiter-timeout"));
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRequestLimitFailFast()
+            throws Exception
+    {
+        InFlightRequestLimiter limiter = new InFlightRequestLimiter(2, Long.MAX_VALUE, 0, MAX_QUEUED_TIME, executor);
+        AtomicInteger abandoned = new AtomicInteger();
+
+        SettableFuture<Object> first = SettableFuture.create();
+        SettableFuture<Object> second = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 0, () -> first, abandoned::incrementAndGet), first);
+        assertEquals(limiter.invoke(ADDRESS, 0, () -> second, abandoned::incrementAndGet), second);
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 2);
+
+        assertOverloaded(limiter.invoke(ADDRESS, 0, TestInFlightRequestLimiter::notInvoked, abandoned::incrementAndGet));
+        assertEquals(abandoned.get(), 1);
+
+        // other destinations are not affected
+        SettableFuture<Object> other = SettableFuture.create();
+        assertEquals(limiter.invoke(OTHER_ADDRESS, 0, () -> other, abandoned::incrementAndGet), other);
+
+        first.set("first");
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 1);
+        SettableFuture<Object> third = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 0, () -> third, abandoned::incrementAndGet), third);
+
+        second.set("second");
+        third.setException(new RuntimeException());
+        other.set("other");
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 0);
+        assertEquals(limiter.getInFlightRequests(OTHER_ADDRESS), 0);
+        assertEquals(abandoned.get(), 1);
+    }
+
+    @Test
+    public void testByteLimit()
+            throws Exception
+    {
+        InFlightRequestLimiter limiter = new InFlightRequestLimiter(Integer.MAX_VALUE, 100, 0, MAX_QUEUED_TIME, executor);
+
+        // a single request larger than the limit is allowed when nothing else is in flight
+        SettableFuture<Object> large = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 1000, () -> large, () -> {}), large);
+        assertOverloaded(limiter.invoke(ADDRESS, 1, TestInFlightRequestLimiter::notInvoked, () -> {}));
+        large.set("large");
+
+        SettableFuture<Object> first = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 60, () -> first, () -> {}), first);
+        assertOverloaded(limiter.invoke(ADDRESS, 50, TestInFlightRequestLimiter::notInvoked, () -> {}));
+        SettableFuture<Object> second = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 40, () -> second, () -> {}), second);
+        first.set("first");
+        second.set("second");
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 0);
+    }
+
+    @Test
+    public void testQueue()
+            throws Exception
+    {
+        InFlightRequestLimiter limiter = new InFlightRequestLimiter(1, Long.MAX_VALUE, 2, MAX_QUEUED_TIME, executor);
+        AtomicInteger abandoned = new AtomicInteger();
+
+        SettableFuture<Object> first = SettableFuture.create();
+        SettableFuture<Object> second = SettableFuture.create();
+        SettableFuture<Object> third = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 0, () -> first, abandoned::incrementAndGet), first);
+        ListenableFuture<Object> queuedSecond = limiter.invoke(ADDRESS, 0, () -> second, abandoned::incrementAndGet);
+        ListenableFuture<Object> queuedThird = limiter.invoke(ADDRESS, 0, () -> third, abandoned::incrementAndGet);
+        assertOverloaded(limiter.invoke(ADDRESS, 0, TestInFlightRequestLimiter::notInvoked, abandoned::incrementAndGet));
+        assertEquals(abandoned.get(), 1);
+
+        // canceled requests are removed from the queue without being invoked
+        queuedThird.cancel(true);
+        assertEquals(abandoned.get(), 2);
+
+        first.set("first");
+        assertFalse(queuedSecond.isDone());
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 1);
+        second.set("second");
+        assertTrue(queuedSecond.isDone());
+        assertEquals(queuedSecond.get(), "second");
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 0);
+        assertFalse(third.isDone());
+    }
+
+    @Test
+    public void testQueueTimeout()
+            throws Exception
+    {
+        InFlightRequestLimiter limiter = new InFlightRequestLimiter(1, Long.MAX_VALUE, 1, new Duration(10, MILLISECONDS), executor);
+        AtomicInteger abandoned = new AtomicInteger();
+
+        SettableFuture<Object> first = SettableFuture.create();
+        assertEquals(limiter.invoke(ADDRESS, 0, () -> first, abandoned::incrementAndGet), first);
+        ListenableFuture<Object> queued = limiter.invoke(ADDRESS, 0, TestInFlightRequestLimiter::notInvoked, abandoned::incrementAndGet);
+
+        // the queued request fails when it can not be started in time, and is removed from the queue
+        try {
+            queued.get(10, SECONDS);
+            fail("expected RequestTimeoutException");
+        }
+        catch (ExecutionException e) {
+            assertInstanceOf(e.getCause(), RequestTimeoutException.class);
+        }
+        assertEquals(abandoned.get(), 1);
+
+        // the queue has room again
+        SettableFuture<Object> second = SettableFuture.create();
+        ListenableFuture<Object> queuedSecond = limiter.invoke(ADDRESS, 0, () -> second, abandoned::incrementAndGet);
+        assertFalse(queuedSecond.isDone());
+        first.set("first");
+        second.set("second");
+        assertEquals(queuedSecond.get(), "second");
+        assertEquals(limiter.getInFlightRequests(ADDRESS), 0);
+        assertEquals(abandoned.get(), 1);
+    }
+
+    private static ListenableFuture<Object> notInvoked()
+    {
+        throw new AssertionError("should not be invoked");
+    }
+
+    private static void assertOverloaded(ListenableFuture<Object> future)
+            throws InterruptedException
+    {
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail("expected OverloadedException");
+        }
+        catch (ExecutionException e) {
+            assertInstanceOf(e.getCause(), OverloadedException.class);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Zlib transform of a message with Thrift-like content, compared with the
+ * stream based implementation that allocated a deflater or inflater per message.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkZlibTransformer
+{
+    private static final ByteBufAllocator ALLOCATOR = PooledByteBufAllocator.DEFAULT;
+
+    public enum Implementation
+    {
+        STREAM(new StreamZlibTransformer(512)),
+        REUSED_DEFLATER(ZlibTransformer.ZLIB_TRANSFORMER);
+
+        private final ThriftMessageTransformer transformer;
+
+        Implementation(ThriftMessageTransformer transformer)
+        {
+            this.transformer = transformer;
+        }
+    }
+
+    @Param({"STREAM", "REUSED_DEFLATER"})
+    private Implementation implementation;
+
+    @Param({"1024", "65536", "1048576"})
+    private int messageSize;
+
+    private ByteBuf message;
+    private ByteBuf compressedMessage;
+
+    @Setup
+    public void setup()
+    {
+        // repeated field names and small integers, mixed with random bytes
+        Random random = new Random(42);
+        message = ALLOCATOR.directBuffer(messageSize);
+        while (message.isWritable()) {
+            if (random.nextBoolean()) {
+                message.writeByte(random.nextInt(16));
+            }
+            else if (random.nextBoolean()) {
+                message.writeByte(random.nextInt());
+            }
+            else {
+                message.writeBytes("field".getBytes(), 0, Math.min(5, message.writableBytes()));
+            }
+        }
+        compressedMessage = ZlibTransformer.ZLIB_TRANSFORMER.transform(ALLOCATOR, message.retainedDuplicate());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        message.release();
+        compressedMessage.release();
+    }
+
+    @Benchmark
+    public int compress()
+    {
+        ByteBuf output = implementation.transformer.transform(ALLOCATOR, message.retainedDuplicate());
+        int size = output.readableBytes();
+        output.release();
+        return size;
+    }
+
+    @Benchmark
+    public int decompress()
+    {
+        ByteBuf output = implementation.transformer.untransform(ALLOCATOR, compressedMessage.retainedDuplicate(), Integer.MAX_VALUE);
+        int size = output.readableBytes();
+        output.release();
+        return size;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkZlibTransformer.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+
+    private static class StreamZlibTransformer
+            implements ThriftMessageTransformer
+    {
+        private final int zipBlockSize;
+
+        public StreamZlibTransformer(int zipBlockSize)
+        {
+            this.zipBlockSize = zipBlockSize;
+        }
+
+        @Override
+        public ByteBuf transform(ByteBufAllocator bufAllocator, ByteBuf input)
+        {
+            ByteBuf output = bufAllocator.buffer(zipBlockSize);
+            try (DeflaterOutputStream outputStream = new DeflaterOutputStream(new ByteBufOutputStream(output))) {
+                input.readBytes(outputStream, input.readableBytes());
+            }
+            catch (IOException e) {
+                output.release();
+                throw new UncheckedIOException(e);
+            }
+            finally {
+                input.release();
+            }
+            return output;
+        }
+
+        @Override
+        public ByteBuf untransform(ByteBufAllocator bufAllocator, ByteBuf input, int maxOutputSize)
+        {
+            ByteBuf output = bufAllocator.buffer(zipBlockSize);
+            try (InflaterInputStream inputStream = new InflaterInputStream(new ByteBufInputStream(input))) {
+                while (inputStream.available() > 0) {
+                    output.writeBytes(inputStream, zipBlockSize);
+                }
+                return output;
+            }
+            catch (IOException e) {
+                output.release();
+                throw new UncheckedIOException(e);
+            }
+            finally {
+                input.release();
+            }
+        }
+
+        @Override
+        public ByteBuf tryUntransform(ByteBufAllocator bufAllocator, ByteBuf input, boolean inputComplete, int minimumSize)
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import com.facebook.airlift.testing.TestingTicker;
+import com.facebook.drift.codec.ThriftCodec;
+import com.facebook.drift.codec.ThriftCodecManager;
+import com.facebook.drift.transport.MethodMetadata;
+import com.facebook.drift.transport.netty.codec.CompressionPolicy.MethodCompression;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.DataSize;
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static com.facebook.drift.codec.metadata.ThriftType.STRING;
+import static com.facebook.drift.transport.netty.codec.CompressionPolicy.SAMPLE_INTERVAL;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestCompressionPolicy
+{
+    @Test
+    public void testCompressAll()
+    {
+        CompressionPolicy policy = CompressionPolicy.compressAll();
+        MethodCompression compression = policy.getMethodCompression(method("test"));
+        assertTrue(compression.shouldCompress(0));
+        assertTrue(compression.shouldCompress(1));
+
+        compression.recordCompression(100, 1000);
+        assertTrue(compression.shouldCompress(100));
+        assertEquals(policy.getSkippedMessages().getTotalCount(), 0);
+        assertEquals(policy.getCompressedMessages().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testMinSize()
+    {
+        CompressionPolicy policy = new CompressionPolicy(new DataSize(1, KILOBYTE), Optional.empty());
+        MethodCompression compression = policy.getMethodCompression(method("test"));
+        assertFalse(compression.shouldCompress(0));
+        assertFalse(compression.shouldCompress(1023));
+        assertTrue(compression.shouldCompress(1024));
+        assertTrue(compression.shouldCompress(1025));
+        assertEquals(policy.getSkippedMessages().getTotalCount(), 2);
+    }
+
+    @Test
+    public void testMethodCompressionIsShared()
+    {
+        CompressionPolicy policy = CompressionPolicy.compressAll();
+        MethodMetadata method = method("a");
+        assertSame(policy.getMethodCompression(method), policy.getMethodCompression(method));
+        assertNotSame(policy.getMethodCompression(method), policy.getMethodCompression(method("b")));
+
+        // a method with the same name in another service is tracked separately
+        assertNotSame(policy.getMethodCompression(method), policy.getMethodCompression(method("a")));
+    }
+
+    @Test
+    public void testMinRatio()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CompressionPolicy policy = new CompressionPolicy(new DataSize(0, BYTE), Optional.of(2.0), ticker);
+        MethodCompression poor = policy.getMethodCompression(method("poor"));
+        MethodCompression good = policy.getMethodCompression(method("good"));
+
+        // nothing is known about the ratio before the first message is compressed
+        assertEquals(poor.getCompressionRatio(), Double.POSITIVE_INFINITY);
+        assertTrue(poor.shouldCompress(1000));
+        poor.recordCompression(1000, 900);
+        assertEquals(poor.getCompressionRatio(), 1000 / 900.0, 0.0001);
+
+        assertTrue(good.shouldCompress(1000));
+        good.recordCompression(1000, 100);
+        assertEquals(good.getCompressionRatio(), 10.0, 0.0001);
+
+        // poorly compressed methods are only sampled periodically
+        int compressed = 0;
+        for (int i = 0; i < SAMPLE_INTERVAL * 4; i++) {
+            if (poor.shouldCompress(1000)) {
+                compressed++;
+            }
+            assertTrue(good.shouldCompress(1000));
+        }
+        assertEquals(compressed, 4);
+        assertEquals(policy.getSkippedMessages().getTotalCount(), SAMPLE_INTERVAL * 4 - 4);
+
+        // a sample with a better ratio re-enables compression
+        poor.recordCompression(100_000, 1000);
+        assertTrue(poor.getCompressionRatio() > 2.0);
+        assertTrue(poor.shouldCompress(1000));
+    }
+
+    @SuppressWarnings("unchecked")
+    static MethodMetadata method(String name)
+    {
+        return new MethodMetadata(
+                name,
+                ImmutableList.of(),
+                (ThriftCodec<Object>) new ThriftCodecManager().getCodec(STRING),
+                ImmutableMap.of(),
+                false,
+                true);
+    }
+}
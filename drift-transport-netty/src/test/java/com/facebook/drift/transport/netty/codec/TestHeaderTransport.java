@@ -19,37 +19,53 @@ import com.facebook.drift.TException;
 import com.facebook.drift.codec.internal.ProtocolWriter;
 import com.facebook.drift.protocol.TMessage;
 import com.facebook.drift.protocol.TProtocolWriter;
+import com.facebook.drift.transport.MethodMetadata;
 import com.facebook.drift.transport.netty.buffer.TestingPooledByteBufAllocator;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferOutputTransport;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Resources;
+import io.airlift.units.DataSize;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static com.facebook.drift.protocol.TMessageType.CALL;
 import static com.facebook.drift.protocol.TMessageType.ONEWAY;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.CLIENT_TIMEOUT_HEADER;
 import static com.facebook.drift.transport.netty.codec.HeaderTransport.decodeFrame;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.encodeAcceptedTransforms;
 import static com.facebook.drift.transport.netty.codec.HeaderTransport.encodeFrame;
+import static com.facebook.drift.transport.netty.codec.HeaderTransport.selectAcceptedTransform;
 import static com.facebook.drift.transport.netty.codec.HeaderTransport.tryDecodeFrameInfo;
 import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
 import static com.facebook.drift.transport.netty.codec.Protocol.FB_COMPACT;
+import static com.facebook.drift.transport.netty.codec.ThriftHeaderTransform.LZ4_TRANSFORM;
+import static com.facebook.drift.transport.netty.codec.ThriftHeaderTransform.SNAPPY_TRANSFORM;
 import static com.facebook.drift.transport.netty.codec.ThriftHeaderTransform.ZLIB_TRANSFORM;
+import static com.facebook.drift.transport.netty.codec.ThriftHeaderTransform.ZSTD_TRANSFORM;
 import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
 import static com.google.common.io.Resources.getResource;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertThrows;
 import static org.testng.Assert.assertTrue;
 
 public class TestHeaderTransport
 {
     private static final int FULL_LENGTH = -1;
+    private static final MethodMetadata METHOD = TestCompressionPolicy.method("method");
     private String bigString;
 
     @BeforeClass
@@ -94,6 +110,215 @@ public class TestHeaderTransport
         assertRoundTrip(ImmutableList.of(ZLIB_TRANSFORM));
     }
 
+    @Test
+    public void testBlockCompressionTransforms()
+            throws Exception
+    {
+        for (ThriftHeaderTransform transform : ImmutableList.of(ZSTD_TRANSFORM, LZ4_TRANSFORM, SNAPPY_TRANSFORM)) {
+            assertTryDecodeSequenceId(ImmutableList.of(transform), 0, Optional.empty());
+            assertTryDecodeSequenceId(ImmutableList.of(transform), 15, Optional.empty());
+            assertTryDecodeSequenceId(ImmutableList.of(transform), FULL_LENGTH,
+                    Optional.of(new FrameInfo("method", CALL, 0xFFAA, HEADER, BINARY, true)));
+            assertRoundTrip(ImmutableList.of(transform));
+        }
+    }
+
+    @Test
+    public void testCompressionPolicy()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            CompressionPolicy policy = new CompressionPolicy(new DataSize(1, MEGABYTE), Optional.empty());
+            ThriftFrame frame = new ThriftFrame(
+                    0xFFAA,
+                    createTestMessage(allocator, "method", CALL, 0xFFAA, BINARY),
+                    ImmutableMap.of(),
+                    ImmutableList.of(ZSTD_TRANSFORM),
+                    HEADER,
+                    BINARY,
+                    true)
+                    .withCompression(Optional.of(policy.getMethodCompression(METHOD)));
+            ThriftFrame result = decodeFrame(allocator, encodeFrame(allocator, frame));
+            try {
+                assertEquals(result.getTransforms(), ImmutableList.of());
+                assertEquals(policy.getSkippedMessages().getTotalCount(), 1);
+                assertEquals(policy.getCompressedMessages().getTotalCount(), 0);
+            }
+            finally {
+                result.release();
+            }
+
+            policy = CompressionPolicy.compressAll();
+            frame = new ThriftFrame(
+                    0xFFAA,
+                    createTestMessage(allocator, "method", CALL, 0xFFAA, BINARY),
+                    ImmutableMap.of(),
+                    ImmutableList.of(ZSTD_TRANSFORM),
+                    HEADER,
+                    BINARY,
+                    true)
+                    .withCompression(Optional.of(policy.getMethodCompression(METHOD)));
+            result = decodeFrame(allocator, encodeFrame(allocator, frame));
+            try {
+                assertEquals(result.getTransforms(), ImmutableList.of(ZSTD_TRANSFORM));
+                assertEquals(policy.getCompressedMessages().getTotalCount(), 1);
+                assertTrue(policy.getMethodCompression(METHOD).getCompressionRatio() > 1.0);
+            }
+            finally {
+                result.release();
+            }
+        }
+    }
+
+    @Test
+    public void testDecompressedFrameTooLarge()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            for (ThriftHeaderTransform transform : ThriftHeaderTransform.values()) {
+                ThriftFrame frame = new ThriftFrame(
+                        0xFFAA,
+                        createTestMessage(allocator, "method", CALL, 0xFFAA, BINARY),
+                        ImmutableMap.of(),
+                        ImmutableList.of(transform),
+                        HEADER,
+                        BINARY,
+                        true);
+                int messageSize = frame.getMessageSize();
+                ByteBuf encoded = encodeFrame(allocator, frame);
+                try {
+                    // the limit applies to the message after it is decompressed
+                    assertThrows(FrameTooLargeException.class, () -> decodeFrame(allocator, encoded.retainedDuplicate(), new HeaderTable(), messageSize - 1));
+
+                    ThriftFrame result = decodeFrame(allocator, encoded.retainedDuplicate(), new HeaderTable(), messageSize);
+                    assertEquals(result.getMessageSize(), messageSize);
+                    result.release();
+                }
+                finally {
+                    encoded.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEncodedFrameLayout()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            ByteBuf message = createTestFrame(allocator, "method", CALL, 0xFFAA, BINARY, true, ImmutableList.of());
+            try {
+                // the whole header prefix is a single buffer in front of the message
+                assertTrue(message instanceof CompositeByteBuf);
+                assertEquals(((CompositeByteBuf) message).numComponents(), 2);
+                ByteBuf prefix = ((CompositeByteBuf) message).component(0);
+                int headerSize = message.getUnsignedShort(8) << 2;
+                assertEquals(prefix.readableBytes(), 10 + headerSize);
+            }
+            finally {
+                message.release();
+            }
+        }
+    }
+
+    @Test
+    public void testPersistentHeaders()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            HeaderTable headerTable = new HeaderTable();
+
+            Map<String, String> headers = decodeHeaders(allocator, headerTable, ImmutableMap.of("trace", "1"), ImmutableMap.of("auth", "token", "tenant", "a"));
+            assertEquals(headers, ImmutableMap.of("trace", "1", "auth", "token", "tenant", "a"));
+            assertEquals(headerTable.getPersistentHeaders(), ImmutableMap.of("auth", "token", "tenant", "a"));
+
+            // persistent headers apply to later frames without resending them
+            headers = decodeHeaders(allocator, headerTable, ImmutableMap.of("trace", "2"), ImmutableMap.of());
+            assertEquals(headers, ImmutableMap.of("trace", "2", "auth", "token", "tenant", "a"));
+            headers = decodeHeaders(allocator, headerTable, ImmutableMap.of(), ImmutableMap.of());
+            assertSame(headers, headerTable.getPersistentHeaders());
+
+            // headers of the frame take precedence, and resent persistent headers replace the old value
+            headers = decodeHeaders(allocator, headerTable, ImmutableMap.of("tenant", "b"), ImmutableMap.of());
+            assertEquals(headers, ImmutableMap.of("auth", "token", "tenant", "b"));
+            headers = decodeHeaders(allocator, headerTable, ImmutableMap.of(), ImmutableMap.of("auth", "new"));
+            assertEquals(headers, ImmutableMap.of("auth", "new", "tenant", "a"));
+
+            // persistent headers are only remembered by the table of the connection
+            headers = decodeHeaders(allocator, new HeaderTable(), ImmutableMap.of("trace", "3"), ImmutableMap.of());
+            assertEquals(headers, ImmutableMap.of("trace", "3"));
+        }
+    }
+
+    @Test
+    public void testHeaderInterning()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            HeaderTable headerTable = new HeaderTable();
+            String longValue = Strings.repeat("x", HeaderTable.MAX_INTERNED_STRING_LENGTH + 1);
+            Map<String, String> first = decodeHeaders(allocator, headerTable, ImmutableMap.of("auth", "token", "long", longValue), ImmutableMap.of());
+            Map<String, String> second = decodeHeaders(allocator, headerTable, ImmutableMap.of("auth", "token", "long", longValue), ImmutableMap.of());
+            assertEquals(second, first);
+
+            String firstKey = first.keySet().iterator().next();
+            String secondKey = second.keySet().iterator().next();
+            assertEquals(secondKey, "auth");
+            assertSame(secondKey, firstKey);
+            assertSame(second.get("auth"), first.get("auth"));
+            assertNotSame(second.get("long"), first.get("long"));
+
+            // values of per-request headers do not fill the table
+            int internedStrings = headerTable.getInternedStringCount();
+            for (int timeout = 0; timeout < HeaderTable.MAX_INTERNED_STRINGS; timeout++) {
+                decodeHeaders(allocator, headerTable, ImmutableMap.of(CLIENT_TIMEOUT_HEADER, String.valueOf(timeout)), ImmutableMap.of());
+            }
+            assertEquals(headerTable.getInternedStringCount(), internedStrings + 1);
+
+            // values that change on every request are evicted instead of filling the table
+            for (int traceId = 0; traceId < HeaderTable.MAX_INTERNED_STRINGS * 2; traceId++) {
+                decodeHeaders(allocator, headerTable, ImmutableMap.of("auth", "token", "trace", String.valueOf(traceId)), ImmutableMap.of());
+            }
+            assertEquals(headerTable.getInternedStringCount(), HeaderTable.MAX_INTERNED_STRINGS);
+            Map<String, String> third = decodeHeaders(allocator, headerTable, ImmutableMap.of("auth", "token", "trace", "new"), ImmutableMap.of());
+            Map<String, String> fourth = decodeHeaders(allocator, headerTable, ImmutableMap.of("auth", "token", "trace", "newer"), ImmutableMap.of());
+            assertSame(fourth.get("auth"), first.get("auth"));
+            assertSame(fourth.get("auth"), third.get("auth"));
+        }
+    }
+
+    private Map<String, String> decodeHeaders(ByteBufAllocator allocator, HeaderTable headerTable, Map<String, String> headers, Map<String, String> persistentHeaders)
+            throws TException
+    {
+        ThriftFrame frame = new ThriftFrame(
+                0xFFAA,
+                createTestMessage(allocator, "method", CALL, 0xFFAA, BINARY),
+                headers,
+                ImmutableList.of(),
+                HEADER,
+                BINARY,
+                true)
+                .withPersistentHeaders(persistentHeaders);
+        ThriftFrame result = decodeFrame(allocator, encodeFrame(allocator, frame), headerTable, Integer.MAX_VALUE);
+        try {
+            return result.getHeaders();
+        }
+        finally {
+            result.release();
+        }
+    }
+
+    @Test
+    public void testSelectAcceptedTransform()
+    {
+        assertEquals(encodeAcceptedTransforms(ImmutableList.of(ZSTD_TRANSFORM, LZ4_TRANSFORM)), "5,6");
+        assertEquals(selectAcceptedTransform("5,6", ImmutableList.of(LZ4_TRANSFORM, ZSTD_TRANSFORM)), Optional.of(ZSTD_TRANSFORM));
+        assertEquals(selectAcceptedTransform("6,5", ImmutableList.of(LZ4_TRANSFORM, ZSTD_TRANSFORM)), Optional.of(LZ4_TRANSFORM));
+        assertEquals(selectAcceptedTransform("99, x, 1", ImmutableList.of(ZLIB_TRANSFORM)), Optional.of(ZLIB_TRANSFORM));
+        assertEquals(selectAcceptedTransform("5", ImmutableList.of(ZLIB_TRANSFORM)), Optional.empty());
+        assertEquals(selectAcceptedTransform("", ImmutableList.of(ZLIB_TRANSFORM)), Optional.empty());
+    }
+
     private void assertTryDecodeSequenceId(List<ThriftHeaderTransform> transforms, int length, Optional<FrameInfo> expected)
             throws Exception
     {
@@ -101,17 +326,17 @@ public class TestHeaderTransport
             ByteBuf message = createTestFrame(allocator, "method", CALL, 0xFFAA, BINARY, true, transforms);
             try {
                 if (length >= 0) {
-                    assertDecodeFrameInfo(allocator, message.retainedSlice(0, length), expected);
+                    assertDecodeFrameInfo(allocator, message.retainedSlice(0, length), message.readableBytes(), expected);
                 }
                 else {
-                    assertDecodeFrameInfo(allocator, message.retainedDuplicate(), expected);
+                    assertDecodeFrameInfo(allocator, message.retainedDuplicate(), message.readableBytes(), expected);
                 }
             }
             finally {
                 message.release();
             }
-            assertDecodeFrameInfo(allocator,
-                    createTestFrame(allocator, "method1", ONEWAY, 123, FB_COMPACT, false, transforms), Optional.of(new FrameInfo("method1", ONEWAY, 123, HEADER, FB_COMPACT, false)));
+            ByteBuf frame = createTestFrame(allocator, "method1", ONEWAY, 123, FB_COMPACT, false, transforms);
+            assertDecodeFrameInfo(allocator, frame, frame.readableBytes(), Optional.of(new FrameInfo("method1", ONEWAY, 123, HEADER, FB_COMPACT, false)));
         }
     }
 
@@ -142,10 +367,10 @@ public class TestHeaderTransport
         }
     }
 
-    private static void assertDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf message, Optional<FrameInfo> frameInfo)
+    private static void assertDecodeFrameInfo(ByteBufAllocator bufAllocator, ByteBuf message, int frameSize, Optional<FrameInfo> frameInfo)
     {
         try {
-            assertEquals(tryDecodeFrameInfo(bufAllocator, message), frameInfo);
+            assertEquals(tryDecodeFrameInfo(bufAllocator, message, frameSize), frameInfo);
         }
         finally {
             message.release();
@@ -22,6 +22,7 @@ import com.facebook.drift.transport.netty.buffer.TestingPooledByteBufAllocator;
 import com.facebook.drift.transport.netty.ssl.TChannelBufferOutputTransport;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
@@ -42,11 +43,14 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.facebook.drift.protocol.TMessageType.CALL;
 import static com.facebook.drift.protocol.TMessageType.ONEWAY;
 import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.ThriftFramedDecoder.LARGE_FRAME_SIZE;
 import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static java.lang.Math.min;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
@@ -161,6 +165,82 @@ public class TestThriftFramedDecoder
         }
     }
 
+    @Test
+    public void testLargeFrameChunked()
+            throws Exception
+    {
+        byte[] large = new byte[LARGE_FRAME_SIZE * 3 + 7];
+        ThreadLocalRandom.current().nextBytes(large);
+        byte[] small = new byte[] {5, 4, 3};
+
+        // buffers allocated, to verify the large frame is not copied into a frame buffer
+        AtomicInteger allocations = new AtomicInteger();
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()
+        {
+            @Override
+            protected ByteBuf newHeapBuffer(int initialCapacity, int maxCapacity)
+            {
+                allocations.incrementAndGet();
+                return super.newHeapBuffer(initialCapacity, maxCapacity);
+            }
+
+            @Override
+            protected ByteBuf newDirectBuffer(int initialCapacity, int maxCapacity)
+            {
+                allocations.incrementAndGet();
+                return super.newDirectBuffer(initialCapacity, maxCapacity);
+            }
+        }) {
+            ThriftFramedDecoder decoder = createDecoder(large.length);
+
+            // the large frame arrives in separate inputs, like the reads of a connection, and the last one also contains a small frame
+            List<ByteBuf> inputs = new ArrayList<>();
+            inputs.add(allocator.buffer(1024).writeInt(large.length).writeBytes(large, 0, 1000));
+            for (int offset = 1000; offset < large.length; offset += LARGE_FRAME_SIZE) {
+                inputs.add(allocator.buffer(LARGE_FRAME_SIZE).writeBytes(large, offset, min(LARGE_FRAME_SIZE, large.length - offset)));
+            }
+            ByteBuf lastInput = inputs.get(inputs.size() - 1);
+            writeLengthPrefixedFrame(lastInput, small);
+
+            int allocated = allocations.get();
+            ByteBuf decoded = null;
+            for (ByteBuf input : inputs) {
+                assertNull(decoded);
+                decoded = decode(allocator, decoder, input);
+                // the bytes of the large frame are moved out of each input as it arrives
+                assertEquals(input.readableBytes(), input == lastInput ? Integer.BYTES + small.length : 0);
+            }
+            // the frame is assembled from the inputs, without allocating a buffer for the whole frame
+            assertEquals(allocations.get(), allocated);
+            assertNotNull(decoded);
+            assertThat(decoded).isInstanceOf(CompositeByteBuf.class);
+            assertContentEquals(decoded, large);
+            decoded.release();
+
+            decoded = decode(allocator, decoder, lastInput);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, small);
+            decoded.release();
+            inputs.forEach(ByteBuf::release);
+
+            // a large frame fully available is sliced from the input
+            ByteBuf buffer = allocator.buffer(1024);
+            writeLengthPrefixedFrame(buffer, large);
+            decoded = decode(allocator, decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, large);
+            decoded.release();
+
+            // a partially read large frame is released with the decoder
+            buffer.writeInt(large.length);
+            buffer.writeBytes(large, 0, 1000);
+            assertNull(decode(allocator, decoder, buffer));
+            decoder.handlerRemoved0(createTestingChannelHandlerContext(allocator));
+
+            buffer.release();
+        }
+    }
+
     @Test
     public void testBeyondLimit()
             throws Exception
@@ -17,18 +17,28 @@ package com.facebook.drift.transport.netty.codec;
 
 import com.facebook.drift.transport.netty.buffer.TestingPooledByteBufAllocator;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import io.airlift.compress.MalformedInputException;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.Random;
+import java.util.zip.InflaterInputStream;
 
+import static com.facebook.drift.transport.netty.codec.Lz4Transformer.LZ4_TRANSFORMER;
+import static com.facebook.drift.transport.netty.codec.SnappyTransformer.SNAPPY_TRANSFORMER;
+import static com.facebook.drift.transport.netty.codec.ZlibTransformer.ZLIB_TRANSFORMER;
+import static com.facebook.drift.transport.netty.codec.ZstdTransformer.ZSTD_TRANSFORMER;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
 import static org.testng.Assert.assertTrue;
 
 public class TestThriftMessageTransformer
@@ -45,6 +55,31 @@ public class TestThriftMessageTransformer
         assertRoundTrip(new ZlibTransformer(200000), randomString(100000));
     }
 
+    @Test
+    public void testZlibHeapBuffers()
+            throws IOException
+    {
+        String input = randomString(1000) + Strings.repeat("a", 100000);
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            ByteBuf inputBuffer = allocator.heapBuffer();
+            inputBuffer.writeBytes(input.getBytes());
+            ByteBuf transformed = ZLIB_TRANSFORMER.transform(allocator, inputBuffer);
+            try {
+                // the output is a plain zlib stream
+                byte[] compressed = new byte[transformed.readableBytes()];
+                transformed.getBytes(transformed.readerIndex(), compressed);
+                assertEquals(new String(ByteStreams.toByteArray(new InflaterInputStream(new ByteArrayInputStream(compressed)))), input);
+
+                ByteBuf untransformed = ZLIB_TRANSFORMER.untransform(allocator, transformed.retainedDuplicate(), Integer.MAX_VALUE);
+                assertEquals(toString(untransformed), input);
+                untransformed.release();
+            }
+            finally {
+                transformed.release();
+            }
+        }
+    }
+
     @Test
     public void testZlibAttemptPartialRead()
             throws IOException
@@ -63,16 +98,21 @@ public class TestThriftMessageTransformer
                     assertFalse(t.getMessage().equals("not expected"));
                 }
                 // 10 byte will be enough to decode
-                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 10), 5);
+                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 10), false, 5);
                 assertTrue(toString(untransformed).startsWith("a"));
                 untransformed.release();
                 // reduce size limit to allow read less
-                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 17), 1);
+                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 17), false, 1);
                 assertTrue(toString(untransformed).startsWith("a"));
                 untransformed.release();
                 // Too short to be decoded.
-                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 1), 10);
+                untransformed = tryDecode(allocator, new ZlibTransformer(2), transformed.retainedSlice(0, 1), false, 10);
                 assertFalse(toString(untransformed).startsWith("a"));
+                untransformed.release();
+                // the output grows with the decoded bytes, instead of being allocated up to the limit
+                untransformed = tryDecode(allocator, new ZlibTransformer(512), transformed.retainedDuplicate(), true, 1024 * 1024);
+                assertEquals(toString(untransformed), Strings.repeat("a", 1000));
+                assertTrue(untransformed.capacity() <= 2048, "capacity: " + untransformed.capacity());
             }
             finally {
                 if (transformed != null) {
@@ -85,6 +125,99 @@ public class TestThriftMessageTransformer
         }
     }
 
+    @Test
+    public void testBlockCompressionRoundTrips()
+            throws IOException
+    {
+        for (ThriftMessageTransformer transformer : ImmutableList.of(ZSTD_TRANSFORMER, LZ4_TRANSFORMER, SNAPPY_TRANSFORMER)) {
+            assertRoundTrip(transformer, "");
+            assertRoundTrip(transformer, "123");
+            assertRoundTrip(transformer, Strings.repeat("a", 100000));
+            assertRoundTrip(transformer, randomString(100000));
+        }
+    }
+
+    @Test
+    public void testBlockCompressionAttemptPartialRead()
+            throws IOException
+    {
+        for (ThriftMessageTransformer transformer : ImmutableList.of(ZSTD_TRANSFORMER, LZ4_TRANSFORMER, SNAPPY_TRANSFORMER)) {
+            try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+                ByteBuf transformed = encode(allocator, transformer, Strings.repeat("abc", 1000));
+                try {
+                    // a truncated block can not be decoded, but shouldn't introduce memory leak
+                    ByteBuf untransformed = tryDecode(allocator, transformer, transformed.retainedSlice(0, transformed.readableBytes() / 2), true, 3000);
+                    assertEquals(untransformed.readableBytes(), 0);
+                    untransformed.release();
+
+                    untransformed = tryDecode(allocator, transformer, transformed.retainedSlice(0, 1), true, 3000);
+                    assertEquals(untransformed.readableBytes(), 0);
+                    untransformed.release();
+
+                    // decoding is not attempted until the whole block is available
+                    untransformed = tryDecode(allocator, transformer, transformed.retainedDuplicate(), false, 3000);
+                    assertEquals(untransformed.readableBytes(), 0);
+                    untransformed.release();
+
+                    // the output of a block can not be limited, so a block that decodes to more than the requested size yields no output
+                    untransformed = tryDecode(allocator, transformer, transformed.retainedDuplicate(), true, 2999);
+                    assertEquals(untransformed.readableBytes(), 0);
+                    untransformed.release();
+
+                    untransformed = tryDecode(allocator, transformer, transformed.retainedDuplicate(), true, 3000);
+                    assertEquals(toString(untransformed), Strings.repeat("abc", 1000));
+                    untransformed.release();
+                }
+                finally {
+                    transformed.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMaxOutputSize()
+    {
+        for (ThriftMessageTransformer transformer : ImmutableList.of(ZLIB_TRANSFORMER, ZSTD_TRANSFORMER, LZ4_TRANSFORMER, SNAPPY_TRANSFORMER)) {
+            try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+                ByteBuf transformed = encode(allocator, transformer, Strings.repeat("a", 100_000));
+                try {
+                    ByteBuf untransformed = transformer.untransform(allocator, transformed.retainedDuplicate(), 100_000);
+                    assertEquals(untransformed.readableBytes(), 100_000);
+                    untransformed.release();
+
+                    // the output is never inflated far beyond the limit, regardless of the size declared by the peer
+                    assertThrows(FrameTooLargeException.class, () -> transformer.untransform(allocator, transformed.retainedDuplicate(), 99_999));
+                }
+                finally {
+                    transformed.release();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidUncompressedLength()
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            // an LZ4 block declaring a negative or huge length is rejected before the output is allocated
+            for (int length : new int[] {-1, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+                ByteBuf input = allocator.buffer().writeInt(length).writeByte(0);
+                try {
+                    Class<? extends Throwable> expected = length < 0 ? MalformedInputException.class : FrameTooLargeException.class;
+                    assertThrows(expected, () -> LZ4_TRANSFORMER.untransform(allocator, input.retainedDuplicate(), 16 * 1024 * 1024));
+
+                    ByteBuf untransformed = tryDecode(allocator, LZ4_TRANSFORMER, input.retainedDuplicate(), true, 10);
+                    assertEquals(untransformed.readableBytes(), 0);
+                    untransformed.release();
+                }
+                finally {
+                    input.release();
+                }
+            }
+        }
+    }
+
     private static void assertRoundTrip(ThriftMessageTransformer transformer, String input)
             throws IOException
     {
@@ -94,7 +227,7 @@ public class TestThriftMessageTransformer
             ByteBuf outputBuffer = null;
             try {
                 ByteBuf transformed = transformer.transform(allocator, inputBuffer.retain());
-                outputBuffer = transformer.untransform(allocator, transformed);
+                outputBuffer = transformer.untransform(allocator, transformed, Integer.MAX_VALUE);
                 assertEquals(input, toString(outputBuffer));
             }
             finally {
@@ -136,11 +269,11 @@ public class TestThriftMessageTransformer
 
     private static ByteBuf decode(ByteBufAllocator allocator, ThriftMessageTransformer transformer, ByteBuf input)
     {
-        return transformer.untransform(allocator, input);
+        return transformer.untransform(allocator, input, Integer.MAX_VALUE);
     }
 
-    private static ByteBuf tryDecode(ByteBufAllocator allocator, ThriftMessageTransformer transformer, ByteBuf input, int sizeLimit)
+    private static ByteBuf tryDecode(ByteBufAllocator allocator, ThriftMessageTransformer transformer, ByteBuf input, boolean inputComplete, int sizeLimit)
     {
-        return transformer.tryUntransform(allocator, input, sizeLimit);
+        return transformer.tryUntransform(allocator, input, inputComplete, sizeLimit);
     }
 }
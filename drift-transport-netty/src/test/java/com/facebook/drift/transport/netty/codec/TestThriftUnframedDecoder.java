@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.codec;
+
+import com.facebook.drift.protocol.TField;
+import com.facebook.drift.protocol.TList;
+import com.facebook.drift.protocol.TMap;
+import com.facebook.drift.protocol.TMessage;
+import com.facebook.drift.protocol.TProtocolWriter;
+import com.facebook.drift.protocol.TSet;
+import com.facebook.drift.protocol.TStruct;
+import com.facebook.drift.protocol.TType;
+import com.facebook.drift.transport.netty.buffer.TestingPooledByteBufAllocator;
+import com.facebook.drift.transport.netty.ssl.TChannelBufferOutputTransport;
+import com.google.common.base.Strings;
+import io.airlift.units.DataSize;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.CorruptedFrameException;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.facebook.drift.protocol.TMessageType.CALL;
+import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.Transport.UNFRAMED;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+public class TestThriftUnframedDecoder
+{
+    @Test
+    public void testDecode()
+            throws Exception
+    {
+        for (Protocol protocol : Protocol.values()) {
+            testDecode(protocol);
+        }
+    }
+
+    private static void testDecode(Protocol protocol)
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            byte[] first = createTestMessage(allocator, protocol, "first_method", 1, 10);
+            byte[] second = createTestMessage(allocator, protocol, "second_method", 2, 100_000);
+
+            ThriftUnframedDecoder decoder = new ThriftUnframedDecoder(protocol, new DataSize(1, MEGABYTE), true);
+            ByteBuf buffer = allocator.buffer(1024);
+
+            // complete messages in a single chunk
+            buffer.writeBytes(first);
+            buffer.writeBytes(second);
+            buffer.writeBytes(first, 0, 3);
+            ByteBuf decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, first);
+            decoded.release();
+            decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, second);
+            decoded.release();
+            assertNull(decode(decoder, buffer));
+            assertEquals(buffer.readableBytes(), 3);
+            buffer.writeBytes(first, 3, first.length - 3);
+            decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, first);
+            decoded.release();
+            buffer.discardReadBytes();
+
+            // every split point of a small message
+            for (int split = 1; split < first.length; split++) {
+                buffer.writeBytes(first, 0, split);
+                assertNull(decode(decoder, buffer));
+                assertEquals(buffer.readableBytes(), split);
+                buffer.writeBytes(first, split, first.length - split);
+                decoded = decode(decoder, buffer);
+                assertNotNull(decoded);
+                assertContentEquals(decoded, first);
+                decoded.release();
+                buffer.discardReadBytes();
+            }
+
+            // a large message arriving in small chunks, while read bytes are discarded from the input
+            buffer.writeBytes(first);
+            int offset = 0;
+            while (second.length - offset > 333) {
+                buffer.writeBytes(second, offset, 333);
+                offset += 333;
+                decoded = decode(decoder, buffer);
+                if (decoded != null) {
+                    assertContentEquals(decoded, first);
+                    decoded.release();
+                }
+                buffer.discardSomeReadBytes();
+            }
+            buffer.writeBytes(second, offset, second.length - offset);
+            decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, second);
+            decoded.release();
+            assertEquals(buffer.readableBytes(), 0);
+
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testBeyondLimit()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            byte[] small = createTestMessage(allocator, BINARY, "small_method", 1, 10);
+            byte[] large = createTestMessage(allocator, BINARY, "large_method", 2, 10_000);
+            FrameInfo largeFrameInfo = new FrameInfo("large_method", CALL, 2, UNFRAMED, BINARY, true);
+
+            ThriftUnframedDecoder decoder = new ThriftUnframedDecoder(BINARY, new DataSize(large.length / 2, BYTE), true);
+            ByteBuf buffer = allocator.buffer(1024);
+
+            // a large message in a single chunk
+            buffer.writeBytes(large);
+            buffer.writeBytes(small);
+            assertFrameTooLarge(decoder, buffer, Optional.of(largeFrameInfo));
+            assertEquals(buffer.readableBytes(), small.length);
+            ByteBuf decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, small);
+            decoded.release();
+
+            // a large message in multiple chunks is discarded as it arrives
+            buffer.writeBytes(large, 0, large.length - 100);
+            assertNull(decode(decoder, buffer));
+            assertThat(buffer.readableBytes()).isLessThan(10);
+            buffer.writeBytes(large, large.length - 100, 100);
+            buffer.writeBytes(small);
+            assertFrameTooLarge(decoder, buffer, Optional.of(largeFrameInfo));
+            decoded = decode(decoder, buffer);
+            assertNotNull(decoded);
+            assertContentEquals(decoded, small);
+            decoded.release();
+
+            // a message header that cannot be decoded
+            byte[] invalid = new byte[large.length];
+            invalid[0] = (byte) 0xFF;
+            buffer.writeBytes(invalid);
+            assertFrameTooLarge(decoder, buffer, Optional.empty());
+            assertEquals(buffer.readableBytes(), 0);
+
+            buffer.release();
+        }
+    }
+
+    @Test
+    public void testCorrupted()
+            throws Exception
+    {
+        try (TestingPooledByteBufAllocator allocator = new TestingPooledByteBufAllocator()) {
+            byte[] message = createTestMessage(allocator, BINARY, "method", 1, 10);
+            int headerSize = Integer.BYTES + Integer.BYTES + "method".length() + Integer.BYTES;
+
+            ThriftUnframedDecoder decoder = new ThriftUnframedDecoder(BINARY, new DataSize(1, MEGABYTE), true);
+            ByteBuf buffer = allocator.buffer(1024);
+
+            // an unknown field type
+            buffer.writeBytes(message, 0, headerSize);
+            buffer.writeByte(99);
+            buffer.writeShort(1);
+            try {
+                decode(decoder, buffer);
+                fail("failure expected");
+            }
+            catch (CorruptedFrameException expected) {
+            }
+
+            // lists nested deeper than the limit
+            decoder = new ThriftUnframedDecoder(BINARY, new DataSize(1, MEGABYTE), true);
+            buffer.clear();
+            buffer.writeBytes(message, 0, headerSize);
+            buffer.writeByte(TType.LIST);
+            buffer.writeShort(1);
+            for (int i = 0; i < ThriftMessageScanner.MAX_NESTING_DEPTH; i++) {
+                buffer.writeByte(TType.LIST);
+                buffer.writeInt(1);
+            }
+            try {
+                decode(decoder, buffer);
+                fail("failure expected");
+            }
+            catch (CorruptedFrameException expected) {
+                assertThat(expected).hasMessageContaining("nesting depth");
+            }
+
+            buffer.release();
+        }
+    }
+
+    private static void assertFrameTooLarge(ThriftUnframedDecoder decoder, ByteBuf buffer, Optional<FrameInfo> frameInfo)
+    {
+        try {
+            decode(decoder, buffer);
+            fail("failure expected");
+        }
+        catch (RuntimeException e) {
+            assertThat(e).isInstanceOf(FrameTooLargeException.class)
+                    .hasFieldOrPropertyWithValue("frameInfo", frameInfo);
+        }
+    }
+
+    private static ByteBuf decode(ThriftUnframedDecoder decoder, ByteBuf input)
+    {
+        List<Object> output = new ArrayList<>(1);
+        decoder.decode(null, input, output);
+        if (output.isEmpty()) {
+            return null;
+        }
+        assertEquals(output.size(), 1);
+        return (ByteBuf) output.get(0);
+    }
+
+    private static byte[] createTestMessage(ByteBufAllocator allocator, Protocol protocol, String methodName, int sequenceId, int size)
+            throws Exception
+    {
+        TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(allocator);
+        try {
+            TProtocolWriter writer = protocol.createProtocol(transport);
+            writer.writeMessageBegin(new TMessage(methodName, CALL, sequenceId));
+            writer.writeStructBegin(new TStruct(methodName + "_args"));
+
+            writer.writeFieldBegin(new TField("flag", TType.BOOL, (short) 1));
+            writer.writeBool(true);
+            writer.writeFieldEnd();
+            writer.writeFieldBegin(new TField("small", TType.I16, (short) 2));
+            writer.writeI16((short) -5);
+            writer.writeFieldEnd();
+            // a field id that does not fit in the compact field header delta
+            writer.writeFieldBegin(new TField("value", TType.DOUBLE, (short) 100));
+            writer.writeDouble(1.5);
+            writer.writeFieldEnd();
+            writer.writeFieldBegin(new TField("text", TType.STRING, (short) 101));
+            writer.writeString(Strings.repeat("x", size));
+            writer.writeFieldEnd();
+
+            writer.writeFieldBegin(new TField("items", TType.LIST, (short) 102));
+            writer.writeListBegin(new TList(TType.STRUCT, size / 10));
+            for (int i = 0; i < size / 10; i++) {
+                writer.writeStructBegin(new TStruct("item"));
+                writer.writeFieldBegin(new TField("id", TType.I64, (short) 1));
+                writer.writeI64(i * 1_000_000_007L);
+                writer.writeFieldEnd();
+                writer.writeFieldBegin(new TField("ratio", TType.FLOAT, (short) 2));
+                writer.writeFloat(i);
+                writer.writeFieldEnd();
+                writer.writeFieldBegin(new TField("data", TType.STRING, (short) 3));
+                writer.writeBinary(ByteBuffer.wrap(new byte[] {(byte) i, 2, 3}));
+                writer.writeFieldEnd();
+                writer.writeFieldStop();
+                writer.writeStructEnd();
+            }
+            writer.writeListEnd();
+            writer.writeFieldEnd();
+
+            writer.writeFieldBegin(new TField("values", TType.MAP, (short) 103));
+            writer.writeMapBegin(new TMap(TType.STRING, TType.SET, 3));
+            for (int i = 0; i < 3; i++) {
+                writer.writeString("key" + i);
+                writer.writeSetBegin(new TSet(TType.BOOL, i));
+                for (int j = 0; j < i; j++) {
+                    writer.writeBool(j % 2 == 0);
+                }
+                writer.writeSetEnd();
+            }
+            writer.writeMapEnd();
+            writer.writeFieldEnd();
+
+            writer.writeFieldBegin(new TField("empty", TType.MAP, (short) 104));
+            writer.writeMapBegin(new TMap(TType.I32, TType.BYTE, 0));
+            writer.writeMapEnd();
+            writer.writeFieldEnd();
+            writer.writeFieldBegin(new TField("last", TType.I32, (short) 105));
+            writer.writeI32(size);
+            writer.writeFieldEnd();
+
+            writer.writeFieldStop();
+            writer.writeStructEnd();
+            writer.writeMessageEnd();
+
+            ByteBuf buffer = transport.getBuffer();
+            byte[] result = new byte[buffer.readableBytes()];
+            buffer.readBytes(result);
+            buffer.release();
+            return result;
+        }
+        finally {
+            transport.release();
+        }
+    }
+
+    private static void assertContentEquals(ByteBuf buffer, byte[] expectedContent)
+    {
+        byte[] actual = new byte[buffer.readableBytes()];
+        buffer.getBytes(buffer.readerIndex(), actual);
+        assertEquals(actual, expectedContent);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.codec.ThriftCodec;
+import com.facebook.drift.codec.ThriftCodecManager;
+import com.facebook.drift.transport.MethodMetadata;
+import com.facebook.drift.transport.ParameterMetadata;
+import com.facebook.drift.transport.client.InvokeRequest;
+import com.facebook.drift.transport.client.MethodInvoker;
+import com.facebook.drift.transport.netty.client.DriftNettyClientConfig;
+import com.facebook.drift.transport.netty.client.DriftNettyConnectionFactoryConfig;
+import com.facebook.drift.transport.netty.client.DriftNettyMethodInvokerFactory;
+import com.facebook.drift.transport.server.ServerInvokeRequest;
+import com.facebook.drift.transport.server.ServerMethodInvoker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+/**
+ * Time to complete a batch of concurrent requests to a service method that blocks
+ * (for example on JDBC or a downstream RPC), for each server execution mode.
+ * <p>
+ * The virtual thread mode requires running the benchmark on Java 21 or later.
+ */
+@SuppressWarnings("MethodMayBeStatic")
+@State(Scope.Thread)
+@OutputTimeUnit(MILLISECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BenchmarkServerInvocationExecutor
+{
+    private static final ThriftCodecManager CODEC_MANAGER = new ThriftCodecManager();
+
+    @SuppressWarnings("unchecked")
+    private static final ThriftCodec<Object> STRING_CODEC = (ThriftCodec<Object>) (Object) CODEC_MANAGER.getCodec(String.class);
+
+    private static final MethodMetadata BLOCKING_METHOD = new MethodMetadata(
+            "blocking",
+            ImmutableList.of(new ParameterMetadata((short) 1, "value", STRING_CODEC)),
+            STRING_CODEC,
+            ImmutableMap.of(),
+            false,
+            true);
+
+    public enum ExecutionMode
+    {
+        EVENT_LOOP, PLATFORM_THREADS, VIRTUAL_THREADS
+    }
+
+    @Param({"EVENT_LOOP", "PLATFORM_THREADS", "VIRTUAL_THREADS"})
+    private ExecutionMode executionMode;
+
+    @Param({"100", "1000"})
+    private int concurrentRequests;
+
+    @Param("1")
+    private int blockingMillis;
+
+    private DriftNettyServerTransport serverTransport;
+    private DriftNettyMethodInvokerFactory<?> methodInvokerFactory;
+    private MethodInvoker methodInvoker;
+    private InvokeRequest request;
+
+    @Setup
+    public void setup()
+    {
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setPort(0)
+                .setInvokerMaxQueuedRequests(concurrentRequests);
+        switch (executionMode) {
+            case EVENT_LOOP:
+                break;
+            case PLATFORM_THREADS:
+                config.setInvokerThreadCount(Runtime.getRuntime().availableProcessors() * 2);
+                break;
+            case VIRTUAL_THREADS:
+                checkState(InvocationExecutor.isVirtualThreadsSupported(), "virtual threads are not supported by this JVM");
+                config.setInvokerVirtualThreadsEnabled(true);
+                break;
+        }
+        serverTransport = new DriftNettyServerTransport(new BlockingMethodInvoker(blockingMillis), config);
+        serverTransport.start();
+
+        methodInvokerFactory = new DriftNettyMethodInvokerFactory<>(
+                new DriftNettyConnectionFactoryConfig(),
+                clientIdentity -> new DriftNettyClientConfig().setRequestTimeout(new Duration(10, MINUTES)));
+        methodInvoker = methodInvokerFactory.createMethodInvoker(null);
+
+        HostAndPort address = HostAndPort.fromParts("localhost", serverTransport.getPort());
+        request = new InvokeRequest(BLOCKING_METHOD, () -> address, ImmutableMap.of(), ImmutableList.of("value"));
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        methodInvokerFactory.close();
+        serverTransport.shutdown();
+    }
+
+    @Benchmark
+    public Object concurrentBlockingRequests()
+            throws Exception
+    {
+        List<ListenableFuture<Object>> results = new ArrayList<>(concurrentRequests);
+        for (int i = 0; i < concurrentRequests; i++) {
+            results.add(methodInvoker.invoke(request));
+        }
+        return Futures.allAsList(results).get();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkServerInvocationExecutor.class.getSimpleName() + ".*")
+                .build();
+        new Runner(options).run();
+    }
+
+    private static class BlockingMethodInvoker
+            implements ServerMethodInvoker
+    {
+        private final int blockingMillis;
+
+        public BlockingMethodInvoker(int blockingMillis)
+        {
+            this.blockingMillis = blockingMillis;
+        }
+
+        @Override
+        public Optional<MethodMetadata> getMethodMetadata(String name)
+        {
+            if (BLOCKING_METHOD.getName().equals(name)) {
+                return Optional.of(BLOCKING_METHOD);
+            }
+            return Optional.empty();
+        }
+
+        @Override
+        public ListenableFuture<Object> invoke(ServerInvokeRequest request)
+        {
+            try {
+                Thread.sleep(blockingMillis);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Futures.immediateFailedFuture(e);
+            }
+            return Futures.immediateFuture(request.getParameters().get((short) 1));
+        }
+
+        @Override
+        public void recordResult(String methodName, long startTime, ListenableFuture<Object> result) {}
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.OptionalInt;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestConnectionLimiter
+{
+    @Test
+    public void testMaxConnections()
+            throws UnknownHostException
+    {
+        ConnectionLimiter limiter = new ConnectionLimiter(OptionalInt.of(2), OptionalInt.empty());
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertTrue(limiter.tryAcquire(first));
+        assertTrue(limiter.tryAcquire(second));
+        assertFalse(limiter.tryAcquire(second));
+        assertEquals(limiter.getConnections(), 2);
+        assertEquals(limiter.getRejectedConnections().getTotalCount(), 1);
+
+        limiter.release(first);
+        assertEquals(limiter.getConnections(), 1);
+        assertTrue(limiter.tryAcquire(second));
+        assertEquals(limiter.getConnections(), 2);
+    }
+
+    @Test
+    public void testMaxConnectionsPerAddress()
+            throws UnknownHostException
+    {
+        ConnectionLimiter limiter = new ConnectionLimiter(OptionalInt.of(3), OptionalInt.of(2));
+        InetAddress first = InetAddress.getByName("10.0.0.1");
+        InetAddress second = InetAddress.getByName("10.0.0.2");
+
+        assertTrue(limiter.tryAcquire(first));
+        assertTrue(limiter.tryAcquire(first));
+        assertFalse(limiter.tryAcquire(first));
+        assertTrue(limiter.tryAcquire(second));
+
+        // the total limit applies across addresses
+        assertFalse(limiter.tryAcquire(second));
+        assertEquals(limiter.getConnections(), 3);
+        assertEquals(limiter.getRejectedConnections().getTotalCount(), 2);
+
+        limiter.release(first);
+        assertTrue(limiter.tryAcquire(first));
+        assertFalse(limiter.tryAcquire(first));
+        assertEquals(limiter.getConnections(), 3);
+    }
+
+    @Test
+    public void testUnlimited()
+            throws UnknownHostException
+    {
+        ConnectionLimiter limiter = new ConnectionLimiter(OptionalInt.empty(), OptionalInt.empty());
+        InetAddress address = InetAddress.getByName("10.0.0.1");
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire(address));
+        }
+        assertEquals(limiter.getConnections(), 100);
+        assertEquals(limiter.getRejectedConnections().getTotalCount(), 0);
+    }
+}
@@ -26,10 +26,17 @@ import java.util.Map;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.assertFullMapping;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.assertRecordedDefaults;
 import static com.facebook.airlift.configuration.testing.ConfigAssertions.recordDefaults;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.IO_URING;
+import static com.facebook.drift.transport.netty.codec.Protocol.COMPACT;
+import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static io.airlift.units.DataSize.Unit.BYTE;
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 public class TestDriftNettyServerConfig
 {
@@ -38,11 +45,25 @@ public class TestDriftNettyServerConfig
     {
         assertRecordedDefaults(recordDefaults(DriftNettyServerConfig.class)
                 .setPort(0)
+                .setTransport(null)
+                .setProtocol(null)
+                .setAdditionalListeners("")
                 .setAcceptBacklog(1024)
+                .setMaxConnections(null)
+                .setMaxConnectionsPerAddress(null)
+                .setConnectionRequestRate(null)
+                .setConnectionRequestBurst(null)
                 .setIoThreadCount(3)
+                .setReusePortEnabled(false)
                 .setWorkerThreadCount(Runtime.getRuntime().availableProcessors() * 2)
                 .setRequestTimeout(new Duration(1, MINUTES))
+                .setDrainTimeout(new Duration(0, SECONDS))
                 .setMaxFrameSize(new DataSize(16, MEGABYTE))
+                .setCompressionCodecs("")
+                .setCompressionMinSize(new DataSize(0, BYTE))
+                .setCompressionMinRatio(null)
+                .setStreamingChunkSize(1000)
+                .setStreamingIdleTimeout(new Duration(30, SECONDS))
                 .setSslContextRefreshTime(new Duration(1, MINUTES))
                 .setAllowPlaintext(true)
                 .setSslEnabled(false)
@@ -53,7 +74,17 @@ public class TestDriftNettyServerConfig
                 .setSessionTimeout(new Duration(1, DAYS))
                 .setCiphers("")
                 .setAssumeClientsSupportOutOfOrderResponses(true)
-                .setNativeTransportEnabled(false));
+                .setMaxPipelineDepth(1)
+                .setFlushConsolidationEnabled(false)
+                .setFlushConsolidationMaxFlushes(256)
+                .setNativeTransportEnabled(false)
+                .setEventLoopType(null)
+                .setInvokerThreadCount(null)
+                .setInvokerMethodThreadCounts("")
+                .setInvokerMaxQueuedRequests(10_000)
+                .setInvokerVirtualThreadsEnabled(false)
+                .setLoadSheddingQueueDelayTarget(null)
+                .setLoadSheddingQueueDelayInterval(new Duration(100, MILLISECONDS)));
     }
 
     @Test
@@ -61,11 +92,25 @@ public class TestDriftNettyServerConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("thrift.server.port", "99")
+                .put("thrift.server.transport", "FRAMED")
+                .put("thrift.server.protocol", "COMPACT")
+                .put("thrift.server.additional-listeners", "9090:FRAMED:BINARY:plaintext, 9443:HEADER:ssl")
                 .put("thrift.server.accept-backlog", "101")
+                .put("thrift.server.max-connections", "1000")
+                .put("thrift.server.max-connections-per-address", "10")
+                .put("thrift.server.connection-request-rate", "500")
+                .put("thrift.server.connection-request-burst", "50")
                 .put("thrift.server.io-thread-count", "202")
+                .put("thrift.server.reuse-port.enabled", "true")
                 .put("thrift.server.worker-thread-count", "303")
                 .put("thrift.server.request-timeout", "33m")
+                .put("thrift.server.drain-timeout", "45s")
                 .put("thrift.server.max-frame-size", "55MB")
+                .put("thrift.server.compression-codecs", "zstd, lz4")
+                .put("thrift.server.compression-min-size", "1kB")
+                .put("thrift.server.compression-min-ratio", "1.5")
+                .put("thrift.server.streaming.chunk-size", "50")
+                .put("thrift.server.streaming.idle-timeout", "7s")
                 .put("thrift.server.ssl-context.refresh-time", "33m")
                 .put("thrift.server.allow-plaintext", "false")
                 .put("thrift.server.ssl.enabled", "true")
@@ -76,16 +121,40 @@ public class TestDriftNettyServerConfig
                 .put("thrift.server.ssl.session-timeout", "78h")
                 .put("thrift.server.ssl.ciphers", "some_cipher")
                 .put("thrift.server.assume-clients-support-out-of-order-responses", "false")
+                .put("thrift.server.max-pipeline-depth", "16")
+                .put("thrift.server.flush-consolidation.enabled", "true")
+                .put("thrift.server.flush-consolidation.max-flushes", "32")
                 .put("thrift.server.native-transport.enabled", "true")
+                .put("thrift.server.event-loop-type", "IO_URING")
+                .put("thrift.server.invoker.thread-count", "42")
+                .put("thrift.server.invoker.method-thread-counts", "slow=2, fast=1")
+                .put("thrift.server.invoker.max-queued-requests", "77")
+                .put("thrift.server.invoker.virtual-threads.enabled", "true")
+                .put("thrift.server.load-shedding.queue-delay-target", "5ms")
+                .put("thrift.server.load-shedding.queue-delay-interval", "1s")
                 .build();
 
         DriftNettyServerConfig expected = new DriftNettyServerConfig()
                 .setPort(99)
+                .setTransport(FRAMED)
+                .setProtocol(COMPACT)
+                .setAdditionalListeners("9090:plaintext:framed:binary,9443:ssl:header")
                 .setAcceptBacklog(101)
+                .setMaxConnections(1000)
+                .setMaxConnectionsPerAddress(10)
+                .setConnectionRequestRate(500)
+                .setConnectionRequestBurst(50)
                 .setIoThreadCount(202)
+                .setReusePortEnabled(true)
                 .setWorkerThreadCount(303)
                 .setRequestTimeout(new Duration(33, MINUTES))
+                .setDrainTimeout(new Duration(45, SECONDS))
                 .setMaxFrameSize(new DataSize(55, MEGABYTE))
+                .setCompressionCodecs("zstd,lz4")
+                .setCompressionMinSize(new DataSize(1, KILOBYTE))
+                .setCompressionMinRatio(1.5)
+                .setStreamingChunkSize(50)
+                .setStreamingIdleTimeout(new Duration(7, SECONDS))
                 .setSslContextRefreshTime(new Duration(33, MINUTES))
                 .setAllowPlaintext(false)
                 .setSslEnabled(true)
@@ -96,7 +165,17 @@ public class TestDriftNettyServerConfig
                 .setSessionTimeout(new Duration(78, HOURS))
                 .setCiphers("some_cipher")
                 .setAssumeClientsSupportOutOfOrderResponses(false)
-                .setNativeTransportEnabled(true);
+                .setMaxPipelineDepth(16)
+                .setFlushConsolidationEnabled(true)
+                .setFlushConsolidationMaxFlushes(32)
+                .setNativeTransportEnabled(true)
+                .setEventLoopType(IO_URING)
+                .setInvokerThreadCount(42)
+                .setInvokerMethodThreadCounts("slow=2, fast=1")
+                .setInvokerMaxQueuedRequests(77)
+                .setInvokerVirtualThreadsEnabled(true)
+                .setLoadSheddingQueueDelayTarget(new Duration(5, MILLISECONDS))
+                .setLoadSheddingQueueDelayInterval(new Duration(1, SECONDS));
 
         assertFullMapping(properties, expected);
     }
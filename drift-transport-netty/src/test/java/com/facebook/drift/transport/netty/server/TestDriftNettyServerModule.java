@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.bootstrap.Bootstrap;
+import com.facebook.airlift.bootstrap.LifeCycleManager;
+import com.facebook.drift.transport.MethodMetadata;
+import com.facebook.drift.transport.server.ServerInvokeRequest;
+import com.facebook.drift.transport.server.ServerMethodInvoker;
+import com.facebook.drift.transport.server.ServerTransport;
+import com.facebook.drift.transport.server.ServerTransportFactory;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.inject.Injector;
+import org.testng.annotations.Test;
+import org.weakref.jmx.guice.MBeanModule;
+import org.weakref.jmx.testing.TestingMBeanModule;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.util.Optional;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.weakref.jmx.ObjectNames.generatedNameOf;
+
+public class TestDriftNettyServerModule
+{
+    @Test
+    public void testExportTransport()
+            throws Exception
+    {
+        Bootstrap bootstrap = new Bootstrap(
+                new DriftNettyServerModule(),
+                new MBeanModule(),
+                new TestingMBeanModule());
+
+        Injector injector = bootstrap
+                .doNotInitializeLogging()
+                .strictConfig()
+                .setRequiredConfigurationProperty("thrift.server.port", "0")
+                .initialize();
+
+        ServerTransport transport = injector.getInstance(ServerTransportFactory.class).createServerTransport(new NullServerMethodInvoker());
+        MBeanServer mbeanServer = injector.getInstance(MBeanServer.class);
+        ObjectName name = new ObjectName(generatedNameOf(DriftNettyServerTransport.class));
+        try {
+            transport.start();
+            assertEquals(mbeanServer.getAttribute(name, "RequestTracker.Connections"), 0);
+            assertEquals(mbeanServer.getAttribute(name, "RequestTracker.InFlightRequests"), 0L);
+            assertEquals(mbeanServer.getAttribute(name, "ConnectionLimiter.Connections"), 0);
+        }
+        finally {
+            transport.shutdown();
+            injector.getInstance(LifeCycleManager.class).stop();
+        }
+        assertFalse(mbeanServer.isRegistered(name));
+    }
+
+    private static class NullServerMethodInvoker
+            implements ServerMethodInvoker
+    {
+        @Override
+        public Optional<MethodMetadata> getMethodMetadata(String name)
+        {
+            return Optional.empty();
+        }
+
+        @Override
+        public ListenableFuture<Object> invoke(ServerInvokeRequest request)
+        {
+            return immediateFuture(null);
+        }
+
+        @Override
+        public void recordResult(String methodName, long startTime, ListenableFuture<Object> result) {}
+    }
+}
@@ -31,10 +31,12 @@ import com.facebook.drift.transport.server.ServerMethodInvoker;
 import com.facebook.drift.transport.server.ServerTransport;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TBinaryProtocol;
@@ -54,15 +56,25 @@ import java.util.Optional;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
+import static com.facebook.airlift.concurrent.Threads.daemonThreadsNamed;
 import static com.facebook.drift.codec.metadata.ThriftType.list;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.EPOLL;
+import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.Protocol.COMPACT;
+import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static com.facebook.drift.transport.netty.codec.Transport.UNFRAMED;
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Iterables.getOnlyElement;
 import static com.google.common.collect.Lists.newArrayList;
 import static java.lang.String.format;
 import static java.util.Collections.nCopies;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.apache.thrift.TApplicationException.BAD_SEQUENCE_ID;
 import static org.apache.thrift.TApplicationException.MISSING_RESULT;
@@ -70,6 +82,8 @@ import static org.apache.thrift.protocol.TMessageType.CALL;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
 
 public class TestDriftNettyServerTransport
 {
@@ -218,10 +232,241 @@ public class TestDriftNettyServerTransport
         return 2;
     }
 
+    @Test
+    public void testPipelinedInOrderResponses()
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setAssumeClientsSupportOutOfOrderResponses(false)
+                .setMaxPipelineDepth(2);
+        int invocationCount = testServerMethodInvoker(methodInvoker, config, ImmutableList.of(
+                address -> testPipelinedInOrder(address, MESSAGES, new TTransportFactory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults()),
+                address -> testPipelinedInOrder(address, MESSAGES, new TFramedTransport.Factory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults())));
+
+        List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+        assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+    }
+
+    private static int testPipelinedInOrder(
+            HostAndPort address,
+            List<LogEntry> messages,
+            TTransportFactory framingFactory,
+            TProtocolFactory protocolFactory,
+            BlockingQueue<SettableFuture<Object>> results)
+    {
+        try {
+            TSocket socket = new TSocket(address.getHost(), address.getPort());
+            socket.open();
+            try {
+                TProtocol protocol = protocolFactory.getProtocol(framingFactory.getTransport(socket));
+
+                // both requests are processed concurrently, even though the client does not support out of order responses
+                sendLogRequest(11, messages, protocol);
+                sendLogRequest(22, messages, protocol);
+                SettableFuture<Object> firstResult = results.take();
+                SettableFuture<Object> secondResult = results.take();
+
+                // finish the second invocation first, the response is held until the first response is written
+                secondResult.set(DriftResultCode.OK);
+                firstResult.set(DriftResultCode.OK);
+                assertEquals(readLogResponse(11, protocol), ResultCode.OK);
+                assertEquals(readLogResponse(22, protocol), ResultCode.OK);
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (TException e) {
+            throw new RuntimeException(e);
+        }
+        return 2;
+    }
+
+    @Test
+    public void testPinnedTransport()
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setTransport(FRAMED)
+                .setProtocol(COMPACT);
+        int invocationCount = testServerMethodInvoker(methodInvoker, config, ImmutableList.of(
+                address -> testOutOfOrder(address, MESSAGES, new TFramedTransport.Factory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults())));
+
+        // responses are still held for clients that require in order responses
+        config = new DriftNettyServerConfig()
+                .setTransport(UNFRAMED)
+                .setProtocol(BINARY)
+                .setAssumeClientsSupportOutOfOrderResponses(false);
+        invocationCount += testServerMethodInvoker(methodInvoker, config, ImmutableList.of(
+                address -> testOutOfOrderNotSupported(address, MESSAGES, new TTransportFactory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults())));
+
+        List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+        assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+    }
+
+    @Test
+    public void testFlushConsolidation()
+    {
+        // responses completed outside of the read loop must still be flushed
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setFlushConsolidationEnabled(true)
+                .setFlushConsolidationMaxFlushes(8);
+        int invocationCount = testServerMethodInvoker(methodInvoker, config, ImmutableList.of(
+                address -> testOutOfOrder(address, MESSAGES, new TTransportFactory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults()),
+                address -> testOutOfOrder(address, MESSAGES, new TFramedTransport.Factory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults())));
+
+        List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+        assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+    }
+
+    @Test
+    public void testReusePort()
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setEventLoopType(EPOLL)
+                .setIoThreadCount(2)
+                .setReusePortEnabled(true);
+        TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+        DriftNettyServerTransport serverTransport = new DriftNettyServerTransport(methodInvoker, config, testingAllocator);
+        try {
+            serverTransport.start();
+
+            // without epoll, a single socket is bound
+            assertEquals(serverTransport.getServerChannelCount(), EPOLL.isAvailable() ? 2 : 1);
+
+            HostAndPort address = HostAndPort.fromParts("localhost", serverTransport.getPort());
+            int invocationCount = 0;
+            for (int i = 0; i < 4; i++) {
+                invocationCount += testOutOfOrder(address, MESSAGES, new TFramedTransport.Factory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults());
+            }
+
+            List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+            assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+        }
+        finally {
+            serverTransport.shutdown();
+            testingAllocator.close();
+        }
+    }
+
+    @Test
+    public void testAdditionalListeners()
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setAdditionalListeners("0:FRAMED:BINARY, 0:UNFRAMED:COMPACT");
+        TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+        DriftNettyServerTransport serverTransport = new DriftNettyServerTransport(methodInvoker, config, testingAllocator);
+        try {
+            serverTransport.start();
+
+            List<Integer> ports = serverTransport.getPorts();
+            assertEquals(ports.size(), 3);
+            assertEquals(ports.get(0).intValue(), serverTransport.getPort());
+            assertEquals(ImmutableSet.copyOf(ports).size(), 3);
+
+            // the main port detects the transport, while the additional ports only accept their own
+            int invocationCount = 0;
+            invocationCount += testOutOfOrder(HostAndPort.fromParts("localhost", ports.get(0)), MESSAGES, new TFramedTransport.Factory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults());
+            invocationCount += testOutOfOrder(HostAndPort.fromParts("localhost", ports.get(1)), MESSAGES, new TFramedTransport.Factory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults());
+            invocationCount += testOutOfOrder(HostAndPort.fromParts("localhost", ports.get(2)), MESSAGES, new TTransportFactory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults());
+
+            List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+            assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+        }
+        finally {
+            serverTransport.shutdown();
+            testingAllocator.close();
+        }
+    }
+
+    @Test
+    public void testDuplicateListenerPorts()
+    {
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setPort(9090)
+                .setAdditionalListeners("9091:FRAMED:BINARY, 9090:UNFRAMED:COMPACT");
+        try (TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator()) {
+            assertThrows(IllegalArgumentException.class, () -> new DriftNettyServerTransport(new TestingServerMethodInvoker(), config, testingAllocator));
+        }
+    }
+
+    @Test
+    public void testDrain()
+            throws Exception
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setDrainTimeout(new Duration(1, MINUTES));
+        TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
+        DriftNettyServerTransport serverTransport = new DriftNettyServerTransport(methodInvoker, config, testingAllocator);
+        ExecutorService executor = newSingleThreadExecutor(daemonThreadsNamed("test-drain-%s"));
+        try {
+            serverTransport.start();
+            HostAndPort address = HostAndPort.fromParts("localhost", serverTransport.getPort());
+
+            TSocket socket = new TSocket(address.getHost(), address.getPort());
+            socket.open();
+            try {
+                TProtocol protocol = new TBinaryProtocol(new TFramedTransport(socket));
+                sendLogRequest(11, MESSAGES, protocol);
+                SettableFuture<Object> result = methodInvoker.getFutureResults().take();
+
+                // shutdown waits for the in-flight request
+                Future<?> shutdown = executor.submit(serverTransport::shutdown);
+                while (!serverTransport.getRequestTracker().isDraining()) {
+                    Thread.sleep(10);
+                }
+                assertFalse(shutdown.isDone());
+
+                result.set(DriftResultCode.OK);
+                assertEquals(readLogResponse(11, protocol), ResultCode.OK);
+                shutdown.get(10, SECONDS);
+            }
+            finally {
+                socket.close();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            serverTransport.shutdown();
+            testingAllocator.close();
+        }
+    }
+
+    @Test
+    public void testInvocationExecutor()
+    {
+        TestingServerMethodInvoker methodInvoker = new TestingServerMethodInvoker();
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setInvokerThreadCount(2);
+        int invocationCount = testServerMethodInvoker(methodInvoker, config, ImmutableList.of(
+                address -> testOutOfOrder(address, MESSAGES, new TTransportFactory(), new TBinaryProtocol.Factory(), methodInvoker.getFutureResults()),
+                address -> testOutOfOrder(address, MESSAGES, new TFramedTransport.Factory(), new TCompactProtocol.Factory(), methodInvoker.getFutureResults())));
+
+        List<DriftLogEntry> expectedMessages = newArrayList(concat(nCopies(invocationCount, DRIFT_MESSAGES)));
+        assertEquals(ImmutableList.copyOf(methodInvoker.getMessages()), expectedMessages);
+        assertEquals(methodInvoker.getInvocationThreads().size(), invocationCount);
+        for (String thread : methodInvoker.getInvocationThreads()) {
+            assertTrue(thread.startsWith("drift-server-invoker-"), thread);
+        }
+    }
+
     private static int testServerMethodInvoker(ServerMethodInvoker methodInvoker, boolean assumeClientsSupportOutOfOrderResponses, List<ToIntFunction<HostAndPort>> clients)
     {
         DriftNettyServerConfig config = new DriftNettyServerConfig()
                 .setAssumeClientsSupportOutOfOrderResponses(assumeClientsSupportOutOfOrderResponses);
+        return testServerMethodInvoker(methodInvoker, config, clients);
+    }
+
+    private static int testServerMethodInvoker(ServerMethodInvoker methodInvoker, DriftNettyServerConfig config, List<ToIntFunction<HostAndPort>> clients)
+    {
         TestingPooledByteBufAllocator testingAllocator = new TestingPooledByteBufAllocator();
         ServerTransport serverTransport = new DriftNettyServerTransportFactory(config, testingAllocator).createServerTransport(methodInvoker);
         try {
@@ -246,6 +491,7 @@ public class TestDriftNettyServerTransport
     {
         private final BlockingQueue<SettableFuture<Object>> futureResults = new ArrayBlockingQueue<>(100);
         private final List<LogEntry> messages = new CopyOnWriteArrayList<>();
+        private final List<String> invocationThreads = new CopyOnWriteArrayList<>();
 
         public BlockingQueue<SettableFuture<Object>> getFutureResults()
         {
@@ -257,6 +503,11 @@ public class TestDriftNettyServerTransport
             return messages;
         }
 
+        private List<String> getInvocationThreads()
+        {
+            return invocationThreads;
+        }
+
         @Override
         public Optional<MethodMetadata> getMethodMetadata(String name)
         {
@@ -269,6 +520,7 @@ public class TestDriftNettyServerTransport
         @Override
         public ListenableFuture<Object> invoke(ServerInvokeRequest request)
         {
+            invocationThreads.add(Thread.currentThread().getName());
             MethodMetadata method = request.getMethod();
             if (!LOG_METHOD_METADATA.getName().equals(method.getName())) {
                 return Futures.immediateFailedFuture(new IllegalArgumentException("unknown method " + method));
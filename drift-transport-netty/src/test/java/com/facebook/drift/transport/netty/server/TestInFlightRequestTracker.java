@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import io.airlift.units.Duration;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestInFlightRequestTracker
+{
+    @Test
+    public void testDrain()
+            throws Exception
+    {
+        InFlightRequestTracker tracker = new InFlightRequestTracker();
+        EmbeddedChannel busy = newChannel();
+        EmbeddedChannel idle = newChannel();
+        tracker.connectionOpened(busy);
+        tracker.connectionOpened(idle);
+        assertEquals(tracker.getConnections(), 2);
+
+        tracker.requestStarted(busy);
+        tracker.requestStarted(busy);
+        assertEquals(tracker.getInFlightRequests(), 2);
+
+        // idle connections are closed immediately
+        tracker.startDraining();
+        assertTrue(tracker.isDraining());
+        assertFalse(idle.isOpen());
+        assertTrue(busy.isOpen());
+        assertFalse(tracker.awaitDrained(new Duration(10, MILLISECONDS)));
+
+        // busy connections are closed when the last request finishes
+        tracker.requestFinished(busy);
+        assertTrue(busy.isOpen());
+        assertFalse(tracker.awaitDrained(new Duration(10, MILLISECONDS)));
+
+        tracker.requestFinished(busy);
+        assertFalse(busy.isOpen());
+        assertEquals(tracker.getInFlightRequests(), 0);
+        assertTrue(tracker.awaitDrained(new Duration(10, SECONDS)));
+
+        // connections opened while draining are rejected
+        EmbeddedChannel late = newChannel();
+        tracker.connectionOpened(late);
+        assertFalse(late.isOpen());
+    }
+
+    @Test
+    public void testDrainWithoutRequests()
+            throws Exception
+    {
+        InFlightRequestTracker tracker = new InFlightRequestTracker();
+        tracker.startDraining();
+        assertTrue(tracker.awaitDrained(new Duration(0, MILLISECONDS)));
+    }
+
+    private static EmbeddedChannel newChannel()
+    {
+        // embedded channels share a single id by default, which would collapse them in the connection group
+        return new EmbeddedChannel(DefaultChannelId.newInstance());
+    }
+}
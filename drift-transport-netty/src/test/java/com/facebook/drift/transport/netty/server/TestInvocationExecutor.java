@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import org.testng.annotations.Test;
+
+import java.util.OptionalInt;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestInvocationExecutor
+{
+    @Test
+    public void testDirectInvocation()
+    {
+        InvocationExecutor invocationExecutor = new InvocationExecutor(OptionalInt.empty(), ImmutableMap.of("slow", 1), 10, false);
+        try {
+            assertFalse(invocationExecutor.getExecutor("fast").isPresent());
+            assertTrue(invocationExecutor.getExecutor("slow").isPresent());
+        }
+        finally {
+            invocationExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMethodOverride()
+    {
+        InvocationExecutor invocationExecutor = new InvocationExecutor(OptionalInt.of(2), ImmutableMap.of("slow", 1), 10, false);
+        try {
+            assertSame(invocationExecutor.getExecutor("fast").get(), invocationExecutor.getExecutor("other").get());
+            assertNotSame(invocationExecutor.getExecutor("fast").get(), invocationExecutor.getExecutor("slow").get());
+        }
+        finally {
+            invocationExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testQueueLimit()
+            throws Exception
+    {
+        InvocationExecutor invocationExecutor = new InvocationExecutor(OptionalInt.of(1), ImmutableMap.of(), 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(2);
+        try {
+            Executor executor = invocationExecutor.getExecutor("test").get();
+            executor.execute(() -> {
+                started.countDown();
+                awaitUninterruptibly(release);
+                finished.countDown();
+            });
+            started.await();
+
+            executor.execute(finished::countDown);
+            assertEquals(invocationExecutor.getQueuedRequests(), 1);
+            assertEquals(invocationExecutor.getActiveRequests(), 1);
+
+            try {
+                executor.execute(() -> fail("rejected task was executed"));
+                fail("expected RejectedExecutionException");
+            }
+            catch (RejectedExecutionException expected) {
+            }
+            assertEquals(invocationExecutor.getRejectedRequests().getTotalCount(), 1);
+
+            release.countDown();
+            finished.await();
+            assertEquals(invocationExecutor.getQueueTime().getAllTime().getCount(), 2.0);
+        }
+        finally {
+            invocationExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVirtualThreads()
+            throws Exception
+    {
+        InvocationExecutor invocationExecutor = new InvocationExecutor(OptionalInt.of(1), ImmutableMap.of("slow", 1), 10, true);
+        try {
+            String threadName = runOnExecutor(invocationExecutor.getExecutor("test").get());
+            if (InvocationExecutor.isVirtualThreadsSupported()) {
+                assertTrue(threadName.startsWith("drift-server-invoker-virtual-"), threadName);
+            }
+            else {
+                assertTrue(threadName.startsWith("drift-server-invoker-"), threadName);
+            }
+
+            // dedicated method pools always use platform threads
+            threadName = runOnExecutor(invocationExecutor.getExecutor("slow").get());
+            assertTrue(threadName.startsWith("drift-server-invoker-slow-"), threadName);
+        }
+        finally {
+            invocationExecutor.shutdown();
+        }
+    }
+
+    private static String runOnExecutor(Executor executor)
+            throws Exception
+    {
+        SettableFuture<String> threadName = SettableFuture.create();
+        executor.execute(() -> threadName.set(Thread.currentThread().getName()));
+        return threadName.get(10, SECONDS);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch)
+    {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.testing.TestingTicker;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestQueueDelayLoadShedder
+{
+    @Test
+    public void testStandingQueue()
+    {
+        TestingTicker ticker = new TestingTicker();
+        QueueDelayLoadShedder loadShedder = new QueueDelayLoadShedder(new Duration(5, MILLISECONDS), new Duration(100, MILLISECONDS), ticker);
+
+        // every request in the first interval waits 20ms, but nothing is shed until the interval ends
+        for (int i = 0; i < 10; i++) {
+            ticker.increment(10, MILLISECONDS);
+            assertFalse(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(20)));
+        }
+        assertFalse(loadShedder.isOverloaded());
+
+        // minimum delay in the last interval exceeded the target
+        ticker.increment(10, MILLISECONDS);
+        assertTrue(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(20)));
+        assertTrue(loadShedder.isOverloaded());
+
+        // requests under twice the target are still executed
+        assertFalse(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(8)));
+        assertTrue(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(11)));
+        assertEquals(loadShedder.getShedRequests().getTotalCount(), 2);
+
+        // queue drains, so the next interval is no longer overloaded
+        ticker.increment(50, MILLISECONDS);
+        assertFalse(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(1)));
+        ticker.increment(60, MILLISECONDS);
+        assertFalse(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(20)));
+        assertFalse(loadShedder.isOverloaded());
+    }
+
+    @Test
+    public void testBurst()
+    {
+        TestingTicker ticker = new TestingTicker();
+        QueueDelayLoadShedder loadShedder = new QueueDelayLoadShedder(new Duration(5, MILLISECONDS), new Duration(100, MILLISECONDS), ticker);
+
+        // a burst of slow requests with one fast request is not a standing queue
+        ticker.increment(10, MILLISECONDS);
+        assertFalse(loadShedder.shouldShed(ticker.read()));
+        for (int i = 0; i < 10; i++) {
+            ticker.increment(10, MILLISECONDS);
+            assertFalse(loadShedder.shouldShed(ticker.read() - MILLISECONDS.toNanos(50)));
+        }
+        assertFalse(loadShedder.isOverloaded());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.airlift.testing.TestingTicker;
+import com.facebook.drift.transport.netty.codec.ThriftFrame;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRequestRateLimitHandler
+{
+    @Test
+    public void testPauseReadingWhenRateExceeded()
+    {
+        TestingTicker ticker = new TestingTicker();
+        EmbeddedChannel channel = new EmbeddedChannel(new RequestRateLimitHandler(10, 2, ticker));
+        channel.freezeTime();
+
+        // the burst is allowed immediately
+        writeRequest(channel);
+        assertTrue(channel.config().isAutoRead());
+        writeRequest(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        // one request is allowed every 100ms
+        advanceTime(channel, ticker, 50);
+        assertFalse(channel.config().isAutoRead());
+        advanceTime(channel, ticker, 50);
+        assertTrue(channel.config().isAutoRead());
+
+        writeRequest(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        // the burst is refilled after an idle period
+        advanceTime(channel, ticker, 1000);
+        assertTrue(channel.config().isAutoRead());
+        writeRequest(channel);
+        assertTrue(channel.config().isAutoRead());
+
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testSharedReadSuspension()
+    {
+        TestingTicker ticker = new TestingTicker();
+        EmbeddedChannel channel = new EmbeddedChannel(new RequestRateLimitHandler(10, 1, ticker), new ResponseOrderingHandler(1));
+        channel.freezeTime();
+
+        // both the rate limiter and the single request pipeline pause reading
+        writeRequest(channel);
+        assertFalse(channel.config().isAutoRead());
+
+        // reading stays paused until the response is written
+        advanceTime(channel, ticker, 100);
+        assertFalse(channel.config().isAutoRead());
+
+        channel.writeOutbound(frame());
+        ThriftFrame response = channel.readOutbound();
+        response.release();
+        assertTrue(channel.config().isAutoRead());
+
+        assertFalse(channel.finish());
+    }
+
+    private static void writeRequest(EmbeddedChannel channel)
+    {
+        channel.writeInbound(frame());
+        ThriftFrame request = channel.readInbound();
+        request.release();
+    }
+
+    private static void advanceTime(EmbeddedChannel channel, TestingTicker ticker, long millis)
+    {
+        ticker.increment(millis, MILLISECONDS);
+        channel.advanceTimeBy(millis, MILLISECONDS);
+        channel.runScheduledPendingTasks();
+    }
+
+    private static ThriftFrame frame()
+    {
+        return new ThriftFrame(1, Unpooled.buffer(), ImmutableMap.of(), ImmutableList.of(), FRAMED, BINARY, false);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import com.facebook.drift.transport.netty.codec.ThriftFrame;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.testng.annotations.Test;
+
+import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static com.facebook.drift.transport.netty.codec.Transport.HEADER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestResponseOrderingHandler
+{
+    @Test
+    public void testReorderResponses()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ResponseOrderingHandler(3));
+
+        channel.writeInbound(inOrderFrame(1), inOrderFrame(2));
+        assertTrue(channel.config().isAutoRead());
+        channel.writeInbound(inOrderFrame(3));
+        assertFalse(channel.config().isAutoRead());
+        assertReceived(channel, 1, 2, 3);
+
+        // later responses are held until the first response is written
+        channel.writeOutbound(inOrderFrame(3), inOrderFrame(2));
+        assertNull(channel.readOutbound());
+        assertFalse(channel.config().isAutoRead());
+
+        channel.writeOutbound(inOrderFrame(1));
+        assertSent(channel, 1, 2, 3);
+        assertTrue(channel.config().isAutoRead());
+
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testSingleRequestPipeline()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ResponseOrderingHandler(1));
+
+        channel.writeInbound(inOrderFrame(1));
+        assertFalse(channel.config().isAutoRead());
+        assertReceived(channel, 1);
+
+        channel.writeOutbound(inOrderFrame(1));
+        assertSent(channel, 1);
+        assertTrue(channel.config().isAutoRead());
+
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testDuplicateSequenceId()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ResponseOrderingHandler(4));
+
+        // the second request is held until the response for the first request is written
+        channel.writeInbound(inOrderFrame(7), inOrderFrame(7));
+        assertFalse(channel.config().isAutoRead());
+        assertReceived(channel, 7);
+
+        channel.writeOutbound(inOrderFrame(7));
+        assertSent(channel, 7);
+        assertReceived(channel, 7);
+        assertTrue(channel.config().isAutoRead());
+
+        channel.writeOutbound(inOrderFrame(7));
+        assertSent(channel, 7);
+
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testOutOfOrderFramesPassThrough()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ResponseOrderingHandler(1));
+
+        channel.writeInbound(outOfOrderFrame(1), outOfOrderFrame(2));
+        assertTrue(channel.config().isAutoRead());
+        assertReceived(channel, 1, 2);
+
+        channel.writeOutbound(outOfOrderFrame(2), outOfOrderFrame(1));
+        assertSent(channel, 2, 1);
+
+        assertFalse(channel.finish());
+    }
+
+    @Test
+    public void testHeldResponsesReleasedOnClose()
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new ResponseOrderingHandler(2));
+
+        channel.writeInbound(inOrderFrame(1), inOrderFrame(2));
+        assertReceived(channel, 1, 2);
+
+        ThriftFrame response = inOrderFrame(2);
+        channel.writeOutbound(response);
+        assertEquals(response.refCnt(), 1);
+
+        channel.close();
+        assertEquals(response.refCnt(), 0);
+    }
+
+    private static void assertReceived(EmbeddedChannel channel, int... sequenceIds)
+    {
+        for (int sequenceId : sequenceIds) {
+            ThriftFrame frame = channel.readInbound();
+            assertEquals(frame.getSequenceId(), sequenceId);
+            frame.release();
+        }
+        assertNull(channel.readInbound());
+    }
+
+    private static void assertSent(EmbeddedChannel channel, int... sequenceIds)
+    {
+        for (int sequenceId : sequenceIds) {
+            ThriftFrame frame = channel.readOutbound();
+            assertEquals(frame.getSequenceId(), sequenceId);
+            frame.release();
+        }
+        assertNull(channel.readOutbound());
+    }
+
+    private static ThriftFrame inOrderFrame(int sequenceId)
+    {
+        return new ThriftFrame(sequenceId, Unpooled.buffer(), ImmutableMap.of(), ImmutableList.of(), FRAMED, BINARY, false);
+    }
+
+    private static ThriftFrame outOfOrderFrame(int sequenceId)
+    {
+        return new ThriftFrame(sequenceId, Unpooled.buffer(), ImmutableMap.of(), ImmutableList.of(), HEADER, BINARY, true);
+    }
+}
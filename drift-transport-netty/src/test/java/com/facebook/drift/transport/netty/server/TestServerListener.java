@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import org.testng.annotations.Test;
+
+import java.util.Optional;
+
+import static com.facebook.drift.transport.netty.codec.Protocol.BINARY;
+import static com.facebook.drift.transport.netty.codec.Transport.FRAMED;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+public class TestServerListener
+{
+    @Test
+    public void testFromString()
+    {
+        assertEquals(ServerListener.fromString("9090"), new ServerListener(9090, Optional.empty(), Optional.empty(), Optional.empty()));
+        assertEquals(ServerListener.fromString("9090:framed:BINARY"), new ServerListener(9090, Optional.of(FRAMED), Optional.of(BINARY), Optional.empty()));
+        assertEquals(ServerListener.fromString("9090:FRAMED:BINARY:ssl"), new ServerListener(9090, Optional.of(FRAMED), Optional.of(BINARY), Optional.of(true)));
+        assertEquals(ServerListener.fromString("9090:plaintext"), new ServerListener(9090, Optional.empty(), Optional.empty(), Optional.of(false)));
+
+        assertThrows(IllegalArgumentException.class, () -> ServerListener.fromString("port"));
+        assertThrows(IllegalArgumentException.class, () -> ServerListener.fromString("9090:unknown"));
+        assertThrows(IllegalArgumentException.class, () -> ServerListener.fromString("9090:ssl:plaintext"));
+    }
+
+    @Test
+    public void testSslRequired()
+    {
+        // a listener rejects plain text connections when the main port does, unless it explicitly allows them
+        assertTrue(ServerListener.fromString("9090:FRAMED:BINARY").isSslRequired(true));
+        assertFalse(ServerListener.fromString("9090:FRAMED:BINARY").isSslRequired(false));
+        assertFalse(ServerListener.fromString("9090:plaintext").isSslRequired(true));
+        assertTrue(ServerListener.fromString("9090:ssl").isSslRequired(false));
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.netty.server;
+
+import org.testng.annotations.Test;
+
+import java.util.OptionalInt;
+
+import static com.facebook.drift.transport.netty.channel.EventLoopType.EPOLL;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.IO_URING;
+import static com.facebook.drift.transport.netty.channel.EventLoopType.NIO;
+import static org.testng.Assert.assertEquals;
+
+public class TestServerPipelineSettings
+{
+    @Test
+    public void testConnectionRequestBurst()
+    {
+        assertEquals(new ServerPipelineSettings(new DriftNettyServerConfig(), NIO).getConnectionRequestRate(), OptionalInt.empty());
+        assertEquals(new ServerPipelineSettings(new DriftNettyServerConfig().setConnectionRequestRate(100), NIO).getConnectionRequestBurst(), 100);
+        assertEquals(new ServerPipelineSettings(new DriftNettyServerConfig().setConnectionRequestRate(100).setConnectionRequestBurst(7), NIO).getConnectionRequestBurst(), 7);
+    }
+
+    @Test
+    public void testFlushConsolidation()
+    {
+        DriftNettyServerConfig config = new DriftNettyServerConfig()
+                .setFlushConsolidationEnabled(true)
+                .setFlushConsolidationMaxFlushes(5);
+        assertEquals(new ServerPipelineSettings(config, NIO).getFlushConsolidationMaxFlushes(), OptionalInt.of(5));
+        assertEquals(new ServerPipelineSettings(config, EPOLL).getFlushConsolidationMaxFlushes(), OptionalInt.of(5));
+        // flushes delayed by io_uring can be held until the request times out
+        assertEquals(new ServerPipelineSettings(config, IO_URING).getFlushConsolidationMaxFlushes(), OptionalInt.empty());
+        assertEquals(new ServerPipelineSettings(config.setFlushConsolidationEnabled(false), NIO).getFlushConsolidationMaxFlushes(), OptionalInt.empty());
+    }
+}
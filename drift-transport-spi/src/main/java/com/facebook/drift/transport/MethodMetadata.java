@@ -45,6 +45,7 @@ public final class MethodMetadata
     private final Map<Class<?>, Short> exceptionIdsByType;
     private final boolean oneway;
     private final boolean idempotent;
+    private final boolean streaming;
 
     public static MethodMetadata toMethodMetadata(ThriftCodecManager codecManager, ThriftMethodMetadata metadata)
     {
@@ -66,7 +67,8 @@ public final class MethodMetadata
                 resultCodec,
                 exceptionCodecs,
                 metadata.getOneway(),
-                metadata.isIdempotent());
+                metadata.isIdempotent(),
+                metadata.isStreaming());
     }
 
     @SuppressWarnings("unchecked")
@@ -82,6 +84,22 @@ public final class MethodMetadata
             Map<Short, ThriftCodec<Object>> exceptionCodecs,
             boolean oneway,
             boolean idempotent)
+    {
+        this(name, parameters, resultCodec, exceptionCodecs, oneway, idempotent, false);
+    }
+
+    /**
+     * @param streaming the method returns an {@link java.util.Iterator} over the elements of
+     * the list result, which transports may send in several chunks
+     */
+    public MethodMetadata(
+            String name,
+            List<ParameterMetadata> parameters,
+            ThriftCodec<Object> resultCodec,
+            Map<Short, ThriftCodec<Object>> exceptionCodecs,
+            boolean oneway,
+            boolean idempotent,
+            boolean streaming)
     {
         this.name = requireNonNull(name, "name is null");
         this.parameters = ImmutableList.copyOf(requireNonNull(parameters, "parameters is null"));
@@ -97,6 +115,7 @@ public final class MethodMetadata
 
         this.oneway = oneway;
         this.idempotent = idempotent;
+        this.streaming = streaming;
     }
 
     public String getName()
@@ -150,6 +169,11 @@ public final class MethodMetadata
         return idempotent;
     }
 
+    public boolean isStreaming()
+    {
+        return streaming;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport;
+
+import java.util.OptionalLong;
+import java.util.function.Supplier;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Deadlines are expressed as a {@link System#nanoTime()} value. While a server
+ * invokes a method, the deadline of the request is associated with the invoking
+ * thread, so clients called from the method inherit the remaining time.
+ */
+public final class RequestDeadline
+{
+    private static final ThreadLocal<OptionalLong> CURRENT_DEADLINE = ThreadLocal.withInitial(OptionalLong::empty);
+
+    private RequestDeadline() {}
+
+    /**
+     * @return the deadline of the request being processed by the current thread, if any
+     */
+    public static OptionalLong getCurrentDeadline()
+    {
+        return CURRENT_DEADLINE.get();
+    }
+
+    public static <T> T callWithDeadline(OptionalLong deadline, Supplier<T> callable)
+    {
+        requireNonNull(deadline, "deadline is null");
+        requireNonNull(callable, "callable is null");
+        OptionalLong previous = CURRENT_DEADLINE.get();
+        CURRENT_DEADLINE.set(deadline);
+        try {
+            return callable.get();
+        }
+        finally {
+            CURRENT_DEADLINE.set(previous);
+        }
+    }
+
+    public static OptionalLong earliestDeadline(OptionalLong first, OptionalLong second)
+    {
+        if (!first.isPresent()) {
+            return second;
+        }
+        if (!second.isPresent()) {
+            return first;
+        }
+        // compare the difference, as nano time values may overflow
+        return first.getAsLong() - second.getAsLong() <= 0 ? first : second;
+    }
+
+    public static boolean isExpired(OptionalLong deadline)
+    {
+        return deadline.isPresent() && System.nanoTime() - deadline.getAsLong() >= 0;
+    }
+}
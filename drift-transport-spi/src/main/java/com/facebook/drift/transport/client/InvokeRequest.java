@@ -19,6 +19,7 @@ import com.facebook.drift.transport.MethodMetadata;
 
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static java.util.Objects.requireNonNull;
@@ -29,17 +30,32 @@ public final class InvokeRequest
     private final Address address;
     private final Map<String, String> headers;
     private final List<Object> parameters;
+    private final OptionalLong deadline;
 
     public InvokeRequest(
             MethodMetadata method,
             Address address,
             Map<String, String> headers,
             List<Object> parameters)
+    {
+        this(method, address, headers, parameters, OptionalLong.empty());
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} after which the caller no longer needs the result
+     */
+    public InvokeRequest(
+            MethodMetadata method,
+            Address address,
+            Map<String, String> headers,
+            List<Object> parameters,
+            OptionalLong deadline)
     {
         this.method = requireNonNull(method, "method is null");
         this.headers = requireNonNull(headers, "headers is null");
         this.parameters = requireNonNull(parameters, "parameters is null");
         this.address = requireNonNull(address, "address is null");
+        this.deadline = requireNonNull(deadline, "deadline is null");
     }
 
     public MethodMetadata getMethod()
@@ -62,6 +78,11 @@ public final class InvokeRequest
         return parameters;
     }
 
+    public OptionalLong getDeadline()
+    {
+        return deadline;
+    }
+
     @Override
     public String toString()
     {
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.client;
+
+import com.facebook.drift.protocol.TTransportException;
+
+/**
+ * The request was rejected before being sent because the destination has too
+ * much outstanding work. The request can safely be retried on another address.
+ */
+public class OverloadedException
+        extends TTransportException
+{
+    public OverloadedException(String message)
+    {
+        super(message);
+    }
+}
@@ -16,10 +16,23 @@
 package com.facebook.drift.transport.server;
 
 import com.facebook.airlift.configuration.Config;
+import com.facebook.airlift.configuration.ConfigDescription;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+
+import javax.validation.constraints.Min;
+
+import java.util.Map;
+
+import static com.google.common.collect.ImmutableMap.toImmutableMap;
+import static java.util.Objects.requireNonNull;
 
 public class DriftServerConfig
 {
     private boolean statsEnabled = true;
+    private Integer maxConcurrentRequests;
+    private int maxQueuedRequests;
+    private Map<String, Integer> methodMaxConcurrentRequests = ImmutableMap.of();
 
     public boolean isStatsEnabled()
     {
@@ -32,4 +45,52 @@ public class DriftServerConfig
         this.statsEnabled = statsEnabled;
         return this;
     }
+
+    @Min(1)
+    public Integer getMaxConcurrentRequests()
+    {
+        return maxConcurrentRequests;
+    }
+
+    @Config("thrift.server.max-concurrent-requests")
+    @ConfigDescription("Maximum number of concurrent requests for all methods of the service")
+    public DriftServerConfig setMaxConcurrentRequests(Integer maxConcurrentRequests)
+    {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxQueuedRequests()
+    {
+        return maxQueuedRequests;
+    }
+
+    @Config("thrift.server.max-queued-requests")
+    @ConfigDescription("Maximum number of requests waiting for each concurrency limit before new requests are rejected")
+    public DriftServerConfig setMaxQueuedRequests(int maxQueuedRequests)
+    {
+        this.maxQueuedRequests = maxQueuedRequests;
+        return this;
+    }
+
+    public Map<String, Integer> getMethodMaxConcurrentRequests()
+    {
+        return methodMaxConcurrentRequests;
+    }
+
+    @Config("thrift.server.method-max-concurrent-requests")
+    @ConfigDescription("Maximum number of concurrent requests for individual methods, as a list of method=requests pairs")
+    public DriftServerConfig setMethodMaxConcurrentRequests(String methodMaxConcurrentRequests)
+    {
+        this.methodMaxConcurrentRequests = Splitter
+                .on(',')
+                .trimResults()
+                .omitEmptyStrings()
+                .withKeyValueSeparator('=')
+                .split(requireNonNull(methodMaxConcurrentRequests, "methodMaxConcurrentRequests is null"))
+                .entrySet().stream()
+                .collect(toImmutableMap(entry -> entry.getKey().trim(), entry -> Integer.parseInt(entry.getValue().trim())));
+        return this;
+    }
 }
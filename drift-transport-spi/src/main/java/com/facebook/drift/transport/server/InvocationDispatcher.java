@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport.server;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.function.Supplier;
+
+/**
+ * Starts an invocation of a request that the {@link ServerMethodInvoker} deferred, such as
+ * a request that waited for a concurrency limit. The transport runs the invocation the same
+ * way as a newly received request: on the invocation executor for the method, with the
+ * deadline of the request, and only if the request was not shed or expired in the meantime.
+ */
+@FunctionalInterface
+public interface InvocationDispatcher
+{
+    ListenableFuture<Object> dispatch(Supplier<ListenableFuture<Object>> invocation);
+}
@@ -15,13 +15,19 @@
  */
 package com.facebook.drift.transport.server;
 
+import com.facebook.drift.TApplicationException;
 import com.facebook.drift.transport.MethodMetadata;
 import com.google.common.collect.ImmutableMap;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.OptionalLong;
 
+import static com.facebook.drift.TApplicationException.Type.TIMEOUT;
+import static com.facebook.drift.transport.RequestDeadline.callWithDeadline;
+import static com.facebook.drift.transport.RequestDeadline.isExpired;
 import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.Objects.requireNonNull;
 
@@ -30,12 +36,33 @@ public final class ServerInvokeRequest
     private final MethodMetadata method;
     private final Map<String, String> headers;
     private final Map<Short, Object> parameters;
+    private final OptionalLong deadline;
+    private final InvocationDispatcher dispatcher;
 
     public ServerInvokeRequest(MethodMetadata method, Map<String, String> headers, Map<Short, Object> parameters)
+    {
+        this(method, headers, parameters, OptionalLong.empty());
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} after which the client no longer needs the result
+     */
+    public ServerInvokeRequest(MethodMetadata method, Map<String, String> headers, Map<Short, Object> parameters, OptionalLong deadline)
+    {
+        this(method, headers, parameters, deadline, directDispatcher(deadline));
+    }
+
+    /**
+     * @param deadline {@link System#nanoTime()} after which the client no longer needs the result
+     * @param dispatcher starts invocations of this request deferred by the method invoker
+     */
+    public ServerInvokeRequest(MethodMetadata method, Map<String, String> headers, Map<Short, Object> parameters, OptionalLong deadline, InvocationDispatcher dispatcher)
     {
         this.method = requireNonNull(method, "method is null");
         this.headers = ImmutableMap.copyOf(requireNonNull(headers, "headers is null"));
         this.parameters = unmodifiableMap(new HashMap<>(requireNonNull(parameters, "parameters is null")));
+        this.deadline = requireNonNull(deadline, "deadline is null");
+        this.dispatcher = requireNonNull(dispatcher, "dispatcher is null");
     }
 
     public MethodMetadata getMethod()
@@ -53,6 +80,27 @@ public final class ServerInvokeRequest
         return parameters;
     }
 
+    public OptionalLong getDeadline()
+    {
+        return deadline;
+    }
+
+    public InvocationDispatcher getDispatcher()
+    {
+        return dispatcher;
+    }
+
+    private static InvocationDispatcher directDispatcher(OptionalLong deadline)
+    {
+        requireNonNull(deadline, "deadline is null");
+        return invocation -> {
+            if (isExpired(deadline)) {
+                return immediateFailedFuture(new TApplicationException(TIMEOUT, "Request deadline expired before execution"));
+            }
+            return callWithDeadline(deadline, invocation);
+        };
+    }
+
     @Override
     public String toString()
     {
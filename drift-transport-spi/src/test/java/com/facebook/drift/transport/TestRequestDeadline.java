@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2013 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.facebook.drift.transport;
+
+import org.testng.annotations.Test;
+
+import java.util.OptionalLong;
+
+import static com.facebook.drift.transport.RequestDeadline.callWithDeadline;
+import static com.facebook.drift.transport.RequestDeadline.earliestDeadline;
+import static com.facebook.drift.transport.RequestDeadline.getCurrentDeadline;
+import static com.facebook.drift.transport.RequestDeadline.isExpired;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestRequestDeadline
+{
+    @Test
+    public void testCallWithDeadline()
+    {
+        assertEquals(getCurrentDeadline(), OptionalLong.empty());
+        OptionalLong outer = OptionalLong.of(System.nanoTime() + MINUTES.toNanos(1));
+        OptionalLong inner = OptionalLong.of(System.nanoTime() + MINUTES.toNanos(2));
+        callWithDeadline(outer, () -> {
+            assertEquals(getCurrentDeadline(), outer);
+            callWithDeadline(inner, () -> {
+                assertEquals(getCurrentDeadline(), inner);
+                return null;
+            });
+            assertEquals(getCurrentDeadline(), outer);
+            return null;
+        });
+        assertEquals(getCurrentDeadline(), OptionalLong.empty());
+    }
+
+    @Test
+    public void testEarliestDeadline()
+    {
+        OptionalLong early = OptionalLong.of(Long.MAX_VALUE - 10);
+        // overflowed nano time values are still ordered correctly
+        OptionalLong late = OptionalLong.of(Long.MIN_VALUE + 10);
+
+        assertEquals(earliestDeadline(early, late), early);
+        assertEquals(earliestDeadline(late, early), early);
+        assertEquals(earliestDeadline(early, OptionalLong.empty()), early);
+        assertEquals(earliestDeadline(OptionalLong.empty(), late), late);
+        assertEquals(earliestDeadline(OptionalLong.empty(), OptionalLong.empty()), OptionalLong.empty());
+    }
+
+    @Test
+    public void testIsExpired()
+    {
+        assertFalse(isExpired(OptionalLong.empty()));
+        assertFalse(isExpired(OptionalLong.of(System.nanoTime() + MINUTES.toNanos(1))));
+        assertTrue(isExpired(OptionalLong.of(System.nanoTime() - 1)));
+    }
+}
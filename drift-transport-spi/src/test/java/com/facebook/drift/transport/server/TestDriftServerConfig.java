@@ -30,7 +30,10 @@ public class TestDriftServerConfig
     public void testDefaults()
     {
         assertRecordedDefaults(recordDefaults(DriftServerConfig.class)
-                .setStatsEnabled(true));
+                .setStatsEnabled(true)
+                .setMaxConcurrentRequests(null)
+                .setMaxQueuedRequests(0)
+                .setMethodMaxConcurrentRequests(""));
     }
 
     @Test
@@ -38,10 +41,16 @@ public class TestDriftServerConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("thrift.server.stats.enabled", "false")
+                .put("thrift.server.max-concurrent-requests", "100")
+                .put("thrift.server.max-queued-requests", "10")
+                .put("thrift.server.method-max-concurrent-requests", "expensive=2,cheap=50")
                 .build();
 
         DriftServerConfig expected = new DriftServerConfig()
-                .setStatsEnabled(false);
+                .setStatsEnabled(false)
+                .setMaxConcurrentRequests(100)
+                .setMaxQueuedRequests(10)
+                .setMethodMaxConcurrentRequests("expensive=2,cheap=50");
 
         assertFullMapping(properties, expected);
     }